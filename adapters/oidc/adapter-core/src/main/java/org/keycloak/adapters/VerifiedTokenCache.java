@@ -0,0 +1,158 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.adapters;
+
+import org.jboss.logging.Logger;
+import org.keycloak.common.util.Base64;
+import org.keycloak.common.util.Time;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.util.JsonSerialization;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of bearer tokens, which were already successfully verified by this deployment. Tokens are keyed by
+ * SHA-256 hash of the encoded token, so the signature check is skipped when the same token is received again. Entries
+ * are dropped once the token expires, and the least recently used token is dropped when the cache is full. The
+ * not-before policy of the deployment is still checked by the caller for every request, as it can change after the
+ * token was cached.
+ * <p>
+ * {@link AccessToken} is mutable, so the cache keeps the JSON content of the verified token and each hit gets its own
+ * instance.
+ *
+ * @see BearerTokenRequestAuthenticator
+ */
+public class VerifiedTokenCache {
+
+    private static final Logger log = Logger.getLogger(VerifiedTokenCache.class);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Map<String, Entry> tokens;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public VerifiedTokenCache(final int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.tokens = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return new instance of the verified token or null if the token is not in the cache or it's not active anymore
+     */
+    public AccessToken get(String tokenString) {
+        String key = hash(tokenString);
+        Entry entry;
+        synchronized (tokens) {
+            entry = tokens.get(key);
+            if (entry != null && Time.currentTime() > entry.expiration) {
+                tokens.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        try {
+            AccessToken token = JsonSerialization.readValue(entry.content, AccessToken.class);
+            hits.incrementAndGet();
+            return token;
+        } catch (IOException e) {
+            log.debug("Failed to read cached token", e);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    public void put(String tokenString, AccessToken token) {
+        // Tokens without expiration would stay in the cache until evicted
+        if (token.getExpiration() == 0) {
+            return;
+        }
+
+        byte[] content;
+        try {
+            content = JsonSerialization.writeValueAsBytes(token);
+        } catch (IOException e) {
+            log.debug("Failed to cache token", e);
+            return;
+        }
+
+        Entry entry = new Entry(token.getExpiration(), content);
+        String key = hash(tokenString);
+        synchronized (tokens) {
+            tokens.put(key, entry);
+        }
+    }
+
+    public void clear() {
+        synchronized (tokens) {
+            tokens.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (tokens) {
+            return tokens.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private static String hash(String tokenString) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.encodeBytes(digest.digest(tokenString.getBytes(UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static class Entry {
+        private final int expiration;
+        private final byte[] content;
+
+        private Entry(int expiration, byte[] content) {
+            this.expiration = expiration;
+            this.content = content;
+        }
+    }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.adapters.rotation;
+
+import org.keycloak.RSATokenVerifier;
+import org.keycloak.adapters.KeycloakDeployment;
+import org.keycloak.common.VerificationException;
+import org.keycloak.jose.jws.JWSInput;
+import org.keycloak.jose.jws.crypto.RSAProvider;
+import org.keycloak.representations.AccessToken;
+
+import java.security.PublicKey;
+
+/**
+ * Verifies tokens with the realm key resolved by the {@link PublicKeyLocator} of the deployment.
+ */
+public class AdapterRSATokenVerifier {
+
+    public static AccessToken verifyToken(String tokenString, KeycloakDeployment deployment) throws VerificationException {
+        return verifyToken(tokenString, deployment, true, true);
+    }
+
+    public static AccessToken verifyToken(String tokenString, KeycloakDeployment deployment, boolean checkActive, boolean checkTokenType) throws VerificationException {
+        JWSInput input = RSATokenVerifier.parse(tokenString);
+        PublicKey publicKey = getPublicKey(input, deployment);
+        return RSATokenVerifier.verifyToken(input, publicKey, deployment.getRealmInfoUrl(), checkActive, checkTokenType);
+    }
+
+    public static boolean verify(JWSInput input, KeycloakDeployment deployment) {
+        PublicKey publicKey = getPublicKey(input, deployment);
+        return publicKey != null && RSAProvider.verify(input, publicKey);
+    }
+
+    private static PublicKey getPublicKey(JWSInput input, KeycloakDeployment deployment) {
+        PublicKeyLocator locator = deployment.getPublicKeyLocator();
+        if (locator == null) {
+            return deployment.getRealmKey();
+        }
+        PublicKey publicKey = locator.getPublicKey(input.getHeader().getKeyId(), deployment);
+
+        // Key resolved eagerly through the realm info endpoint, if any, is used until the locator has downloaded the keys
+        return publicKey != null ? publicKey : deployment.getRealmKey();
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.adapters.rotation;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.params.HttpConnectionParams;
+import org.jboss.logging.Logger;
+import org.keycloak.adapters.KeycloakDeployment;
+import org.keycloak.common.util.Time;
+import org.keycloak.jose.jwk.JSONWebKeySet;
+import org.keycloak.jose.jwk.JWK;
+import org.keycloak.jose.jwk.JWKParser;
+import org.keycloak.jose.jwk.RSAPublicJWK;
+import org.keycloak.util.JsonSerialization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.PublicKey;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Resolves realm public keys by <code>kid</code> from the JWKS endpoint of the realm.
+ *
+ * Keys are always downloaded on a background thread, request threads never wait for them. Known keys are refreshed
+ * once <code>public-key-cache-ttl</code> expires. A token signed with an unknown key starts a download, as the key was
+ * probably just rotated on the server, and the token is rejected until the keys arrive. Downloads are throttled by
+ * <code>min-time-between-jwks-requests</code>, so tokens with made up key ids can't flood the auth server. Just one
+ * download for an unknown key may bypass the throttle in each such interval, so a rotated key is picked up right away
+ * even if the keys were refreshed just before.
+ */
+public class JWKPublicKeyLocator implements PublicKeyLocator {
+
+    private static final Logger log = Logger.getLogger(JWKPublicKeyLocator.class);
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+    private static final int READ_TIMEOUT_MILLIS = 10000;
+
+    private volatile Map<String, PublicKey> currentKeys = Collections.emptyMap();
+
+    private volatile int lastRequestTime = 0;
+
+    private volatile int lastForcedRequestTime = 0;
+
+    private volatile int lastSuccessTime = 0;
+
+    // With relative URLs just the per-request deployment knows the url, remember it for callers with the unresolved one
+    private volatile String jwksUrl;
+
+    private final AtomicBoolean refreshInProgress = new AtomicBoolean();
+
+    // Idle thread exits, so nothing keeps the deployment classloader alive long after undeploy
+    private final ThreadPoolExecutor executor;
+
+    public JWKPublicKeyLocator() {
+        executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "keycloak-jwks-refresh");
+                thread.setDaemon(true);
+                return thread;
+            }
+
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public PublicKey getPublicKey(String kid, KeycloakDeployment deployment) {
+        PublicKey publicKey = lookup(kid, currentKeys);
+        if (publicKey != null) {
+            if (Time.currentTime() > lastSuccessTime + deployment.getPublicKeyCacheTtl()) {
+                startRefresh(deployment, false);
+            }
+            return publicKey;
+        }
+
+        // First request or the key was rotated on the server. Download finishes later, unless it was already done
+        startRefresh(deployment, true);
+        return lookup(kid, currentKeys);
+    }
+
+    protected PublicKey lookup(String kid, Map<String, PublicKey> keys) {
+        if (kid != null) {
+            return keys.get(kid);
+        }
+
+        // Tokens issued before key ids were added to the header
+        return keys.size() == 1 ? keys.values().iterator().next() : null;
+    }
+
+    /**
+     * Starts download of the keys on a background thread unless another download is running or the last one was
+     * started less than <code>min-time-between-jwks-requests</code> seconds ago.
+     *
+     * @return false if the download was throttled
+     */
+    public boolean refreshAsync(KeycloakDeployment deployment) {
+        return startRefresh(deployment, false);
+    }
+
+    /**
+     * Starts download of the keys on a background thread, unless some keys were already downloaded. Used to have the
+     * keys ready before the first token arrives.
+     */
+    public void preload(KeycloakDeployment deployment) {
+        if (currentKeys.isEmpty()) {
+            refreshAsync(deployment);
+        }
+    }
+
+    /**
+     * @param forced download requested because of unknown key, which may bypass the throttle once per interval
+     */
+    private boolean startRefresh(final KeycloakDeployment deployment, boolean forced) {
+        if (deployment.getJwksUrl() != null) {
+            jwksUrl = deployment.getJwksUrl();
+        }
+
+        if (!refreshInProgress.compareAndSet(false, true)) {
+            return true;
+        }
+
+        int currentTime = Time.currentTime();
+        int minTime = deployment.getMinTimeBetweenJwksRequests();
+        if (currentTime < lastRequestTime + minTime) {
+            if (!forced || currentTime < lastForcedRequestTime + minTime) {
+                refreshInProgress.set(false);
+                return false;
+            }
+            lastForcedRequestTime = currentTime;
+        }
+        lastRequestTime = currentTime;
+
+        try {
+            execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        refresh(deployment);
+                    } finally {
+                        refreshInProgress.set(false);
+                    }
+                }
+
+            });
+        } catch (RejectedExecutionException e) {
+            refreshInProgress.set(false);
+            log.warn("Unable to start download of realm public keys", e);
+            return false;
+        }
+        return true;
+    }
+
+    protected void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    protected void refresh(KeycloakDeployment deployment) {
+        String url = deployment.getJwksUrl() != null ? deployment.getJwksUrl() : jwksUrl;
+        if (deployment.getClient() == null || url == null) {
+            log.warn("Unable to download realm keys as the deployment has no http client or jwks url");
+            return;
+        }
+
+        try {
+            JSONWebKeySet jwks = sendRequest(deployment, url);
+            Map<String, PublicKey> keys = new HashMap<>();
+            if (jwks.getKeys() != null) {
+                for (JWK jwk : jwks.getKeys()) {
+                    if (RSAPublicJWK.RSA.equals(jwk.getKeyType()) && (jwk.getPublicKeyUse() == null || JWK.SIG_USE.equals(jwk.getPublicKeyUse()))) {
+                        keys.put(jwk.getKeyId(), JWKParser.create(jwk).toPublicKey());
+                    }
+                }
+            }
+
+            if (log.isDebugEnabled()) {
+                log.debug("Realm public keys successfully retrieved for client " + deployment.getResourceName() + ". New kids: " + keys.keySet());
+            }
+
+            currentKeys = Collections.unmodifiableMap(keys);
+            lastSuccessTime = Time.currentTime();
+        } catch (Exception e) {
+            log.warn("Failed to download realm public keys from " + url, e);
+        }
+    }
+
+    protected JSONWebKeySet sendRequest(KeycloakDeployment deployment, String url) throws IOException {
+        HttpGet get = new HttpGet(url);
+        HttpConnectionParams.setConnectionTimeout(get.getParams(), CONNECT_TIMEOUT_MILLIS);
+        HttpConnectionParams.setSoTimeout(get.getParams(), READ_TIMEOUT_MILLIS);
+        HttpResponse response = deployment.getClient().execute(get);
+        int status = response.getStatusLine().getStatusCode();
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            throw new IOException("Unable to download realm public keys, status = " + status + ". There was no entity.");
+        }
+
+        InputStream is = entity.getContent();
+        try {
+            if (status != 200) {
+                throw new IOException("Unable to download realm public keys, status = " + status);
+            }
+            return JsonSerialization.readValue(is, JSONWebKeySet.class);
+        } finally {
+            try {
+                is.close();
+            } catch (IOException ignored) {
+
+            }
+        }
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.adapters.rotation;
+
+import org.keycloak.adapters.KeycloakDeployment;
+
+import java.security.PublicKey;
+
+/**
+ * Resolves the realm public key used to verify tokens signed by the auth server.
+ */
+public interface PublicKeyLocator {
+
+    /**
+     * Invoked on request threads. Implementations may block to download a key they don't know yet, but should not
+     * block when they already have the key.
+     *
+     * @param kid key id from the JWS header of the token, may be null
+     * @param deployment deployment the token is verified for
+     * @return public key or null if no key with the given id is currently known
+     */
+    PublicKey getPublicKey(String kid, KeycloakDeployment deployment);
+
+}
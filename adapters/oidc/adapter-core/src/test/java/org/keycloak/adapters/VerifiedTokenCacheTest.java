@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.adapters;
+
+import org.junit.Test;
+import org.keycloak.common.util.Time;
+import org.keycloak.representations.AccessToken;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class VerifiedTokenCacheTest {
+
+    @Test
+    public void cacheActiveTokens() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10);
+        AccessToken token = token(Time.currentTime() + 60);
+        token.id("id1");
+
+        assertNull(cache.get("token1"));
+        cache.put("token1", token);
+        assertEquals("id1", cache.get("token1").getId());
+        assertNull(cache.get("token2"));
+
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void expiredTokenNotReturned() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10);
+        cache.put("token1", token(Time.currentTime() - 1));
+
+        assertNull(cache.get("token1"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void tokenWithoutExpirationNotCached() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10);
+        cache.put("token1", token(0));
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void sizeBounded() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(3);
+        for (int i = 0; i < 10; i++) {
+            cache.put("token" + i, token(Time.currentTime() + 60));
+        }
+
+        assertEquals(3, cache.size());
+        assertNotNull(cache.get("token9"));
+    }
+
+    @Test
+    public void leastRecentlyUsedEvicted() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(3);
+        cache.put("token1", token(Time.currentTime() + 60));
+        cache.put("token2", token(Time.currentTime() + 60));
+        cache.put("token3", token(Time.currentTime() + 60));
+
+        assertNotNull(cache.get("token1"));
+        cache.put("token4", token(Time.currentTime() + 60));
+
+        assertNull(cache.get("token2"));
+        assertNotNull(cache.get("token1"));
+        assertNotNull(cache.get("token3"));
+        assertNotNull(cache.get("token4"));
+    }
+
+    @Test
+    public void eachHitGetsOwnInstance() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10);
+        AccessToken token = token(Time.currentTime() + 60);
+        token.addAccess("app").addRole("user");
+        cache.put("token1", token);
+
+        // Changes of the cached or returned instances aren't visible to other requests
+        token.addAccess("app").addRole("admin");
+        AccessToken first = cache.get("token1");
+        first.addAccess("app").addRole("manager");
+        AccessToken second = cache.get("token1");
+
+        assertNotSame(first, second);
+        assertEquals(1, second.getResourceAccess("app").getRoles().size());
+        assertTrue(second.getResourceAccess("app").isUserInRole("user"));
+    }
+
+    private AccessToken token(int expiration) {
+        AccessToken token = new AccessToken();
+        token.expiration(expiration);
+        return token;
+    }
+
+}
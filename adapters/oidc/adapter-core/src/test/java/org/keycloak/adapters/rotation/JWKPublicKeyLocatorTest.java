@@ -0,0 +1,188 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.adapters.rotation;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.adapters.KeycloakDeployment;
+import org.keycloak.jose.jwk.JSONWebKeySet;
+import org.keycloak.jose.jwk.JWK;
+import org.keycloak.jose.jwk.JWKBuilder;
+
+import java.io.IOException;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JWKPublicKeyLocatorTest {
+
+    private PublicKey key1;
+    private PublicKey key2;
+    private volatile PublicKey[] serverKeys;
+    private AtomicInteger requests = new AtomicInteger();
+
+    private KeycloakDeployment deployment;
+    private JWKPublicKeyLocator locator;
+
+    @Before
+    public void before() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        key1 = generator.generateKeyPair().getPublic();
+        key2 = generator.generateKeyPair().getPublic();
+        serverKeys = new PublicKey[] { key1 };
+
+        final HttpClient client = HttpClients.createDefault();
+        deployment = new KeycloakDeployment() {
+
+            @Override
+            public HttpClient getClient() {
+                return client;
+            }
+
+            @Override
+            public String getJwksUrl() {
+                return "http://localhost/auth/realms/test/protocol/openid-connect/certs";
+            }
+
+        };
+        deployment.setMinTimeBetweenJwksRequests(10);
+        deployment.setPublicKeyCacheTtl(86400);
+
+        // Downloads run on the calling thread, so the tests don't need to wait for them
+        locator = new TestLocator() {
+
+            @Override
+            protected void execute(Runnable task) {
+                task.run();
+            }
+
+        };
+    }
+
+    @Test
+    public void firstLookupDownloadsKeys() {
+        assertEquals(key1, locator.getPublicKey(JWKBuilder.createKeyId(key1), deployment));
+        assertEquals(1, requests.get());
+
+        assertEquals(key1, locator.getPublicKey(JWKBuilder.createKeyId(key1), deployment));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void tokenWithoutKidUsesSingleKey() {
+        assertEquals(key1, locator.getPublicKey(null, deployment));
+    }
+
+    @Test
+    public void rotatedKeyDownloaded() {
+        deployment.setMinTimeBetweenJwksRequests(0);
+        assertEquals(key1, locator.getPublicKey(JWKBuilder.createKeyId(key1), deployment));
+
+        serverKeys = new PublicKey[] { key1, key2 };
+        assertEquals(key2, locator.getPublicKey(JWKBuilder.createKeyId(key2), deployment));
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void rotatedKeyDownloadedWithinThrottleInterval() {
+        assertEquals(key1, locator.getPublicKey(JWKBuilder.createKeyId(key1), deployment));
+
+        serverKeys = new PublicKey[] { key1, key2 };
+        assertEquals(key2, locator.getPublicKey(JWKBuilder.createKeyId(key2), deployment));
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void unknownKidThrottled() {
+        assertEquals(key1, locator.getPublicKey(JWKBuilder.createKeyId(key1), deployment));
+
+        // Just one download for unknown key bypasses the throttle
+        assertNull(locator.getPublicKey("unknown", deployment));
+        assertNull(locator.getPublicKey("unknown", deployment));
+        assertNull(locator.getPublicKey("unknown", deployment));
+        assertEquals(2, requests.get());
+
+        // Regular refresh is throttled too
+        assertFalse(locator.refreshAsync(deployment));
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void requestThreadNotBlocked() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicReference<String> downloadThread = new AtomicReference<>();
+        JWKPublicKeyLocator locator = new TestLocator() {
+
+            @Override
+            protected JSONWebKeySet sendRequest(KeycloakDeployment deployment, String url) throws IOException {
+                downloadThread.set(Thread.currentThread().getName());
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return super.sendRequest(deployment, url);
+            }
+
+        };
+
+        // Keys are still being downloaded, so the token is rejected without waiting
+        long start = System.currentTimeMillis();
+        assertNull(locator.getPublicKey(JWKBuilder.createKeyId(key1), deployment));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 10000;
+        PublicKey key = null;
+        while (key == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            key = locator.getPublicKey(JWKBuilder.createKeyId(key1), deployment);
+        }
+        assertEquals(key1, key);
+        assertEquals("keycloak-jwks-refresh", downloadThread.get());
+        assertEquals(1, requests.get());
+    }
+
+    private class TestLocator extends JWKPublicKeyLocator {
+
+        @Override
+        protected JSONWebKeySet sendRequest(KeycloakDeployment deployment, String url) throws IOException {
+            requests.incrementAndGet();
+            JWK[] jwks = new JWK[serverKeys.length];
+            for (int i = 0; i < jwks.length; i++) {
+                jwks[i] = JWKBuilder.create().rs256(serverKeys[i]);
+            }
+            JSONWebKeySet set = new JSONWebKeySet();
+            set.setKeys(jwks);
+            return set;
+        }
+
+    }
+
+}
@@ -37,16 +37,22 @@ import org.keycloak.adapters.saml.SamlDeployment;
 import org.keycloak.adapters.saml.SamlDeploymentContext;
 import org.keycloak.adapters.saml.config.parsers.DeploymentBuilder;
 import org.keycloak.adapters.saml.config.parsers.ResourceLoader;
+import org.keycloak.adapters.spi.ConcurrentMapSessionIdMapper;
+import org.keycloak.adapters.spi.InMemorySessionIdMapper;
+import org.keycloak.adapters.spi.SessionIdMapper;
 import org.keycloak.adapters.undertow.ChangeSessionId;
 import org.keycloak.adapters.undertow.UndertowUserSessionManagement;
 import org.keycloak.saml.common.exceptions.ParsingException;
 
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
 import javax.servlet.ServletContext;
 import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @author <a href="mailto:bill@burkecentral.com">Bill Burke</a>
@@ -56,6 +62,8 @@ public class SamlServletExtension implements ServletExtension {
 
     protected static Logger log = Logger.getLogger(SamlServletExtension.class);
 
+    public static final String SESSION_ID_MAPPER_CACHE = "keycloak.sessionIdMapper.cache";
+
     // todo when this DeploymentInfo method of the same name is fixed.
     public boolean isAuthenticationMechanismPresent(DeploymentInfo deploymentInfo, final String mechanismName) {
         LoginConfig loginConfig = deploymentInfo.getLoginConfig();
@@ -152,8 +160,11 @@ public class SamlServletExtension implements ServletExtension {
         }
 
         servletContext.setAttribute(SamlDeploymentContext.class.getName(), deploymentContext);
-        UndertowUserSessionManagement userSessionManagement = new UndertowUserSessionManagement();
+        SessionIdMapper idMapper = createSessionIdMapper(servletContext);
+        servletContext.setAttribute(SessionIdMapper.class.getName(), idMapper);
+        UndertowUserSessionManagement userSessionManagement = new SamlUserSessionManagement(idMapper);
         final ServletSamlAuthMech mech = createAuthMech(deploymentInfo, deploymentContext, userSessionManagement);
+        mech.idMapper = idMapper;
 
 
         // setup handlers
@@ -204,6 +215,30 @@ public class SamlServletExtension implements ServletExtension {
         deploymentInfo.addSecurityConstraint(constraint);
     }
 
+    /**
+     * Mapper is shared by the cluster when the {@value #SESSION_ID_MAPPER_CACHE} context param contains JNDI name of a
+     * distributed cache or any other {@link ConcurrentMap}. Otherwise the mapper is local to this node.
+     */
+    @SuppressWarnings("unchecked")
+    protected SessionIdMapper createSessionIdMapper(ServletContext servletContext) {
+        String cacheName = servletContext.getInitParameter(SESSION_ID_MAPPER_CACHE);
+        if (cacheName == null) {
+            return new InMemorySessionIdMapper();
+        }
+
+        Object cache;
+        try {
+            cache = new InitialContext().lookup(cacheName);
+        } catch (NamingException e) {
+            throw new RuntimeException("Can't lookup session id mapper cache " + cacheName, e);
+        }
+        if (!(cache instanceof ConcurrentMap)) {
+            throw new RuntimeException("Session id mapper cache " + cacheName + " is not a ConcurrentMap");
+        }
+        log.debug("Using session id mapper cache " + cacheName);
+        return new ConcurrentMapSessionIdMapper((ConcurrentMap<String, Object>) cache);
+    }
+
     protected ServletSamlAuthMech createAuthMech(DeploymentInfo deploymentInfo, SamlDeploymentContext deploymentContext, UndertowUserSessionManagement userSessionManagement) {
         return new ServletSamlAuthMech(deploymentContext, userSessionManagement, getErrorPage(deploymentInfo));
     }
@@ -26,6 +26,7 @@ import io.undertow.servlet.spec.HttpSessionImpl;
 import org.jboss.logging.Logger;
 import org.keycloak.adapters.saml.SamlDeployment;
 import org.keycloak.adapters.saml.SamlUtil;
+import org.keycloak.adapters.spi.ConcurrentMapSessionIdMapper;
 import org.keycloak.adapters.spi.SessionIdMapper;
 import org.keycloak.adapters.saml.SamlSession;
 import org.keycloak.adapters.saml.SamlSessionStore;
@@ -153,6 +154,14 @@ public class ServletSamlSessionStore implements SamlSessionStore {
             log.debug("SamlSession was not in session, returning null");
             return false;
         }
+        // Logout may have been received by another node, which removed the mapping from the shared mapper.
+        // The default in-memory mapper is not shared and may not know sessions restored from elsewhere, so skip it
+        if (idMapper instanceof ConcurrentMapSessionIdMapper && !idMapper.hasSession(session.getId())) {
+            log.debug("Session was logged out, no longer in session id mapper");
+            session.removeAttribute(SamlSession.class.getName());
+            session.removeAttribute(SAML_REDIRECT_URI);
+            return false;
+        }
 
         Account undertowAccount = new Account() {
             @Override
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.adapters.spi;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maps external principal and SSO id to http session id in a map shared by all nodes of the cluster, typically a
+ * distributed cache like Infinispan {@code Cache}. The node receiving back-channel logout then finds sessions created
+ * on any node. With {@link java.util.concurrent.ConcurrentHashMap} it behaves as a local mapper.
+ * <p>
+ * Values are never modified in place, they are replaced by conditional operations of the map. The mapper doesn't expire
+ * entries itself. Sessions of crashed nodes are never removed explicitly, so the store should expire idle entries after
+ * the http session timeout, for example by Infinispan {@code max-idle} expiration.
+ */
+public class ConcurrentMapSessionIdMapper implements SessionIdMapper {
+
+    private static final String SSO_TO_SESSION = "sso-session.";
+    private static final String SESSION_TO_SSO = "session-sso.";
+    private static final String PRINCIPAL_TO_SESSIONS = "principal-sessions.";
+    private static final String SESSION_TO_PRINCIPAL = "session-principal.";
+
+    protected final ConcurrentMap<String, Object> store;
+
+    public ConcurrentMapSessionIdMapper(ConcurrentMap<String, Object> store) {
+        this.store = store;
+    }
+
+    @Override
+    public boolean hasSession(String id) {
+        return store.containsKey(SESSION_TO_SSO + id) || store.containsKey(SESSION_TO_PRINCIPAL + id);
+    }
+
+    @Override
+    public void clear() {
+        store.clear();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<String> getUserSessions(String principal) {
+        Set<String> lookup = (Set<String>) store.get(PRINCIPAL_TO_SESSIONS + principal);
+        if (lookup == null) return null;
+        return new HashSet<>(lookup);
+    }
+
+    @Override
+    public String getSessionFromSSO(String sso) {
+        return (String) store.get(SSO_TO_SESSION + sso);
+    }
+
+    @Override
+    public void map(String sso, String principal, String session) {
+        if (sso != null) {
+            store.put(SSO_TO_SESSION + sso, session);
+            store.put(SESSION_TO_SSO + session, sso);
+        }
+        addUserSession(principal, session);
+        store.put(SESSION_TO_PRINCIPAL + session, principal);
+    }
+
+    @Override
+    public void removeSession(String session) {
+        String sso = (String) store.remove(SESSION_TO_SSO + session);
+        if (sso != null) {
+            store.remove(SSO_TO_SESSION + sso, session);
+        }
+        String principal = (String) store.remove(SESSION_TO_PRINCIPAL + session);
+        if (principal != null) {
+            removeUserSession(principal, session);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addUserSession(String principal, String session) {
+        String key = PRINCIPAL_TO_SESSIONS + principal;
+        while (true) {
+            Set<String> sessions = (Set<String>) store.get(key);
+            if (sessions == null) {
+                if (store.putIfAbsent(key, new HashSet<>(Collections.singleton(session))) == null) return;
+            } else {
+                if (sessions.contains(session)) return;
+                Set<String> updated = new HashSet<>(sessions);
+                updated.add(session);
+                if (store.replace(key, sessions, updated)) return;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void removeUserSession(String principal, String session) {
+        String key = PRINCIPAL_TO_SESSIONS + principal;
+        while (true) {
+            Set<String> sessions = (Set<String>) store.get(key);
+            if (sessions == null || !sessions.contains(session)) return;
+            if (sessions.size() == 1) {
+                if (store.remove(key, sessions)) return;
+            } else {
+                Set<String> updated = new HashSet<>(sessions);
+                updated.remove(session);
+                if (store.replace(key, sessions, updated)) return;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.adapters.spi;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConcurrentMapSessionIdMapperTest {
+
+    @Test
+    public void testMapAndRemove() {
+        SessionIdMapper mapper = new ConcurrentMapSessionIdMapper(new ConcurrentHashMap<String, Object>());
+        mapper.map("sso1", "john", "session1");
+        mapper.map("sso2", "john", "session2");
+        mapper.map(null, "mary", "session3");
+
+        Assert.assertTrue(mapper.hasSession("session1"));
+        Assert.assertTrue(mapper.hasSession("session3"));
+        Assert.assertEquals("session2", mapper.getSessionFromSSO("sso2"));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("session1", "session2")), mapper.getUserSessions("john"));
+
+        mapper.removeSession("session1");
+        Assert.assertFalse(mapper.hasSession("session1"));
+        Assert.assertNull(mapper.getSessionFromSSO("sso1"));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("session2")), mapper.getUserSessions("john"));
+
+        mapper.removeSession("session2");
+        mapper.removeSession("session3");
+        Assert.assertNull(mapper.getUserSessions("john"));
+        Assert.assertNull(mapper.getUserSessions("mary"));
+    }
+
+    @Test
+    public void testSsoRemappedToNewSession() {
+        SessionIdMapper mapper = new ConcurrentMapSessionIdMapper(new ConcurrentHashMap<String, Object>());
+        mapper.map("sso1", "john", "session1");
+        mapper.map("sso1", "john", "session2");
+
+        // Removing the old session must keep the mapping of the new one
+        mapper.removeSession("session1");
+        Assert.assertEquals("session2", mapper.getSessionFromSSO("sso1"));
+    }
+
+    @Test
+    public void testLogoutOnOtherNode() {
+        ConcurrentMap<String, Object> store = new ConcurrentHashMap<>();
+        SessionIdMapper nodeA = new ConcurrentMapSessionIdMapper(store);
+        SessionIdMapper nodeB = new ConcurrentMapSessionIdMapper(store);
+
+        nodeA.map("sso1", "john", "session1");
+        nodeA.map("sso2", "john", "session2");
+        Assert.assertTrue(nodeB.hasSession("session1"));
+
+        // Back-channel logout by SSO id received by node B, session store of node A then treats the session as logged out
+        String session = nodeB.getSessionFromSSO("sso1");
+        Assert.assertEquals("session1", session);
+        nodeB.removeSession(session);
+        Assert.assertFalse(nodeA.hasSession("session1"));
+        Assert.assertTrue(nodeA.hasSession("session2"));
+
+        // Logout by principal
+        for (String id : nodeB.getUserSessions("john")) {
+            nodeB.removeSession(id);
+        }
+        Assert.assertFalse(nodeA.hasSession("session2"));
+        Assert.assertNull(nodeA.getUserSessions("john"));
+        Assert.assertTrue(store.isEmpty());
+    }
+
+}
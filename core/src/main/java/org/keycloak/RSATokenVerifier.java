@@ -36,7 +36,11 @@ public class RSATokenVerifier {
     }
 
     public static AccessToken verifyToken(String tokenString, PublicKey realmKey, String realmUrl, boolean checkActive, boolean checkTokenType) throws VerificationException {
-        AccessToken token = toAccessToken(tokenString, realmKey);
+        return verifyToken(parse(tokenString), realmKey, realmUrl, checkActive, checkTokenType);
+    }
+
+    public static AccessToken verifyToken(JWSInput input, PublicKey realmKey, String realmUrl, boolean checkActive, boolean checkTokenType) throws VerificationException {
+        AccessToken token = toAccessToken(input, realmKey);
 
         String user = token.getSubject();
         if (user == null) {
@@ -64,12 +68,19 @@ public class RSATokenVerifier {
     }
 
     public static AccessToken toAccessToken(String tokenString, PublicKey realmKey) throws VerificationException {
-        JWSInput input;
+        return toAccessToken(parse(tokenString), realmKey);
+    }
+
+    public static JWSInput parse(String tokenString) throws VerificationException {
         try {
-            input = new JWSInput(tokenString);
+            return new JWSInput(tokenString);
         } catch (JWSInputException e) {
             throw new VerificationException("Couldn't parse token", e);
         }
+    }
+
+    private static AccessToken toAccessToken(JWSInput input, PublicKey realmKey) throws VerificationException {
+        if (realmKey == null) throw new VerificationException("Public key for token verification not available.");
         if (!isPublicKeyValid(input, realmKey)) throw new VerificationException("Invalid token signature.");
 
         AccessToken token;
@@ -15,10 +15,9 @@
  * limitations under the License.
  */
 
-package org.keycloak.protocol.oidc.representations;
+package org.keycloak.jose.jwk;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
-import org.keycloak.jose.jwk.JWK;
 
 /**
  * @author <a href="mailto:sthorger@redhat.com">Stian Thorgersen</a>
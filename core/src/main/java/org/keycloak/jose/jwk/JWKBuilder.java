@@ -56,7 +56,10 @@ public class JWKBuilder {
         return k;
     }
 
-    private String createKeyId(Key key) {
+    /**
+     * @return identifier of the key, which is used as "kid" both in the published key set and in headers of signed tokens
+     */
+    public static String createKeyId(Key key) {
         try {
             return Base64Url.encode(MessageDigest.getInstance(DEFAULT_MESSAGE_DIGEST).digest(key.getEncoded()));
         } catch (NoSuchAlgorithmException e) {
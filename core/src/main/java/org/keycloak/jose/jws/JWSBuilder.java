@@ -25,14 +25,25 @@ import org.keycloak.util.JsonSerialization;
 import javax.crypto.SecretKey;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.security.PrivateKey;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @author <a href="mailto:bill@burkecentral.com">Bill Burke</a>
  * @version $Revision: 1 $
  */
 public class JWSBuilder {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    // Encoded header depends just on algorithm, type, content type and key id, so there are only few distinct values
+    private static final int MAX_CACHED_HEADERS = 1024;
+    private static final ConcurrentMap<String, String> ENCODED_HEADERS = new ConcurrentHashMap<>();
+
     String type;
+    String kid;
     String contentType;
     byte[] contentBytes;
 
@@ -41,6 +52,11 @@ public class JWSBuilder {
         return this;
     }
 
+    public JWSBuilder kid(String kid) {
+        this.kid = kid;
+        return this;
+    }
+
     public JWSBuilder contentType(String type) {
         this.contentType = type;
         return this;
@@ -62,10 +78,23 @@ public class JWSBuilder {
 
 
     protected String encodeHeader(Algorithm alg) {
+        String cacheKey = alg + ":" + type + ":" + contentType + ":" + kid;
+        String encoded = ENCODED_HEADERS.get(cacheKey);
+        if (encoded == null) {
+            encoded = computeHeader(alg);
+            if (ENCODED_HEADERS.size() < MAX_CACHED_HEADERS) {
+                ENCODED_HEADERS.putIfAbsent(cacheKey, encoded);
+            }
+        }
+        return encoded;
+    }
+
+    private String computeHeader(Algorithm alg) {
         StringBuilder builder = new StringBuilder("{");
         builder.append("\"alg\":\"").append(alg.toString()).append("\"");
 
         if (type != null) builder.append(",\"typ\" : \"").append(type).append("\"");
+        if (kid != null) builder.append(",\"kid\":\"").append(kid).append("\"");
         if (contentType != null) builder.append(",\"cty\":\"").append(contentType).append("\"");
         builder.append("}");
         try {
@@ -101,43 +130,26 @@ public class JWSBuilder {
             return encodeAll(buffer, null);
         }
 
-        public String rsa256(PrivateKey privateKey) {
+        private String rsa(Algorithm algorithm, PrivateKey privateKey) {
             StringBuffer buffer = new StringBuffer();
             byte[] data = marshalContent();
-            encode(Algorithm.RS256, data, buffer);
-            byte[] signature = null;
-            try {
-                signature = RSAProvider.sign(buffer.toString().getBytes("UTF-8"), Algorithm.RS256, privateKey);
-            } catch (UnsupportedEncodingException e) {
-                throw new RuntimeException(e);
-            }
+            encode(algorithm, data, buffer);
+
+            // Signing input consists just of base64url characters, so ASCII encoding gives the same bytes as UTF-8
+            byte[] signature = RSAProvider.sign(buffer.toString().getBytes(ASCII), algorithm, privateKey);
             return encodeAll(buffer, signature);
         }
 
+        public String rsa256(PrivateKey privateKey) {
+            return rsa(Algorithm.RS256, privateKey);
+        }
+
         public String rsa384(PrivateKey privateKey) {
-            StringBuffer buffer = new StringBuffer();
-            byte[] data = marshalContent();
-            encode(Algorithm.RS384, data, buffer);
-            byte[] signature = null;
-            try {
-                signature = RSAProvider.sign(buffer.toString().getBytes("UTF-8"), Algorithm.RS384, privateKey);
-            } catch (UnsupportedEncodingException e) {
-                throw new RuntimeException(e);
-            }
-            return encodeAll(buffer, signature);
+            return rsa(Algorithm.RS384, privateKey);
         }
 
         public String rsa512(PrivateKey privateKey) {
-            StringBuffer buffer = new StringBuffer();
-            byte[] data = marshalContent();
-            encode(Algorithm.RS512, data, buffer);
-            byte[] signature = null;
-            try {
-                signature = RSAProvider.sign(buffer.toString().getBytes("UTF-8"), Algorithm.RS512, privateKey);
-            } catch (UnsupportedEncodingException e) {
-                throw new RuntimeException(e);
-            }
-            return encodeAll(buffer, signature);
+            return rsa(Algorithm.RS512, privateKey);
         }
 
 
@@ -26,12 +26,29 @@ import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.Signature;
 import java.security.cert.X509Certificate;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * @author <a href="mailto:bill@burkecentral.com">Bill Burke</a>
  * @version $Revision: 1 $
  */
 public class RSAProvider implements SignatureProvider {
+
+    private static final int POOL_SIZE = 64;
+
+    // Signature instances are not thread-safe, so they are borrowed from the pool for single sign/verify operation.
+    // Pool is used instead of thread locals, so adapters don't leak classloaders of redeployed applications
+    private static final Map<Algorithm, BlockingQueue<CachedSignature>> SIGNATURES = new EnumMap<>(Algorithm.class);
+
+    static {
+        SIGNATURES.put(Algorithm.RS256, new ArrayBlockingQueue<CachedSignature>(POOL_SIZE));
+        SIGNATURES.put(Algorithm.RS384, new ArrayBlockingQueue<CachedSignature>(POOL_SIZE));
+        SIGNATURES.put(Algorithm.RS512, new ArrayBlockingQueue<CachedSignature>(POOL_SIZE));
+    }
+
     public static String getJavaAlgorithm(Algorithm alg) {
         switch (alg) {
             case RS256:
@@ -54,11 +71,13 @@ public class RSAProvider implements SignatureProvider {
     }
 
     public static byte[] sign(byte[] data, Algorithm algorithm, PrivateKey privateKey) {
+        CachedSignature cached = borrowSignature(algorithm);
         try {
-            Signature signature = getSignature(algorithm);
-            signature.initSign(privateKey);
+            Signature signature = cached.forSigning(privateKey);
             signature.update(data);
-            return signature.sign();
+            byte[] result = signature.sign();
+            returnSignature(algorithm, cached);
+            return result;
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -76,10 +95,13 @@ public class RSAProvider implements SignatureProvider {
 
     public static boolean verify(JWSInput input, PublicKey publicKey) {
         try {
-            Signature verifier = getSignature(input.getHeader().getAlgorithm());
-            verifier.initVerify(publicKey);
+            Algorithm algorithm = input.getHeader().getAlgorithm();
+            CachedSignature cached = borrowSignature(algorithm);
+            Signature verifier = cached.forVerification(publicKey);
             verifier.update(input.getEncodedSignatureInput().getBytes("UTF-8"));
-            return verifier.verify(input.getSignature());
+            boolean verified = verifier.verify(input.getSignature());
+            returnSignature(algorithm, cached);
+            return verified;
         } catch (Exception e) {
             return false;
         }
@@ -91,5 +113,49 @@ public class RSAProvider implements SignatureProvider {
         return verifyViaCertificate(input, key);
     }
 
+    private static CachedSignature borrowSignature(Algorithm algorithm) {
+        BlockingQueue<CachedSignature> pool = SIGNATURES.get(algorithm);
+        CachedSignature cached = pool != null ? pool.poll() : null;
+        return cached != null ? cached : new CachedSignature(getSignature(algorithm));
+    }
+
+    // Signatures, which failed in the middle of operation, are never returned as their state is unknown
+    private static void returnSignature(Algorithm algorithm, CachedSignature cached) {
+        BlockingQueue<CachedSignature> pool = SIGNATURES.get(algorithm);
+        if (pool != null) {
+            pool.offer(cached);
+        }
+    }
+
+    /**
+     * Signature bound to the key it was last initialized with. Both sign() and verify() reset the signature to the
+     * state after its initialization, so it doesn't need to be initialized again as long as the same key is used.
+     */
+    private static class CachedSignature {
+
+        private final Signature signature;
+        private Object key;
+
+        private CachedSignature(Signature signature) {
+            this.signature = signature;
+        }
+
+        private Signature forSigning(PrivateKey privateKey) throws Exception {
+            if (key != privateKey) {
+                signature.initSign(privateKey);
+                key = privateKey;
+            }
+            return signature;
+        }
+
+        private Signature forVerification(PublicKey publicKey) throws Exception {
+            if (key != publicKey) {
+                signature.initVerify(publicKey);
+                key = publicKey;
+            }
+            return signature;
+        }
+    }
+
 
 }
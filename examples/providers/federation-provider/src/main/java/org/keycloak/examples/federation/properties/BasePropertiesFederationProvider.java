@@ -69,6 +69,15 @@ public abstract class BasePropertiesFederationProvider implements UserFederation
         return model;
     }
 
+    @Override
+    public List<UserModel> validateAndProxy(RealmModel realm, List<UserModel> locals) {
+        List<UserModel> result = new ArrayList<UserModel>(locals.size());
+        for (UserModel local : locals) {
+            result.add(validateAndProxy(realm, local));
+        }
+        return result;
+    }
+
     @Override
     public UserModel getUserByUsername(RealmModel realm, String username) {
         String password = properties.getProperty(username);
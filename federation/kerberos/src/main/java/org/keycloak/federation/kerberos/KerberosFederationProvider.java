@@ -17,6 +17,7 @@
 
 package org.keycloak.federation.kerberos;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -74,6 +75,15 @@ public class KerberosFederationProvider implements UserFederationProvider {
         }
     }
 
+    @Override
+    public List<UserModel> validateAndProxy(RealmModel realm, List<UserModel> locals) {
+        List<UserModel> result = new ArrayList<UserModel>(locals.size());
+        for (UserModel local : locals) {
+            result.add(validateAndProxy(realm, local));
+        }
+        return result;
+    }
+
     @Override
     public boolean synchronizeRegistrations() {
         return false;
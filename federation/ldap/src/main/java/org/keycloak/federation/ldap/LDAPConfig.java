@@ -108,6 +108,30 @@ public class LDAPConfig {
         return config.get(LDAPConstants.CONNECTION_POOLING);
     }
 
+    public boolean isConnectionPooling() {
+        return Boolean.parseBoolean(getConnectionPooling());
+    }
+
+    public int getConnectionPoolMinSize() {
+        return getInt(LDAPConstants.CONNECTION_POOL_MIN_SIZE, LDAPConstants.DEFAULT_CONNECTION_POOL_MIN_SIZE);
+    }
+
+    public int getConnectionPoolMaxSize() {
+        return getInt(LDAPConstants.CONNECTION_POOL_MAX_SIZE, LDAPConstants.DEFAULT_CONNECTION_POOL_MAX_SIZE);
+    }
+
+    public int getConnectionPoolIdleTimeout() {
+        return getInt(LDAPConstants.CONNECTION_POOL_IDLE_TIMEOUT, LDAPConstants.DEFAULT_CONNECTION_POOL_IDLE_TIMEOUT);
+    }
+
+    public int getConnectionPoolBorrowTimeout() {
+        return getInt(LDAPConstants.CONNECTION_POOL_BORROW_TIMEOUT, LDAPConstants.DEFAULT_CONNECTION_POOL_BORROW_TIMEOUT);
+    }
+
+    public int getConnectionPoolValidationInterval() {
+        return getInt(LDAPConstants.CONNECTION_POOL_VALIDATION_INTERVAL, LDAPConstants.DEFAULT_CONNECTION_POOL_VALIDATION_INTERVAL);
+    }
+
     public Properties getAdditionalConnectionProperties() {
         // not supported for now
         return null;
@@ -134,6 +158,22 @@ public class LDAPConfig {
         return pagination==null ? false : Boolean.parseBoolean(pagination);
     }
 
+    public int getBatchSizeForSync() {
+        return getInt(LDAPConstants.BATCH_SIZE_FOR_SYNC, LDAPConstants.DEFAULT_BATCH_SIZE_FOR_SYNC);
+    }
+
+    public int getSyncWorkers() {
+        return Math.max(1, getInt(LDAPConstants.SYNC_WORKERS, LDAPConstants.DEFAULT_SYNC_WORKERS));
+    }
+
+    public int getSyncTransactionSize() {
+        return Math.max(1, getInt(LDAPConstants.SYNC_TRANSACTION_SIZE, LDAPConstants.DEFAULT_SYNC_TRANSACTION_SIZE));
+    }
+
+    public int getValidationCacheTTL() {
+        return Math.max(0, getInt(LDAPConstants.VALIDATION_CACHE_TTL, LDAPConstants.DEFAULT_VALIDATION_CACHE_TTL));
+    }
+
     public String getUsernameLdapAttribute() {
         String username = config.get(LDAPConstants.USERNAME_LDAP_ATTRIBUTE);
         if (username == null) {
@@ -176,4 +216,9 @@ public class LDAPConfig {
             return UserFederationProvider.EditMode.valueOf(editModeString);
         }
     }
+
+    private int getInt(String name, int defaultValue) {
+        String value = config.get(name);
+        return (value == null || value.trim().isEmpty()) ? defaultValue : Integer.parseInt(value.trim());
+    }
 }
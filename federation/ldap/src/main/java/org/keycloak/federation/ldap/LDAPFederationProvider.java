@@ -65,6 +65,9 @@ import javax.naming.AuthenticationException;
 public class LDAPFederationProvider implements UserFederationProvider {
     private static final Logger logger = Logger.getLogger(LDAPFederationProvider.class);
 
+    // Max count of usernames in single LDAP filter used for bulk validation
+    private static final int BULK_VALIDATION_CHUNK_SIZE = 50;
+
     protected LDAPFederationProviderFactory factory;
     protected KeycloakSession session;
     protected UserFederationProviderModel model;
@@ -114,6 +117,45 @@ public class LDAPFederationProvider implements UserFederationProvider {
         return proxy(realm, local, ldapObject);
     }
 
+    @Override
+    public List<UserModel> validateAndProxy(RealmModel realm, List<UserModel> locals) {
+        // Users not found in the validation cache are loaded from LDAP with single query per chunk
+        Map<String, LDAPObject> ldapUsers = new HashMap<>();
+        Set<String> cachedUsernames = new HashSet<>();
+        List<String> usernamesToLoad = new ArrayList<>();
+        for (UserModel local : locals) {
+            String username = local.getUsername().toLowerCase();
+            LDAPObject cached = ldapIdentityStore.getValidationCache().get(username);
+            if (cached != null) {
+                ldapUsers.put(username, cached);
+                cachedUsernames.add(username);
+            } else {
+                usernamesToLoad.add(local.getUsername());
+            }
+        }
+
+        for (int i = 0; i < usernamesToLoad.size(); i += BULK_VALIDATION_CHUNK_SIZE) {
+            List<String> chunk = usernamesToLoad.subList(i, Math.min(i + BULK_VALIDATION_CHUNK_SIZE, usernamesToLoad.size()));
+            for (LDAPObject ldapUser : loadLDAPUsersByUsernames(realm, chunk)) {
+                String username = LDAPUtils.getUsername(ldapUser, ldapIdentityStore.getConfig());
+                if (username != null) {
+                    ldapUsers.put(username.toLowerCase(), ldapUser);
+                }
+            }
+        }
+
+        List<UserModel> result = new ArrayList<>(locals.size());
+        for (UserModel local : locals) {
+            String username = local.getUsername().toLowerCase();
+            LDAPObject ldapUser = ldapUsers.get(username);
+            if (ldapUser != null) {
+                ldapUser = validateLDAPUser(local, ldapUser, cachedUsernames.contains(username));
+            }
+            result.add(ldapUser == null ? null : proxy(realm, local, ldapUser));
+        }
+        return result;
+    }
+
     protected UserModel proxy(RealmModel realm, UserModel local, LDAPObject ldapObject) {
         UserModel proxied = local;
         switch (editMode) {
@@ -276,15 +318,30 @@ public class LDAPFederationProvider implements UserFederationProvider {
      * @return ldapUser corresponding to local user or null if user is no longer in LDAP
      */
     protected LDAPObject loadAndValidateUser(RealmModel realm, UserModel local) {
-        LDAPObject ldapUser = loadLDAPUserByUsername(realm, local.getUsername());
+        String cacheKey = local.getUsername().toLowerCase();
+        LDAPObject ldapUser = ldapIdentityStore.getValidationCache().get(cacheKey);
+        if (ldapUser != null) {
+            return validateLDAPUser(local, ldapUser, true);
+        }
+
+        ldapUser = loadLDAPUserByUsername(realm, local.getUsername());
         if (ldapUser == null) {
             return null;
         }
+        return validateLDAPUser(local, ldapUser, false);
+    }
+
+    protected LDAPObject validateLDAPUser(UserModel local, LDAPObject ldapUser, boolean cached) {
         LDAPUtils.checkUuid(ldapUser, ldapIdentityStore.getConfig());
 
+        String cacheKey = local.getUsername().toLowerCase();
         if (ldapUser.getUuid().equals(local.getFirstAttribute(LDAPConstants.LDAP_ID))) {
+            if (!cached) {
+                ldapIdentityStore.getValidationCache().put(cacheKey, ldapUser);
+            }
             return ldapUser;
         } else {
+            ldapIdentityStore.getValidationCache().invalidate(cacheKey);
             logger.warnf("LDAP User invalid. ID doesn't match. ID from LDAP [%s], LDAP ID from local DB: [%s]", ldapUser.getUuid(), local.getFirstAttribute(LDAPConstants.LDAP_ID));
             return null;
         }
@@ -509,6 +566,20 @@ public class LDAPFederationProvider implements UserFederationProvider {
         return ldapUser;
     }
 
+    protected List<LDAPObject> loadLDAPUsersByUsernames(RealmModel realm, List<String> usernames) {
+        LDAPQuery ldapQuery = LDAPUtils.createQueryForUserSearch(this, realm);
+        LDAPQueryConditionsBuilder conditionsBuilder = new LDAPQueryConditionsBuilder();
+
+        String usernameMappedAttribute = this.ldapIdentityStore.getConfig().getUsernameLdapAttribute();
+        Condition[] usernameConditions = new Condition[usernames.size()];
+        for (int i = 0; i < usernames.size(); i++) {
+            usernameConditions[i] = conditionsBuilder.equal(usernameMappedAttribute, usernames.get(i));
+        }
+        ldapQuery.addWhereCondition(conditionsBuilder.orCondition(usernameConditions));
+
+        return ldapQuery.getResultList();
+    }
+
     public LDAPFederationMapper getMapper(UserFederationMapperModel mapperModel) {
         LDAPFederationMapper ldapMapper = (LDAPFederationMapper) getSession().getProvider(UserFederationMapper.class, mapperModel.getFederationMapperType());
         if (ldapMapper == null) {
@@ -19,6 +19,7 @@ package org.keycloak.federation.ldap;
 
 import org.jboss.logging.Logger;
 import org.keycloak.Config;
+import org.keycloak.cluster.ClusterProvider;
 import org.keycloak.federation.kerberos.CommonKerberosConfig;
 import org.keycloak.federation.kerberos.impl.KerberosServerSubjectAuthenticator;
 import org.keycloak.federation.kerberos.impl.KerberosUsernamePasswordAuthenticator;
@@ -35,6 +36,7 @@ import org.keycloak.federation.ldap.mappers.UserAttributeLDAPFederationMapper;
 import org.keycloak.federation.ldap.mappers.UserAttributeLDAPFederationMapperFactory;
 import org.keycloak.federation.ldap.mappers.msad.MSADUserAccountControlMapperFactory;
 import org.keycloak.mappers.UserFederationMapper;
+import org.keycloak.metrics.MetricsProvider;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.KeycloakSessionTask;
@@ -46,13 +48,24 @@ import org.keycloak.models.UserFederationMapperModel;
 import org.keycloak.models.UserFederationProvider;
 import org.keycloak.models.UserFederationProviderModel;
 import org.keycloak.models.UserFederationSyncResult;
+import org.keycloak.models.UserFederationSyncState;
 import org.keycloak.models.UserModel;
 import org.keycloak.models.utils.KeycloakModelUtils;
 
+import java.util.ArrayDeque;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author <a href="mailto:mposolda@redhat.com">Marek Posolda</a>
@@ -63,6 +76,12 @@ public class LDAPFederationProviderFactory extends UserFederationEventAwareProvi
     private static final Logger logger = Logger.getLogger(LDAPFederationProviderFactory.class);
     public static final String PROVIDER_NAME = LDAPConstants.LDAP_PROVIDER;
 
+    private static final String SYNC_TYPE_FULL = "full";
+    private static final String SYNC_TYPE_CHANGED = "changed";
+
+    // Interrupted sync is resumed just if it made progress within last hour
+    private static final long MAX_SYNC_RESUME_AGE = 60 * 60 * 1000;
+
     private LDAPIdentityStoreRegistry ldapStoreRegistry;
 
     @Override
@@ -72,7 +91,7 @@ public class LDAPFederationProviderFactory extends UserFederationEventAwareProvi
 
     @Override
     public LDAPFederationProvider getInstance(KeycloakSession session, UserFederationProviderModel model) {
-        LDAPIdentityStore ldapIdentityStore = this.ldapStoreRegistry.getLdapStore(model);
+        LDAPIdentityStore ldapIdentityStore = this.ldapStoreRegistry.getLdapStore(model, session.getProvider(MetricsProvider.class));
         return new LDAPFederationProvider(this, session, model, ldapIdentityStore);
     }
 
@@ -83,6 +102,9 @@ public class LDAPFederationProviderFactory extends UserFederationEventAwareProvi
 
     @Override
     public void close() {
+        if (this.ldapStoreRegistry != null) {
+            this.ldapStoreRegistry.close();
+        }
         this.ldapStoreRegistry = null;
     }
 
@@ -222,7 +244,7 @@ public class LDAPFederationProviderFactory extends UserFederationEventAwareProvi
         logger.infof("Sync all users from LDAP to local store: realm: %s, federation provider: %s", realmId, model.getDisplayName());
 
         LDAPQuery userQuery = createQuery(sessionFactory, realmId, model);
-        UserFederationSyncResult syncResult = syncImpl(sessionFactory, userQuery, realmId, model);
+        UserFederationSyncResult syncResult = syncImpl(sessionFactory, userQuery, realmId, model, SYNC_TYPE_FULL, 0);
 
         // TODO: Remove all existing keycloak users, which have federation links, but are not in LDAP. Perhaps don't check users, which were just added or updated during this sync?
 
@@ -244,7 +266,7 @@ public class LDAPFederationProviderFactory extends UserFederationEventAwareProvi
 
         LDAPQuery userQuery = createQuery(sessionFactory, realmId, model);
         userQuery.addWhereCondition(orCondition);
-        UserFederationSyncResult result = syncImpl(sessionFactory, userQuery, realmId, model);
+        UserFederationSyncResult result = syncImpl(sessionFactory, userQuery, realmId, model, SYNC_TYPE_CHANGED, lastSync.getTime());
 
         logger.infof("Sync changed users finished: %s", result.getStatus());
         return result;
@@ -270,32 +292,177 @@ public class LDAPFederationProviderFactory extends UserFederationEventAwareProvi
         });
     }
 
-    protected UserFederationSyncResult syncImpl(KeycloakSessionFactory sessionFactory, LDAPQuery userQuery, final String realmId, final UserFederationProviderModel fedModel) {
+    protected UserFederationSyncResult syncImpl(KeycloakSessionFactory sessionFactory, LDAPQuery userQuery, final String realmId, final UserFederationProviderModel fedModel,
+                                                String syncType, long lastSync) {
+        LDAPConfig ldapConfig = new LDAPConfig(fedModel.getConfig());
+        int workers = ldapConfig.getSyncWorkers();
+        String stateKey = fedModel.getId() + "::sync-state";
 
-        final UserFederationSyncResult syncResult = new UserFederationSyncResult();
+        // Users are going to be re-validated by the sync anyway
+        userQuery.getLdapProvider().getLdapIdentityStore().getValidationCache().clear();
+
+        // Progress of previous sync, which was interrupted on this or other cluster node
+        UserFederationSyncState state = getSyncState(sessionFactory, stateKey);
+        if (state == null || !state.canResume(syncType, lastSync, MAX_SYNC_RESUME_AGE)) {
+            state = new UserFederationSyncState(syncType, lastSync);
+        } else {
+            logger.infof("Resuming interrupted sync of federation provider '%s' after %d pages. %s", fedModel.getDisplayName(), state.getPagesDone(), state.toSyncResult().getStatus());
+        }
+
+        // Interrupted sync continues after the last imported user rather than after the count of imported pages, so users
+        // removed from LDAP in the meantime don't shift the remaining users into the skipped pages. Users added in the
+        // meantime before the checkpoint are not imported until the next sync
+        String checkpoint = state.getCheckpoint();
+        boolean checkpointFound = checkpoint == null;
+        int processedBefore = state.getProcessedCount();
+        long startTime = System.currentTimeMillis();
+
+        ExecutorService executor = workers > 1 ? Executors.newFixedThreadPool(workers, new SyncThreadFactory(fedModel.getDisplayName())) : null;
+        try {
+            // Pages are completed in the order they were read, so the saved progress never skips a page, which wasn't imported
+            Deque<PageInProgress> pagesInProgress = new ArrayDeque<>();
+
+            while (true) {
+                LDAPUserPages pages = new LDAPUserPages(userQuery, ldapConfig.isPagination(), ldapConfig.getBatchSizeForSync());
+
+                List<LDAPObject> users;
+                while ((users = pages.next()) != null) {
+                    if (!checkpointFound) {
+                        int checkpointIndex = indexOf(users, checkpoint);
+                        if (checkpointIndex < 0) {
+                            continue;
+                        }
+                        checkpointFound = true;
+                        users = users.subList(checkpointIndex + 1, users.size());
+                    }
 
-        boolean pagination = Boolean.parseBoolean(fedModel.getConfig().get(LDAPConstants.PAGINATION));
-        if (pagination) {
+                    pagesInProgress.addLast(submitPage(executor, sessionFactory, realmId, fedModel, users));
 
-            String pageSizeConfig = fedModel.getConfig().get(LDAPConstants.BATCH_SIZE_FOR_SYNC);
-            int pageSize = pageSizeConfig!=null ? Integer.parseInt(pageSizeConfig) : LDAPConstants.DEFAULT_BATCH_SIZE_FOR_SYNC;
+                    // Limit count of pages held in memory
+                    while (pagesInProgress.size() > workers) {
+                        completePage(sessionFactory, stateKey, state, pagesInProgress.removeFirst(), startTime, processedBefore);
+                    }
+                }
+
+                if (checkpointFound) {
+                    break;
+                }
 
-            boolean nextPage = true;
-            while (nextPage) {
-                userQuery.setLimit(pageSize);
-                final List<LDAPObject> users = userQuery.getResultList();
-                nextPage = userQuery.getPaginationContext() != null;
-                UserFederationSyncResult currentPageSync = importLdapUsers(sessionFactory, realmId, fedModel, users);
-                syncResult.add(currentPageSync);
+                // Nothing was imported yet, so whole sync is repeated
+                logger.warnf("User '%s', after which interrupted sync of federation provider '%s' should continue, was not found in LDAP. Repeating whole sync",
+                        checkpoint, fedModel.getDisplayName());
+                checkpointFound = true;
             }
+
+            while (!pagesInProgress.isEmpty()) {
+                completePage(sessionFactory, stateKey, state, pagesInProgress.removeFirst(), startTime, processedBefore);
+            }
+        } finally {
+            // Gives back the LDAP connection if the paged search was interrupted
+            userQuery.close();
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+
+        removeSyncState(sessionFactory, stateKey);
+
+        long duration = Math.max(1, System.currentTimeMillis() - startTime);
+        int processed = state.getProcessedCount() - processedBefore;
+        logger.infof("Processed %d LDAP users of federation provider '%s' in %d ms (%.1f users/s) using %d workers",
+                processed, fedModel.getDisplayName(), duration, processed * 1000.0 / duration, workers);
+
+        return state.toSyncResult();
+    }
+
+    private static int indexOf(List<LDAPObject> users, String uuid) {
+        for (int i = 0; i < users.size(); i++) {
+            if (uuid.equals(users.get(i).getUuid())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private PageInProgress submitPage(ExecutorService executor, final KeycloakSessionFactory sessionFactory, final String realmId,
+                                      final UserFederationProviderModel fedModel, final List<LDAPObject> users) {
+        Callable<UserFederationSyncResult> task = new Callable<UserFederationSyncResult>() {
+
+            @Override
+            public UserFederationSyncResult call() {
+                return importLdapUsers(sessionFactory, realmId, fedModel, users);
+            }
+
+        };
+
+        String lastUuid = users.isEmpty() ? null : users.get(users.size() - 1).getUuid();
+        if (executor != null) {
+            return new PageInProgress(executor.submit(task), lastUuid);
         } else {
-            // LDAP pagination not available. Do everything in single transaction
-            final List<LDAPObject> users = userQuery.getResultList();
-            UserFederationSyncResult currentSync = importLdapUsers(sessionFactory, realmId, fedModel, users);
-            syncResult.add(currentSync);
+            FutureTask<UserFederationSyncResult> future = new FutureTask<>(task);
+            future.run();
+            return new PageInProgress(future, lastUuid);
         }
+    }
 
-        return syncResult;
+    private void completePage(KeycloakSessionFactory sessionFactory, String stateKey, UserFederationSyncState state, PageInProgress page,
+                              long startTime, int processedBefore) {
+        UserFederationSyncResult pageResult;
+        try {
+            pageResult = page.result.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new ModelException("Interrupted when waiting for import of LDAP users", ie);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ee.getCause();
+            }
+            throw new ModelException("Failed to import page of LDAP users", ee.getCause());
+        }
+
+        state.pageDone(pageResult, page.lastUuid);
+        setSyncState(sessionFactory, stateKey, state);
+
+        if (logger.isDebugEnabled()) {
+            long duration = Math.max(1, System.currentTimeMillis() - startTime);
+            int processed = state.getProcessedCount() - processedBefore;
+            logger.debugf("Imported page %d of LDAP users. Processed %d users in %d ms (%.1f users/s)", state.getPagesDone(), processed, duration, processed * 1000.0 / duration);
+        }
+    }
+
+    private UserFederationSyncState getSyncState(KeycloakSessionFactory sessionFactory, final String stateKey) {
+        final UserFederationSyncState[] holder = new UserFederationSyncState[1];
+        KeycloakModelUtils.runJobInTransaction(sessionFactory, new KeycloakSessionTask() {
+
+            @Override
+            public void run(KeycloakSession session) {
+                holder[0] = session.getProvider(ClusterProvider.class).getTaskState(stateKey);
+            }
+
+        });
+        return holder[0];
+    }
+
+    private void setSyncState(KeycloakSessionFactory sessionFactory, final String stateKey, final UserFederationSyncState state) {
+        KeycloakModelUtils.runJobInTransaction(sessionFactory, new KeycloakSessionTask() {
+
+            @Override
+            public void run(KeycloakSession session) {
+                session.getProvider(ClusterProvider.class).setTaskState(stateKey, state);
+            }
+
+        });
+    }
+
+    private void removeSyncState(KeycloakSessionFactory sessionFactory, final String stateKey) {
+        KeycloakModelUtils.runJobInTransaction(sessionFactory, new KeycloakSessionTask() {
+
+            @Override
+            public void run(KeycloakSession session) {
+                session.getProvider(ClusterProvider.class).removeTaskState(stateKey);
+            }
+
+        });
     }
 
     private LDAPQuery createQuery(KeycloakSessionFactory sessionFactory, final String realmId, final UserFederationProviderModel model) {
@@ -319,10 +486,47 @@ public class LDAPFederationProviderFactory extends UserFederationEventAwareProvi
 
     protected UserFederationSyncResult importLdapUsers(KeycloakSessionFactory sessionFactory, final String realmId, final UserFederationProviderModel fedModel, List<LDAPObject> ldapUsers) {
         final UserFederationSyncResult syncResult = new UserFederationSyncResult();
+        int transactionSize = new LDAPConfig(fedModel.getConfig()).getSyncTransactionSize();
+
+        for (int i = 0; i < ldapUsers.size(); i += transactionSize) {
+            List<LDAPObject> batch = ldapUsers.subList(i, Math.min(i + transactionSize, ldapUsers.size()));
+            if (batch.size() > 1) {
+                try {
+                    syncResult.add(importLdapUsersInSingleTransaction(sessionFactory, realmId, fedModel, batch));
+                    continue;
+                } catch (RuntimeException re) {
+                    logger.debugf(re, "Failed to import %d LDAP users in single transaction. Will import them one by one", batch.size());
+                }
+            }
 
-        class BooleanHolder {
-            private boolean value = true;
+            syncResult.add(importLdapUsersOneByOne(sessionFactory, realmId, fedModel, batch));
         }
+
+        return syncResult;
+    }
+
+    private UserFederationSyncResult importLdapUsersInSingleTransaction(KeycloakSessionFactory sessionFactory, final String realmId, final UserFederationProviderModel fedModel,
+                                                                        final List<LDAPObject> ldapUsers) {
+        final UserFederationSyncResult syncResult = new UserFederationSyncResult();
+        KeycloakModelUtils.runJobInTransaction(sessionFactory, new KeycloakSessionTask() {
+
+            @Override
+            public void run(KeycloakSession session) {
+                LDAPFederationProvider ldapFedProvider = getInstance(session, fedModel);
+                RealmModel currentRealm = session.realms().getRealm(realmId);
+                BooleanHolder exists = new BooleanHolder();
+
+                for (LDAPObject ldapUser : ldapUsers) {
+                    importLdapUser(session, currentRealm, ldapFedProvider, fedModel, ldapUser, syncResult, exists);
+                }
+            }
+
+        });
+        return syncResult;
+    }
+
+    private UserFederationSyncResult importLdapUsersOneByOne(KeycloakSessionFactory sessionFactory, final String realmId, final UserFederationProviderModel fedModel, List<LDAPObject> ldapUsers) {
+        final UserFederationSyncResult syncResult = new UserFederationSyncResult();
         final BooleanHolder exists = new BooleanHolder();
 
         for (final LDAPObject ldapUser : ldapUsers) {
@@ -336,36 +540,7 @@ public class LDAPFederationProviderFactory extends UserFederationEventAwareProvi
                     public void run(KeycloakSession session) {
                         LDAPFederationProvider ldapFedProvider = getInstance(session, fedModel);
                         RealmModel currentRealm = session.realms().getRealm(realmId);
-
-                        String username = LDAPUtils.getUsername(ldapUser, ldapFedProvider.getLdapIdentityStore().getConfig());
-                        exists.value = true;
-                        LDAPUtils.checkUuid(ldapUser, ldapFedProvider.getLdapIdentityStore().getConfig());
-                        UserModel currentUser = session.userStorage().getUserByUsername(username, currentRealm);
-
-                        if (currentUser == null) {
-
-                            // Add new user to Keycloak
-                            exists.value = false;
-                            ldapFedProvider.importUserFromLDAP(session, currentRealm, ldapUser);
-                            syncResult.increaseAdded();
-
-                        } else {
-                            if ((fedModel.getId().equals(currentUser.getFederationLink())) && (ldapUser.getUuid().equals(currentUser.getFirstAttribute(LDAPConstants.LDAP_ID)))) {
-
-                                // Update keycloak user
-                                Set<UserFederationMapperModel> federationMappers = currentRealm.getUserFederationMappersByFederationProvider(fedModel.getId());
-                                for (UserFederationMapperModel mapperModel : federationMappers) {
-                                    LDAPFederationMapper ldapMapper = ldapFedProvider.getMapper(mapperModel);
-                                    ldapMapper.onImportUserFromLDAP(mapperModel, ldapFedProvider, ldapUser, currentUser, currentRealm, false);
-                                }
-
-                                logger.debugf("Updated user from LDAP: %s", currentUser.getUsername());
-                                syncResult.increaseUpdated();
-                            } else {
-                                logger.warnf("User '%s' is not updated during sync as he already exists in Keycloak database but is not linked to federation provider '%s'", username, fedModel.getDisplayName());
-                                syncResult.increaseFailed();
-                            }
-                        }
+                        importLdapUser(session, currentRealm, ldapFedProvider, fedModel, ldapUser, syncResult, exists);
                     }
 
                 });
@@ -403,6 +578,39 @@ public class LDAPFederationProviderFactory extends UserFederationEventAwareProvi
         return syncResult;
     }
 
+    private void importLdapUser(KeycloakSession session, RealmModel currentRealm, LDAPFederationProvider ldapFedProvider, UserFederationProviderModel fedModel,
+                                LDAPObject ldapUser, UserFederationSyncResult syncResult, BooleanHolder exists) {
+        String username = LDAPUtils.getUsername(ldapUser, ldapFedProvider.getLdapIdentityStore().getConfig());
+        exists.value = true;
+        LDAPUtils.checkUuid(ldapUser, ldapFedProvider.getLdapIdentityStore().getConfig());
+        UserModel currentUser = session.userStorage().getUserByUsername(username, currentRealm);
+
+        if (currentUser == null) {
+
+            // Add new user to Keycloak
+            exists.value = false;
+            ldapFedProvider.importUserFromLDAP(session, currentRealm, ldapUser);
+            syncResult.increaseAdded();
+
+        } else {
+            if ((fedModel.getId().equals(currentUser.getFederationLink())) && (ldapUser.getUuid().equals(currentUser.getFirstAttribute(LDAPConstants.LDAP_ID)))) {
+
+                // Update keycloak user
+                Set<UserFederationMapperModel> federationMappers = currentRealm.getUserFederationMappersByFederationProvider(fedModel.getId());
+                for (UserFederationMapperModel mapperModel : federationMappers) {
+                    LDAPFederationMapper ldapMapper = ldapFedProvider.getMapper(mapperModel);
+                    ldapMapper.onImportUserFromLDAP(mapperModel, ldapFedProvider, ldapUser, currentUser, currentRealm, false);
+                }
+
+                logger.debugf("Updated user from LDAP: %s", currentUser.getUsername());
+                syncResult.increaseUpdated();
+            } else {
+                logger.warnf("User '%s' is not updated during sync as he already exists in Keycloak database but is not linked to federation provider '%s'", username, fedModel.getDisplayName());
+                syncResult.increaseFailed();
+            }
+        }
+    }
+
     protected SPNEGOAuthenticator createSPNEGOAuthenticator(String spnegoToken, CommonKerberosConfig kerberosConfig) {
         KerberosServerSubjectAuthenticator kerberosAuth = createKerberosSubjectAuthenticator(kerberosConfig);
         return new SPNEGOAuthenticator(kerberosConfig, kerberosAuth, spnegoToken);
@@ -415,4 +623,81 @@ public class LDAPFederationProviderFactory extends UserFederationEventAwareProvi
     protected KerberosUsernamePasswordAuthenticator createKerberosUsernamePasswordAuthenticator(CommonKerberosConfig kerberosConfig) {
         return new KerberosUsernamePasswordAuthenticator(kerberosConfig);
     }
+
+
+    private static class BooleanHolder {
+        private boolean value = true;
+    }
+
+    /**
+     * Reads LDAP users page by page. If LDAP pagination is disabled, all users are read at once and split into pages.
+     */
+    private static class LDAPUserPages {
+
+        private final LDAPQuery query;
+        private final boolean pagination;
+        private final int pageSize;
+
+        private List<LDAPObject> allUsers;
+        private int offset;
+        private boolean hasNextPage = true;
+
+        private LDAPUserPages(LDAPQuery query, boolean pagination, int pageSize) {
+            this.query = query;
+            this.pagination = pagination;
+            this.pageSize = pageSize;
+        }
+
+        private List<LDAPObject> next() {
+            if (pagination) {
+                if (!hasNextPage) {
+                    return null;
+                }
+                query.setLimit(pageSize);
+                List<LDAPObject> users = query.getResultList();
+                hasNextPage = query.getPaginationContext() != null;
+                return users;
+            } else {
+                if (allUsers == null) {
+                    allUsers = query.getResultList();
+                }
+                if (offset >= allUsers.size()) {
+                    return null;
+                }
+                List<LDAPObject> users = allUsers.subList(offset, Math.min(offset + pageSize, allUsers.size()));
+                offset += pageSize;
+                return users;
+            }
+        }
+    }
+
+    private static class PageInProgress {
+
+        private final Future<UserFederationSyncResult> result;
+
+        // Null for empty page
+        private final String lastUuid;
+
+        private PageInProgress(Future<UserFederationSyncResult> result, String lastUuid) {
+            this.result = result;
+            this.lastUuid = lastUuid;
+        }
+    }
+
+    private static class SyncThreadFactory implements ThreadFactory {
+
+        private final String providerName;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        private SyncThreadFactory(String providerName) {
+            this.providerName = providerName;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ldap-sync-" + providerName + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
@@ -23,6 +23,7 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import org.jboss.logging.Logger;
 import org.keycloak.federation.ldap.idm.store.ldap.LDAPIdentityStore;
+import org.keycloak.metrics.MetricsProvider;
 import org.keycloak.models.LDAPConstants;
 import org.keycloak.models.UserFederationProviderModel;
 
@@ -36,20 +37,42 @@ public class LDAPIdentityStoreRegistry {
     private Map<String, LDAPIdentityStoreContext> ldapStores = new ConcurrentHashMap<String, LDAPIdentityStoreContext>();
 
     public LDAPIdentityStore getLdapStore(UserFederationProviderModel model) {
+        return getLdapStore(model, null);
+    }
+
+    /**
+     * @param metrics records timings of LDAP operations of a newly created store. May be null
+     */
+    public LDAPIdentityStore getLdapStore(UserFederationProviderModel model, MetricsProvider metrics) {
         LDAPIdentityStoreContext context = ldapStores.get(model.getId());
 
         // Ldap config might have changed for the realm. In this case, we must re-initialize
         Map<String, String> config = model.getConfig();
         if (context == null || !config.equals(context.config)) {
-            logLDAPConfig(model.getDisplayName(), config);
-
-            LDAPIdentityStore store = createLdapIdentityStore(config);
-            context = new LDAPIdentityStoreContext(config, store);
-            ldapStores.put(model.getId(), context);
+            context = createContext(model, metrics);
         }
         return context.store;
     }
 
+    private synchronized LDAPIdentityStoreContext createContext(UserFederationProviderModel model, MetricsProvider metrics) {
+        LDAPIdentityStoreContext context = ldapStores.get(model.getId());
+        Map<String, String> config = model.getConfig();
+        if (context != null && config.equals(context.config)) {
+            return context;
+        }
+
+        logLDAPConfig(model.getDisplayName(), config);
+
+        LDAPIdentityStore store = new LDAPIdentityStore(new LDAPConfig(config), metrics);
+        context = new LDAPIdentityStoreContext(config, store);
+        LDAPIdentityStoreContext previous = ldapStores.put(model.getId(), context);
+        if (previous != null) {
+            // Closed store still serves operations in progress, just without pooling
+            previous.store.close();
+        }
+        return context;
+    }
+
     // Don't log LDAP password
     private void logLDAPConfig(String fedProviderDisplayName, Map<String, String> ldapConfig) {
         Map<String, String> copy = new HashMap<String, String>(ldapConfig);
@@ -64,21 +87,14 @@ public class LDAPIdentityStoreRegistry {
     public static LDAPIdentityStore createLdapIdentityStore(Map<String,String> ldapConfig) {
         LDAPConfig cfg = new LDAPConfig(ldapConfig);
 
-        checkSystemProperty("com.sun.jndi.ldap.connect.pool.authentication", "none simple");
-        checkSystemProperty("com.sun.jndi.ldap.connect.pool.initsize", "1");
-        checkSystemProperty("com.sun.jndi.ldap.connect.pool.maxsize", "1000");
-        checkSystemProperty("com.sun.jndi.ldap.connect.pool.prefsize", "5");
-        checkSystemProperty("com.sun.jndi.ldap.connect.pool.timeout", "300000");
-        checkSystemProperty("com.sun.jndi.ldap.connect.pool.protocol", "plain");
-        checkSystemProperty("com.sun.jndi.ldap.connect.pool.debug", "off");
-
         return new LDAPIdentityStore(cfg);
     }
 
-    private static void checkSystemProperty(String name, String defaultValue) {
-        if (System.getProperty(name) == null) {
-            System.setProperty(name, defaultValue);
+    public void close() {
+        for (LDAPIdentityStoreContext context : ldapStores.values()) {
+            context.store.close();
         }
+        ldapStores.clear();
     }
 
 
@@ -30,6 +30,7 @@ import org.keycloak.federation.ldap.LDAPFederationProvider;
 import org.keycloak.federation.ldap.idm.model.LDAPObject;
 import org.keycloak.federation.ldap.idm.query.Condition;
 import org.keycloak.federation.ldap.idm.query.Sort;
+import org.keycloak.federation.ldap.idm.store.ldap.LDAPConnectionPool;
 import org.keycloak.federation.ldap.mappers.LDAPFederationMapper;
 import org.keycloak.models.ModelDuplicateException;
 import org.keycloak.models.ModelException;
@@ -43,13 +44,14 @@ import static java.util.Collections.unmodifiableSet;
  *
  * @author Shane Bryzak
  */
-public class LDAPQuery {
+public class LDAPQuery implements AutoCloseable {
 
     private final LDAPFederationProvider ldapFedProvider;
 
     private int offset;
     private int limit;
     private byte[] paginationContext;
+    private LDAPConnectionPool.PooledConnection pagedSearchConnection;
     private String searchDn;
     private final Set<Condition> conditions = new LinkedHashSet<Condition>();
     private final Set<Sort> ordering = new LinkedHashSet<Sort>();
@@ -165,6 +167,8 @@ public class LDAPQuery {
                 result.add(ldapObject);
             }
         } catch (Exception e) {
+            // Failed paginated search can't continue with the next page
+            close();
             throw new ModelException("LDAP Query failed", e);
         }
 
@@ -202,6 +206,27 @@ public class LDAPQuery {
         return this;
     }
 
+    /**
+     * @return pooled connection, which must be used to read the next page of paginated search
+     */
+    public LDAPConnectionPool.PooledConnection getPagedSearchConnection() {
+        return pagedSearchConnection;
+    }
+
+    public void setPagedSearchConnection(LDAPConnectionPool.PooledConnection pagedSearchConnection) {
+        this.pagedSearchConnection = pagedSearchConnection;
+    }
+
+    /**
+     * Releases resources of paginated search, which was stopped before the last page. Query must be closed by the caller,
+     * which doesn't read all pages. It's closed automatically if reading of a page fails.
+     */
+    @Override
+    public void close() {
+        ldapFedProvider.getLdapIdentityStore().getOperationManager().closePagedSearch(this);
+        paginationContext = null;
+    }
+
     public Set<Condition> getConditions() {
         return this.conditions;
     }
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.federation.ldap.idm.store.ldap;
+
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+
+import org.jboss.logging.Logger;
+import org.keycloak.federation.ldap.LDAPConfig;
+
+/**
+ * <p>Pool of LDAP connections of a single federation provider.</p>
+ *
+ * <p>Idle connections are reused in LIFO order, so rarely used connections age out and are closed once idle for longer
+ * than the idle timeout. Connections idle for longer than the validation interval are validated with a base search of
+ * the root DSE before they are handed out.</p>
+ *
+ * <p>A background task opens connections up to the minimal size of the pool and evicts idle connections, so the pool
+ * shrinks even when no connection is released.</p>
+ */
+public class LDAPConnectionPool {
+
+    private static final Logger logger = Logger.getLogger(LDAPConnectionPool.class);
+
+    private static final SearchControls VALIDATION_CONTROLS = new SearchControls(SearchControls.OBJECT_SCOPE, 1, 0, new String[] { "1.1" }, false, false);
+
+    private static final long MIN_MAINTENANCE_INTERVAL = 1000;
+    private static final long MAX_MAINTENANCE_INTERVAL = 30000;
+
+    // Shared by all pools
+    private static final ScheduledExecutorService MAINTENANCE_EXECUTOR = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ldap-connection-pool-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    });
+
+    private final String name;
+    private final Hashtable<Object, Object> connectionProperties;
+    private final int minSize;
+    private final long idleTimeout;
+    private final long borrowTimeout;
+    private final long validationInterval;
+
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<PooledConnection>();
+    private final Semaphore permits;
+    private final ScheduledFuture<?> maintenanceTask;
+    private volatile boolean closed;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong destroyed = new AtomicLong();
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong borrowTimeouts = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong totalBorrowWaitNanos = new AtomicLong();
+
+    public LDAPConnectionPool(String name, Map<String, Object> connectionProperties, LDAPConfig config) {
+        this.name = name;
+        this.connectionProperties = new Hashtable<Object, Object>(connectionProperties);
+        this.minSize = config.getConnectionPoolMinSize();
+        this.idleTimeout = config.getConnectionPoolIdleTimeout();
+        this.borrowTimeout = config.getConnectionPoolBorrowTimeout();
+        this.validationInterval = config.getConnectionPoolValidationInterval();
+        this.permits = new Semaphore(config.getConnectionPoolMaxSize(), true);
+
+        // First run fills the pool without blocking the creation of the provider, if LDAP server is unavailable
+        long maintenanceInterval = Math.max(MIN_MAINTENANCE_INTERVAL, Math.min(MAX_MAINTENANCE_INTERVAL, idleTimeout));
+        this.maintenanceTask = MAINTENANCE_EXECUTOR.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                maintain();
+            }
+
+        }, 0, maintenanceInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows connection from the pool. Connection must be given back with {@link #release(PooledConnection)} or
+     * {@link #invalidate(PooledConnection)}.
+     *
+     * @throws NamingException if new connection can't be opened or no connection was available within the borrow timeout
+     */
+    public PooledConnection borrow() throws NamingException {
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)) {
+                borrowTimeouts.incrementAndGet();
+                throw new NamingException("Timeout after " + borrowTimeout + " ms when waiting for connection from LDAP connection pool " + name);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new NamingException("Interrupted when waiting for connection from LDAP connection pool " + name);
+        }
+        totalBorrowWaitNanos.addAndGet(System.nanoTime() - start);
+
+        try {
+            PooledConnection connection = pollIdle();
+            if (connection == null) {
+                connection = new PooledConnection(createContext());
+                created.incrementAndGet();
+            }
+
+            active.incrementAndGet();
+            borrowed.incrementAndGet();
+            return connection;
+        } catch (NamingException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Gives healthy connection back to the pool
+     */
+    public void release(PooledConnection connection) {
+        active.decrementAndGet();
+        try {
+            if (closed) {
+                destroy(connection);
+            } else {
+                connection.lastUsed = System.currentTimeMillis();
+                idle.offerFirst(connection);
+                evictIdle();
+
+                // Pool might have been closed concurrently
+                if (closed && idle.remove(connection)) {
+                    destroy(connection);
+                }
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Closes connection, which failed during an operation, instead of returning it to the pool
+     */
+    public void invalidate(PooledConnection connection) {
+        active.decrementAndGet();
+        try {
+            destroy(connection);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Closes all idle connections. Connections currently in use are closed when released. Closed pool still opens
+     * new connections on borrow, but doesn't keep them.
+     */
+    public void close() {
+        closed = true;
+        maintenanceTask.cancel(false);
+
+        PooledConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            destroy(connection);
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debugf("Closed LDAP connection pool: %s", this);
+        }
+    }
+
+    private PooledConnection pollIdle() {
+        PooledConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            long idleTime = System.currentTimeMillis() - connection.lastUsed;
+            if (idleTime > idleTimeout) {
+                destroy(connection);
+            } else if (idleTime > validationInterval && !isValid(connection)) {
+                validationFailures.incrementAndGet();
+                destroy(connection);
+            } else {
+                return connection;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Evicts connections idle for longer than the idle timeout and opens new connections up to the minimal size of the pool
+     */
+    void maintain() {
+        try {
+            evictIdle();
+            fill();
+        } catch (RuntimeException e) {
+            // Exception would cancel next runs of the task
+            logger.warnf(e, "Maintenance of LDAP connection pool failed. Pool: %s", name);
+        }
+    }
+
+    private void fill() {
+        while (!closed && active.get() + idle.size() < minSize) {
+            // New connection must not exceed the maximal size of the pool
+            if (!permits.tryAcquire()) {
+                return;
+            }
+
+            try {
+                PooledConnection connection = new PooledConnection(createContext());
+                created.incrementAndGet();
+                idle.offerLast(connection);
+
+                if (closed && idle.remove(connection)) {
+                    destroy(connection);
+                }
+            } catch (NamingException ne) {
+                if (logger.isDebugEnabled()) {
+                    logger.debugf(ne, "Could not open connection to fill LDAP connection pool. Pool: %s", name);
+                }
+                return;
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        PooledConnection oldest;
+        while (idle.size() > minSize && (oldest = idle.peekLast()) != null && now - oldest.lastUsed > idleTimeout) {
+            if (idle.removeLastOccurrence(oldest)) {
+                destroy(oldest);
+            }
+        }
+    }
+
+    private boolean isValid(PooledConnection connection) {
+        try {
+            NamingEnumeration<SearchResult> result = connection.context.search("", "(objectClass=*)", VALIDATION_CONTROLS);
+            result.close();
+            return true;
+        } catch (NamingException ne) {
+            if (logger.isDebugEnabled()) {
+                logger.debugf(ne, "Validation of pooled LDAP connection failed. Pool: %s", name);
+            }
+            return false;
+        }
+    }
+
+    private LdapContext createContext() throws NamingException {
+        return new InitialLdapContext(new Hashtable<Object, Object>(connectionProperties), null);
+    }
+
+    private void destroy(PooledConnection connection) {
+        destroyed.incrementAndGet();
+        try {
+            connection.context.close();
+        } catch (NamingException ne) {
+            logger.debugf(ne, "Could not close pooled LDAP connection. Pool: %s", name);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return count of connections currently borrowed from the pool
+     */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    public long getDestroyedCount() {
+        return destroyed.get();
+    }
+
+    public long getBorrowedCount() {
+        return borrowed.get();
+    }
+
+    public long getBorrowTimeoutCount() {
+        return borrowTimeouts.get();
+    }
+
+    public long getValidationFailureCount() {
+        return validationFailures.get();
+    }
+
+    /**
+     * @return average time in milliseconds spent by waiting for a free connection
+     */
+    public double getAverageBorrowWaitTime() {
+        long count = borrowed.get();
+        return count == 0 ? 0 : (double) totalBorrowWaitNanos.get() / count / 1000000;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s [active=%d, idle=%d, created=%d, destroyed=%d, borrowed=%d, borrowTimeouts=%d, validationFailures=%d, averageBorrowWait=%.3f ms]",
+                name, getActiveCount(), getIdleCount(), getCreatedCount(), getDestroyedCount(), getBorrowedCount(), getBorrowTimeoutCount(),
+                getValidationFailureCount(), getAverageBorrowWaitTime());
+    }
+
+
+    public static class PooledConnection {
+
+        private final LdapContext context;
+        private volatile long lastUsed;
+
+        private PooledConnection(LdapContext context) {
+            this.context = context;
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        public LdapContext getContext() {
+            return context;
+        }
+    }
+}
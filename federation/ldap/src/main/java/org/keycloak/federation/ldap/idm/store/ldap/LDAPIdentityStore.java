@@ -48,6 +48,7 @@ import org.keycloak.federation.ldap.idm.query.Condition;
 import org.keycloak.federation.ldap.idm.query.internal.LDAPQuery;
 import org.keycloak.federation.ldap.idm.query.internal.EqualCondition;
 import org.keycloak.federation.ldap.idm.store.IdentityStore;
+import org.keycloak.metrics.MetricsProvider;
 import org.keycloak.models.LDAPConstants;
 import org.keycloak.models.ModelException;
 
@@ -64,12 +65,18 @@ public class LDAPIdentityStore implements IdentityStore {
 
     private final LDAPConfig config;
     private final LDAPOperationManager operationManager;
+    private final LDAPUserValidationCache validationCache;
 
     public LDAPIdentityStore(LDAPConfig config) {
+        this(config, null);
+    }
+
+    public LDAPIdentityStore(LDAPConfig config, MetricsProvider metrics) {
         this.config = config;
+        this.validationCache = new LDAPUserValidationCache(config.getValidationCacheTTL());
 
         try {
-            this.operationManager = new LDAPOperationManager(config);
+            this.operationManager = new LDAPOperationManager(config, metrics);
         } catch (NamingException e) {
             throw new ModelException("Couldn't init operation manager", e);
         }
@@ -80,6 +87,22 @@ public class LDAPIdentityStore implements IdentityStore {
         return this.config;
     }
 
+    public LDAPOperationManager getOperationManager() {
+        return this.operationManager;
+    }
+
+    public LDAPUserValidationCache getValidationCache() {
+        return this.validationCache;
+    }
+
+    /**
+     * Releases pooled LDAP connections of this store
+     */
+    public void close() {
+        this.validationCache.clear();
+        this.operationManager.close();
+    }
+
     @Override
     public void add(LDAPObject ldapObject) {
         // id will be assigned by the ldap server
@@ -104,6 +127,7 @@ public class LDAPIdentityStore implements IdentityStore {
 
         String entryDn = ldapObject.getDn().toString();
         this.operationManager.modifyAttributes(entryDn, attributes);
+        this.validationCache.invalidate(ldapObject);
 
         if (logger.isDebugEnabled()) {
             logger.debugf("Type with identifier [%s] and DN [%s] successfully updated to LDAP store.", ldapObject.getUuid(), entryDn);
@@ -113,6 +137,7 @@ public class LDAPIdentityStore implements IdentityStore {
     @Override
     public void remove(LDAPObject ldapObject) {
         this.operationManager.removeEntry(ldapObject.getDn().toString());
+        this.validationCache.invalidate(ldapObject);
 
         if (logger.isDebugEnabled()) {
             logger.debugf("Type with identifier [%s] and DN [%s] successfully removed from LDAP store.", ldapObject.getUuid(), ldapObject.getDn().toString());
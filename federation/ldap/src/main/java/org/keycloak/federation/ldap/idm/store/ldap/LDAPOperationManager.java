@@ -31,10 +31,12 @@ import java.util.Set;
 
 import javax.naming.AuthenticationException;
 import javax.naming.Binding;
+import javax.naming.CommunicationException;
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.DirContext;
@@ -50,6 +52,7 @@ import javax.naming.ldap.PagedResultsResponseControl;
 import org.jboss.logging.Logger;
 import org.keycloak.federation.ldap.LDAPConfig;
 import org.keycloak.federation.ldap.idm.query.internal.LDAPQuery;
+import org.keycloak.metrics.MetricsProvider;
 import org.keycloak.models.LDAPConstants;
 import org.keycloak.models.ModelException;
 
@@ -66,9 +69,35 @@ public class LDAPOperationManager {
     private final LDAPConfig config;
     private final Map<String, Object> connectionProperties;
 
+    // Both are null if connection pooling is disabled
+    private final LDAPConnectionPool connectionPool;
+    private final LDAPConnectionPool bindConnectionPool;
+
+    // Null if operations are not timed
+    private final MetricsProvider metrics;
+
     public LDAPOperationManager(LDAPConfig config) throws NamingException {
+        this(config, null);
+    }
+
+    public LDAPOperationManager(LDAPConfig config, MetricsProvider metrics) throws NamingException {
         this.config = config;
+        this.metrics = metrics;
         this.connectionProperties = Collections.unmodifiableMap(createConnectionProperties());
+
+        if (config.isConnectionPooling()) {
+            this.connectionPool = new LDAPConnectionPool("search " + config.getConnectionUrl(), this.connectionProperties, config);
+
+            // Connections for user authentication are opened anonymously. Each authentication re-binds them with the credentials of the user
+            Map<String, Object> bindConnectionProperties = new HashMap<String, Object>(this.connectionProperties);
+            bindConnectionProperties.put(Context.SECURITY_AUTHENTICATION, LDAPConstants.AUTH_TYPE_NONE);
+            bindConnectionProperties.remove(Context.SECURITY_PRINCIPAL);
+            bindConnectionProperties.remove(Context.SECURITY_CREDENTIALS);
+            this.bindConnectionPool = new LDAPConnectionPool("bind " + config.getConnectionUrl(), bindConnectionProperties, config);
+        } else {
+            this.connectionPool = null;
+            this.bindConnectionPool = null;
+        }
     }
 
     /**
@@ -188,7 +217,7 @@ public class LDAPOperationManager {
         final SearchControls cons = getSearchControls(identityQuery.getReturningLdapAttributes(), identityQuery.getSearchScope());
 
         try {
-            return execute(new LdapOperation<List<SearchResult>>() {
+            return execute(identityQuery, new LdapOperation<List<SearchResult>>() {
                 @Override
                 public List<SearchResult> execute(LdapContext context) throws NamingException {
                     try {
@@ -349,6 +378,11 @@ public class LDAPOperationManager {
                 throw new AuthenticationException("Empty password used");
             }
 
+            if (bindConnectionPool != null) {
+                authenticatePooled(dn, password);
+                return;
+            }
+
             Hashtable<String, Object> env = new Hashtable<String, Object>(this.connectionProperties);
 
             env.put(Context.SECURITY_AUTHENTICATION, LDAPConstants.AUTH_TYPE_SIMPLE);
@@ -380,6 +414,35 @@ public class LDAPOperationManager {
         }
     }
 
+    private void authenticatePooled(String dn, String password) throws NamingException {
+        LDAPConnectionPool.PooledConnection connection = bindConnectionPool.borrow();
+        LdapContext context = connection.getContext();
+        boolean broken = true;
+
+        try {
+            context.addToEnvironment(Context.SECURITY_AUTHENTICATION, LDAPConstants.AUTH_TYPE_SIMPLE);
+            context.addToEnvironment(Context.SECURITY_PRINCIPAL, dn);
+            context.addToEnvironment(Context.SECURITY_CREDENTIALS, password);
+
+            // Sends bind request over the already opened connection
+            context.reconnect(null);
+            broken = false;
+        } catch (NamingException ne) {
+            // Failed bind, like invalid credentials, leaves the connection usable for the next bind
+            broken = ne instanceof CommunicationException || ne instanceof ServiceUnavailableException;
+            throw ne;
+        } finally {
+            try {
+                // Don't keep password of the user in the pooled context
+                context.removeFromEnvironment(Context.SECURITY_CREDENTIALS);
+            } catch (NamingException ne) {
+                broken = true;
+            }
+
+            giveBack(bindConnectionPool, connection, broken);
+        }
+    }
+
     public void modifyAttributes(final String dn, final ModificationItem[] mods) {
         try {
             if (logger.isTraceEnabled()) {
@@ -504,10 +567,8 @@ public class LDAPOperationManager {
         String useTruststoreSpi = this.config.getUseTruststoreSpi();
         LDAPConstants.setTruststoreSpiIfNeeded(useTruststoreSpi, url, env);
 
-        String connectionPooling = this.config.getConnectionPooling();
-        if (connectionPooling != null) {
-            env.put("com.sun.jndi.ldap.connect.pool", connectionPooling);
-        }
+        // Connections are pooled by LDAPConnectionPool if connection pooling is enabled
+        env.put("com.sun.jndi.ldap.connect.pool", "false");
 
         // Just dump the additional properties
         Properties additionalProperties = this.config.getAdditionalConnectionProperties();
@@ -529,6 +590,30 @@ public class LDAPOperationManager {
     }
 
     private <R> R execute(LdapOperation<R> operation) throws NamingException {
+        return execute(null, operation);
+    }
+
+    /**
+     * @param pagedQuery query of paginated search, which reads all its pages through the same pooled connection
+     */
+    private <R> R execute(LDAPQuery pagedQuery, LdapOperation<R> operation) throws NamingException {
+        if (metrics == null) {
+            return executeOperation(pagedQuery, operation);
+        }
+
+        long start = System.nanoTime();
+        try {
+            return executeOperation(pagedQuery, operation);
+        } finally {
+            metrics.record("ldap.operation", System.nanoTime() - start);
+        }
+    }
+
+    private <R> R executeOperation(LDAPQuery pagedQuery, LdapOperation<R> operation) throws NamingException {
+        if (connectionPool != null) {
+            return pagedQuery != null ? executePaged(pagedQuery, operation) : executePooled(operation);
+        }
+
         LdapContext context = null;
 
         try {
@@ -547,6 +632,105 @@ public class LDAPOperationManager {
         }
     }
 
+    private <R> R executePooled(LdapOperation<R> operation) throws NamingException {
+        LDAPConnectionPool.PooledConnection connection = connectionPool.borrow();
+        boolean broken = true;
+
+        try {
+            R result = operation.execute(connection.getContext());
+            broken = false;
+            return result;
+        } catch (NamingException ne) {
+            // Errors like missing entry or constraint violation don't affect the connection
+            broken = ne instanceof CommunicationException || ne instanceof ServiceUnavailableException;
+            throw ne;
+        } finally {
+            releasePooled(connection, broken);
+        }
+    }
+
+    // Cookie of paginated search is valid just on the connection, which returned it. The connection is kept by the query
+    // until the last page is read
+    private <R> R executePaged(LDAPQuery pagedQuery, LdapOperation<R> operation) throws NamingException {
+        LDAPConnectionPool.PooledConnection connection = pagedQuery.getPagedSearchConnection();
+        if (connection == null) {
+            connection = connectionPool.borrow();
+        }
+        pagedQuery.setPagedSearchConnection(null);
+        boolean broken = true;
+
+        try {
+            R result = operation.execute(connection.getContext());
+            broken = false;
+            return result;
+        } catch (NamingException ne) {
+            broken = ne instanceof CommunicationException || ne instanceof ServiceUnavailableException;
+            throw ne;
+        } finally {
+            if (!broken && pagedQuery.getPaginationContext() != null) {
+                pagedQuery.setPagedSearchConnection(connection);
+            } else {
+                releasePooled(connection, broken);
+            }
+        }
+    }
+
+    /**
+     * Gives back the connection held by the paginated query, if it was not read to the last page.
+     */
+    public void closePagedSearch(LDAPQuery pagedQuery) {
+        LDAPConnectionPool.PooledConnection connection = pagedQuery.getPagedSearchConnection();
+        if (connection != null) {
+            pagedQuery.setPagedSearchConnection(null);
+            pagedQuery.setPaginationContext(null);
+            releasePooled(connection, false);
+        }
+    }
+
+    private void releasePooled(LDAPConnectionPool.PooledConnection connection, boolean broken) {
+        if (!broken) {
+            try {
+                // Paginated search leaves its controls on the context
+                connection.getContext().setRequestControls(null);
+            } catch (NamingException ne) {
+                broken = true;
+            }
+        }
+        giveBack(connectionPool, connection, broken);
+    }
+
+    private void giveBack(LDAPConnectionPool pool, LDAPConnectionPool.PooledConnection connection, boolean broken) {
+        if (broken) {
+            pool.invalidate(connection);
+        } else {
+            pool.release(connection);
+        }
+    }
+
+    /**
+     * @return pool of connections used for searches and updates or null if connection pooling is disabled
+     */
+    public LDAPConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * @return pool of connections used for authentication of users or null if connection pooling is disabled
+     */
+    public LDAPConnectionPool getBindConnectionPool() {
+        return bindConnectionPool;
+    }
+
+    /**
+     * Closes pooled connections. Operations still in progress finish normally.
+     */
+    public void close() {
+        if (connectionPool != null) {
+            connectionPool.close();
+            bindConnectionPool.close();
+        }
+    }
+
     private interface LdapOperation<R> {
         R execute(LdapContext context) throws NamingException;
     }
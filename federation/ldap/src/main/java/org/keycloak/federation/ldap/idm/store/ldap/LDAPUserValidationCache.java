@@ -0,0 +1,175 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.federation.ldap.idm.store.ldap;
+
+import org.keycloak.federation.ldap.idm.model.LDAPObject;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Time-bounded cache of LDAP users, which were recently loaded to validate local user. Shared by all sessions using
+ * the same LDAP provider. Every caller gets its own copy of the cached object, so modifications done by proxies of
+ * one session don't leak to other sessions.
+ *
+ * <p>Entries are invalidated when the user is updated or removed through this node. Other cluster nodes and changes done
+ * directly in LDAP are not tracked, so the node may validate a changed or removed LDAP user for up to the TTL of the
+ * cache. TTL should be set to the staleness, which is acceptable for the deployment.</p>
+ */
+public class LDAPUserValidationCache {
+
+    private static final int MAX_SIZE = 10000;
+
+    private final long ttl;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    // Usernames of cached entries by UUID of LDAP user
+    private final ConcurrentHashMap<String, String> usernamesByUuid = new ConcurrentHashMap<String, String>();
+
+    public LDAPUserValidationCache(long ttl) {
+        this.ttl = ttl;
+    }
+
+    public boolean isEnabled() {
+        return ttl > 0;
+    }
+
+    /**
+     * @param username lower-cased username
+     * @return copy of cached LDAP user or null if not cached or expired
+     */
+    public LDAPObject get(String username) {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        Entry entry = entries.get(username);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiration < System.currentTimeMillis()) {
+            remove(username, entry);
+            return null;
+        }
+        return copy(entry.ldapObject);
+    }
+
+    public void put(String username, LDAPObject ldapObject) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        if (entries.size() >= MAX_SIZE) {
+            removeExpired();
+            if (entries.size() >= MAX_SIZE) {
+                clear();
+            }
+        }
+
+        Entry entry = new Entry(copy(ldapObject), System.currentTimeMillis() + ttl);
+        Entry previous = entries.put(username, entry);
+        if (previous != null && previous.ldapObject.getUuid() != null && !previous.ldapObject.getUuid().equals(ldapObject.getUuid())) {
+            usernamesByUuid.remove(previous.ldapObject.getUuid(), username);
+        }
+        if (ldapObject.getUuid() != null) {
+            String previousUsername = usernamesByUuid.put(ldapObject.getUuid(), username);
+
+            // LDAP user was renamed
+            if (previousUsername != null && !previousUsername.equals(username)) {
+                invalidate(previousUsername);
+            }
+        }
+    }
+
+    public void invalidate(String username) {
+        Entry entry = entries.remove(username);
+        if (entry != null && entry.ldapObject.getUuid() != null) {
+            usernamesByUuid.remove(entry.ldapObject.getUuid(), username);
+        }
+    }
+
+    /**
+     * Invalidate the entry of given LDAP object. Lookup is by UUID, so it works even if the object was renamed
+     */
+    public void invalidate(LDAPObject ldapObject) {
+        if (ldapObject.getUuid() == null) {
+            return;
+        }
+
+        String username = usernamesByUuid.remove(ldapObject.getUuid());
+        if (username != null) {
+            entries.remove(username);
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+        usernamesByUuid.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void removeExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entry> entry = it.next();
+            if (entry.getValue().expiration < now) {
+                remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void remove(String username, Entry entry) {
+        if (entries.remove(username, entry) && entry.ldapObject.getUuid() != null) {
+            usernamesByUuid.remove(entry.ldapObject.getUuid(), username);
+        }
+    }
+
+    private static LDAPObject copy(LDAPObject ldapObject) {
+        LDAPObject copy = new LDAPObject();
+        copy.setUuid(ldapObject.getUuid());
+        copy.setDn(ldapObject.getDn());
+        copy.setRdnAttributeName(ldapObject.getRdnAttributeName());
+        copy.setObjectClasses(ldapObject.getObjectClasses());
+        for (String readOnlyAttributeName : ldapObject.getReadOnlyAttributeNames()) {
+            copy.addReadOnlyAttributeName(readOnlyAttributeName);
+        }
+        for (Map.Entry<String, Set<String>> attribute : ldapObject.getAttributes().entrySet()) {
+            Set<String> values = attribute.getValue() == null ? null : new LinkedHashSet<String>(attribute.getValue());
+            copy.setAttribute(attribute.getKey(), values);
+        }
+        return copy;
+    }
+
+    private static class Entry {
+
+        private final LDAPObject ldapObject;
+        private final long expiration;
+
+        private Entry(LDAPObject ldapObject, long expiration) {
+            this.ldapObject = ldapObject;
+            this.expiration = expiration;
+        }
+    }
+}
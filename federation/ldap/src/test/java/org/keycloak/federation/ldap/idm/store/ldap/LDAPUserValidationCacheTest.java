@@ -0,0 +1,119 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.federation.ldap.idm.store.ldap;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.federation.ldap.idm.model.LDAPDn;
+import org.keycloak.federation.ldap.idm.model.LDAPObject;
+
+public class LDAPUserValidationCacheTest {
+
+    @Test
+    public void testGetReturnsCopy() {
+        LDAPUserValidationCache cache = new LDAPUserValidationCache(60000);
+        cache.put("john", ldapUser("uuid-1", "john"));
+
+        LDAPObject cached = cache.get("john");
+        cached.setSingleAttribute("mail", "changed@keycloak.org");
+
+        Assert.assertEquals("john@keycloak.org", cache.get("john").getAttributeAsString("mail"));
+        Assert.assertNotSame(cache.get("john"), cache.get("john"));
+    }
+
+    @Test
+    public void testDisabled() {
+        LDAPUserValidationCache cache = new LDAPUserValidationCache(0);
+        cache.put("john", ldapUser("uuid-1", "john"));
+
+        Assert.assertNull(cache.get("john"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testExpired() throws Exception {
+        LDAPUserValidationCache cache = new LDAPUserValidationCache(1);
+        cache.put("john", ldapUser("uuid-1", "john"));
+        Thread.sleep(10);
+
+        Assert.assertNull(cache.get("john"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testInvalidateByLDAPObject() {
+        LDAPUserValidationCache cache = new LDAPUserValidationCache(60000);
+        cache.put("john", ldapUser("uuid-1", "john"));
+        cache.put("mary", ldapUser("uuid-2", "mary"));
+
+        // Object loaded by another query, possibly with different DN after rename
+        cache.invalidate(ldapUser("uuid-1", "johnny"));
+
+        Assert.assertNull(cache.get("john"));
+        Assert.assertNotNull(cache.get("mary"));
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testInvalidateByUsername() {
+        LDAPUserValidationCache cache = new LDAPUserValidationCache(60000);
+        cache.put("john", ldapUser("uuid-1", "john"));
+        cache.invalidate("john");
+
+        Assert.assertNull(cache.get("john"));
+
+        // Stale UUID mapping must not remove entry of another user
+        cache.put("john2", ldapUser("uuid-2", "john2"));
+        cache.invalidate(ldapUser("uuid-1", "john"));
+        Assert.assertNotNull(cache.get("john2"));
+    }
+
+    @Test
+    public void testRenamedUser() {
+        LDAPUserValidationCache cache = new LDAPUserValidationCache(60000);
+        cache.put("john", ldapUser("uuid-1", "john"));
+        cache.put("johnny", ldapUser("uuid-1", "johnny"));
+
+        Assert.assertNull(cache.get("john"));
+        Assert.assertNotNull(cache.get("johnny"));
+
+        cache.invalidate(ldapUser("uuid-1", "johnny"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testClear() {
+        LDAPUserValidationCache cache = new LDAPUserValidationCache(60000);
+        cache.put("john", ldapUser("uuid-1", "john"));
+        cache.clear();
+
+        Assert.assertNull(cache.get("john"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    private static LDAPObject ldapUser(String uuid, String username) {
+        LDAPObject ldapUser = new LDAPObject();
+        ldapUser.setUuid(uuid);
+        ldapUser.setDn(LDAPDn.fromString("uid=" + username + ",ou=People,dc=keycloak,dc=org"));
+        ldapUser.setRdnAttributeName("uid");
+        ldapUser.setSingleAttribute("uid", username);
+        ldapUser.setSingleAttribute("mail", username + "@keycloak.org");
+        return ldapUser;
+    }
+
+}
@@ -94,4 +94,18 @@ public interface GroupResource {
     @Produces(MediaType.APPLICATION_JSON)
     public List<UserRepresentation> members(@QueryParam("first") Integer firstResult,
                                             @QueryParam("max") Integer maxResults);
+
+    /**
+     * Get users ordered by username, which follow the last user of previous page
+     *
+     * @param lastUsername Username of the last user of previous page
+     * @param maxResults  Pagination size
+     * @return
+     */
+    @GET
+    @NoCache
+    @Path("/members")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<UserRepresentation> membersAfter(@QueryParam("after") String lastUsername,
+                                                 @QueryParam("max") Integer maxResults);
 }
@@ -47,6 +47,17 @@ public interface UsersResource {
                                            @QueryParam("first") Integer firstResult,
                                            @QueryParam("max") Integer maxResults);
 
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    List<UserRepresentation> searchAfter(@QueryParam("search") String search,
+                                         @QueryParam("after") String lastUsername,
+                                         @QueryParam("max") Integer maxResults);
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    List<UserRepresentation> listAfter(@QueryParam("after") String lastUsername,
+                                       @QueryParam("max") Integer maxResults);
+
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
     Response create(UserRepresentation userRepresentation);
@@ -43,6 +43,7 @@ public class InfinispanClusterProvider implements ClusterProvider {
 
     public static final String CLUSTER_STARTUP_TIME_KEY = "cluster-start-time";
     private static final String TASK_KEY_PREFIX = "task::";
+    private static final String TASK_STATE_KEY_PREFIX = "task-state::";
 
     private final InfinispanClusterProviderFactory factory;
     private final KeycloakSession session;
@@ -103,6 +104,27 @@ public class InfinispanClusterProvider implements ClusterProvider {
     }
 
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends Serializable> T getTaskState(String taskKey) {
+        return (T) cache.get(TASK_STATE_KEY_PREFIX + taskKey);
+    }
+
+
+    @Override
+    public void setTaskState(String taskKey, Serializable state) {
+        cache.getAdvancedCache()
+                .withFlags(Flag.IGNORE_RETURN_VALUES)
+                .put(TASK_STATE_KEY_PREFIX + taskKey, state);
+    }
+
+
+    @Override
+    public void removeTaskState(String taskKey) {
+        removeFromCache(TASK_STATE_KEY_PREFIX + taskKey);
+    }
+
+
     @Override
     public void registerListener(String taskKey, ClusterListener task) {
         factory.registerListener(taskKey, task);
@@ -17,6 +17,7 @@
 
 package org.keycloak.connections.infinispan;
 
+import org.infinispan.commons.marshall.AdvancedExternalizer;
 import org.infinispan.configuration.cache.CacheMode;
 import org.infinispan.configuration.cache.Configuration;
 import org.infinispan.configuration.cache.ConfigurationBuilder;
@@ -30,6 +31,7 @@ import org.jboss.logging.Logger;
 import org.keycloak.Config;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.sessions.infinispan.entities.SessionEntityExternalizers;
 
 import javax.naming.InitialContext;
 
@@ -113,6 +115,9 @@ public class DefaultInfinispanConnectionProviderFactory implements InfinispanCon
             gcb.transport().defaultTransport();
         }
         gcb.globalJmxStatistics().allowDuplicateDomains(allowDuplicateJMXDomains);
+        for (AdvancedExternalizer<?> externalizer : SessionEntityExternalizers.getExternalizers()) {
+            gcb.serialization().addAdvancedExternalizer(externalizer);
+        }
 
         cacheManager = new DefaultCacheManager(gcb.build());
         containerManaged = false;
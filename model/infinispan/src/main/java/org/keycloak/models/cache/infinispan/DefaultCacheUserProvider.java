@@ -17,6 +17,7 @@
 
 package org.keycloak.models.cache.infinispan;
 
+import org.keycloak.metrics.MetricsProvider;
 import org.keycloak.models.*;
 import org.keycloak.models.cache.CacheUserProvider;
 import org.keycloak.models.cache.infinispan.entities.CachedUser;
@@ -37,6 +38,7 @@ public class DefaultCacheUserProvider implements CacheUserProvider {
     protected Map<String, String> userInvalidations = new HashMap<>();
     protected Set<String> realmInvalidations = new HashSet<>();
     protected Map<String, UserModel> managedUsers = new HashMap<>();
+    protected MetricsProvider metrics;
 
     public DefaultCacheUserProvider(UserCache cache, KeycloakSession session) {
         this.cache = cache;
@@ -121,12 +123,14 @@ public class DefaultCacheUserProvider implements CacheUserProvider {
         }
 
         CachedUser cached = cache.getCachedUser(realm.getId(), id);
+        countLookup(cached != null);
         if (cached == null) {
+            long revision = cache.getCurrentRealmRevision(realm.getId());
             UserModel model = getDelegate().getUserById(id, realm);
             if (model == null) return null;
             if (managedUsers.containsKey(id)) return managedUsers.get(id);
             if (userInvalidations.containsKey(id)) return model;
-            cached = new CachedUser(realm, model);
+            cached = new CachedUser(revision, realm, model);
             cache.addCachedUser(realm.getId(), cached);
         } else if (managedUsers.containsKey(id)) {
             return managedUsers.get(id);
@@ -145,12 +149,14 @@ public class DefaultCacheUserProvider implements CacheUserProvider {
             return getDelegate().getUserByUsername(username, realm);
         }
         CachedUser cached = cache.getCachedUserByUsername(realm.getId(), username);
+        countLookup(cached != null);
         if (cached == null) {
+            long revision = cache.getCurrentRealmRevision(realm.getId());
             UserModel model = getDelegate().getUserByUsername(username, realm);
             if (model == null) return null;
             if (managedUsers.containsKey(model.getId())) return managedUsers.get(model.getId());
             if (userInvalidations.containsKey(model.getId())) return model;
-            cached = new CachedUser(realm, model);
+            cached = new CachedUser(revision, realm, model);
             cache.addCachedUser(realm.getId(), cached);
         } else if (userInvalidations.containsKey(cached.getId())) {
             return getDelegate().getUserById(cached.getId(), realm);
@@ -172,11 +178,13 @@ public class DefaultCacheUserProvider implements CacheUserProvider {
             return getDelegate().getUserByEmail(email, realm);
         }
         CachedUser cached = cache.getCachedUserByEmail(realm.getId(), email);
+        countLookup(cached != null);
         if (cached == null) {
+            long revision = cache.getCurrentRealmRevision(realm.getId());
             UserModel model = getDelegate().getUserByEmail(email, realm);
             if (model == null) return null;
             if (userInvalidations.containsKey(model.getId())) return model;
-            cached = new CachedUser(realm, model);
+            cached = new CachedUser(revision, realm, model);
             cache.addCachedUser(realm.getId(), cached);
         } else if (userInvalidations.containsKey(cached.getId())) {
             return getDelegate().getUserByEmail(email, realm);
@@ -193,6 +201,14 @@ public class DefaultCacheUserProvider implements CacheUserProvider {
         if (delegate != null) delegate.close();
     }
 
+    protected void countLookup(boolean hit) {
+        if (metrics == null) {
+            metrics = session.getProvider(MetricsProvider.class);
+            if (metrics == null) return;
+        }
+        metrics.increment(hit ? "cache.user.hit" : "cache.user.miss");
+    }
+
     @Override
     public UserModel getUserByFederatedIdentity(FederatedIdentityModel socialLink, RealmModel realm) {
         return getDelegate().getUserByFederatedIdentity(socialLink, realm);
@@ -203,6 +219,11 @@ public class DefaultCacheUserProvider implements CacheUserProvider {
         return getDelegate().getGroupMembers(realm, group, firstResult, maxResults);
     }
 
+    @Override
+    public List<UserModel> getGroupMembersAfter(RealmModel realm, GroupModel group, String lastUsername, int maxResults) {
+        return getDelegate().getGroupMembersAfter(realm, group, lastUsername, maxResults);
+    }
+
     @Override
     public List<UserModel> getGroupMembers(RealmModel realm, GroupModel group) {
         return getDelegate().getGroupMembers(realm, group);
@@ -238,6 +259,16 @@ public class DefaultCacheUserProvider implements CacheUserProvider {
         return getDelegate().searchForUser(search, realm, firstResult, maxResults);
     }
 
+    @Override
+    public List<UserModel> getUsersAfter(RealmModel realm, String lastUsername, int maxResults, boolean includeServiceAccounts) {
+        return getDelegate().getUsersAfter(realm, lastUsername, maxResults, includeServiceAccounts);
+    }
+
+    @Override
+    public List<UserModel> searchForUserAfter(String search, RealmModel realm, String lastUsername, int maxResults) {
+        return getDelegate().searchForUserAfter(search, realm, lastUsername, maxResults);
+    }
+
     @Override
     public List<UserModel> searchForUserByAttributes(Map<String, String> attributes, RealmModel realm) {
         return getDelegate().searchForUserByAttributes(attributes, realm);
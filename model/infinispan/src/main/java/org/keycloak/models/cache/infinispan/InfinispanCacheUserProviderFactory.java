@@ -24,12 +24,16 @@ import org.infinispan.notifications.cachelistener.event.*;
 import org.jboss.logging.Logger;
 import org.keycloak.Config;
 import org.keycloak.connections.infinispan.InfinispanConnectionProvider;
+import org.keycloak.metrics.MetricsProvider;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.cache.CacheUserProvider;
 import org.keycloak.models.cache.CacheUserProviderFactory;
 import org.keycloak.models.cache.infinispan.entities.CachedUser;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -55,9 +59,9 @@ public class InfinispanCacheUserProviderFactory implements CacheUserProviderFact
         if (userCache == null) {
             synchronized (this) {
                 if (userCache == null) {
-                    Cache<String, CachedUser> cache = session.getProvider(InfinispanConnectionProvider.class).getCache(InfinispanConnectionProvider.USER_CACHE_NAME);
+                    Cache<String, Object> cache = session.getProvider(InfinispanConnectionProvider.class).getCache(InfinispanConnectionProvider.USER_CACHE_NAME);
                     cache.addListener(new CacheListener());
-                    userCache = new InfinispanUserCache(cache, usernameLookup, emailLookup);
+                    userCache = new InfinispanUserCache(cache, usernameLookup, emailLookup, session.getProvider(MetricsProvider.class));
                 }
             }
         }
@@ -85,9 +89,9 @@ public class InfinispanCacheUserProviderFactory implements CacheUserProviderFact
     public class CacheListener {
 
         @CacheEntryCreated
-        public void userCreated(CacheEntryCreatedEvent<String, CachedUser> event) {
+        public void userCreated(CacheEntryCreatedEvent<String, Object> event) {
             if (!event.isPre()) {
-                CachedUser user = event.getValue();
+                CachedUser user = getUser(event.getValue());
                 if (user != null) {
                     String realm = user.getRealm();
 
@@ -102,9 +106,9 @@ public class InfinispanCacheUserProviderFactory implements CacheUserProviderFact
         }
 
         @CacheEntryRemoved
-        public void userRemoved(CacheEntryRemovedEvent<String, CachedUser> event) {
+        public void userRemoved(CacheEntryRemovedEvent<String, Object> event) {
             if (event.isPre()) {
-                CachedUser user = event.getValue();
+                CachedUser user = getUser(event.getValue());
                 if (user != null) {
                     removeUser(user);
 
@@ -114,9 +118,9 @@ public class InfinispanCacheUserProviderFactory implements CacheUserProviderFact
         }
 
         @CacheEntryInvalidated
-        public void userInvalidated(CacheEntryInvalidatedEvent<String, CachedUser> event) {
+        public void userInvalidated(CacheEntryInvalidatedEvent<String, Object> event) {
             if (event.isPre()) {
-                CachedUser user = event.getValue();
+                CachedUser user = getUser(event.getValue());
                 if (user != null) {
                     removeUser(user);
 
@@ -126,14 +130,21 @@ public class InfinispanCacheUserProviderFactory implements CacheUserProviderFact
         }
 
         @CacheEntriesEvicted
-        public void userEvicted(CacheEntriesEvictedEvent<String, CachedUser> event) {
-            for (CachedUser user : event.getEntries().values()) {
+        public void userEvicted(CacheEntriesEvictedEvent<String, Object> event) {
+            for (Object value : event.getEntries().values()) {
+                CachedUser user = getUser(value);
+                if (user == null) continue;
                 removeUser(user);
 
                 log.tracev("User evicted realm={0}, id={1}, username={2}", user.getRealm(), user.getId(), user.getUsername());
             }
         }
 
+        // Cache contains also invalidation markers of realms
+        private CachedUser getUser(Object value) {
+            return value instanceof CachedUser ? (CachedUser) value : null;
+        }
+
         private void removeUser(CachedUser cachedUser) {
             String realm = cachedUser.getRealm();
             usernameLookup.remove(realm, cachedUser.getUsername());
@@ -165,6 +176,11 @@ public class InfinispanCacheUserProviderFactory implements CacheUserProviderFact
             return map != null ? map.get(key) : null;
         }
 
+        public Collection<String> getValues(String realm) {
+            ConcurrentHashMap<String, String> map = lookup.get(realm);
+            return map != null ? new ArrayList<>(map.values()) : Collections.<String>emptyList();
+        }
+
         public void remove(String realm, String key) {
             ConcurrentHashMap<String, String> map = lookup.get(realm);
             if (map != null) {
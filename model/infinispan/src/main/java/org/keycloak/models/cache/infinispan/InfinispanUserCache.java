@@ -18,35 +18,88 @@
 package org.keycloak.models.cache.infinispan;
 
 import org.infinispan.Cache;
+import org.infinispan.notifications.Listener;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryInvalidated;
+import org.infinispan.notifications.cachelistener.event.CacheEntryInvalidatedEvent;
 import org.jboss.logging.Logger;
+import org.keycloak.metrics.MetricsProvider;
 import org.keycloak.models.cache.infinispan.entities.CachedUser;
 
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
+ * Users of the realm are invalidated by bumping the revision of the realm. Cached users loaded before the current revision
+ * of their realm are treated as missing, so invalidation of one realm doesn't affect cached users of other realms.
+ *
  * @author <a href="mailto:sthorger@redhat.com">Stian Thorgersen</a>
  */
+@Listener
 public class InfinispanUserCache implements UserCache {
 
     protected static final Logger logger = Logger.getLogger(InfinispanUserCache.class);
 
+    protected static final String REALM_INVALIDATION_KEY_PREFIX = "invalidation.key.realm.users.";
+
     protected volatile boolean enabled = true;
 
-    protected final Cache<String, CachedUser> cache;
+    protected final Cache<String, Object> cache;
 
     protected final InfinispanCacheUserProviderFactory.RealmLookup usernameLookup;
 
     protected final InfinispanCacheUserProviderFactory.RealmLookup emailLookup;
 
-    public InfinispanUserCache(Cache<String, CachedUser> cache, InfinispanCacheUserProviderFactory.RealmLookup usernameLookup, InfinispanCacheUserProviderFactory.RealmLookup emailLookup) {
+    protected final ConcurrentHashMap<String, Long> realmRevisions = new ConcurrentHashMap<>();
+
+    // Counts hits, misses and invalidations per realm, may be null
+    protected final MetricsProvider metrics;
+
+    public InfinispanUserCache(Cache<String, Object> cache, InfinispanCacheUserProviderFactory.RealmLookup usernameLookup, InfinispanCacheUserProviderFactory.RealmLookup emailLookup,
+                               MetricsProvider metrics) {
         this.cache = cache;
+        this.cache.addListener(this);
         this.usernameLookup = usernameLookup;
         this.emailLookup = emailLookup;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public long getCurrentRealmRevision(String realmId) {
+        Long revision = realmRevisions.get(realmId);
+        if (revision == null) {
+            revision = UpdateCounter.current();
+            Long existing = realmRevisions.putIfAbsent(realmId, revision);
+            if (existing != null) revision = existing;
+        }
+        // if you do cache.remove() on node 1 and the entry doesn't exist on node 2, node 2 never receives a invalidation event
+        // so, we do this to force this. Invalidation removes the entry, so it's added again by the next miss.
+        String invalidationKey = REALM_INVALIDATION_KEY_PREFIX + realmId;
+        if (!cache.containsKey(invalidationKey)) {
+            cache.putForExternalRead(invalidationKey, realmId);
+        }
+        return revision;
     }
 
     @Override
     public CachedUser getCachedUser(String realmId, String id) {
         if (realmId == null || id == null) return null;
-        CachedUser user = cache.get(id);
-        return user != null && realmId.equals(user.getRealm()) ? user : null;
+        Object o = cache.get(id);
+        CachedUser user = o instanceof CachedUser ? (CachedUser) o : null;
+        if (user == null || !realmId.equals(user.getRealm())) {
+            count(realmId, "miss");
+            return null;
+        }
+
+        Long revision = realmRevisions.get(realmId);
+        if (revision == null || user.getRealmRevision() < revision) {
+            logger.tracev("Cached user {0} is older than revision of realm {1}", id, realmId);
+            cache.evict(id);
+            count(realmId, "miss");
+            return null;
+        }
+
+        count(realmId, "hit");
+        return user;
     }
 
     @Override
@@ -64,20 +117,41 @@ public class InfinispanUserCache implements UserCache {
     @Override
     public CachedUser getCachedUserByUsername(String realmId, String name) {
         String id = usernameLookup.get(realmId, name);
-        return id != null ? getCachedUser(realmId, id) : null;
+        if (id == null) {
+            count(realmId, "miss");
+            return null;
+        }
+        return getCachedUser(realmId, id);
     }
 
     @Override
     public CachedUser getCachedUserByEmail(String realmId, String email) {
         String id = emailLookup.get(realmId, email);
-        return id != null ? getCachedUser(realmId, id) : null;
+        if (id == null) {
+            count(realmId, "miss");
+            return null;
+        }
+        return getCachedUser(realmId, id);
     }
 
     @Override
     public void invalidateRealmUsers(String realmId) {
         logger.tracev("Invalidating users for realm {0}", realmId);
 
-        cache.clear();
+        bumpRealmRevision(realmId);
+        // Notify other cluster nodes
+        cache.remove(REALM_INVALIDATION_KEY_PREFIX + realmId);
+    }
+
+    protected void bumpRealmRevision(String realmId) {
+        realmRevisions.put(realmId, UpdateCounter.next());
+        count(realmId, "invalidation");
+
+        // Users of the realm would be ignored anyway, so release the memory now
+        Collection<String> ids = usernameLookup.getValues(realmId);
+        for (String id : ids) {
+            cache.evict(id);
+        }
     }
 
     @Override
@@ -85,4 +159,22 @@ public class InfinispanUserCache implements UserCache {
         cache.clear();
     }
 
+    protected void count(String realmId, String type) {
+        if (metrics != null) {
+            metrics.increment("cache.user.realm." + realmId + "." + type);
+        }
+    }
+
+    @CacheEntryInvalidated
+    public void cacheInvalidated(CacheEntryInvalidatedEvent<String, Object> event) {
+        if (event.isPre()) {
+            String key = event.getKey();
+            if (key.startsWith(REALM_INVALIDATION_KEY_PREFIX)) {
+                String realmId = key.substring(REALM_INVALIDATION_KEY_PREFIX.length());
+                logger.tracev("Users of realm {0} invalidated on other node", realmId);
+                bumpRealmRevision(realmId);
+            }
+        }
+    }
+
 }
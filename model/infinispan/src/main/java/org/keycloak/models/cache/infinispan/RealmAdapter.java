@@ -429,6 +429,12 @@ public class RealmAdapter implements RealmModel {
         setPublicKeyPem(publicKeyPem);
     }
 
+    @Override
+    public String getKeyId() {
+        if (updated != null) return updated.getKeyId();
+        return cached.getKeyId();
+    }
+
     @Override
     public X509Certificate getCertificate() {
         if (updated != null) return updated.getCertificate();
@@ -18,6 +18,7 @@
 package org.keycloak.models.cache.infinispan;
 
 import org.jboss.logging.Logger;
+import org.keycloak.metrics.MetricsProvider;
 import org.keycloak.migration.MigrationModel;
 import org.keycloak.models.ClientModel;
 import org.keycloak.models.ClientTemplateModel;
@@ -124,6 +125,7 @@ public class StreamCacheRealmProvider implements CacheRealmProvider {
     protected Set<String> invalidations = new HashSet<>();
 
     protected boolean clearAll;
+    protected MetricsProvider metrics;
 
     public StreamCacheRealmProvider(StreamRealmCache cache, KeycloakSession session) {
         this.cache = cache;
@@ -299,6 +301,7 @@ public class StreamCacheRealmProvider implements CacheRealmProvider {
         if (cached != null) {
             logger.tracev("by id cache hit: {0}", cached.getName());
         }
+        countLookup(cached != null);
         if (cached == null) {
             Long loaded = cache.getCurrentRevision(id);
             RealmModel model = getDelegate().getRealm(id);
@@ -472,6 +475,14 @@ public class StreamCacheRealmProvider implements CacheRealmProvider {
         if (delegate != null) delegate.close();
     }
 
+    protected void countLookup(boolean hit) {
+        if (metrics == null) {
+            metrics = session.getProvider(MetricsProvider.class);
+            if (metrics == null) return;
+        }
+        metrics.increment(hit ? "cache.realm.hit" : "cache.realm.miss");
+    }
+
     @Override
     public RoleModel addRealmRole(RealmModel realm, String name) {
         return addRealmRole(realm, KeycloakModelUtils.generateId(), name);
@@ -826,6 +837,7 @@ public class StreamCacheRealmProvider implements CacheRealmProvider {
         if (cached != null && !cached.getRealm().equals(realm.getId())) {
             cached = null;
         }
+        countLookup(cached != null);
         if (cached != null) {
             logger.tracev("client by id cache hit: {0}", cached.getClientId());
         }
@@ -39,4 +39,9 @@ public interface UserCache {
 
     void invalidateRealmUsers(String realmId);
 
+    /**
+     * @return revision, which should be assigned to users of the realm loaded from the DB from now on
+     */
+    long getCurrentRealmRevision(String realmId);
+
 }
@@ -95,6 +95,7 @@ public class CachedRealm extends AbstractRevisioned {
 
     protected transient PublicKey publicKey;
     protected String publicKeyPem;
+    protected String keyId;
     protected transient PrivateKey privateKey;
     protected String privateKeyPem;
     protected transient X509Certificate certificate;
@@ -191,6 +192,7 @@ public class CachedRealm extends AbstractRevisioned {
 
         publicKeyPem = model.getPublicKeyPem();
         publicKey = model.getPublicKey();
+        keyId = model.getKeyId();
         privateKeyPem = model.getPrivateKeyPem();
         privateKey = model.getPrivateKey();
         certificatePem = model.getCertificatePem();
@@ -573,6 +575,10 @@ public class CachedRealm extends AbstractRevisioned {
         return publicKey;
     }
 
+    public String getKeyId() {
+        return keyId;
+    }
+
     public PrivateKey getPrivateKey() {
         return privateKey;
     }
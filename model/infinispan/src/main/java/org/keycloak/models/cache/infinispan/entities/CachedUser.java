@@ -37,6 +37,7 @@ import java.util.Set;
 public class CachedUser implements Serializable {
     private String id;
     private String realm;
+    private long realmRevision;
     private String username;
     private Long createdTimestamp;
     private String firstName;
@@ -53,9 +54,10 @@ public class CachedUser implements Serializable {
     private Set<String> roleMappings = new HashSet<>();
     private Set<String> groups = new HashSet<>();
 
-    public CachedUser(RealmModel realm, UserModel user) {
+    public CachedUser(long realmRevision, RealmModel realm, UserModel user) {
         this.id = user.getId();
         this.realm = realm.getId();
+        this.realmRevision = realmRevision;
         this.username = user.getUsername();
         this.createdTimestamp = user.getCreatedTimestamp();
         this.firstName = user.getFirstName();
@@ -88,6 +90,10 @@ public class CachedUser implements Serializable {
         return realm;
     }
 
+    public long getRealmRevision() {
+        return realmRevision;
+    }
+
     public String getUsername() {
         return username;
     }
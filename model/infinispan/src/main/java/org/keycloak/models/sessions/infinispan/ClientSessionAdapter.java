@@ -25,6 +25,7 @@ import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
 import org.keycloak.models.UserSessionModel;
 import org.keycloak.models.sessions.infinispan.entities.ClientSessionEntity;
+import org.keycloak.models.sessions.infinispan.entities.ClientSessionEntityDelta;
 import org.keycloak.models.sessions.infinispan.entities.SessionEntity;
 
 import java.util.Collections;
@@ -96,7 +97,7 @@ public class ClientSessionAdapter implements ClientSessionModel {
 
             entity.setUserSession(userSession.getId());
         }
-        update();
+        update(new ClientSessionEntityDelta().setUserSession(entity.getUserSession()));
     }
 
     @Override
@@ -107,7 +108,7 @@ public class ClientSessionAdapter implements ClientSessionModel {
     @Override
     public void setRedirectUri(String uri) {
         entity.setRedirectUri(uri);
-        update();
+        update(new ClientSessionEntityDelta().setRedirectUri(uri));
     }
 
     @Override
@@ -118,7 +119,7 @@ public class ClientSessionAdapter implements ClientSessionModel {
     @Override
     public void setTimestamp(int timestamp) {
         entity.setTimestamp(timestamp);
-        update();
+        update(new ClientSessionEntityDelta().setTimestamp(timestamp));
     }
 
     @Override
@@ -129,7 +130,7 @@ public class ClientSessionAdapter implements ClientSessionModel {
     @Override
     public void setAction(String action) {
         entity.setAction(action);
-        update();
+        update(new ClientSessionEntityDelta().setAction(action));
     }
 
     @Override
@@ -141,7 +142,7 @@ public class ClientSessionAdapter implements ClientSessionModel {
     @Override
     public void setRoles(Set<String> roles) {
         entity.setRoles(roles);
-        update();
+        update(new ClientSessionEntityDelta().setRoles(roles));
     }
 
     @Override
@@ -153,7 +154,7 @@ public class ClientSessionAdapter implements ClientSessionModel {
     @Override
     public void setProtocolMappers(Set<String> protocolMappers) {
         entity.setProtocolMappers(protocolMappers);
-        update();
+        update(new ClientSessionEntityDelta().setProtocolMappers(protocolMappers));
     }
 
     @Override
@@ -164,7 +165,7 @@ public class ClientSessionAdapter implements ClientSessionModel {
     @Override
     public void setAuthMethod(String authMethod) {
         entity.setAuthMethod(authMethod);
-        update();
+        update(new ClientSessionEntityDelta().setAuthMethod(authMethod));
     }
 
     @Override
@@ -178,14 +179,14 @@ public class ClientSessionAdapter implements ClientSessionModel {
             entity.setNotes(new HashMap<String, String>());
         }
         entity.getNotes().put(name, value);
-        update();
+        update(new ClientSessionEntityDelta().setNote(name, value));
     }
 
     @Override
     public void removeNote(String name) {
         if (entity.getNotes() != null) {
             entity.getNotes().remove(name);
-            update();
+            update(new ClientSessionEntityDelta().removeNote(name));
         }
     }
 
@@ -203,7 +204,7 @@ public class ClientSessionAdapter implements ClientSessionModel {
             entity.setUserSessionNotes(new HashMap<String, String>());
         }
         entity.getUserSessionNotes().put(name, value);
-        update();
+        update(new ClientSessionEntityDelta().setUserSessionNote(name, value));
 
     }
 
@@ -220,7 +221,7 @@ public class ClientSessionAdapter implements ClientSessionModel {
     @Override
     public void clearUserSessionNotes() {
         entity.setUserSessionNotes(new HashMap<String, String>());
-        update();
+        update(new ClientSessionEntityDelta().clearUserSessionNotes());
 
     }
 
@@ -234,14 +235,14 @@ public class ClientSessionAdapter implements ClientSessionModel {
     @Override
     public void addRequiredAction(String action) {
         entity.getRequiredActions().add(action);
-        update();
+        update(new ClientSessionEntityDelta().addRequiredAction(action));
 
     }
 
     @Override
     public void removeRequiredAction(String action) {
         entity.getRequiredActions().remove(action);
-        update();
+        update(new ClientSessionEntityDelta().removeRequiredAction(action));
 
     }
 
@@ -256,9 +257,10 @@ public class ClientSessionAdapter implements ClientSessionModel {
         removeRequiredAction(action.name());
     }
 
-    void update() {
-        provider.getTx().replace(cache, entity.getId(), entity);
+    void update(ClientSessionEntityDelta delta) {
+        provider.getTx().update(cache, entity.getId(), entity, delta);
     }
+
     @Override
     public Map<String, ExecutionStatus> getExecutionStatus() {
         return entity.getAuthenticatorStatus();
@@ -267,14 +269,14 @@ public class ClientSessionAdapter implements ClientSessionModel {
     @Override
     public void setExecutionStatus(String authenticator, ExecutionStatus status) {
         entity.getAuthenticatorStatus().put(authenticator, status);
-        update();
+        update(new ClientSessionEntityDelta().setExecutionStatus(authenticator, status));
 
     }
 
     @Override
     public void clearExecutionStatus() {
         entity.getAuthenticatorStatus().clear();
-        update();
+        update(new ClientSessionEntityDelta().clearExecutionStatus());
     }
 
     @Override
@@ -285,7 +287,7 @@ public class ClientSessionAdapter implements ClientSessionModel {
     public void setAuthenticatedUser(UserModel user) {
         if (user == null) entity.setAuthUserId(null);
         else entity.setAuthUserId(user.getId());
-        update();
+        update(new ClientSessionEntityDelta().setAuthUserId(entity.getAuthUserId()));
 
     }
 
@@ -20,7 +20,9 @@ package org.keycloak.models.sessions.infinispan;
 import org.infinispan.Cache;
 import org.infinispan.CacheStream;
 import org.jboss.logging.Logger;
+import org.keycloak.cluster.ClusterProvider;
 import org.keycloak.common.util.Time;
+import org.keycloak.connections.infinispan.InfinispanConnectionProvider;
 import org.keycloak.models.ClientInitialAccessModel;
 import org.keycloak.models.ClientModel;
 import org.keycloak.models.ClientSessionModel;
@@ -37,7 +39,12 @@ import org.keycloak.models.sessions.infinispan.entities.ClientSessionEntity;
 import org.keycloak.models.sessions.infinispan.entities.LoginFailureEntity;
 import org.keycloak.models.sessions.infinispan.entities.LoginFailureKey;
 import org.keycloak.models.sessions.infinispan.entities.SessionEntity;
+import org.keycloak.models.sessions.infinispan.entities.SessionEntityDelta;
 import org.keycloak.models.sessions.infinispan.entities.UserSessionEntity;
+import org.keycloak.models.sessions.infinispan.entities.UserSessionEntityDelta;
+import org.keycloak.models.sessions.infinispan.initializer.InfinispanUserSessionInitializer;
+import org.keycloak.models.sessions.infinispan.initializer.InitializerState;
+import org.keycloak.models.sessions.infinispan.initializer.OfflineUserSessionLoader;
 import org.keycloak.models.sessions.infinispan.stream.ClientInitialAccessPredicate;
 import org.keycloak.models.sessions.infinispan.stream.ClientSessionPredicate;
 import org.keycloak.models.sessions.infinispan.stream.Comparators;
@@ -48,6 +55,7 @@ import org.keycloak.models.sessions.infinispan.stream.UserSessionPredicate;
 import org.keycloak.models.utils.KeycloakModelUtils;
 import org.keycloak.models.utils.RealmInfoUtil;
 
+import java.io.Serializable;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -56,6 +64,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
@@ -67,18 +76,33 @@ public class InfinispanUserSessionProvider implements UserSessionProvider {
 
     private static final Logger log = Logger.getLogger(InfinispanUserSessionProvider.class);
 
+    // Offline sessions removed while the preload is in progress, so the loader doesn't import them again from the persisted copy read earlier
+    private static final String OFFLINE_SESSION_TOMBSTONE_PREFIX = "offlineSessionRemoved::";
+
     protected final KeycloakSession session;
     protected final Cache<String, SessionEntity> sessionCache;
     protected final Cache<String, SessionEntity> offlineSessionCache;
     protected final Cache<LoginFailureKey, LoginFailureEntity> loginFailureCache;
+    protected final LastSessionRefreshBuffer lastSessionRefreshBuffer;
+    protected final SessionExpirationIndex expirationIndex;
     protected final InfinispanKeycloakTransaction tx;
 
+    private boolean offlineSessionsPreloadFinished;
+
     public InfinispanUserSessionProvider(KeycloakSession session, Cache<String, SessionEntity> sessionCache, Cache<String, SessionEntity> offlineSessionCache,
                                          Cache<LoginFailureKey, LoginFailureEntity> loginFailureCache) {
+        this(session, sessionCache, offlineSessionCache, loginFailureCache, null, new SessionExpirationIndex(0));
+    }
+
+    public InfinispanUserSessionProvider(KeycloakSession session, Cache<String, SessionEntity> sessionCache, Cache<String, SessionEntity> offlineSessionCache,
+                                         Cache<LoginFailureKey, LoginFailureEntity> loginFailureCache, LastSessionRefreshBuffer lastSessionRefreshBuffer,
+                                         SessionExpirationIndex expirationIndex) {
         this.session = session;
         this.sessionCache = sessionCache;
         this.offlineSessionCache = offlineSessionCache;
         this.loginFailureCache = loginFailureCache;
+        this.lastSessionRefreshBuffer = lastSessionRefreshBuffer;
+        this.expirationIndex = expirationIndex;
         this.tx = new InfinispanKeycloakTransaction();
 
         session.getTransaction().enlistAfterCompletion(tx);
@@ -194,7 +218,11 @@ public class InfinispanUserSessionProvider implements UserSessionProvider {
 
     @Override
     public List<UserSessionModel> getUserSessions(final RealmModel realm, UserModel user) {
-        return getUserSessions(realm, UserSessionPredicate.create(realm.getId()).user(user.getId()), false);
+        List<UserSessionModel> sessions = new LinkedList<>();
+        for (UserSessionEntity entity : SessionIndexes.getUserSessions(sessionCache, realm.getId(), user.getId())) {
+            sessions.add(wrap(realm, entity, false));
+        }
+        return sessions;
     }
 
     @Override
@@ -221,18 +249,21 @@ public class InfinispanUserSessionProvider implements UserSessionProvider {
     protected List<UserSessionModel> getUserSessions(final RealmModel realm, ClientModel client, int firstResult, int maxResults, final boolean offline) {
         final Cache<String, SessionEntity> cache = getCache(offline);
 
-        Iterator<UserSessionTimestamp> itr = cache.entrySet().stream()
-                .filter(ClientSessionPredicate.create(realm.getId()).client(client.getId()).requireUserSession())
-                .map(Mappers.clientSessionToUserSessionTimestamp())
-                .iterator();
+        // Just the timestamps are kept in memory, the user sessions are loaded for the requested page only
+        final Map<String, UserSessionTimestamp> m = new HashMap<>();
+        SessionIndexes.forEachClientSession(cache, realm.getId(), client.getId(), new Consumer<ClientSessionEntity>() {
+            @Override
+            public void accept(ClientSessionEntity clientSession) {
+                if (clientSession.getUserSession() == null) {
+                    return;
+                }
 
-        Map<String, UserSessionTimestamp> m = new HashMap<>();
-        while(itr.hasNext()) {
-            UserSessionTimestamp next = itr.next();
-            if (!m.containsKey(next.getUserSessionId()) || m.get(next.getUserSessionId()).getClientSessionTimestamp() < next.getClientSessionTimestamp()) {
-                m.put(next.getUserSessionId(), next);
+                UserSessionTimestamp next = new UserSessionTimestamp(clientSession.getUserSession(), clientSession.getTimestamp());
+                if (!m.containsKey(next.getUserSessionId()) || m.get(next.getUserSessionId()).getClientSessionTimestamp() < next.getClientSessionTimestamp()) {
+                    m.put(next.getUserSessionId(), next);
+                }
             }
-        }
+        });
 
         Stream<UserSessionTimestamp> stream = new LinkedList<>(m.values()).stream().sorted(Comparators.userSessionTimestamp());
 
@@ -244,17 +275,22 @@ public class InfinispanUserSessionProvider implements UserSessionProvider {
             stream = stream.limit(maxResults);
         }
 
-        final List<UserSessionModel> sessions = new LinkedList<>();
+        final List<String> page = new LinkedList<>();
         stream.forEach(new Consumer<UserSessionTimestamp>() {
             @Override
             public void accept(UserSessionTimestamp userSessionTimestamp) {
-                SessionEntity entity = cache.get(userSessionTimestamp.getUserSessionId());
-                if (entity != null) {
-                    sessions.add(wrap(realm, (UserSessionEntity) entity, offline));
-                }
+                page.add(userSessionTimestamp.getUserSessionId());
             }
         });
 
+        Map<String, SessionEntity> entities = cache.getAdvancedCache().getAll(new HashSet<>(page));
+        List<UserSessionModel> sessions = new LinkedList<>();
+        for (String id : page) {
+            SessionEntity entity = entities.get(id);
+            if (entity != null) {
+                sessions.add(wrap(realm, (UserSessionEntity) entity, offline));
+            }
+        }
         return sessions;
     }
 
@@ -264,7 +300,16 @@ public class InfinispanUserSessionProvider implements UserSessionProvider {
     }
 
     protected long getUserSessionsCount(RealmModel realm, ClientModel client, boolean offline) {
-        return getCache(offline).entrySet().stream().filter(ClientSessionPredicate.create(realm.getId()).client(client.getId()).requireUserSession()).map(Mappers.clientSessionToUserSessionId()).distinct().count();
+        final Set<String> userSessionIds = new HashSet<>();
+        SessionIndexes.forEachClientSession(getCache(offline), realm.getId(), client.getId(), new Consumer<ClientSessionEntity>() {
+            @Override
+            public void accept(ClientSessionEntity clientSession) {
+                if (clientSession.getUserSession() != null) {
+                    userSessionIds.add(clientSession.getUserSession());
+                }
+            }
+        });
+        return userSessionIds.size();
     }
 
     @Override
@@ -281,9 +326,7 @@ public class InfinispanUserSessionProvider implements UserSessionProvider {
     protected void removeUserSessions(RealmModel realm, UserModel user, boolean offline) {
         Cache<String, SessionEntity> cache = getCache(offline);
 
-        Iterator<SessionEntity> itr = cache.entrySet().stream().filter(UserSessionPredicate.create(realm.getId()).user(user.getId())).map(Mappers.sessionEntity()).iterator();
-        while (itr.hasNext()) {
-            UserSessionEntity userSessionEntity = (UserSessionEntity) itr.next();
+        for (UserSessionEntity userSessionEntity : SessionIndexes.getUserSessions(cache, realm.getId(), user.getId())) {
             removeUserSession(realm, userSessionEntity, offline);
         }
     }
@@ -301,63 +344,120 @@ public class InfinispanUserSessionProvider implements UserSessionProvider {
         int expired = Time.currentTime() - realm.getSsoSessionMaxLifespan();
         int expiredRefresh = Time.currentTime() - realm.getSsoSessionIdleTimeout();
 
-        Iterator<Map.Entry<String, SessionEntity>> itr = sessionCache.entrySet().stream().filter(UserSessionPredicate.create(realm.getId()).expired(expired, expiredRefresh)).iterator();
+        // Session needs to be visited again when it's idle or when it reaches max lifespan
+        final int lifespanCutoffShift = realm.getSsoSessionMaxLifespan() - realm.getSsoSessionIdleTimeout();
 
-        while (itr.hasNext()) {
-            UserSessionEntity entity = (UserSessionEntity) itr.next().getValue();
-            tx.remove(sessionCache, entity.getId());
+        expirationIndex.removeExpired(sessionCache, realm.getId(), new SessionExpirationIndex.ExpirationHandler(SessionExpirationIndex.Type.USER_SESSION,
+                expiredRefresh, UserSessionPredicate.create(realm.getId()).expired(expired, expiredRefresh)) {
 
-            if (entity.getClientSessions() != null) {
-                for (String clientSessionId : entity.getClientSessions()) {
-                    tx.remove(sessionCache, clientSessionId);
+            @Override
+            protected void remove(SessionEntity sessionEntity) {
+                UserSessionEntity entity = (UserSessionEntity) sessionEntity;
+                tx.remove(sessionCache, entity.getId());
+
+                if (entity.getClientSessions() != null) {
+                    for (String clientSessionId : entity.getClientSessions()) {
+                        tx.remove(sessionCache, clientSessionId);
+                    }
                 }
             }
-        }
+
+            @Override
+            protected int getIndexTime(SessionEntity sessionEntity) {
+                UserSessionEntity entity = (UserSessionEntity) sessionEntity;
+                return Math.min(entity.getLastSessionRefresh(), entity.getStarted() + lifespanCutoffShift);
+            }
+
+        });
     }
 
     private void removeExpiredClientSessions(RealmModel realm) {
         int expiredDettachedClientSession = Time.currentTime() - RealmInfoUtil.getDettachedClientSessionLifespan(realm);
 
-        Iterator<Map.Entry<String, SessionEntity>> itr = sessionCache.entrySet().stream().filter(ClientSessionPredicate.create(realm.getId()).expiredRefresh(expiredDettachedClientSession).requireNullUserSession()).iterator();
-        while (itr.hasNext()) {
-            tx.remove(sessionCache, itr.next().getKey());
-        }
+        expirationIndex.removeExpired(sessionCache, realm.getId(), new SessionExpirationIndex.ExpirationHandler(SessionExpirationIndex.Type.CLIENT_SESSION,
+                expiredDettachedClientSession, ClientSessionPredicate.create(realm.getId()).expiredRefresh(expiredDettachedClientSession).requireNullUserSession()) {
+
+            @Override
+            protected void remove(SessionEntity entity) {
+                tx.remove(sessionCache, entity.getId());
+            }
+
+            @Override
+            protected int getIndexTime(SessionEntity sessionEntity) {
+                ClientSessionEntity entity = (ClientSessionEntity) sessionEntity;
+                // Attached client session is removed together with its user session. Check it again later in case it's detached
+                return entity.getUserSession() != null ? Time.currentTime() : entity.getTimestamp();
+            }
+
+        });
     }
 
     private void removeExpiredOfflineUserSessions(RealmModel realm) {
-        UserSessionPersisterProvider persister = session.getProvider(UserSessionPersisterProvider.class);
+        final UserSessionPersisterProvider persister = session.getProvider(UserSessionPersisterProvider.class);
         int expiredOffline = Time.currentTime() - realm.getOfflineSessionIdleTimeout();
 
-        Iterator<Map.Entry<String, SessionEntity>> itr = offlineSessionCache.entrySet().stream().filter(UserSessionPredicate.create(realm.getId()).expired(null, expiredOffline)).iterator();
-        while (itr.hasNext()) {
-            UserSessionEntity entity = (UserSessionEntity) itr.next().getValue();
-            tx.remove(offlineSessionCache, entity.getId());
+        expirationIndex.removeExpired(offlineSessionCache, realm.getId(), new SessionExpirationIndex.ExpirationHandler(SessionExpirationIndex.Type.USER_SESSION,
+                expiredOffline, UserSessionPredicate.create(realm.getId()).expired(null, expiredOffline)) {
 
-            persister.removeUserSession(entity.getId(), true);
+            @Override
+            protected void remove(SessionEntity sessionEntity) {
+                UserSessionEntity entity = (UserSessionEntity) sessionEntity;
+                tx.remove(offlineSessionCache, entity.getId());
+
+                persister.removeUserSession(entity.getId(), true);
 
-            for (String clientSessionId : entity.getClientSessions()) {
-                tx.remove(offlineSessionCache, clientSessionId);
+                for (String clientSessionId : entity.getClientSessions()) {
+                    tx.remove(offlineSessionCache, clientSessionId);
+                }
             }
-        }
+
+            @Override
+            protected int getIndexTime(SessionEntity entity) {
+                return ((UserSessionEntity) entity).getLastSessionRefresh();
+            }
+
+        });
     }
 
     private void removeExpiredOfflineClientSessions(RealmModel realm) {
-        UserSessionPersisterProvider persister = session.getProvider(UserSessionPersisterProvider.class);
+        final UserSessionPersisterProvider persister = session.getProvider(UserSessionPersisterProvider.class);
         int expiredOffline = Time.currentTime() - realm.getOfflineSessionIdleTimeout();
 
-        Iterator<String> itr = offlineSessionCache.entrySet().stream().filter(ClientSessionPredicate.create(realm.getId()).expiredRefresh(expiredOffline)).map(Mappers.sessionId()).iterator();
-        while (itr.hasNext()) {
-            String sessionId = itr.next();
-            tx.remove(offlineSessionCache, sessionId);
-            persister.removeClientSession(sessionId, true);
-        }
+        expirationIndex.removeExpired(offlineSessionCache, realm.getId(), new SessionExpirationIndex.ExpirationHandler(SessionExpirationIndex.Type.CLIENT_SESSION,
+                expiredOffline, ClientSessionPredicate.create(realm.getId()).expiredRefresh(expiredOffline)) {
+
+            @Override
+            protected void remove(SessionEntity entity) {
+                tx.remove(offlineSessionCache, entity.getId());
+                persister.removeClientSession(entity.getId(), true);
+            }
+
+            @Override
+            protected int getIndexTime(SessionEntity entity) {
+                return ((ClientSessionEntity) entity).getTimestamp();
+            }
+
+        });
     }
 
     private void removeExpiredClientInitialAccess(RealmModel realm) {
-        Iterator<String> itr = sessionCache.entrySet().stream().filter(ClientInitialAccessPredicate.create(realm.getId()).expired(Time.currentTime())).map(Mappers.sessionId()).iterator();
-        while (itr.hasNext()) {
-            tx.remove(sessionCache, itr.next());
-        }
+        int currentTime = Time.currentTime();
+
+        expirationIndex.removeExpired(sessionCache, realm.getId(), new SessionExpirationIndex.ExpirationHandler(SessionExpirationIndex.Type.CLIENT_INITIAL_ACCESS,
+                currentTime, ClientInitialAccessPredicate.create(realm.getId()).expired(currentTime)) {
+
+            @Override
+            protected void remove(SessionEntity entity) {
+                tx.remove(sessionCache, entity.getId());
+            }
+
+            @Override
+            protected int getIndexTime(SessionEntity sessionEntity) {
+                ClientInitialAccessEntity entity = (ClientInitialAccessEntity) sessionEntity;
+                return entity.getExpiration() > 0 ? entity.getTimestamp() + entity.getExpiration() : -1;
+            }
+
+        });
     }
 
     @Override
@@ -420,9 +520,7 @@ public class InfinispanUserSessionProvider implements UserSessionProvider {
     private void onClientRemoved(RealmModel realm, ClientModel client, boolean offline) {
         Cache<String, SessionEntity> cache = getCache(offline);
 
-        Iterator<Map.Entry<String, SessionEntity>> itr = cache.entrySet().stream().filter(ClientSessionPredicate.create(realm.getId()).client(client.getId())).iterator();
-        while (itr.hasNext()) {
-            ClientSessionEntity entity = (ClientSessionEntity) itr.next().getValue();
+        for (ClientSessionEntity entity : SessionIndexes.getClientSessions(cache, realm.getId(), client.getId())) {
             ClientSessionAdapter adapter = wrap(realm, entity, offline);
             adapter.setUserSession(null);
 
@@ -451,7 +549,7 @@ public class InfinispanUserSessionProvider implements UserSessionProvider {
         }
         if (!entity.getClientSessions().contains(clientSessionId)) {
             entity.getClientSessions().add(clientSessionId);
-            userSession.update();
+            userSession.update(new UserSessionEntityDelta().attachClientSession(clientSessionId));
         }
     }
 
@@ -470,7 +568,7 @@ public class InfinispanUserSessionProvider implements UserSessionProvider {
                 entity.getClientSessions().remove(clientSession.getId());
 
             }
-            tx.replace(cache, entity.getId(), entity);
+            tx.update(cache, entity.getId(), entity, new UserSessionEntityDelta().detachClientSession(clientSession.getId()));
         }
         tx.remove(cache, clientSession.getId());
     }
@@ -484,7 +582,7 @@ public class InfinispanUserSessionProvider implements UserSessionProvider {
             if (entity.getClientSessions().isEmpty()) {
                 entity.setClientSessions(null);
             }
-            userSession.update();
+            userSession.update(new UserSessionEntityDelta().detachClientSession(clientSessionId));
         }
     }
 
@@ -504,6 +602,10 @@ public class InfinispanUserSessionProvider implements UserSessionProvider {
         return tx;
     }
 
+    LastSessionRefreshBuffer getLastSessionRefreshBuffer() {
+        return lastSessionRefreshBuffer;
+    }
+
     UserSessionAdapter wrap(RealmModel realm, UserSessionEntity entity, boolean offline) {
         Cache<String, SessionEntity> cache = getCache(offline);
         return entity != null ? new UserSessionAdapter(session, this, cache, realm, entity, offline) : null;
@@ -560,50 +662,117 @@ public class InfinispanUserSessionProvider implements UserSessionProvider {
 
     @Override
     public UserSessionModel createOfflineUserSession(UserSessionModel userSession) {
-        UserSessionAdapter offlineUserSession = importUserSession(userSession, true);
+        UserSessionEntity entity = createUserSessionEntity(userSession);
 
         // started and lastSessionRefresh set to current time
         int currentTime = Time.currentTime();
-        offlineUserSession.getEntity().setStarted(currentTime);
-        offlineUserSession.setLastSessionRefresh(currentTime);
+        entity.setStarted(currentTime);
+        entity.setLastSessionRefresh(currentTime);
 
-        return offlineUserSession;
+        tx.put(offlineSessionCache, entity.getId(), entity);
+        return wrap(userSession.getRealm(), entity, true);
     }
 
     @Override
     public UserSessionModel getOfflineUserSession(RealmModel realm, String userSessionId) {
-        return getUserSession(realm, userSessionId, true);
+        UserSessionAdapter userSession = getUserSession(realm, userSessionId, true);
+        if (userSession == null && !isOfflineSessionsPreloadFinished()) {
+            UserSessionModel persistentSession = session.getProvider(UserSessionPersisterProvider.class).loadUserSessionById(userSessionId, true);
+            userSession = importPersistentOfflineSession(realm, persistentSession);
+        }
+        return userSession;
     }
 
     @Override
     public void removeOfflineUserSession(RealmModel realm, UserSessionModel userSession) {
         UserSessionEntity userSessionEntity = getUserSessionEntity(userSession, true);
+        if (!isOfflineSessionsPreloadFinished()) {
+            tx.addOfflineTombstone(userSession.getId(), realm.getOfflineSessionIdleTimeout());
+            if (userSessionEntity != null && userSessionEntity.getClientSessions() != null) {
+                for (String clientSessionId : userSessionEntity.getClientSessions()) {
+                    tx.addOfflineTombstone(clientSessionId, realm.getOfflineSessionIdleTimeout());
+                }
+            }
+        }
         removeUserSession(realm, userSessionEntity, true);
     }
 
     @Override
     public ClientSessionModel createOfflineClientSession(ClientSessionModel clientSession) {
-        ClientSessionAdapter offlineClientSession = importClientSession(clientSession, true);
+        ClientSessionEntity entity = createClientSessionEntity(clientSession);
 
         // update timestamp to current time
-        offlineClientSession.setTimestamp(Time.currentTime());
+        entity.setTimestamp(Time.currentTime());
 
-        return offlineClientSession;
+        tx.put(offlineSessionCache, entity.getId(), entity);
+        return wrap(clientSession.getRealm(), entity, true);
     }
 
     @Override
     public ClientSessionModel getOfflineClientSession(RealmModel realm, String clientSessionId) {
-        return getClientSession(realm, clientSessionId, true);
+        ClientSessionModel clientSession = getClientSession(realm, clientSessionId, true);
+        if (clientSession == null && !isOfflineSessionsPreloadFinished()) {
+            UserSessionModel persistentSession = session.getProvider(UserSessionPersisterProvider.class).loadUserSessionByClientSessionId(clientSessionId, true);
+            if (importPersistentOfflineSession(realm, persistentSession) != null) {
+                clientSession = getClientSession(realm, clientSessionId, true);
+            }
+        }
+        return clientSession;
+    }
+
+    // Offline sessions may be loaded from persistent storage in background after startup. Until it's finished, the missing ones are loaded on demand
+    protected boolean isOfflineSessionsPreloadFinished() {
+        if (!offlineSessionsPreloadFinished) {
+            InitializerState state = InfinispanUserSessionInitializer.getState(getWorkCache(), OfflineUserSessionLoader.STATE_KEY_SUFFIX);
+            offlineSessionsPreloadFinished = state != null && state.isFinished();
+        }
+        return offlineSessionsPreloadFinished;
+    }
+
+    private Cache<String, Serializable> getWorkCache() {
+        return session.getProvider(InfinispanConnectionProvider.class).getCache(InfinispanConnectionProvider.WORK_CACHE_NAME);
+    }
+
+    private boolean isOfflineSessionRemoved(Object id) {
+        return getWorkCache().containsKey(OFFLINE_SESSION_TOMBSTONE_PREFIX + id);
+    }
+
+    protected UserSessionAdapter importPersistentOfflineSession(RealmModel realm, UserSessionModel persistentSession) {
+        if (persistentSession == null || !realm.getId().equals(persistentSession.getRealm().getId())) {
+            return null;
+        }
+
+        log.debugf("Loading offline session %s on demand", persistentSession.getId());
+
+        // Timestamps in persistent storage may not be updated to the cluster startup time yet
+        int clusterStartupTime = session.getProvider(ClusterProvider.class).getClusterStartupTime();
+
+        UserSessionAdapter offlineUserSession = importUserSession(persistentSession, true);
+        if (offlineUserSession.getEntity().getLastSessionRefresh() < clusterStartupTime) {
+            offlineUserSession.getEntity().setLastSessionRefresh(clusterStartupTime);
+        }
+
+        for (ClientSessionModel persistentClientSession : persistentSession.getClientSessions()) {
+            ClientSessionAdapter offlineClientSession = importClientSession(persistentClientSession, true);
+            if (offlineClientSession.getTimestamp() < clusterStartupTime) {
+                offlineClientSession.setTimestamp(clusterStartupTime);
+            }
+            offlineClientSession.setUserSession(offlineUserSession);
+        }
+
+        return offlineUserSession;
     }
 
     @Override
     public List<ClientSessionModel> getOfflineClientSessions(RealmModel realm, UserModel user) {
-        Iterator<Map.Entry<String, SessionEntity>> itr = offlineSessionCache.entrySet().stream().filter(UserSessionPredicate.create(realm.getId()).user(user.getId())).iterator();
         List<ClientSessionModel> clientSessions = new LinkedList<>();
 
-        while(itr.hasNext()) {
-            UserSessionEntity entity = (UserSessionEntity) itr.next().getValue();
+        for (UserSessionEntity entity : SessionIndexes.getUserSessions(offlineSessionCache, realm.getId(), user.getId())) {
             Set<String> currClientSessions = entity.getClientSessions();
+            if (currClientSessions == null) {
+                continue;
+            }
+
             for (String clientSessionId : currClientSessions) {
                 ClientSessionEntity cls = (ClientSessionEntity) offlineSessionCache.get(clientSessionId);
                 if (cls != null) {
@@ -618,6 +787,9 @@ public class InfinispanUserSessionProvider implements UserSessionProvider {
     @Override
     public void removeOfflineClientSession(RealmModel realm, String clientSessionId) {
         ClientSessionModel clientSession = getOfflineClientSession(realm, clientSessionId);
+        if (!isOfflineSessionsPreloadFinished()) {
+            tx.addOfflineTombstone(clientSessionId, realm.getOfflineSessionIdleTimeout());
+        }
         removeClientSession(realm, clientSession, true);
     }
 
@@ -631,8 +803,24 @@ public class InfinispanUserSessionProvider implements UserSessionProvider {
         return getUserSessions(realm, client, first, max, true);
     }
 
+    /**
+     * The session imported concurrently (for example loaded on demand during preloading) is kept, the returned adapter wraps the entity
+     * which is actually in the cache
+     */
     @Override
     public UserSessionAdapter importUserSession(UserSessionModel userSession, boolean offline) {
+        Cache<String, SessionEntity> cache = getCache(offline);
+        SessionEntity existing = cache.get(userSession.getId());
+        if (existing instanceof UserSessionEntity) {
+            return wrap(userSession.getRealm(), (UserSessionEntity) existing, offline);
+        }
+
+        UserSessionEntity entity = createUserSessionEntity(userSession);
+        tx.putIfAbsent(cache, userSession.getId(), entity);
+        return wrap(userSession.getRealm(), entity, offline);
+    }
+
+    private UserSessionEntity createUserSessionEntity(UserSessionModel userSession) {
         UserSessionEntity entity = new UserSessionEntity();
         entity.setId(userSession.getId());
         entity.setRealm(userSession.getRealm().getId());
@@ -649,14 +837,26 @@ public class InfinispanUserSessionProvider implements UserSessionProvider {
 
         entity.setStarted(userSession.getStarted());
         entity.setLastSessionRefresh(userSession.getLastSessionRefresh());
-
-        Cache<String, SessionEntity> cache = getCache(offline);
-        tx.put(cache, userSession.getId(), entity);
-        return wrap(userSession.getRealm(), entity, offline);
+        return entity;
     }
 
+    /**
+     * The session imported concurrently is kept, the returned adapter wraps the entity which is actually in the cache
+     */
     @Override
     public ClientSessionAdapter importClientSession(ClientSessionModel clientSession, boolean offline) {
+        Cache<String, SessionEntity> cache = getCache(offline);
+        SessionEntity existing = cache.get(clientSession.getId());
+        if (existing instanceof ClientSessionEntity) {
+            return wrap(clientSession.getRealm(), (ClientSessionEntity) existing, offline);
+        }
+
+        ClientSessionEntity entity = createClientSessionEntity(clientSession);
+        tx.putIfAbsent(cache, clientSession.getId(), entity);
+        return wrap(clientSession.getRealm(), entity, offline);
+    }
+
+    private ClientSessionEntity createClientSessionEntity(ClientSessionModel clientSession) {
         ClientSessionEntity entity = new ClientSessionEntity();
         entity.setId(clientSession.getId());
         entity.setRealm(clientSession.getRealm().getId());
@@ -674,10 +874,7 @@ public class InfinispanUserSessionProvider implements UserSessionProvider {
         entity.setRoles(clientSession.getRoles());
         entity.setTimestamp(clientSession.getTimestamp());
         entity.setUserSessionNotes(clientSession.getUserSessionNotes());
-
-        Cache<String, SessionEntity> cache = getCache(offline);
-        tx.put(cache, clientSession.getId(), entity);
-        return wrap(clientSession.getRealm(), entity, offline);
+        return entity;
     }
 
     @Override
@@ -731,6 +928,12 @@ public class InfinispanUserSessionProvider implements UserSessionProvider {
         private boolean rollback;
         private Map<Object, CacheTask> tasks = new HashMap<>();
 
+        // lastSessionRefresh timestamps are passed to the buffer only after commit, so they are dropped on rollback
+        private Map<Cache<String, SessionEntity>, Map<String, Integer>> bufferedRefreshes = new HashMap<>();
+
+        // Tombstones of removed offline sessions with their lifespan in seconds, written before the sessions are removed
+        private Map<String, Integer> offlineTombstones = new HashMap<>();
+
         @Override
         public void begin() {
             active = true;
@@ -742,14 +945,29 @@ public class InfinispanUserSessionProvider implements UserSessionProvider {
                 throw new RuntimeException("Rollback only!");
             }
 
+            if (!offlineTombstones.isEmpty()) {
+                Cache<String, Serializable> workCache = getWorkCache();
+                for (Map.Entry<String, Integer> tombstone : offlineTombstones.entrySet()) {
+                    workCache.put(OFFLINE_SESSION_TOMBSTONE_PREFIX + tombstone.getKey(), Boolean.TRUE, tombstone.getValue(), TimeUnit.SECONDS);
+                }
+            }
+
             for (CacheTask task : tasks.values()) {
                 task.execute();
             }
+
+            for (Map.Entry<Cache<String, SessionEntity>, Map<String, Integer>> entry : bufferedRefreshes.entrySet()) {
+                for (Map.Entry<String, Integer> refresh : entry.getValue().entrySet()) {
+                    lastSessionRefreshBuffer.add(entry.getKey(), refresh.getKey(), refresh.getValue());
+                }
+            }
         }
 
         @Override
         public void rollback() {
             tasks.clear();
+            bufferedRefreshes.clear();
+            offlineTombstones.clear();
         }
 
         @Override
@@ -778,6 +996,21 @@ public class InfinispanUserSessionProvider implements UserSessionProvider {
             }
         }
 
+        /**
+         * Like {@link #put(Cache, Object, Object)}, but the value doesn't overwrite the entry written to the cache in the
+         * meantime, for example by other transaction importing the same session
+         */
+        public void putIfAbsent(Cache cache, Object key, Object value) {
+            log.tracev("Adding cache operation: {0} on {1}", CacheOperation.ADD_IF_ABSENT, key);
+
+            Object taskKey = getTaskKey(cache, key);
+            if (tasks.containsKey(taskKey)) {
+                throw new IllegalStateException("Can't add session: task in progress for session");
+            } else {
+                tasks.put(taskKey, new CacheTask(cache, CacheOperation.ADD_IF_ABSENT, key, value));
+            }
+        }
+
         public void replace(Cache cache, Object key, Object value) {
             log.tracev("Adding cache operation: {0} on {1}", CacheOperation.REPLACE, key);
 
@@ -786,9 +1019,16 @@ public class InfinispanUserSessionProvider implements UserSessionProvider {
             if (current != null) {
                 switch (current.operation) {
                     case ADD:
+                    case ADD_IF_ABSENT:
                     case REPLACE:
                         current.value = value;
                         return;
+                    case UPDATE:
+                        // Whole entity will be replaced, so the changes collected so far are not needed
+                        current.operation = CacheOperation.REPLACE;
+                        current.value = value;
+                        current.delta = null;
+                        return;
                     case REMOVE:
                         return;
                 }
@@ -797,6 +1037,54 @@ public class InfinispanUserSessionProvider implements UserSessionProvider {
             }
         }
 
+        /**
+         * Like {@link #replace(Cache, Object, Object)}, but only the changes recorded in the delta are applied to the entity
+         * currently in the cache. The value is the entity with the changes already applied.
+         */
+        public <E extends SessionEntity> void update(Cache cache, Object key, E value, SessionEntityDelta<E> delta) {
+            log.tracev("Adding cache operation: {0} on {1}", CacheOperation.UPDATE, key);
+
+            Object taskKey = getTaskKey(cache, key);
+            CacheTask current = tasks.get(taskKey);
+            if (current != null) {
+                switch (current.operation) {
+                    case ADD:
+                    case ADD_IF_ABSENT:
+                    case REPLACE:
+                        // Whole entity is going to be written anyway
+                        current.value = value;
+                        return;
+                    case UPDATE:
+                        current.delta.merge(delta);
+                        current.value = value;
+                        return;
+                    case REMOVE:
+                        return;
+                }
+            } else {
+                CacheTask task = new CacheTask(cache, CacheOperation.UPDATE, key, value);
+                task.delta = delta;
+                tasks.put(taskKey, task);
+            }
+        }
+
+        public void bufferLastSessionRefresh(Cache<String, SessionEntity> cache, String key, int lastSessionRefresh) {
+            Map<String, Integer> refreshes = bufferedRefreshes.get(cache);
+            if (refreshes == null) {
+                refreshes = new HashMap<>();
+                bufferedRefreshes.put(cache, refreshes);
+            }
+            refreshes.put(key, lastSessionRefresh);
+        }
+
+        /**
+         * Session imported after the tombstone is written is removed again. The lifespan is the offline idle timeout, as the
+         * session imported from the persisted copy is expired after that anyway
+         */
+        public void addOfflineTombstone(String id, int lifespan) {
+            offlineTombstones.put(id, lifespan);
+        }
+
         public void remove(Cache cache, Object key) {
             log.tracev("Adding cache operation: {0} on {1}", CacheOperation.REMOVE, key);
 
@@ -811,7 +1099,9 @@ public class InfinispanUserSessionProvider implements UserSessionProvider {
             if (current != null) {
                 switch (current.operation) {
                     case ADD:
+                    case ADD_IF_ABSENT:
                     case REPLACE:
+                    case UPDATE:
                         return current.value;                 }
             }
 
@@ -834,6 +1124,7 @@ public class InfinispanUserSessionProvider implements UserSessionProvider {
             private CacheOperation operation;
             private Object key;
             private Object value;
+            private SessionEntityDelta delta;
 
             public CacheTask(Cache cache, CacheOperation operation, Object key, Object value) {
                 this.cache = cache;
@@ -848,13 +1139,36 @@ public class InfinispanUserSessionProvider implements UserSessionProvider {
                 switch (operation) {
                     case ADD:
                         cache.put(key, value);
+                        if (value instanceof SessionEntity) {
+                            SessionIndexes.onSessionAdded(cache, (SessionEntity) value);
+                            expirationIndex.onSessionAdded(cache, (SessionEntity) value);
+                        }
+                        break;
+                    case ADD_IF_ABSENT:
+                        Object existing = cache.putIfAbsent(key, value);
+                        if (existing == null && cache == offlineSessionCache && !isOfflineSessionsPreloadFinished() && isOfflineSessionRemoved(key)) {
+                            // Removed while the persisted copy was being imported. The tombstone is written before the removal, so
+                            // either it's seen here or the removal comes after the import
+                            cache.remove(key, value);
+                        } else if (existing == null && value instanceof SessionEntity) {
+                            SessionIndexes.onSessionAdded(cache, (SessionEntity) value);
+                            expirationIndex.onSessionAdded(cache, (SessionEntity) value);
+                        }
                         break;
                     case REMOVE:
-                        cache.remove(key);
+                        Object removed = cache.remove(key);
+                        if (removed instanceof SessionEntity) {
+                            SessionIndexes.onSessionRemoved(cache, (SessionEntity) removed);
+                        }
                         break;
                     case REPLACE:
                         cache.replace(key, value);
                         break;
+                    case UPDATE:
+                        if (!delta.isEmpty()) {
+                            delta.apply(cache, key);
+                        }
+                        break;
                 }
             }
         }
@@ -862,7 +1176,7 @@ public class InfinispanUserSessionProvider implements UserSessionProvider {
     }
 
     public enum CacheOperation {
-        ADD, REMOVE, REPLACE
+        ADD, ADD_IF_ABSENT, REMOVE, REPLACE, UPDATE
     }
 
 }
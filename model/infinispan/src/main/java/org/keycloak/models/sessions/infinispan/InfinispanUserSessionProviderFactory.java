@@ -18,6 +18,8 @@
 package org.keycloak.models.sessions.infinispan;
 
 import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.infinispan.Cache;
 import org.jboss.logging.Logger;
@@ -28,18 +30,29 @@ import org.keycloak.models.sessions.infinispan.entities.LoginFailureEntity;
 import org.keycloak.models.sessions.infinispan.entities.LoginFailureKey;
 import org.keycloak.models.sessions.infinispan.entities.SessionEntity;
 import org.keycloak.models.sessions.infinispan.initializer.InfinispanUserSessionInitializer;
+import org.keycloak.models.sessions.infinispan.initializer.InitializerState;
 import org.keycloak.models.sessions.infinispan.initializer.OfflineUserSessionLoader;
 import org.keycloak.models.utils.KeycloakModelUtils;
 import org.keycloak.models.utils.PostMigrationEvent;
 import org.keycloak.provider.ProviderEvent;
 import org.keycloak.provider.ProviderEventListener;
+import org.keycloak.provider.ServerInfoAwareProviderFactory;
+import org.keycloak.timer.TimerProvider;
 
-public class InfinispanUserSessionProviderFactory implements UserSessionProviderFactory {
+public class InfinispanUserSessionProviderFactory implements UserSessionProviderFactory, ServerInfoAwareProviderFactory {
 
     private static final Logger log = Logger.getLogger(InfinispanUserSessionProviderFactory.class);
 
     private Config.Scope config;
 
+    private KeycloakSessionFactory sessionFactory;
+
+    private boolean preloadInBackground;
+
+    private LastSessionRefreshBuffer lastSessionRefreshBuffer;
+
+    private SessionExpirationIndex expirationIndex;
+
     @Override
     public UserSessionProvider create(KeycloakSession session) {
         InfinispanConnectionProvider connections = session.getProvider(InfinispanConnectionProvider.class);
@@ -47,16 +60,32 @@ public class InfinispanUserSessionProviderFactory implements UserSessionProvider
         Cache<String, SessionEntity> offlineSessionsCache = connections.getCache(InfinispanConnectionProvider.OFFLINE_SESSION_CACHE_NAME);
         Cache<LoginFailureKey, LoginFailureEntity> loginFailures = connections.getCache(InfinispanConnectionProvider.LOGIN_FAILURE_CACHE_NAME);
 
-        return new InfinispanUserSessionProvider(session, cache, offlineSessionsCache, loginFailures);
+        return new InfinispanUserSessionProvider(session, cache, offlineSessionsCache, loginFailures, lastSessionRefreshBuffer, expirationIndex);
     }
 
     @Override
     public void init(Config.Scope config) {
         this.config = config;
+
+        // Server serves requests while offline sessions are still loading. Offline sessions not loaded yet are loaded on demand
+        preloadInBackground = config.getBoolean("preloadOfflineSessionsInBackground", false);
+
+        // Refreshes of user session within this number of seconds from the stored lastSessionRefresh are written to the cache lazily
+        int lastSessionRefreshGranularity = config.getInt("lastSessionRefreshGranularity", 0);
+        if (lastSessionRefreshGranularity > 0) {
+            long flushInterval = config.getLong("lastSessionRefreshFlushInterval", 5000L);
+            lastSessionRefreshBuffer = new LastSessionRefreshBuffer(lastSessionRefreshGranularity, flushInterval);
+            log.debugv("Coalescing lastSessionRefresh updates with granularity {0}s and flush interval {1}ms", lastSessionRefreshGranularity, flushInterval);
+        }
+
+        // Expired sessions are found through the expiration index. Whole caches are scanned only once per this number of seconds
+        expirationIndex = new SessionExpirationIndex(config.getInt("expirationFullScanInterval", 86400));
     }
 
     @Override
     public void postInit(final KeycloakSessionFactory factory) {
+        this.sessionFactory = factory;
+
         // Max count of worker errors. Initialization will end with exception when this number is reached
         final int maxErrors = config.getInt("maxErrors", 20);
 
@@ -68,7 +97,12 @@ public class InfinispanUserSessionProviderFactory implements UserSessionProvider
             @Override
             public void onEvent(ProviderEvent event) {
                 if (event instanceof PostMigrationEvent) {
-                    loadPersistentSessions(factory, maxErrors, sessionsPerSegment);
+                    if (preloadInBackground) {
+                        loadPersistentSessionsInBackground(factory, maxErrors, sessionsPerSegment);
+                    } else {
+                        loadPersistentSessions(factory, maxErrors, sessionsPerSegment);
+                    }
+                    scheduleLastSessionRefreshFlush(factory);
                 }
             }
         });
@@ -86,7 +120,7 @@ public class InfinispanUserSessionProviderFactory implements UserSessionProvider
                 InfinispanConnectionProvider connections = session.getProvider(InfinispanConnectionProvider.class);
                 Cache<String, Serializable> cache = connections.getCache(InfinispanConnectionProvider.WORK_CACHE_NAME);
 
-                InfinispanUserSessionInitializer initializer = new InfinispanUserSessionInitializer(sessionFactory, cache, new OfflineUserSessionLoader(), maxErrors, sessionsPerSegment, "offlineUserSessions");
+                InfinispanUserSessionInitializer initializer = new InfinispanUserSessionInitializer(sessionFactory, cache, new OfflineUserSessionLoader(), maxErrors, sessionsPerSegment, OfflineUserSessionLoader.STATE_KEY_SUFFIX);
                 initializer.initCache();
                 initializer.loadPersistentSessions();
             }
@@ -96,8 +130,73 @@ public class InfinispanUserSessionProviderFactory implements UserSessionProvider
         log.debug("Pre-loading userSessions and clientSessions from persistent storage finished");
     }
 
+    protected void loadPersistentSessionsInBackground(final KeycloakSessionFactory sessionFactory, final int maxErrors, final int sessionsPerSegment) {
+        Thread thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    loadPersistentSessions(sessionFactory, maxErrors, sessionsPerSegment);
+                } catch (Throwable t) {
+                    log.error("Failed to pre-load userSessions and clientSessions from persistent storage", t);
+                }
+            }
+
+        }, "keycloak-offline-sessions-preload");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public Map<String, String> getOperationalInfo() {
+        Map<String, String> info = new LinkedHashMap<>();
+        info.put("preloadOfflineSessionsInBackground", String.valueOf(preloadInBackground));
+
+        KeycloakSession session = sessionFactory.create();
+        try {
+            Cache<String, Serializable> workCache = session.getProvider(InfinispanConnectionProvider.class).getCache(InfinispanConnectionProvider.WORK_CACHE_NAME);
+            InitializerState state = InfinispanUserSessionInitializer.getState(workCache, OfflineUserSessionLoader.STATE_KEY_SUFFIX);
+            if (state == null) {
+                info.put("offlineSessionsPreload", "not started");
+            } else {
+                info.put("offlineSessionsPreload", state.isFinished() ? "finished" : "in progress");
+                info.put("offlineSessionsCount", String.valueOf(state.getSessionsCount()));
+                info.put("offlineSessionsLoadedSegments", state.getFinishedSegmentsCount() + "/" + state.getSegmentsCount());
+            }
+        } finally {
+            session.close();
+        }
+
+        return info;
+    }
+
+    protected void scheduleLastSessionRefreshFlush(KeycloakSessionFactory sessionFactory) {
+        if (lastSessionRefreshBuffer == null) {
+            return;
+        }
+
+        final LastSessionRefreshBuffer buffer = lastSessionRefreshBuffer;
+        KeycloakSession session = sessionFactory.create();
+        try {
+            TimerProvider timer = session.getProvider(TimerProvider.class);
+            timer.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    buffer.flush();
+                }
+
+            }, buffer.getFlushInterval(), "FlushLastSessionRefresh");
+        } finally {
+            session.close();
+        }
+    }
+
     @Override
     public void close() {
+        if (lastSessionRefreshBuffer != null) {
+            lastSessionRefreshBuffer.flush();
+        }
     }
 
     @Override
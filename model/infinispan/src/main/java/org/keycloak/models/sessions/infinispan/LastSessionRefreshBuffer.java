@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.models.sessions.infinispan;
+
+import org.infinispan.Cache;
+import org.jboss.logging.Logger;
+import org.keycloak.models.sessions.infinispan.entities.SessionEntity;
+import org.keycloak.models.sessions.infinispan.entities.UserSessionEntityDelta;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Node-local write-behind buffer of lastSessionRefresh timestamps. The timestamp of user session is written to the cache right
+ * away only if the stored one is older than the granularity. Otherwise the newest timestamp of each session is kept here and
+ * all of them are written by the periodic {@link #flush()}, so frequent refreshes of one session result in a single cache write.
+ *
+ * A timestamp is buffered only if the stored one stays valid for longer than {@link #getMaxWriteDelay()} seconds, otherwise it's
+ * written right away. The buffered timestamp is therefore flushed before the stored one expires, and the configured idle timeouts
+ * can be checked against the stored timestamp unchanged.
+ */
+public class LastSessionRefreshBuffer {
+
+    private static final Logger log = Logger.getLogger(LastSessionRefreshBuffer.class);
+
+    private final int granularity;
+    private final long flushInterval;
+
+    private final ConcurrentHashMap<Cache<String, SessionEntity>, ConcurrentHashMap<String, Integer>> pending = new ConcurrentHashMap<>();
+
+    /**
+     * @param granularity in seconds
+     * @param flushInterval in milliseconds
+     */
+    public LastSessionRefreshBuffer(int granularity, long flushInterval) {
+        this.granularity = granularity;
+        this.flushInterval = flushInterval;
+    }
+
+    public int getGranularity() {
+        return granularity;
+    }
+
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    /**
+     * @return max number of seconds before the buffered timestamp is written to the cache. Twice the flush interval, as the timestamp
+     * may be added right after the flush started and the flush itself takes some time
+     */
+    public int getMaxWriteDelay() {
+        return 2 * (int) ((flushInterval + 999) / 1000);
+    }
+
+    /**
+     * @param idleTimeout in seconds, the stored timestamp must not expire before the buffered one is written
+     * @return true if the timestamp needs to be written to the cache right away
+     */
+    public boolean isWriteRequired(int storedLastSessionRefresh, int lastSessionRefresh, int idleTimeout) {
+        return lastSessionRefresh - storedLastSessionRefresh >= granularity
+                || storedLastSessionRefresh + idleTimeout - lastSessionRefresh <= getMaxWriteDelay();
+    }
+
+    public void add(Cache<String, SessionEntity> cache, String sessionId, int lastSessionRefresh) {
+        ConcurrentHashMap<String, Integer> timestamps = pending.get(cache);
+        if (timestamps == null) {
+            timestamps = new ConcurrentHashMap<>();
+            ConcurrentHashMap<String, Integer> existing = pending.putIfAbsent(cache, timestamps);
+            if (existing != null) timestamps = existing;
+        }
+        timestamps.merge(sessionId, lastSessionRefresh, Math::max);
+    }
+
+    public int size() {
+        int size = 0;
+        for (ConcurrentHashMap<String, Integer> timestamps : pending.values()) {
+            size += timestamps.size();
+        }
+        return size;
+    }
+
+    public void flush() {
+        for (Map.Entry<Cache<String, SessionEntity>, ConcurrentHashMap<String, Integer>> entry : pending.entrySet()) {
+            Cache<String, SessionEntity> cache = entry.getKey();
+            ConcurrentHashMap<String, Integer> timestamps = entry.getValue();
+            if (timestamps.isEmpty()) {
+                continue;
+            }
+
+            if (!cache.getStatus().allowInvocations()) {
+                timestamps.clear();
+                continue;
+            }
+
+            int written = 0;
+            for (String sessionId : timestamps.keySet()) {
+                Integer lastSessionRefresh = timestamps.remove(sessionId);
+                if (lastSessionRefresh != null) {
+                    try {
+                        new UserSessionEntityDelta().bumpLastSessionRefresh(lastSessionRefresh).apply(cache, sessionId);
+                        written++;
+                    } catch (RuntimeException e) {
+                        log.warn("Failed to write lastSessionRefresh of user session", e);
+                    }
+                }
+            }
+
+            log.tracev("Written {0} lastSessionRefresh timestamps to cache {1}", written, cache.getName());
+        }
+    }
+
+}
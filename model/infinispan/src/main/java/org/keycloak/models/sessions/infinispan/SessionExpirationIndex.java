@@ -0,0 +1,318 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.models.sessions.infinispan;
+
+import org.infinispan.Cache;
+import org.jboss.logging.Logger;
+import org.keycloak.common.util.Time;
+import org.keycloak.models.sessions.infinispan.entities.ClientInitialAccessEntity;
+import org.keycloak.models.sessions.infinispan.entities.ClientSessionEntity;
+import org.keycloak.models.sessions.infinispan.entities.SessionEntity;
+import org.keycloak.models.sessions.infinispan.entities.SessionIndexEntity;
+import org.keycloak.models.sessions.infinispan.entities.UserSessionEntity;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Time-bucketed index of sessions, so expired sessions can be found without iterating the whole cache. Each session is
+ * indexed by the time it expires relative to (for example lastSessionRefresh of user session) rounded down to buckets of
+ * {@link #BUCKET_SIZE} seconds. Removing expired sessions then only visits the buckets older than the cutoff computed from
+ * the current realm timeouts, so changes of the timeouts don't require rebuilding the index.
+ * <p>
+ * The index is maintained lazily. Sessions are added when they are created or imported (both go through the ADD operation
+ * of the session transaction) and a visited session, which isn't expired
+ * yet, is moved to the bucket of its current time. Expired sessions stay in their bucket until the removal is committed,
+ * they are dropped from it on the next visit once they are gone from the cache, like the sessions removed in other ways. Sessions missing in the index (for example created before the index existed) are removed by the full scan of
+ * the cache, which is done once per {@code fullScanInterval} seconds for each realm.
+ * <p>
+ * Sessions replicated from other nodes don't need to be indexed again, as the index entries live in the same cache and are
+ * replicated or distributed together with the sessions.
+ * <p>
+ * Buckets are stored as {@link SessionIndexEntity} in the same cache as the indexed sessions. Each bucket is split into
+ * {@link #SHARDS} entries by session id, so concurrent updates of one bucket are spread over many keys and owners. The directory
+ * of existing buckets of each realm and session type is stored in the same way. Each node remembers the recent buckets it
+ * already registered in the directory, so the directory is written once per bucket and node instead of for each added session.
+ */
+public class SessionExpirationIndex {
+
+    private static final Logger log = Logger.getLogger(SessionExpirationIndex.class);
+
+    public static final int BUCKET_SIZE = 60;
+
+    static final int SHARDS = 64;
+
+    private static final String PREFIX = "index::expiration::";
+
+    public enum Type {
+        USER_SESSION, CLIENT_SESSION, CLIENT_INITIAL_ACCESS
+    }
+
+    private final int fullScanInterval;
+
+    // Node-local, so other node taking over the expiration task starts with full scan
+    private final ConcurrentHashMap<String, Integer> lastFullScans = new ConcurrentHashMap<>();
+
+    // Recent buckets already in the directory, keyed by bucket key without shard. Only recent buckets are remembered as only
+    // those are never removed from the directory
+    private final ConcurrentHashMap<String, Integer> registeredBuckets = new ConcurrentHashMap<>();
+
+    private final AtomicLong visitedBuckets = new AtomicLong();
+    private final AtomicLong visitedSessions = new AtomicLong();
+    private final AtomicLong removedSessions = new AtomicLong();
+    private final AtomicLong fullScans = new AtomicLong();
+
+    /**
+     * @param fullScanInterval seconds between full scans of the cache for each realm. With 0 the full scan is done every time
+     */
+    public SessionExpirationIndex(int fullScanInterval) {
+        this.fullScanInterval = fullScanInterval;
+    }
+
+    static String directoryKey(Type type, String realm) {
+        return PREFIX + type.name().toLowerCase() + "::" + realm;
+    }
+
+    static String bucketKey(Type type, String realm, int bucket, int shard) {
+        return directoryKey(type, realm) + "::" + bucket + "::" + shard;
+    }
+
+    static int bucket(int time) {
+        return Math.floorDiv(time, BUCKET_SIZE) * BUCKET_SIZE;
+    }
+
+    static int shard(String sessionId) {
+        return (sessionId.hashCode() & Integer.MAX_VALUE) % SHARDS;
+    }
+
+    public void onSessionAdded(Cache<String, SessionEntity> cache, SessionEntity entity) {
+        if (entity instanceof UserSessionEntity) {
+            add(cache, Type.USER_SESSION, entity.getRealm(), entity.getId(), ((UserSessionEntity) entity).getLastSessionRefresh());
+        } else if (entity instanceof ClientSessionEntity) {
+            add(cache, Type.CLIENT_SESSION, entity.getRealm(), entity.getId(), ((ClientSessionEntity) entity).getTimestamp());
+        } else if (entity instanceof ClientInitialAccessEntity) {
+            ClientInitialAccessEntity clientInitialAccess = (ClientInitialAccessEntity) entity;
+            if (clientInitialAccess.getExpiration() > 0) {
+                add(cache, Type.CLIENT_INITIAL_ACCESS, entity.getRealm(), entity.getId(), clientInitialAccess.getTimestamp() + clientInitialAccess.getExpiration());
+            }
+        }
+    }
+
+    private void add(Cache<String, SessionEntity> cache, Type type, String realm, String sessionId, int time) {
+        int bucket = bucket(time);
+        SessionIndexes.addToIndex(cache, bucketKey(type, realm, bucket, shard(sessionId)), realm, sessionId);
+
+        int recentBucket = bucket(Time.currentTime()) - BUCKET_SIZE;
+        if (bucket < recentBucket) {
+            SessionIndexes.addToIndex(cache, directoryKey(type, realm), realm, Integer.toString(bucket));
+        } else {
+            String registeredKey = cache.getName() + "::" + directoryKey(type, realm) + "::" + bucket;
+            if (!registeredBuckets.containsKey(registeredKey)) {
+                SessionIndexes.addToIndex(cache, directoryKey(type, realm), realm, Integer.toString(bucket));
+                if (registeredBuckets.put(registeredKey, bucket) == null) {
+                    pruneRegisteredBuckets(recentBucket);
+                }
+            }
+        }
+    }
+
+    private void pruneRegisteredBuckets(int recentBucket) {
+        Iterator<Integer> itr = registeredBuckets.values().iterator();
+        while (itr.hasNext()) {
+            if (itr.next() < recentBucket) {
+                itr.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes expired sessions of the realm. Only sessions in the buckets up to the cutoff of the handler are visited,
+     * unless the full scan is due.
+     *
+     * @return number of removed sessions
+     */
+    public int removeExpired(Cache<String, SessionEntity> cache, String realm, ExpirationHandler handler) {
+        long start = System.currentTimeMillis();
+        int currentTime = Time.currentTime();
+        int lastBucket = bucket(handler.cutoff);
+
+        Set<String> removed = new HashSet<>();
+        int buckets = 0;
+        int visited = 0;
+
+        SessionIndexEntity directory = (SessionIndexEntity) cache.get(directoryKey(handler.type, realm));
+        if (directory != null) {
+            List<Integer> dueBuckets = new ArrayList<>();
+            for (String bucket : directory.getSessionIds()) {
+                if (Integer.parseInt(bucket) <= lastBucket) {
+                    dueBuckets.add(Integer.parseInt(bucket));
+                }
+            }
+            Collections.sort(dueBuckets);
+
+            // Recent buckets may still get new sessions concurrently, so they stay in the directory even if empty
+            int recentBucket = bucket(currentTime) - BUCKET_SIZE;
+            for (int bucket : dueBuckets) {
+                visited += processBucket(cache, realm, handler, bucket, bucket < recentBucket, removed);
+                buckets++;
+            }
+        }
+
+        boolean fullScan = false;
+        String fullScanKey = cache.getName() + "::" + handler.type + "::" + realm;
+        Integer lastFullScan = lastFullScans.get(fullScanKey);
+        if (lastFullScan == null || lastFullScan > currentTime || currentTime - lastFullScan >= fullScanInterval) {
+            Iterator<Map.Entry<String, SessionEntity>> itr = cache.entrySet().stream().filter(handler.expired).iterator();
+            while (itr.hasNext()) {
+                SessionEntity entity = itr.next().getValue();
+                if (removed.add(entity.getId())) {
+                    handler.remove(entity);
+                }
+            }
+
+            lastFullScans.put(fullScanKey, currentTime);
+            fullScans.incrementAndGet();
+            fullScan = true;
+        }
+
+        visitedBuckets.addAndGet(buckets);
+        visitedSessions.addAndGet(visited);
+        removedSessions.addAndGet(removed.size());
+
+        if (log.isDebugEnabled()) {
+            log.debugf("Removed %d expired sessions of type %s from cache %s in realm %s. Visited %d sessions in %d buckets%s, took %d ms",
+                    removed.size(), handler.type, cache.getName(), realm, visited, buckets, fullScan ? " and scanned whole cache" : "",
+                    System.currentTimeMillis() - start);
+        }
+
+        return removed.size();
+    }
+
+    private int processBucket(Cache<String, SessionEntity> cache, String realm, ExpirationHandler handler, int bucket, boolean removeWhenEmpty, Set<String> removed) {
+        Set<String> shardKeys = new HashSet<>();
+        for (int shard = 0; shard < SHARDS; shard++) {
+            shardKeys.add(bucketKey(handler.type, realm, bucket, shard));
+        }
+
+        Set<String> ids = new HashSet<>();
+        for (SessionEntity shard : cache.getAdvancedCache().getAll(shardKeys).values()) {
+            ids.addAll(((SessionIndexEntity) shard).getSessionIds());
+        }
+
+        Map<String, SessionEntity> sessions = ids.isEmpty() ? Collections.<String, SessionEntity>emptyMap() : cache.getAdvancedCache().getAll(ids);
+
+        Map<Integer, Set<String>> dropped = new HashMap<>();
+        int droppedCount = 0;
+        for (String id : ids) {
+            SessionEntity entity = sessions.get(id);
+
+            // Removal of expired session is committed later, so it's dropped from the bucket only once it's gone from the cache
+            boolean drop;
+            if (entity == null) {
+                drop = true;
+            } else if (removed.contains(id)) {
+                drop = false;
+            } else if (handler.expired.test(new AbstractMap.SimpleImmutableEntry<>(id, entity))) {
+                handler.remove(entity);
+                removed.add(id);
+                drop = false;
+            } else {
+                int time = handler.getIndexTime(entity);
+                drop = time < 0 || bucket(time) != bucket;
+                if (time >= 0 && drop) {
+                    add(cache, handler.type, realm, id, time);
+                }
+            }
+
+            if (drop) {
+                Set<String> shardIds = dropped.get(shard(id));
+                if (shardIds == null) {
+                    shardIds = new HashSet<>();
+                    dropped.put(shard(id), shardIds);
+                }
+                shardIds.add(id);
+                droppedCount++;
+            }
+        }
+
+        for (Map.Entry<Integer, Set<String>> entry : dropped.entrySet()) {
+            SessionIndexes.removeFromIndex(cache, bucketKey(handler.type, realm, bucket, entry.getKey()), entry.getValue());
+        }
+
+        if (removeWhenEmpty && droppedCount == ids.size() && cache.getAdvancedCache().getAll(shardKeys).isEmpty()) {
+            SessionIndexes.removeFromIndex(cache, directoryKey(handler.type, realm), Collections.singleton(Integer.toString(bucket)));
+        }
+
+        return ids.size();
+    }
+
+    public long getVisitedBuckets() {
+        return visitedBuckets.get();
+    }
+
+    public long getVisitedSessions() {
+        return visitedSessions.get();
+    }
+
+    public long getRemovedSessions() {
+        return removedSessions.get();
+    }
+
+    public long getFullScans() {
+        return fullScans.get();
+    }
+
+    /**
+     * Removal of expired sessions of one type
+     */
+    public abstract static class ExpirationHandler {
+
+        private final Type type;
+        private final int cutoff;
+        private final Predicate<Map.Entry<String, SessionEntity>> expired;
+
+        /**
+         * @param cutoff sessions indexed with this or older time may be expired
+         * @param expired serializable predicate matching expired sessions of the realm
+         */
+        public ExpirationHandler(Type type, int cutoff, Predicate<Map.Entry<String, SessionEntity>> expired) {
+            this.type = type;
+            this.cutoff = cutoff;
+            this.expired = expired;
+        }
+
+        protected abstract void remove(SessionEntity entity);
+
+        /**
+         * @return time to index the session, which isn't expired yet, with. Negative value means that the session shouldn't be indexed anymore
+         */
+        protected abstract int getIndexTime(SessionEntity entity);
+
+    }
+
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.models.sessions.infinispan;
+
+import org.infinispan.Cache;
+import org.keycloak.models.sessions.infinispan.entities.ClientSessionEntity;
+import org.keycloak.models.sessions.infinispan.entities.SessionEntity;
+import org.keycloak.models.sessions.infinispan.entities.SessionIndexEntity;
+import org.keycloak.models.sessions.infinispan.entities.UserSessionEntity;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Maintains per-user and per-client indexes of sessions, so lookups of sessions of single user or client don't need to
+ * iterate the whole cache. Indexes are stored as {@link SessionIndexEntity} in the same cache as the indexed sessions and
+ * they are updated after the session itself was written to the cache.
+ * <p>
+ * Each index is split into shards by session id. Adding a session copies and replicates just one shard, and concurrent
+ * logins of the same client mostly update different keys. Indexed sessions are read in batches of
+ * {@link #READ_BATCH_SIZE}, so sessions of a large client are never loaded by a single call.
+ *
+ * @see InfinispanUserSessionProvider.InfinispanKeycloakTransaction
+ */
+public class SessionIndexes {
+
+    private static final String USER_INDEX_PREFIX = "index::user::";
+    private static final String CLIENT_INDEX_PREFIX = "index::client::";
+
+    // Users have just a few sessions, clients can have sessions of all users of the realm
+    static final int USER_INDEX_SHARDS = 4;
+    static final int CLIENT_INDEX_SHARDS = 32;
+
+    static final int READ_BATCH_SIZE = 1000;
+
+    public static String userIndexKey(String realm, String user) {
+        return USER_INDEX_PREFIX + realm + "::" + user;
+    }
+
+    public static String clientIndexKey(String realm, String client) {
+        return CLIENT_INDEX_PREFIX + realm + "::" + client;
+    }
+
+    static String shardKey(String indexKey, int shard) {
+        return indexKey + "::" + shard;
+    }
+
+    static int shard(String sessionId, int shards) {
+        return (sessionId.hashCode() & Integer.MAX_VALUE) % shards;
+    }
+
+    public static void onSessionAdded(Cache<String, SessionEntity> cache, SessionEntity entity) {
+        String indexKey = getIndexKey(entity);
+        if (indexKey != null) {
+            addToIndex(cache, shardKey(indexKey, shard(entity.getId(), getShards(entity))), entity.getRealm(), entity.getId());
+        }
+    }
+
+    public static void onSessionRemoved(Cache<String, SessionEntity> cache, SessionEntity entity) {
+        String indexKey = getIndexKey(entity);
+        if (indexKey != null) {
+            removeFromIndex(cache, shardKey(indexKey, shard(entity.getId(), getShards(entity))), entity.getId());
+        }
+    }
+
+    public static List<UserSessionEntity> getUserSessions(Cache<String, SessionEntity> cache, final String realm, String user) {
+        final List<UserSessionEntity> result = new LinkedList<>();
+        forEachIndexedSession(cache, userIndexKey(realm, user), USER_INDEX_SHARDS, new Consumer<SessionEntity>() {
+            @Override
+            public void accept(SessionEntity entity) {
+                if (entity instanceof UserSessionEntity && realm.equals(entity.getRealm())) {
+                    result.add((UserSessionEntity) entity);
+                }
+            }
+        });
+        return result;
+    }
+
+    public static List<ClientSessionEntity> getClientSessions(Cache<String, SessionEntity> cache, String realm, String client) {
+        final List<ClientSessionEntity> result = new LinkedList<>();
+        forEachClientSession(cache, realm, client, new Consumer<ClientSessionEntity>() {
+            @Override
+            public void accept(ClientSessionEntity entity) {
+                result.add(entity);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Passes client sessions of the client to the consumer one batch after another, so callers which need just some
+     * attributes of the sessions don't keep all of them in memory
+     */
+    public static void forEachClientSession(Cache<String, SessionEntity> cache, final String realm, String client, final Consumer<ClientSessionEntity> consumer) {
+        forEachIndexedSession(cache, clientIndexKey(realm, client), CLIENT_INDEX_SHARDS, new Consumer<SessionEntity>() {
+            @Override
+            public void accept(SessionEntity entity) {
+                if (entity instanceof ClientSessionEntity && realm.equals(entity.getRealm())) {
+                    consumer.accept((ClientSessionEntity) entity);
+                }
+            }
+        });
+    }
+
+    private static String getIndexKey(SessionEntity entity) {
+        if (entity instanceof UserSessionEntity) {
+            String user = ((UserSessionEntity) entity).getUser();
+            return user != null ? userIndexKey(entity.getRealm(), user) : null;
+        } else if (entity instanceof ClientSessionEntity) {
+            String client = ((ClientSessionEntity) entity).getClient();
+            return client != null ? clientIndexKey(entity.getRealm(), client) : null;
+        } else {
+            return null;
+        }
+    }
+
+    private static int getShards(SessionEntity entity) {
+        return entity instanceof UserSessionEntity ? USER_INDEX_SHARDS : CLIENT_INDEX_SHARDS;
+    }
+
+    private static void forEachIndexedSession(Cache<String, SessionEntity> cache, String indexKey, int shards, Consumer<SessionEntity> consumer) {
+        Set<String> shardKeys = new HashSet<>();
+        for (int i = 0; i < shards; i++) {
+            shardKeys.add(shardKey(indexKey, i));
+        }
+
+        List<String> ids = new ArrayList<>();
+        for (SessionEntity index : cache.getAdvancedCache().getAll(shardKeys).values()) {
+            if (index instanceof SessionIndexEntity) {
+                ids.addAll(((SessionIndexEntity) index).getSessionIds());
+            }
+        }
+
+        // Ids of sessions removed concurrently are simply missing in the result
+        for (int i = 0; i < ids.size(); i += READ_BATCH_SIZE) {
+            Set<String> batch = new HashSet<>(ids.subList(i, Math.min(ids.size(), i + READ_BATCH_SIZE)));
+            Map<String, SessionEntity> sessions = cache.getAdvancedCache().getAll(batch);
+            for (SessionEntity entity : sessions.values()) {
+                consumer.accept(entity);
+            }
+        }
+    }
+
+    static void addToIndex(Cache<String, SessionEntity> cache, String indexKey, String realm, String sessionId) {
+        while (true) {
+            SessionIndexEntity current = (SessionIndexEntity) cache.get(indexKey);
+            if (current == null) {
+                SessionIndexEntity index = new SessionIndexEntity();
+                index.setId(indexKey);
+                index.setRealm(realm);
+                index.setSessionIds(new HashSet<>(Collections.singleton(sessionId)));
+
+                if (cache.putIfAbsent(indexKey, index) == null) {
+                    return;
+                }
+            } else if (current.getSessionIds().contains(sessionId)) {
+                return;
+            } else if (cache.replace(indexKey, current, current.withSession(sessionId))) {
+                return;
+            }
+        }
+    }
+
+    private static void removeFromIndex(Cache<String, SessionEntity> cache, String indexKey, String sessionId) {
+        while (true) {
+            SessionIndexEntity current = (SessionIndexEntity) cache.get(indexKey);
+            if (current == null || !current.getSessionIds().contains(sessionId)) {
+                return;
+            }
+
+            SessionIndexEntity updated = current.withoutSession(sessionId);
+            if (updated.getSessionIds().isEmpty()) {
+                if (cache.remove(indexKey, current)) {
+                    return;
+                }
+            } else if (cache.replace(indexKey, current, updated)) {
+                return;
+            }
+        }
+    }
+
+    static void removeFromIndex(Cache<String, SessionEntity> cache, String indexKey, Collection<String> sessionIds) {
+        while (true) {
+            SessionIndexEntity current = (SessionIndexEntity) cache.get(indexKey);
+            if (current == null || Collections.disjoint(current.getSessionIds(), sessionIds)) {
+                return;
+            }
+
+            Set<String> ids = new HashSet<>(current.getSessionIds());
+            ids.removeAll(sessionIds);
+            if (ids.isEmpty()) {
+                if (cache.remove(indexKey, current)) {
+                    return;
+                }
+            } else {
+                SessionIndexEntity updated = new SessionIndexEntity();
+                updated.setId(current.getId());
+                updated.setRealm(current.getRealm());
+                updated.setSessionIds(ids);
+                if (cache.replace(indexKey, current, updated)) {
+                    return;
+                }
+            }
+        }
+    }
+
+}
@@ -25,6 +25,7 @@ import org.keycloak.models.UserModel;
 import org.keycloak.models.UserSessionModel;
 import org.keycloak.models.sessions.infinispan.entities.SessionEntity;
 import org.keycloak.models.sessions.infinispan.entities.UserSessionEntity;
+import org.keycloak.models.sessions.infinispan.entities.UserSessionEntityDelta;
 
 import java.util.Collections;
 import java.util.HashMap;
@@ -109,8 +110,16 @@ public class UserSessionAdapter implements UserSessionModel {
     }
 
     public void setLastSessionRefresh(int lastSessionRefresh) {
+        int storedLastSessionRefresh = entity.getLastSessionRefresh();
         entity.setLastSessionRefresh(lastSessionRefresh);
-        update();
+
+        LastSessionRefreshBuffer buffer = provider.getLastSessionRefreshBuffer();
+        int idleTimeout = offline ? realm.getOfflineSessionIdleTimeout() : realm.getSsoSessionIdleTimeout();
+        if (buffer != null && !buffer.isWriteRequired(storedLastSessionRefresh, lastSessionRefresh, idleTimeout)) {
+            provider.getTx().bufferLastSessionRefresh(cache, entity.getId(), lastSessionRefresh);
+        } else {
+            update(new UserSessionEntityDelta().setLastSessionRefresh(lastSessionRefresh));
+        }
     }
 
     @Override
@@ -124,14 +133,14 @@ public class UserSessionAdapter implements UserSessionModel {
             entity.setNotes(new HashMap<String, String>());
         }
         entity.getNotes().put(name, value);
-        update();
+        update(new UserSessionEntityDelta().setNote(name, value));
     }
 
     @Override
     public void removeNote(String name) {
         if (entity.getNotes() != null) {
             entity.getNotes().remove(name);
-            update();
+            update(new UserSessionEntityDelta().removeNote(name));
         }
     }
 
@@ -148,7 +157,7 @@ public class UserSessionAdapter implements UserSessionModel {
     @Override
     public void setState(State state) {
         entity.setState(state);
-        update();
+        update(new UserSessionEntityDelta().setState(state));
     }
 
     @Override
@@ -185,8 +194,8 @@ public class UserSessionAdapter implements UserSessionModel {
         return entity;
     }
 
-    void update() {
-        provider.getTx().replace(cache, entity.getId(), entity);
+    void update(UserSessionEntityDelta delta) {
+        provider.getTx().update(cache, entity.getId(), entity, delta);
     }
 
 }
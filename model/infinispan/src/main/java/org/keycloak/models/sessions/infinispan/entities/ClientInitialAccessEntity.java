@@ -17,9 +17,12 @@
 
 package org.keycloak.models.sessions.infinispan.entities;
 
+import org.infinispan.commons.marshall.SerializeWith;
+
 /**
  * @author <a href="mailto:sthorger@redhat.com">Stian Thorgersen</a>
  */
+@SerializeWith(SessionEntityExternalizers.ClientInitialAccessEntityExternalizer.class)
 public class ClientInitialAccessEntity extends SessionEntity {
 
     private int timestamp;
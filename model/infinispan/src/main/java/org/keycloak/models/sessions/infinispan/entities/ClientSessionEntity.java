@@ -17,6 +17,7 @@
 
 package org.keycloak.models.sessions.infinispan.entities;
 
+import org.infinispan.commons.marshall.SerializeWith;
 import org.keycloak.models.ClientSessionModel;
 
 import java.util.HashMap;
@@ -27,6 +28,7 @@ import java.util.Set;
 /**
  * @author <a href="mailto:sthorger@redhat.com">Stian Thorgersen</a>
  */
+@SerializeWith(SessionEntityExternalizers.ClientSessionEntityExternalizer.class)
 public class ClientSessionEntity extends SessionEntity {
 
     private String client;
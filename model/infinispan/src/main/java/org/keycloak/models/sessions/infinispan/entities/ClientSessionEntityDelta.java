@@ -0,0 +1,249 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.models.sessions.infinispan.entities;
+
+import org.infinispan.commons.marshall.SerializeWith;
+import org.keycloak.models.ClientSessionModel;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Changes of {@link ClientSessionEntity} done by the adapter
+ */
+@SerializeWith(SessionEntityExternalizers.ClientSessionEntityDeltaExternalizer.class)
+public class ClientSessionEntityDelta extends SessionEntityDelta<ClientSessionEntity> {
+
+    static final int USER_SESSION = 1;
+    static final int REDIRECT_URI = 1 << 1;
+    static final int TIMESTAMP = 1 << 2;
+    static final int ACTION = 1 << 3;
+    static final int ROLES = 1 << 4;
+    static final int PROTOCOL_MAPPERS = 1 << 5;
+    static final int AUTH_METHOD = 1 << 6;
+    static final int AUTH_USER_ID = 1 << 7;
+    static final int CLEAR_USER_SESSION_NOTES = 1 << 8;
+    static final int CLEAR_EXECUTION_STATUS = 1 << 9;
+
+    int changedFields;
+    String userSession;
+    String redirectUri;
+    int timestamp;
+    String action;
+    Set<String> roles;
+    Set<String> protocolMappers;
+    String authMethod;
+    String authUserId;
+
+    // Null value means removed entry
+    final Map<String, String> notes = new LinkedHashMap<>();
+    final Map<String, String> userSessionNotes = new LinkedHashMap<>();
+    final Map<String, ClientSessionModel.ExecutionStatus> executionStatus = new LinkedHashMap<>();
+
+    // True for added, false for removed action
+    final Map<String, Boolean> requiredActions = new LinkedHashMap<>();
+
+    public ClientSessionEntityDelta() {
+        super(ClientSessionEntity.class);
+    }
+
+    public ClientSessionEntityDelta setUserSession(String userSession) {
+        this.userSession = userSession;
+        changedFields |= USER_SESSION;
+        return this;
+    }
+
+    public ClientSessionEntityDelta setRedirectUri(String redirectUri) {
+        this.redirectUri = redirectUri;
+        changedFields |= REDIRECT_URI;
+        return this;
+    }
+
+    public ClientSessionEntityDelta setTimestamp(int timestamp) {
+        this.timestamp = timestamp;
+        changedFields |= TIMESTAMP;
+        return this;
+    }
+
+    public ClientSessionEntityDelta setAction(String action) {
+        this.action = action;
+        changedFields |= ACTION;
+        return this;
+    }
+
+    public ClientSessionEntityDelta setRoles(Set<String> roles) {
+        this.roles = roles;
+        changedFields |= ROLES;
+        return this;
+    }
+
+    public ClientSessionEntityDelta setProtocolMappers(Set<String> protocolMappers) {
+        this.protocolMappers = protocolMappers;
+        changedFields |= PROTOCOL_MAPPERS;
+        return this;
+    }
+
+    public ClientSessionEntityDelta setAuthMethod(String authMethod) {
+        this.authMethod = authMethod;
+        changedFields |= AUTH_METHOD;
+        return this;
+    }
+
+    public ClientSessionEntityDelta setAuthUserId(String authUserId) {
+        this.authUserId = authUserId;
+        changedFields |= AUTH_USER_ID;
+        return this;
+    }
+
+    public ClientSessionEntityDelta setNote(String name, String value) {
+        notes.put(name, value);
+        return this;
+    }
+
+    public ClientSessionEntityDelta removeNote(String name) {
+        notes.put(name, null);
+        return this;
+    }
+
+    public ClientSessionEntityDelta setUserSessionNote(String name, String value) {
+        userSessionNotes.put(name, value);
+        return this;
+    }
+
+    public ClientSessionEntityDelta clearUserSessionNotes() {
+        userSessionNotes.clear();
+        changedFields |= CLEAR_USER_SESSION_NOTES;
+        return this;
+    }
+
+    public ClientSessionEntityDelta setExecutionStatus(String authenticator, ClientSessionModel.ExecutionStatus status) {
+        executionStatus.put(authenticator, status);
+        return this;
+    }
+
+    public ClientSessionEntityDelta clearExecutionStatus() {
+        executionStatus.clear();
+        changedFields |= CLEAR_EXECUTION_STATUS;
+        return this;
+    }
+
+    public ClientSessionEntityDelta addRequiredAction(String action) {
+        requiredActions.put(action, true);
+        return this;
+    }
+
+    public ClientSessionEntityDelta removeRequiredAction(String action) {
+        requiredActions.put(action, false);
+        return this;
+    }
+
+    @Override
+    public void applyTo(ClientSessionEntity entity) {
+        if ((changedFields & USER_SESSION) != 0) entity.setUserSession(userSession);
+        if ((changedFields & REDIRECT_URI) != 0) entity.setRedirectUri(redirectUri);
+        if ((changedFields & TIMESTAMP) != 0) entity.setTimestamp(timestamp);
+        if ((changedFields & ACTION) != 0) entity.setAction(action);
+        if ((changedFields & ROLES) != 0) entity.setRoles(roles);
+        if ((changedFields & PROTOCOL_MAPPERS) != 0) entity.setProtocolMappers(protocolMappers);
+        if ((changedFields & AUTH_METHOD) != 0) entity.setAuthMethod(authMethod);
+        if ((changedFields & AUTH_USER_ID) != 0) entity.setAuthUserId(authUserId);
+
+        if (!notes.isEmpty()) {
+            if (entity.getNotes() == null) {
+                entity.setNotes(new HashMap<String, String>());
+            }
+            applyEntries(entity.getNotes(), notes);
+        }
+
+        if ((changedFields & CLEAR_USER_SESSION_NOTES) != 0) {
+            entity.setUserSessionNotes(new HashMap<String, String>());
+        }
+        if (!userSessionNotes.isEmpty()) {
+            if (entity.getUserSessionNotes() == null) {
+                entity.setUserSessionNotes(new HashMap<String, String>());
+            }
+            applyEntries(entity.getUserSessionNotes(), userSessionNotes);
+        }
+
+        if ((changedFields & CLEAR_EXECUTION_STATUS) != 0) {
+            entity.getAuthenticatorStatus().clear();
+        }
+        entity.getAuthenticatorStatus().putAll(executionStatus);
+
+        for (Map.Entry<String, Boolean> requiredAction : requiredActions.entrySet()) {
+            if (requiredAction.getValue()) {
+                entity.getRequiredActions().add(requiredAction.getKey());
+            } else {
+                entity.getRequiredActions().remove(requiredAction.getKey());
+            }
+        }
+    }
+
+    @Override
+    protected ClientSessionEntity copy(ClientSessionEntity entity) {
+        ClientSessionEntity copy = new ClientSessionEntity();
+        copy.setId(entity.getId());
+        copy.setRealm(entity.getRealm());
+        copy.setClient(entity.getClient());
+        copy.setUserSession(entity.getUserSession());
+        copy.setAuthMethod(entity.getAuthMethod());
+        copy.setRedirectUri(entity.getRedirectUri());
+        copy.setTimestamp(entity.getTimestamp());
+        copy.setAction(entity.getAction());
+        copy.setRoles(entity.getRoles() != null ? new HashSet<>(entity.getRoles()) : null);
+        copy.setProtocolMappers(entity.getProtocolMappers() != null ? new HashSet<>(entity.getProtocolMappers()) : null);
+        copy.setNotes(entity.getNotes() != null ? new HashMap<>(entity.getNotes()) : null);
+        copy.setUserSessionNotes(entity.getUserSessionNotes() != null ? new HashMap<>(entity.getUserSessionNotes()) : null);
+        copy.setAuthenticatorStatus(entity.getAuthenticatorStatus() != null ? new HashMap<>(entity.getAuthenticatorStatus()) : null);
+        copy.setAuthUserId(entity.getAuthUserId());
+        if (entity.getRequiredActions() != null) {
+            copy.getRequiredActions().addAll(entity.getRequiredActions());
+        }
+        return copy;
+    }
+
+    @Override
+    public void merge(SessionEntityDelta<ClientSessionEntity> later) {
+        ClientSessionEntityDelta delta = (ClientSessionEntityDelta) later;
+        int fields = delta.changedFields;
+        if ((fields & USER_SESSION) != 0) setUserSession(delta.userSession);
+        if ((fields & REDIRECT_URI) != 0) setRedirectUri(delta.redirectUri);
+        if ((fields & TIMESTAMP) != 0) setTimestamp(delta.timestamp);
+        if ((fields & ACTION) != 0) setAction(delta.action);
+        if ((fields & ROLES) != 0) setRoles(delta.roles);
+        if ((fields & PROTOCOL_MAPPERS) != 0) setProtocolMappers(delta.protocolMappers);
+        if ((fields & AUTH_METHOD) != 0) setAuthMethod(delta.authMethod);
+        if ((fields & AUTH_USER_ID) != 0) setAuthUserId(delta.authUserId);
+        if ((fields & CLEAR_USER_SESSION_NOTES) != 0) clearUserSessionNotes();
+        if ((fields & CLEAR_EXECUTION_STATUS) != 0) clearExecutionStatus();
+
+        notes.putAll(delta.notes);
+        userSessionNotes.putAll(delta.userSessionNotes);
+        executionStatus.putAll(delta.executionStatus);
+        requiredActions.putAll(delta.requiredActions);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return changedFields == 0 && notes.isEmpty() && userSessionNotes.isEmpty() && executionStatus.isEmpty() && requiredActions.isEmpty();
+    }
+
+}
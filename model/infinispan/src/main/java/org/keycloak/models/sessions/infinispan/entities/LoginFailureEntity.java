@@ -17,11 +17,14 @@
 
 package org.keycloak.models.sessions.infinispan.entities;
 
+import org.infinispan.commons.marshall.SerializeWith;
+
 import java.io.Serializable;
 
 /**
  * @author <a href="mailto:sthorger@redhat.com">Stian Thorgersen</a>
  */
+@SerializeWith(SessionEntityExternalizers.LoginFailureEntityExternalizer.class)
 public class LoginFailureEntity implements Serializable {
 
     private String username;
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.models.sessions.infinispan.entities;
+
+import org.infinispan.Cache;
+import org.infinispan.commons.api.functional.EntryView;
+import org.infinispan.functional.impl.FunctionalMapImpl;
+import org.infinispan.functional.impl.ReadWriteMapImpl;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Changes done to the session entity within one Keycloak transaction. Only the delta is sent to the owner of the entry,
+ * which applies it to the current entity under the entry lock, so changes of other fields done concurrently on other nodes
+ * are neither overwritten by the stale copy loaded at the beginning of the transaction nor lost. If the entity doesn't
+ * exist anymore, the delta is ignored.
+ */
+public abstract class SessionEntityDelta<E extends SessionEntity> implements Function<EntryView.ReadWriteEntryView<Object, Object>, Void>, Serializable {
+
+    private final Class<E> entityType;
+
+    protected SessionEntityDelta(Class<E> entityType) {
+        this.entityType = entityType;
+    }
+
+    /**
+     * Apply the changes to the entity stored in the cache under the key. The delta is evaluated as a functional map command
+     * on the owners of the key, so the entity itself doesn't cross the wire.
+     */
+    @SuppressWarnings("unchecked")
+    public void apply(Cache cache, Object key) {
+        ReadWriteMapImpl.create(FunctionalMapImpl.create(cache.getAdvancedCache())).eval(key, this).join();
+    }
+
+    /**
+     * Evaluated on the owner of the entry. The stored instance is never modified as it may be read by other threads, the
+     * copy with the changes applied replaces it.
+     */
+    @Override
+    public Void apply(EntryView.ReadWriteEntryView<Object, Object> view) {
+        Object current = view.find().orElse(null);
+        if (!entityType.isInstance(current)) {
+            return null;
+        }
+
+        E updated = copy(entityType.cast(current));
+        applyTo(updated);
+        return view.set(updated);
+    }
+
+    /**
+     * Apply the changes to the entity
+     */
+    public abstract void applyTo(E entity);
+
+    /**
+     * Copy of the entity including its collections, so the changes can be applied without affecting the original
+     */
+    protected abstract E copy(E entity);
+
+    /**
+     * Add changes of the later delta of same entity to this delta
+     */
+    public abstract void merge(SessionEntityDelta<E> later);
+
+    public abstract boolean isEmpty();
+
+    // Null value means that the entry was removed
+    static void applyEntries(Map<String, String> target, Map<String, String> changes) {
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                target.remove(change.getKey());
+            } else {
+                target.put(change.getKey(), change.getValue());
+            }
+        }
+    }
+
+}
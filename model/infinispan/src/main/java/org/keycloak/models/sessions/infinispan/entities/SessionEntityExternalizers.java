@@ -0,0 +1,489 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.models.sessions.infinispan.entities;
+
+import org.infinispan.commons.marshall.AdvancedExternalizer;
+import org.keycloak.models.ClientSessionModel;
+import org.keycloak.models.UserSessionModel;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compact Infinispan externalizers of session entities, which are replicated or distributed across the cluster. Entities
+ * are written field by field, so neither class descriptors nor field names are sent over the wire as with Java serialization.
+ *
+ * Entities reference their externalizer with {@link org.infinispan.commons.marshall.SerializeWith}, so they are used by any cache
+ * container including the container managed one. The embedded cache manager additionally registers them in its global
+ * configuration, which replaces the class name written with each {@code SerializeWith} entity by the numeric id. The format
+ * must be same on all cluster nodes.
+ */
+public class SessionEntityExternalizers {
+
+    // Not overlapping with the ranges reserved by Infinispan and other frameworks running on the same cache container
+    public static final int USER_SESSION_ENTITY = 7200;
+    public static final int CLIENT_SESSION_ENTITY = 7201;
+    public static final int LOGIN_FAILURE_ENTITY = 7202;
+    public static final int LOGIN_FAILURE_KEY = 7203;
+    public static final int SESSION_INDEX_ENTITY = 7204;
+    public static final int CLIENT_INITIAL_ACCESS_ENTITY = 7205;
+    public static final int USER_SESSION_ENTITY_DELTA = 7206;
+    public static final int CLIENT_SESSION_ENTITY_DELTA = 7207;
+
+    public static List<AdvancedExternalizer<?>> getExternalizers() {
+        return Arrays.<AdvancedExternalizer<?>>asList(
+                new UserSessionEntityExternalizer(),
+                new ClientSessionEntityExternalizer(),
+                new LoginFailureEntityExternalizer(),
+                new LoginFailureKeyExternalizer(),
+                new SessionIndexEntityExternalizer(),
+                new ClientInitialAccessEntityExternalizer(),
+                new UserSessionEntityDeltaExternalizer(),
+                new ClientSessionEntityDeltaExternalizer()
+        );
+    }
+
+    public static class UserSessionEntityExternalizer extends EntityExternalizer<UserSessionEntity> {
+
+        public UserSessionEntityExternalizer() {
+            super(USER_SESSION_ENTITY, UserSessionEntity.class);
+        }
+
+        @Override
+        public void writeObject(ObjectOutput output, UserSessionEntity entity) throws IOException {
+            writeString(output, entity.getId());
+            writeString(output, entity.getRealm());
+            writeString(output, entity.getUser());
+            writeString(output, entity.getBrokerSessionId());
+            writeString(output, entity.getBrokerUserId());
+            writeString(output, entity.getLoginUsername());
+            writeString(output, entity.getIpAddress());
+            writeString(output, entity.getAuthMethod());
+            output.writeBoolean(entity.isRememberMe());
+            output.writeInt(entity.getStarted());
+            output.writeInt(entity.getLastSessionRefresh());
+            writeStringSet(output, entity.getClientSessions());
+            writeEnum(output, entity.getState());
+            writeStringMap(output, entity.getNotes());
+        }
+
+        @Override
+        public UserSessionEntity readObject(ObjectInput input) throws IOException {
+            UserSessionEntity entity = new UserSessionEntity();
+            entity.setId(readString(input));
+            entity.setRealm(readString(input));
+            entity.setUser(readString(input));
+            entity.setBrokerSessionId(readString(input));
+            entity.setBrokerUserId(readString(input));
+            entity.setLoginUsername(readString(input));
+            entity.setIpAddress(readString(input));
+            entity.setAuthMethod(readString(input));
+            entity.setRememberMe(input.readBoolean());
+            entity.setStarted(input.readInt());
+            entity.setLastSessionRefresh(input.readInt());
+            entity.setClientSessions(readStringSet(input));
+            entity.setState(readEnum(input, UserSessionModel.State.values()));
+            entity.setNotes(readStringMap(input));
+            return entity;
+        }
+    }
+
+    public static class ClientSessionEntityExternalizer extends EntityExternalizer<ClientSessionEntity> {
+
+        private static final ClientSessionModel.ExecutionStatus[] EXECUTION_STATUSES = ClientSessionModel.ExecutionStatus.values();
+
+        public ClientSessionEntityExternalizer() {
+            super(CLIENT_SESSION_ENTITY, ClientSessionEntity.class);
+        }
+
+        @Override
+        public void writeObject(ObjectOutput output, ClientSessionEntity entity) throws IOException {
+            writeString(output, entity.getId());
+            writeString(output, entity.getRealm());
+            writeString(output, entity.getClient());
+            writeString(output, entity.getUserSession());
+            writeString(output, entity.getAuthMethod());
+            writeString(output, entity.getRedirectUri());
+            output.writeInt(entity.getTimestamp());
+            writeString(output, entity.getAction());
+            writeStringSet(output, entity.getRoles());
+            writeStringSet(output, entity.getProtocolMappers());
+            writeStringMap(output, entity.getNotes());
+            writeStringMap(output, entity.getUserSessionNotes());
+
+            Map<String, ClientSessionModel.ExecutionStatus> authenticatorStatus = entity.getAuthenticatorStatus();
+            output.writeInt(authenticatorStatus == null ? -1 : authenticatorStatus.size());
+            if (authenticatorStatus != null) {
+                for (Map.Entry<String, ClientSessionModel.ExecutionStatus> status : authenticatorStatus.entrySet()) {
+                    writeString(output, status.getKey());
+                    writeEnum(output, status.getValue());
+                }
+            }
+
+            writeString(output, entity.getAuthUserId());
+            writeStringSet(output, entity.getRequiredActions());
+        }
+
+        @Override
+        public ClientSessionEntity readObject(ObjectInput input) throws IOException {
+            ClientSessionEntity entity = new ClientSessionEntity();
+            entity.setId(readString(input));
+            entity.setRealm(readString(input));
+            entity.setClient(readString(input));
+            entity.setUserSession(readString(input));
+            entity.setAuthMethod(readString(input));
+            entity.setRedirectUri(readString(input));
+            entity.setTimestamp(input.readInt());
+            entity.setAction(readString(input));
+            entity.setRoles(readStringSet(input));
+            entity.setProtocolMappers(readStringSet(input));
+            entity.setNotes(readStringMap(input));
+            entity.setUserSessionNotes(readStringMap(input));
+
+            int statusCount = input.readInt();
+            if (statusCount == -1) {
+                entity.setAuthenticatorStatus(null);
+            } else {
+                for (int i = 0; i < statusCount; i++) {
+                    entity.getAuthenticatorStatus().put(readString(input), readEnum(input, EXECUTION_STATUSES));
+                }
+            }
+
+            entity.setAuthUserId(readString(input));
+            Set<String> requiredActions = readStringSet(input);
+            if (requiredActions != null) {
+                entity.getRequiredActions().addAll(requiredActions);
+            }
+            return entity;
+        }
+    }
+
+    public static class LoginFailureEntityExternalizer extends EntityExternalizer<LoginFailureEntity> {
+
+        public LoginFailureEntityExternalizer() {
+            super(LOGIN_FAILURE_ENTITY, LoginFailureEntity.class);
+        }
+
+        @Override
+        public void writeObject(ObjectOutput output, LoginFailureEntity entity) throws IOException {
+            writeString(output, entity.getUsername());
+            writeString(output, entity.getRealm());
+            output.writeInt(entity.getFailedLoginNotBefore());
+            output.writeInt(entity.getNumFailures());
+            output.writeLong(entity.getLastFailure());
+            writeString(output, entity.getLastIPFailure());
+        }
+
+        @Override
+        public LoginFailureEntity readObject(ObjectInput input) throws IOException {
+            LoginFailureEntity entity = new LoginFailureEntity();
+            entity.setUsername(readString(input));
+            entity.setRealm(readString(input));
+            entity.setFailedLoginNotBefore(input.readInt());
+            entity.setNumFailures(input.readInt());
+            entity.setLastFailure(input.readLong());
+            entity.setLastIPFailure(readString(input));
+            return entity;
+        }
+    }
+
+    public static class LoginFailureKeyExternalizer extends EntityExternalizer<LoginFailureKey> {
+
+        public LoginFailureKeyExternalizer() {
+            super(LOGIN_FAILURE_KEY, LoginFailureKey.class);
+        }
+
+        @Override
+        public void writeObject(ObjectOutput output, LoginFailureKey key) throws IOException {
+            writeString(output, key.getRealm());
+            writeString(output, key.getUsername());
+        }
+
+        @Override
+        public LoginFailureKey readObject(ObjectInput input) throws IOException {
+            return new LoginFailureKey(readString(input), readString(input));
+        }
+    }
+
+    public static class SessionIndexEntityExternalizer extends EntityExternalizer<SessionIndexEntity> {
+
+        public SessionIndexEntityExternalizer() {
+            super(SESSION_INDEX_ENTITY, SessionIndexEntity.class);
+        }
+
+        @Override
+        public void writeObject(ObjectOutput output, SessionIndexEntity entity) throws IOException {
+            writeString(output, entity.getId());
+            writeString(output, entity.getRealm());
+            writeStringSet(output, entity.getSessionIds());
+        }
+
+        @Override
+        public SessionIndexEntity readObject(ObjectInput input) throws IOException {
+            SessionIndexEntity entity = new SessionIndexEntity();
+            entity.setId(readString(input));
+            entity.setRealm(readString(input));
+            Set<String> sessionIds = readStringSet(input);
+            entity.setSessionIds(sessionIds == null ? Collections.<String>emptySet() : sessionIds);
+            return entity;
+        }
+    }
+
+    public static class ClientInitialAccessEntityExternalizer extends EntityExternalizer<ClientInitialAccessEntity> {
+
+        public ClientInitialAccessEntityExternalizer() {
+            super(CLIENT_INITIAL_ACCESS_ENTITY, ClientInitialAccessEntity.class);
+        }
+
+        @Override
+        public void writeObject(ObjectOutput output, ClientInitialAccessEntity entity) throws IOException {
+            writeString(output, entity.getId());
+            writeString(output, entity.getRealm());
+            output.writeInt(entity.getTimestamp());
+            output.writeInt(entity.getExpiration());
+            output.writeInt(entity.getCount());
+            output.writeInt(entity.getRemainingCount());
+        }
+
+        @Override
+        public ClientInitialAccessEntity readObject(ObjectInput input) throws IOException {
+            ClientInitialAccessEntity entity = new ClientInitialAccessEntity();
+            entity.setId(readString(input));
+            entity.setRealm(readString(input));
+            entity.setTimestamp(input.readInt());
+            entity.setExpiration(input.readInt());
+            entity.setCount(input.readInt());
+            entity.setRemainingCount(input.readInt());
+            return entity;
+        }
+    }
+
+    public static class UserSessionEntityDeltaExternalizer extends EntityExternalizer<UserSessionEntityDelta> {
+
+        public UserSessionEntityDeltaExternalizer() {
+            super(USER_SESSION_ENTITY_DELTA, UserSessionEntityDelta.class);
+        }
+
+        @Override
+        public void writeObject(ObjectOutput output, UserSessionEntityDelta delta) throws IOException {
+            output.writeInt(delta.changedFields);
+            if ((delta.changedFields & (UserSessionEntityDelta.LAST_SESSION_REFRESH | UserSessionEntityDelta.LAST_SESSION_REFRESH_IF_NEWER)) != 0) {
+                output.writeInt(delta.lastSessionRefresh);
+            }
+            if ((delta.changedFields & UserSessionEntityDelta.STATE) != 0) {
+                writeEnum(output, delta.state);
+            }
+            writeStringMap(output, delta.notes);
+            writeBooleanMap(output, delta.clientSessions);
+        }
+
+        @Override
+        public UserSessionEntityDelta readObject(ObjectInput input) throws IOException {
+            UserSessionEntityDelta delta = new UserSessionEntityDelta();
+            delta.changedFields = input.readInt();
+            if ((delta.changedFields & (UserSessionEntityDelta.LAST_SESSION_REFRESH | UserSessionEntityDelta.LAST_SESSION_REFRESH_IF_NEWER)) != 0) {
+                delta.lastSessionRefresh = input.readInt();
+            }
+            if ((delta.changedFields & UserSessionEntityDelta.STATE) != 0) {
+                delta.state = readEnum(input, UserSessionModel.State.values());
+            }
+            delta.notes.putAll(readStringMap(input));
+            delta.clientSessions.putAll(readBooleanMap(input));
+            return delta;
+        }
+    }
+
+    public static class ClientSessionEntityDeltaExternalizer extends EntityExternalizer<ClientSessionEntityDelta> {
+
+        private static final ClientSessionModel.ExecutionStatus[] EXECUTION_STATUSES = ClientSessionModel.ExecutionStatus.values();
+
+        public ClientSessionEntityDeltaExternalizer() {
+            super(CLIENT_SESSION_ENTITY_DELTA, ClientSessionEntityDelta.class);
+        }
+
+        @Override
+        public void writeObject(ObjectOutput output, ClientSessionEntityDelta delta) throws IOException {
+            int fields = delta.changedFields;
+            output.writeInt(fields);
+            if ((fields & ClientSessionEntityDelta.USER_SESSION) != 0) writeString(output, delta.userSession);
+            if ((fields & ClientSessionEntityDelta.REDIRECT_URI) != 0) writeString(output, delta.redirectUri);
+            if ((fields & ClientSessionEntityDelta.TIMESTAMP) != 0) output.writeInt(delta.timestamp);
+            if ((fields & ClientSessionEntityDelta.ACTION) != 0) writeString(output, delta.action);
+            if ((fields & ClientSessionEntityDelta.ROLES) != 0) writeStringSet(output, delta.roles);
+            if ((fields & ClientSessionEntityDelta.PROTOCOL_MAPPERS) != 0) writeStringSet(output, delta.protocolMappers);
+            if ((fields & ClientSessionEntityDelta.AUTH_METHOD) != 0) writeString(output, delta.authMethod);
+            if ((fields & ClientSessionEntityDelta.AUTH_USER_ID) != 0) writeString(output, delta.authUserId);
+
+            writeStringMap(output, delta.notes);
+            writeStringMap(output, delta.userSessionNotes);
+            output.writeInt(delta.executionStatus.size());
+            for (Map.Entry<String, ClientSessionModel.ExecutionStatus> status : delta.executionStatus.entrySet()) {
+                writeString(output, status.getKey());
+                writeEnum(output, status.getValue());
+            }
+            writeBooleanMap(output, delta.requiredActions);
+        }
+
+        @Override
+        public ClientSessionEntityDelta readObject(ObjectInput input) throws IOException {
+            ClientSessionEntityDelta delta = new ClientSessionEntityDelta();
+            int fields = input.readInt();
+            delta.changedFields = fields;
+            if ((fields & ClientSessionEntityDelta.USER_SESSION) != 0) delta.userSession = readString(input);
+            if ((fields & ClientSessionEntityDelta.REDIRECT_URI) != 0) delta.redirectUri = readString(input);
+            if ((fields & ClientSessionEntityDelta.TIMESTAMP) != 0) delta.timestamp = input.readInt();
+            if ((fields & ClientSessionEntityDelta.ACTION) != 0) delta.action = readString(input);
+            if ((fields & ClientSessionEntityDelta.ROLES) != 0) delta.roles = readStringSet(input);
+            if ((fields & ClientSessionEntityDelta.PROTOCOL_MAPPERS) != 0) delta.protocolMappers = readStringSet(input);
+            if ((fields & ClientSessionEntityDelta.AUTH_METHOD) != 0) delta.authMethod = readString(input);
+            if ((fields & ClientSessionEntityDelta.AUTH_USER_ID) != 0) delta.authUserId = readString(input);
+
+            delta.notes.putAll(readStringMap(input));
+            delta.userSessionNotes.putAll(readStringMap(input));
+            int statusCount = input.readInt();
+            for (int i = 0; i < statusCount; i++) {
+                delta.executionStatus.put(readString(input), readEnum(input, EXECUTION_STATUSES));
+            }
+            delta.requiredActions.putAll(readBooleanMap(input));
+            return delta;
+        }
+    }
+
+    abstract static class EntityExternalizer<T> implements AdvancedExternalizer<T> {
+
+        private final int id;
+        private final Set<Class<? extends T>> typeClasses;
+
+        protected EntityExternalizer(int id, Class<? extends T> type) {
+            this.id = id;
+            this.typeClasses = Collections.<Class<? extends T>>singleton(type);
+        }
+
+        @Override
+        public Set<Class<? extends T>> getTypeClasses() {
+            return typeClasses;
+        }
+
+        @Override
+        public Integer getId() {
+            return id;
+        }
+
+    }
+
+    // Strings are written as UTF-8 bytes, as writeUTF is limited to 64kB and notes may contain bigger values
+    static void writeString(ObjectOutput output, String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    static String readString(ObjectInput input) throws IOException {
+        int length = input.readInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeStringSet(ObjectOutput output, Set<String> values) throws IOException {
+        output.writeInt(values == null ? -1 : values.size());
+        if (values != null) {
+            for (String value : values) {
+                writeString(output, value);
+            }
+        }
+    }
+
+    static Set<String> readStringSet(ObjectInput input) throws IOException {
+        int size = input.readInt();
+        if (size == -1) {
+            return null;
+        }
+        Set<String> values = new HashSet<>();
+        for (int i = 0; i < size; i++) {
+            values.add(readString(input));
+        }
+        return values;
+    }
+
+    static void writeStringMap(ObjectOutput output, Map<String, String> values) throws IOException {
+        output.writeInt(values == null ? -1 : values.size());
+        if (values != null) {
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                writeString(output, entry.getKey());
+                writeString(output, entry.getValue());
+            }
+        }
+    }
+
+    static Map<String, String> readStringMap(ObjectInput input) throws IOException {
+        int size = input.readInt();
+        if (size == -1) {
+            return null;
+        }
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            values.put(readString(input), readString(input));
+        }
+        return values;
+    }
+
+    static void writeBooleanMap(ObjectOutput output, Map<String, Boolean> values) throws IOException {
+        output.writeInt(values.size());
+        for (Map.Entry<String, Boolean> entry : values.entrySet()) {
+            writeString(output, entry.getKey());
+            output.writeBoolean(entry.getValue());
+        }
+    }
+
+    static Map<String, Boolean> readBooleanMap(ObjectInput input) throws IOException {
+        int size = input.readInt();
+        Map<String, Boolean> values = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            values.put(readString(input), input.readBoolean());
+        }
+        return values;
+    }
+
+    static void writeEnum(ObjectOutput output, Enum<?> value) throws IOException {
+        output.writeByte(value == null ? -1 : value.ordinal());
+    }
+
+    static <E extends Enum<E>> E readEnum(ObjectInput input, E[] values) throws IOException {
+        byte ordinal = input.readByte();
+        return ordinal == -1 ? null : values[ordinal];
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.models.sessions.infinispan.entities;
+
+import org.infinispan.commons.marshall.SerializeWith;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Secondary index entry stored in the session caches next to the sessions. It holds ids of all sessions of some user or
+ * all client sessions of some client. Instances are treated as immutable, so they can be safely updated with conditional
+ * replace operations.
+ *
+ * @see org.keycloak.models.sessions.infinispan.SessionIndexes
+ */
+@SerializeWith(SessionEntityExternalizers.SessionIndexEntityExternalizer.class)
+public class SessionIndexEntity extends SessionEntity {
+
+    private Set<String> sessionIds = Collections.emptySet();
+
+    public Set<String> getSessionIds() {
+        return sessionIds;
+    }
+
+    public void setSessionIds(Set<String> sessionIds) {
+        this.sessionIds = sessionIds;
+    }
+
+    public SessionIndexEntity withSession(String sessionId) {
+        Set<String> ids = new HashSet<>(sessionIds);
+        ids.add(sessionId);
+        return copy(ids);
+    }
+
+    public SessionIndexEntity withoutSession(String sessionId) {
+        Set<String> ids = new HashSet<>(sessionIds);
+        ids.remove(sessionId);
+        return copy(ids);
+    }
+
+    private SessionIndexEntity copy(Set<String> ids) {
+        SessionIndexEntity copy = new SessionIndexEntity();
+        copy.setId(getId());
+        copy.setRealm(getRealm());
+        copy.setSessionIds(ids);
+        return copy;
+    }
+
+    // Conditional replace compares whole values, so the set of ids needs to be part of equality
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SessionIndexEntity)) return false;
+        if (!super.equals(o)) return false;
+
+        SessionIndexEntity that = (SessionIndexEntity) o;
+
+        return sessionIds.equals(that.sessionIds);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + sessionIds.hashCode();
+    }
+}
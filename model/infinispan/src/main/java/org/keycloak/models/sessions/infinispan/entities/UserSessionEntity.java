@@ -17,6 +17,7 @@
 
 package org.keycloak.models.sessions.infinispan.entities;
 
+import org.infinispan.commons.marshall.SerializeWith;
 import org.keycloak.models.UserSessionModel;
 
 import java.util.Map;
@@ -25,6 +26,7 @@ import java.util.Set;
 /**
  * @author <a href="mailto:sthorger@redhat.com">Stian Thorgersen</a>
  */
+@SerializeWith(SessionEntityExternalizers.UserSessionEntityExternalizer.class)
 public class UserSessionEntity extends SessionEntity {
 
     private String user;
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.models.sessions.infinispan.entities;
+
+import org.infinispan.commons.marshall.SerializeWith;
+import org.keycloak.models.UserSessionModel;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Changes of {@link UserSessionEntity} done by the adapter
+ */
+@SerializeWith(SessionEntityExternalizers.UserSessionEntityDeltaExternalizer.class)
+public class UserSessionEntityDelta extends SessionEntityDelta<UserSessionEntity> {
+
+    static final int LAST_SESSION_REFRESH = 1;
+    static final int STATE = 1 << 1;
+    static final int LAST_SESSION_REFRESH_IF_NEWER = 1 << 2;
+
+    int changedFields;
+    int lastSessionRefresh;
+    UserSessionModel.State state;
+
+    // Null value means removed note
+    final Map<String, String> notes = new LinkedHashMap<>();
+
+    // True for attached, false for detached client session
+    final Map<String, Boolean> clientSessions = new LinkedHashMap<>();
+
+    public UserSessionEntityDelta() {
+        super(UserSessionEntity.class);
+    }
+
+    public UserSessionEntityDelta setLastSessionRefresh(int lastSessionRefresh) {
+        this.lastSessionRefresh = lastSessionRefresh;
+        changedFields = (changedFields | LAST_SESSION_REFRESH) & ~LAST_SESSION_REFRESH_IF_NEWER;
+        return this;
+    }
+
+    /**
+     * Unlike {@link #setLastSessionRefresh(int)}, the timestamp is applied only if it's newer than the current one. Used for
+     * the delayed writes of the timestamp, which may arrive after a newer value was already written
+     */
+    public UserSessionEntityDelta bumpLastSessionRefresh(int lastSessionRefresh) {
+        if ((changedFields & (LAST_SESSION_REFRESH | LAST_SESSION_REFRESH_IF_NEWER)) == 0 || lastSessionRefresh > this.lastSessionRefresh) {
+            this.lastSessionRefresh = lastSessionRefresh;
+        }
+        if ((changedFields & LAST_SESSION_REFRESH) == 0) {
+            changedFields |= LAST_SESSION_REFRESH_IF_NEWER;
+        }
+        return this;
+    }
+
+    public UserSessionEntityDelta setState(UserSessionModel.State state) {
+        this.state = state;
+        changedFields |= STATE;
+        return this;
+    }
+
+    public UserSessionEntityDelta setNote(String name, String value) {
+        notes.put(name, value);
+        return this;
+    }
+
+    public UserSessionEntityDelta removeNote(String name) {
+        notes.put(name, null);
+        return this;
+    }
+
+    public UserSessionEntityDelta attachClientSession(String clientSessionId) {
+        clientSessions.put(clientSessionId, true);
+        return this;
+    }
+
+    public UserSessionEntityDelta detachClientSession(String clientSessionId) {
+        clientSessions.put(clientSessionId, false);
+        return this;
+    }
+
+    @Override
+    public void applyTo(UserSessionEntity entity) {
+        if ((changedFields & LAST_SESSION_REFRESH) != 0) {
+            entity.setLastSessionRefresh(lastSessionRefresh);
+        }
+        if ((changedFields & LAST_SESSION_REFRESH_IF_NEWER) != 0 && lastSessionRefresh > entity.getLastSessionRefresh()) {
+            entity.setLastSessionRefresh(lastSessionRefresh);
+        }
+        if ((changedFields & STATE) != 0) {
+            entity.setState(state);
+        }
+
+        if (!notes.isEmpty()) {
+            if (entity.getNotes() == null) {
+                entity.setNotes(new HashMap<String, String>());
+            }
+            applyEntries(entity.getNotes(), notes);
+        }
+
+        if (!clientSessions.isEmpty()) {
+            if (entity.getClientSessions() == null) {
+                entity.setClientSessions(new HashSet<String>());
+            }
+            for (Map.Entry<String, Boolean> clientSession : clientSessions.entrySet()) {
+                if (clientSession.getValue()) {
+                    entity.getClientSessions().add(clientSession.getKey());
+                } else {
+                    entity.getClientSessions().remove(clientSession.getKey());
+                }
+            }
+            if (entity.getClientSessions().isEmpty()) {
+                entity.setClientSessions(null);
+            }
+        }
+    }
+
+    @Override
+    protected UserSessionEntity copy(UserSessionEntity entity) {
+        UserSessionEntity copy = new UserSessionEntity();
+        copy.setId(entity.getId());
+        copy.setRealm(entity.getRealm());
+        copy.setUser(entity.getUser());
+        copy.setBrokerSessionId(entity.getBrokerSessionId());
+        copy.setBrokerUserId(entity.getBrokerUserId());
+        copy.setLoginUsername(entity.getLoginUsername());
+        copy.setIpAddress(entity.getIpAddress());
+        copy.setAuthMethod(entity.getAuthMethod());
+        copy.setRememberMe(entity.isRememberMe());
+        copy.setStarted(entity.getStarted());
+        copy.setLastSessionRefresh(entity.getLastSessionRefresh());
+        copy.setClientSessions(entity.getClientSessions() != null ? new HashSet<>(entity.getClientSessions()) : null);
+        copy.setState(entity.getState());
+        copy.setNotes(entity.getNotes() != null ? new HashMap<>(entity.getNotes()) : null);
+        return copy;
+    }
+
+    @Override
+    public void merge(SessionEntityDelta<UserSessionEntity> later) {
+        UserSessionEntityDelta delta = (UserSessionEntityDelta) later;
+        if ((delta.changedFields & LAST_SESSION_REFRESH) != 0) {
+            setLastSessionRefresh(delta.lastSessionRefresh);
+        }
+        if ((delta.changedFields & LAST_SESSION_REFRESH_IF_NEWER) != 0) {
+            bumpLastSessionRefresh(delta.lastSessionRefresh);
+        }
+        if ((delta.changedFields & STATE) != 0) {
+            setState(delta.state);
+        }
+        notes.putAll(delta.notes);
+        clientSessions.putAll(delta.clientSessions);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return changedFields == 0 && notes.isEmpty() && clientSessions.isEmpty();
+    }
+
+}
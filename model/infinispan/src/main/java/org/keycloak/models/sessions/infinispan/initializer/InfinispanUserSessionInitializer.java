@@ -97,6 +97,12 @@ public class InfinispanUserSessionInitializer {
     }
 
 
+    // Returns null if the loading wasn't started yet
+    public static InitializerState getState(Cache<String, Serializable> workCache, String stateKeySuffix) {
+        return (InitializerState) workCache.get(STATE_KEY_PREFIX + stateKeySuffix);
+    }
+
+
     private InitializerState getOrCreateInitializerState() {
         InitializerState state = (InitializerState) workCache.get(stateKey);
         if (state == null) {
@@ -52,6 +52,24 @@ public class InitializerState extends SessionEntity {
         updateLowestUnfinishedSegment();
     }
 
+    public int getSessionsCount() {
+        return sessionsCount;
+    }
+
+    public int getSegmentsCount() {
+        return segments.size();
+    }
+
+    public int getFinishedSegmentsCount() {
+        int finished = 0;
+        for (Boolean done : segments) {
+            if (done) {
+                finished++;
+            }
+        }
+        return finished;
+    }
+
     // Return true just if computation is entirely finished (all segments are true)
     public boolean isFinished() {
         return lowestUnfinishedSegment == -1;
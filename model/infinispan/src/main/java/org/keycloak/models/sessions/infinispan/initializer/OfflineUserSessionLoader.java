@@ -17,14 +17,20 @@
 
 package org.keycloak.models.sessions.infinispan.initializer;
 
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+import org.infinispan.Cache;
 import org.jboss.logging.Logger;
 import org.keycloak.cluster.ClusterProvider;
+import org.keycloak.connections.infinispan.InfinispanConnectionProvider;
 import org.keycloak.models.ClientSessionModel;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.UserSessionModel;
 import org.keycloak.models.session.UserSessionPersisterProvider;
+import org.keycloak.models.sessions.infinispan.entities.SessionEntity;
 
 /**
  * @author <a href="mailto:mposolda@redhat.com">Marek Posolda</a>
@@ -33,6 +39,8 @@ public class OfflineUserSessionLoader implements SessionLoader {
 
     private static final Logger log = Logger.getLogger(OfflineUserSessionLoader.class);
 
+    public static final String STATE_KEY_SUFFIX = "offlineUserSessions";
+
     @Override
     public void init(KeycloakSession session) {
         UserSessionPersisterProvider persister = session.getProvider(UserSessionPersisterProvider.class);
@@ -61,7 +69,14 @@ public class OfflineUserSessionLoader implements SessionLoader {
         UserSessionPersisterProvider persister = session.getProvider(UserSessionPersisterProvider.class);
         List<UserSessionModel> sessions = persister.loadUserSessions(first, max, true);
 
+        // Sessions already loaded on demand are newer than the persisted ones. This only saves the work, sessions loaded on demand
+        // after this check are not overwritten either as the import doesn't replace existing sessions
+        Set<String> loadedIds = getLoadedSessionIds(session, sessions);
+
         for (UserSessionModel persistentSession : sessions) {
+            if (loadedIds.contains(persistentSession.getId())) {
+                continue;
+            }
 
             // Save to memory/infinispan
             UserSessionModel offlineUserSession = session.sessions().importUserSession(persistentSession, true);
@@ -75,5 +90,19 @@ public class OfflineUserSessionLoader implements SessionLoader {
         return true;
     }
 
+    private Set<String> getLoadedSessionIds(KeycloakSession session, List<UserSessionModel> sessions) {
+        if (sessions.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        Set<String> ids = new HashSet<>();
+        for (UserSessionModel persistentSession : sessions) {
+            ids.add(persistentSession.getId());
+        }
+
+        Cache<String, SessionEntity> offlineSessionCache = session.getProvider(InfinispanConnectionProvider.class).getCache(InfinispanConnectionProvider.OFFLINE_SESSION_CACHE_NAME);
+        return offlineSessionCache.getAdvancedCache().getAll(ids).keySet();
+    }
+
 
 }
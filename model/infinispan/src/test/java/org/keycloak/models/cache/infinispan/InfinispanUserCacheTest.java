@@ -0,0 +1,175 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.models.cache.infinispan;
+
+import org.infinispan.Cache;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.metrics.MetricsProvider;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.cache.infinispan.entities.CachedUser;
+
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.keycloak.models.ModelProxies.proxy;
+
+public class InfinispanUserCacheTest {
+
+    private DefaultCacheManager cacheManager;
+    private Cache<String, Object> cache;
+    private TestMetrics metrics;
+    private InfinispanUserCache userCache;
+
+    @Before
+    public void before() {
+        cacheManager = new DefaultCacheManager();
+        cacheManager.defineConfiguration("users", new ConfigurationBuilder().build());
+        cache = cacheManager.getCache("users");
+
+        InfinispanCacheUserProviderFactory factory = new InfinispanCacheUserProviderFactory();
+        cache.addListener(factory.new CacheListener());
+        metrics = new TestMetrics();
+        userCache = new InfinispanUserCache(cache, factory.usernameLookup, factory.emailLookup, metrics);
+    }
+
+    @After
+    public void after() {
+        cacheManager.stop();
+    }
+
+    @Test
+    public void invalidateJustUsersOfRealm() {
+        load("realm1", "user1");
+        load("realm2", "user2");
+
+        userCache.invalidateRealmUsers("realm1");
+
+        Assert.assertNull(userCache.getCachedUser("realm1", "user1"));
+        Assert.assertNull(userCache.getCachedUserByUsername("realm1", "user1"));
+        Assert.assertNotNull(userCache.getCachedUser("realm2", "user2"));
+        Assert.assertNotNull(userCache.getCachedUserByUsername("realm2", "user2"));
+    }
+
+    @Test
+    public void userLoadedBeforeInvalidationNotServed() {
+        // Revision is taken before the user is read from the DB, the invalidation happens meanwhile
+        long revision = userCache.getCurrentRealmRevision("realm1");
+        userCache.invalidateRealmUsers("realm1");
+        userCache.addCachedUser("realm1", new CachedUser(revision, realm("realm1"), user("user1")));
+
+        Assert.assertNull(userCache.getCachedUser("realm1", "user1"));
+
+        load("realm1", "user1");
+        Assert.assertNotNull(userCache.getCachedUser("realm1", "user1"));
+    }
+
+    @Test
+    public void invalidationKeyAddedBackAfterInvalidation() {
+        String key = InfinispanUserCache.REALM_INVALIDATION_KEY_PREFIX + "realm1";
+
+        userCache.getCurrentRealmRevision("realm1");
+        Assert.assertTrue(cache.containsKey(key));
+
+        userCache.invalidateRealmUsers("realm1");
+        Assert.assertFalse(cache.containsKey(key));
+
+        userCache.getCurrentRealmRevision("realm1");
+        Assert.assertTrue(cache.containsKey(key));
+    }
+
+    @Test
+    public void countPerRealm() {
+        load("realm1", "user1");
+        load("realm2", "user2");
+
+        userCache.getCachedUser("realm1", "user1");
+        userCache.getCachedUser("realm1", "user1");
+        userCache.getCachedUser("realm1", "unknown");
+        userCache.getCachedUser("realm2", "user2");
+        userCache.invalidateRealmUsers("realm2");
+
+        Assert.assertEquals(2, metrics.get("cache.user.realm.realm1.hit"));
+        Assert.assertEquals(1, metrics.get("cache.user.realm.realm1.miss"));
+        Assert.assertEquals(0, metrics.get("cache.user.realm.realm1.invalidation"));
+        Assert.assertEquals(1, metrics.get("cache.user.realm.realm2.hit"));
+        Assert.assertEquals(1, metrics.get("cache.user.realm.realm2.invalidation"));
+    }
+
+    private void load(String realmId, String userId) {
+        long revision = userCache.getCurrentRealmRevision(realmId);
+        userCache.addCachedUser(realmId, new CachedUser(revision, realm(realmId), user(userId)));
+    }
+
+    private static RealmModel realm(String id) {
+        return proxy(RealmModel.class, Collections.singletonMap("getId", id));
+    }
+
+    // User with given id and username and nothing else
+    private static UserModel user(String id) {
+        Map<String, String> values = new HashMap<>();
+        values.put("getId", id);
+        values.put("getUsername", id);
+        return proxy(UserModel.class, values);
+    }
+
+    private static class TestMetrics implements MetricsProvider {
+
+        private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+        @Override
+        public void increment(String name) {
+            AtomicLong counter = counters.get(name);
+            if (counter == null) {
+                counters.put(name, counter = new AtomicLong());
+            }
+            counter.incrementAndGet();
+        }
+
+        @Override
+        public void record(String name, long durationNanos) {
+        }
+
+        @Override
+        public void gauge(String name, long value) {
+        }
+
+        @Override
+        public void export(Writer writer) {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private long get(String name) {
+            AtomicLong counter = counters.get(name);
+            return counter != null ? counter.get() : 0;
+        }
+    }
+
+}
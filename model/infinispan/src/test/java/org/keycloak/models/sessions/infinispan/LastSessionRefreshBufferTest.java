@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.models.sessions.infinispan;
+
+import org.infinispan.Cache;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.models.sessions.infinispan.entities.SessionEntity;
+import org.keycloak.models.sessions.infinispan.entities.UserSessionEntity;
+
+public class LastSessionRefreshBufferTest {
+
+    private DefaultCacheManager cacheManager;
+    private Cache<String, SessionEntity> cache;
+
+    @Before
+    public void before() {
+        GlobalConfigurationBuilder gcb = new GlobalConfigurationBuilder();
+        gcb.globalJmxStatistics().allowDuplicateDomains(true);
+        cacheManager = new DefaultCacheManager(gcb.build());
+        cacheManager.defineConfiguration("sessions", new ConfigurationBuilder().build());
+        cache = cacheManager.getCache("sessions");
+    }
+
+    @After
+    public void after() {
+        cacheManager.stop();
+    }
+
+    @Test
+    public void testWriteRequired() {
+        LastSessionRefreshBuffer buffer = new LastSessionRefreshBuffer(60, 5000);
+        Assert.assertEquals(10, buffer.getMaxWriteDelay());
+        Assert.assertFalse(buffer.isWriteRequired(1000, 1000, 1800));
+        Assert.assertFalse(buffer.isWriteRequired(1000, 1059, 1800));
+        Assert.assertTrue(buffer.isWriteRequired(1000, 1060, 1800));
+    }
+
+    @Test
+    public void testWriteRequiredBeforeExpiration() {
+        LastSessionRefreshBuffer buffer = new LastSessionRefreshBuffer(60, 5000);
+
+        // Stored timestamp would expire before the buffered one is flushed
+        Assert.assertFalse(buffer.isWriteRequired(1000, 1010, 21));
+        Assert.assertTrue(buffer.isWriteRequired(1000, 1010, 20));
+        Assert.assertTrue(buffer.isWriteRequired(1000, 1001, 5));
+    }
+
+    @Test
+    public void testFlushCoalesces() {
+        cache.put("s1", createSession("s1", 1000));
+        cache.put("s2", createSession("s2", 1000));
+
+        LastSessionRefreshBuffer buffer = new LastSessionRefreshBuffer(60, 5000);
+        buffer.add(cache, "s1", 1010);
+        buffer.add(cache, "s1", 1030);
+        buffer.add(cache, "s1", 1020);
+        buffer.add(cache, "s2", 1005);
+        buffer.add(cache, "missing", 1005);
+        Assert.assertEquals(3, buffer.size());
+
+        buffer.flush();
+
+        Assert.assertEquals(0, buffer.size());
+        Assert.assertEquals(1030, ((UserSessionEntity) cache.get("s1")).getLastSessionRefresh());
+        Assert.assertEquals(1005, ((UserSessionEntity) cache.get("s2")).getLastSessionRefresh());
+        Assert.assertNull(cache.get("missing"));
+    }
+
+    @Test
+    public void testFlushDoesNotOverwriteNewerTimestamp() {
+        cache.put("s1", createSession("s1", 1000));
+
+        LastSessionRefreshBuffer buffer = new LastSessionRefreshBuffer(60, 5000);
+        buffer.add(cache, "s1", 1010);
+
+        // Written directly by other node in the meantime
+        ((UserSessionEntity) cache.get("s1")).setLastSessionRefresh(1070);
+
+        buffer.flush();
+        Assert.assertEquals(1070, ((UserSessionEntity) cache.get("s1")).getLastSessionRefresh());
+    }
+
+    private UserSessionEntity createSession(String id, int lastSessionRefresh) {
+        UserSessionEntity session = new UserSessionEntity();
+        session.setId(id);
+        session.setRealm("test-realm");
+        session.setLastSessionRefresh(lastSessionRefresh);
+        return session;
+    }
+
+}
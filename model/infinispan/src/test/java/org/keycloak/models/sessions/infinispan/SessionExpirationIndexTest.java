@@ -0,0 +1,178 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.models.sessions.infinispan;
+
+import org.infinispan.Cache;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.common.util.Time;
+import org.keycloak.models.sessions.infinispan.entities.SessionEntity;
+import org.keycloak.models.sessions.infinispan.entities.UserSessionEntity;
+import org.keycloak.models.sessions.infinispan.stream.UserSessionPredicate;
+
+public class SessionExpirationIndexTest {
+
+    private static final int IDLE_TIMEOUT = 1800;
+
+    private DefaultCacheManager cacheManager;
+    private Cache<String, SessionEntity> cache;
+    private int now;
+
+    @Before
+    public void before() {
+        cacheManager = new DefaultCacheManager();
+        cacheManager.defineConfiguration("sessions", new ConfigurationBuilder().build());
+        cache = cacheManager.getCache("sessions");
+        now = Time.currentTime();
+    }
+
+    @After
+    public void after() {
+        cacheManager.stop();
+    }
+
+    @Test
+    public void testRemoveExpired() {
+        SessionExpirationIndex index = new SessionExpirationIndex(86400);
+        add(index, userSession("expired1", "realm1", now - IDLE_TIMEOUT - 10));
+        add(index, userSession("expired2", "realm1", now - IDLE_TIMEOUT - 600));
+        add(index, userSession("valid", "realm1", now - 10));
+        add(index, userSession("other-realm", "realm2", now - IDLE_TIMEOUT - 10));
+
+        // First run does full scan
+        Assert.assertEquals(2, index.removeExpired(cache, "realm1", new TestHandler("realm1")));
+        Assert.assertEquals(1, index.getFullScans());
+        Assert.assertNull(cache.get("expired1"));
+        Assert.assertNull(cache.get("expired2"));
+        Assert.assertNotNull(cache.get("valid"));
+        Assert.assertNotNull(cache.get("other-realm"));
+
+        // Second run visits only the due buckets
+        add(index, userSession("expired3", "realm1", now - IDLE_TIMEOUT - 10));
+        Assert.assertEquals(1, index.removeExpired(cache, "realm1", new TestHandler("realm1")));
+        Assert.assertEquals(1, index.getFullScans());
+        Assert.assertNull(cache.get("expired3"));
+        Assert.assertNotNull(cache.get("valid"));
+    }
+
+    @Test
+    public void testSessionsMissingInIndexRemovedByFullScan() {
+        SessionExpirationIndex index = new SessionExpirationIndex(86400);
+        index.removeExpired(cache, "realm1", new TestHandler("realm1"));
+
+        UserSessionEntity notIndexed = userSession("not-indexed", "realm1", now - IDLE_TIMEOUT - 10);
+        cache.put(notIndexed.getId(), notIndexed);
+
+        Assert.assertEquals(0, index.removeExpired(cache, "realm1", new TestHandler("realm1")));
+        Assert.assertNotNull(cache.get("not-indexed"));
+
+        Assert.assertEquals(1, new SessionExpirationIndex(0).removeExpired(cache, "realm1", new TestHandler("realm1")));
+        Assert.assertNull(cache.get("not-indexed"));
+    }
+
+    @Test
+    public void testRefreshedSessionMovedToNewBucket() {
+        SessionExpirationIndex index = new SessionExpirationIndex(86400);
+        index.removeExpired(cache, "realm1", new TestHandler("realm1"));
+
+        UserSessionEntity session = userSession("refreshed", "realm1", now - IDLE_TIMEOUT - 10);
+        add(index, session);
+        session.setLastSessionRefresh(now);
+
+        Assert.assertEquals(0, index.removeExpired(cache, "realm1", new TestHandler("realm1")));
+        Assert.assertNotNull(cache.get("refreshed"));
+        Assert.assertNull(cache.get(SessionExpirationIndex.bucketKey(SessionExpirationIndex.Type.USER_SESSION, "realm1",
+                SessionExpirationIndex.bucket(now - IDLE_TIMEOUT - 10), SessionExpirationIndex.shard("refreshed"))));
+
+        // Expired later in the new bucket
+        Time.setOffset(IDLE_TIMEOUT + 10);
+        try {
+            Assert.assertEquals(1, index.removeExpired(cache, "realm1", new TestHandler("realm1")));
+            Assert.assertNull(cache.get("refreshed"));
+        } finally {
+            Time.setOffset(0);
+        }
+    }
+
+    @Test
+    public void testExpiredSessionDroppedFromIndexAfterRemoval() {
+        SessionExpirationIndex index = new SessionExpirationIndex(86400);
+        index.removeExpired(cache, "realm1", new TestHandler("realm1"));
+
+        UserSessionEntity session = userSession("expired", "realm1", now - IDLE_TIMEOUT - 10);
+        add(index, session);
+        String shardKey = SessionExpirationIndex.bucketKey(SessionExpirationIndex.Type.USER_SESSION, "realm1",
+                SessionExpirationIndex.bucket(now - IDLE_TIMEOUT - 10), SessionExpirationIndex.shard("expired"));
+
+        // Removal not committed, so the session stays indexed
+        TestHandler rolledBack = new TestHandler("realm1") {
+            @Override
+            protected void remove(SessionEntity entity) {
+            }
+        };
+        Assert.assertEquals(1, index.removeExpired(cache, "realm1", rolledBack));
+        Assert.assertNotNull(cache.get(shardKey));
+
+        Assert.assertEquals(1, index.removeExpired(cache, "realm1", new TestHandler("realm1")));
+        Assert.assertNull(cache.get("expired"));
+        Assert.assertNotNull(cache.get(shardKey));
+
+        // Dropped from the bucket on the next visit
+        Assert.assertEquals(0, index.removeExpired(cache, "realm1", new TestHandler("realm1")));
+        Assert.assertNull(cache.get(shardKey));
+    }
+
+    private void add(SessionExpirationIndex index, UserSessionEntity session) {
+        cache.put(session.getId(), session);
+        index.onSessionAdded(cache, session);
+    }
+
+    private UserSessionEntity userSession(String id, String realm, int lastSessionRefresh) {
+        UserSessionEntity session = new UserSessionEntity();
+        session.setId(id);
+        session.setRealm(realm);
+        session.setUser("user");
+        session.setStarted(lastSessionRefresh);
+        session.setLastSessionRefresh(lastSessionRefresh);
+        return session;
+    }
+
+    private class TestHandler extends SessionExpirationIndex.ExpirationHandler {
+
+        TestHandler(String realm) {
+            super(SessionExpirationIndex.Type.USER_SESSION, Time.currentTime() - IDLE_TIMEOUT,
+                    UserSessionPredicate.create(realm).expired(null, Time.currentTime() - IDLE_TIMEOUT));
+        }
+
+        @Override
+        protected void remove(SessionEntity entity) {
+            cache.remove(entity.getId());
+        }
+
+        @Override
+        protected int getIndexTime(SessionEntity entity) {
+            return ((UserSessionEntity) entity).getLastSessionRefresh();
+        }
+
+    }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.models.sessions.infinispan;
+
+import org.infinispan.Cache;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.models.sessions.infinispan.entities.ClientSessionEntity;
+import org.keycloak.models.sessions.infinispan.entities.SessionEntity;
+import org.keycloak.models.sessions.infinispan.entities.SessionIndexEntity;
+import org.keycloak.models.sessions.infinispan.entities.UserSessionEntity;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class SessionIndexesTest {
+
+    private DefaultCacheManager cacheManager;
+    private Cache<String, SessionEntity> cache;
+
+    @Before
+    public void before() {
+        cacheManager = new DefaultCacheManager();
+        cacheManager.defineConfiguration("sessions", new ConfigurationBuilder().build());
+        cache = cacheManager.getCache("sessions");
+    }
+
+    @After
+    public void after() {
+        cacheManager.stop();
+    }
+
+    @Test
+    public void testUserIndex() {
+        add(userSession("s1", "realm1", "user1"));
+        add(userSession("s2", "realm1", "user1"));
+        add(userSession("s3", "realm1", "user2"));
+        add(userSession("s4", "realm2", "user1"));
+
+        Assert.assertEquals(2, SessionIndexes.getUserSessions(cache, "realm1", "user1").size());
+        Assert.assertEquals(1, SessionIndexes.getUserSessions(cache, "realm1", "user2").size());
+        Assert.assertEquals(1, SessionIndexes.getUserSessions(cache, "realm2", "user1").size());
+        Assert.assertTrue(SessionIndexes.getUserSessions(cache, "realm2", "user2").isEmpty());
+
+        remove("s1");
+        List<UserSessionEntity> sessions = SessionIndexes.getUserSessions(cache, "realm1", "user1");
+        Assert.assertEquals(1, sessions.size());
+        Assert.assertEquals("s2", sessions.get(0).getId());
+
+        remove("s2");
+        Assert.assertTrue(SessionIndexes.getUserSessions(cache, "realm1", "user1").isEmpty());
+        for (int i = 0; i < SessionIndexes.USER_INDEX_SHARDS; i++) {
+            Assert.assertNull(cache.get(SessionIndexes.shardKey(SessionIndexes.userIndexKey("realm1", "user1"), i)));
+        }
+    }
+
+    @Test
+    public void testClientIndex() {
+        add(clientSession("c1", "realm1", "client1"));
+        add(clientSession("c2", "realm1", "client1"));
+        add(clientSession("c3", "realm1", "client2"));
+
+        Assert.assertEquals(2, SessionIndexes.getClientSessions(cache, "realm1", "client1").size());
+
+        // Session removed without index update is skipped
+        cache.remove("c1");
+        Assert.assertEquals(1, SessionIndexes.getClientSessions(cache, "realm1", "client1").size());
+
+        remove("c3");
+        Assert.assertTrue(SessionIndexes.getClientSessions(cache, "realm1", "client2").isEmpty());
+    }
+
+    @Test
+    public void testShardedClientIndex() {
+        int count = SessionIndexes.READ_BATCH_SIZE * 2 + 500;
+        for (int i = 0; i < count; i++) {
+            add(clientSession("c" + i, "realm1", "client1"));
+        }
+
+        // Sessions are spread among shards and read in several batches
+        int shards = 0;
+        int indexed = 0;
+        for (int i = 0; i < SessionIndexes.CLIENT_INDEX_SHARDS; i++) {
+            SessionIndexEntity shard = (SessionIndexEntity) cache.get(SessionIndexes.shardKey(SessionIndexes.clientIndexKey("realm1", "client1"), i));
+            if (shard != null) {
+                shards++;
+                indexed += shard.getSessionIds().size();
+            }
+        }
+        Assert.assertEquals(SessionIndexes.CLIENT_INDEX_SHARDS, shards);
+        Assert.assertEquals(count, indexed);
+
+        Set<String> ids = new HashSet<>();
+        for (ClientSessionEntity entity : SessionIndexes.getClientSessions(cache, "realm1", "client1")) {
+            ids.add(entity.getId());
+        }
+        Assert.assertEquals(count, ids.size());
+
+        for (int i = 0; i < count; i++) {
+            remove("c" + i);
+        }
+        Assert.assertTrue(SessionIndexes.getClientSessions(cache, "realm1", "client1").isEmpty());
+        Assert.assertTrue(cache.isEmpty());
+    }
+
+    private void add(SessionEntity entity) {
+        cache.put(entity.getId(), entity);
+        SessionIndexes.onSessionAdded(cache, entity);
+    }
+
+    private void remove(String id) {
+        SessionEntity removed = cache.remove(id);
+        SessionIndexes.onSessionRemoved(cache, removed);
+    }
+
+    private UserSessionEntity userSession(String id, String realm, String user) {
+        UserSessionEntity entity = new UserSessionEntity();
+        entity.setId(id);
+        entity.setRealm(realm);
+        entity.setUser(user);
+        return entity;
+    }
+
+    private ClientSessionEntity clientSession(String id, String realm, String client) {
+        ClientSessionEntity entity = new ClientSessionEntity();
+        entity.setId(id);
+        entity.setRealm(realm);
+        entity.setClient(client);
+        return entity;
+    }
+
+}
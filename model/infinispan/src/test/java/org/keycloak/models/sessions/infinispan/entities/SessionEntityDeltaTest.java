@@ -0,0 +1,192 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.models.sessions.infinispan.entities;
+
+import org.infinispan.Cache;
+import org.infinispan.commons.marshall.StreamingMarshaller;
+import org.infinispan.manager.DefaultCacheManager;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.models.ClientSessionModel;
+import org.keycloak.models.UserSessionModel;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class SessionEntityDeltaTest {
+
+    private DefaultCacheManager cacheManager;
+    private Cache<Object, Object> cache;
+
+    @Before
+    public void before() {
+        cacheManager = SessionEntityExternalizersTest.createCacheManager(true);
+        cache = cacheManager.getCache("sessions");
+    }
+
+    @After
+    public void after() {
+        cacheManager.stop();
+    }
+
+    @Test
+    public void testUserSessionDelta() {
+        UserSessionEntity session = SessionEntityExternalizersTest.createUserSession();
+        cache.put(session.getId(), session);
+
+        UserSessionEntityDelta delta = new UserSessionEntityDelta()
+                .setLastSessionRefresh(1460000900)
+                .setNote("foo", "bar")
+                .attachClientSession("new-client-session");
+        delta.merge(new UserSessionEntityDelta().removeNote("AUTH_TIME").setState(UserSessionModel.State.LOGGING_OUT));
+        eval(session.getId(), delta);
+
+        UserSessionEntity updated = (UserSessionEntity) cache.get(session.getId());
+        Assert.assertEquals(1460000900, updated.getLastSessionRefresh());
+        Assert.assertEquals(UserSessionModel.State.LOGGING_OUT, updated.getState());
+        Assert.assertEquals("bar", updated.getNotes().get("foo"));
+        Assert.assertFalse(updated.getNotes().containsKey("AUTH_TIME"));
+        Assert.assertEquals(3, updated.getClientSessions().size());
+        Assert.assertEquals(session.getLoginUsername(), updated.getLoginUsername());
+    }
+
+    @Test
+    public void testClientSessionDelta() {
+        ClientSessionEntity session = SessionEntityExternalizersTest.createClientSession();
+        session.setUserSessionNotes(new HashMap<String, String>());
+        session.getUserSessionNotes().put("old", "value");
+        cache.put(session.getId(), session);
+
+        ClientSessionEntityDelta delta = new ClientSessionEntityDelta()
+                .setTimestamp(1460000900)
+                .setAction(null)
+                .clearUserSessionNotes()
+                .setUserSessionNote("new", "value")
+                .setExecutionStatus("otp-form", ClientSessionModel.ExecutionStatus.SUCCESS)
+                .removeRequiredAction("UPDATE_PASSWORD");
+        eval(session.getId(), delta);
+
+        ClientSessionEntity updated = (ClientSessionEntity) cache.get(session.getId());
+        Assert.assertEquals(1460000900, updated.getTimestamp());
+        Assert.assertNull(updated.getAction());
+        Assert.assertEquals(1, updated.getUserSessionNotes().size());
+        Assert.assertEquals("value", updated.getUserSessionNotes().get("new"));
+        Assert.assertEquals(3, updated.getAuthenticatorStatus().size());
+        Assert.assertTrue(updated.getRequiredActions().isEmpty());
+        Assert.assertEquals(session.getRedirectUri(), updated.getRedirectUri());
+    }
+
+    @Test
+    public void testBumpLastSessionRefresh() throws Exception {
+        UserSessionEntity session = SessionEntityExternalizersTest.createUserSession();
+        cache.put(session.getId(), session);
+
+        eval(session.getId(), new UserSessionEntityDelta().bumpLastSessionRefresh(1460000100));
+        Assert.assertEquals(1460000300, ((UserSessionEntity) cache.get(session.getId())).getLastSessionRefresh());
+
+        UserSessionEntityDelta delta = new UserSessionEntityDelta().bumpLastSessionRefresh(1460000500);
+        delta.merge(new UserSessionEntityDelta().bumpLastSessionRefresh(1460000400));
+
+        StreamingMarshaller marshaller = SessionEntityExternalizersTest.getMarshaller(cacheManager);
+        delta = (UserSessionEntityDelta) marshaller.objectFromByteBuffer(marshaller.objectToByteBuffer(delta));
+        eval(session.getId(), delta);
+        Assert.assertEquals(1460000500, ((UserSessionEntity) cache.get(session.getId())).getLastSessionRefresh());
+
+        // Explicitly set timestamp wins even if it's older
+        delta = new UserSessionEntityDelta().bumpLastSessionRefresh(1460000600);
+        delta.merge(new UserSessionEntityDelta().setLastSessionRefresh(1460000200));
+        eval(session.getId(), delta);
+        Assert.assertEquals(1460000200, ((UserSessionEntity) cache.get(session.getId())).getLastSessionRefresh());
+    }
+
+    @Test
+    public void testMissingEntityIgnored() {
+        eval("missing", new UserSessionEntityDelta().setLastSessionRefresh(1));
+        Assert.assertNull(cache.get("missing"));
+    }
+
+    @Test
+    public void testDeltaSmallerThanEntity() throws Exception {
+        StreamingMarshaller marshaller = SessionEntityExternalizersTest.getMarshaller(cacheManager);
+
+        UserSessionEntityDelta delta = new UserSessionEntityDelta().setLastSessionRefresh(1460000900);
+        UserSessionEntityDelta copy = (UserSessionEntityDelta) marshaller.objectFromByteBuffer(marshaller.objectToByteBuffer(delta));
+        Assert.assertEquals(1460000900, copy.lastSessionRefresh);
+
+        int deltaSize = marshaller.objectToByteBuffer(delta).length;
+        int entitySize = marshaller.objectToByteBuffer(SessionEntityExternalizersTest.createUserSession()).length;
+        Assert.assertTrue(deltaSize + " >= " + entitySize, deltaSize * 5 < entitySize);
+    }
+
+    @Test
+    public void testStoredEntityNotModified() {
+        UserSessionEntity session = SessionEntityExternalizersTest.createUserSession();
+        cache.put(session.getId(), session);
+
+        eval(session.getId(), new UserSessionEntityDelta().setNote("new", "value").detachClientSession("c1d2e3f4-0000-1111-2222-333344445555"));
+
+        UserSessionEntity updated = (UserSessionEntity) cache.get(session.getId());
+        Assert.assertNotSame(session, updated);
+        Assert.assertEquals("value", updated.getNotes().get("new"));
+        Assert.assertFalse(updated.getClientSessions().contains("c1d2e3f4-0000-1111-2222-333344445555"));
+
+        Assert.assertNull(session.getNotes().get("new"));
+        Assert.assertTrue(session.getClientSessions().contains("c1d2e3f4-0000-1111-2222-333344445555"));
+    }
+
+    @Test
+    public void testConcurrentDeltasNotLost() throws Exception {
+        final UserSessionEntity session = SessionEntityExternalizersTest.createUserSession();
+        cache.put(session.getId(), session);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new LinkedList<>();
+            for (int i = 0; i < 50; i++) {
+                final String note = "note-" + i;
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        eval(session.getId(), new UserSessionEntityDelta().setNote(note, "value"));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        UserSessionEntity updated = (UserSessionEntity) cache.get(session.getId());
+        for (int i = 0; i < 50; i++) {
+            Assert.assertEquals("value", updated.getNotes().get("note-" + i));
+        }
+    }
+
+    private void eval(Object key, SessionEntityDelta<?> delta) {
+        delta.apply(cache, key);
+    }
+
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.models.sessions.infinispan.entities;
+
+import org.infinispan.commons.marshall.AdvancedExternalizer;
+import org.infinispan.commons.marshall.JavaSerializationMarshaller;
+import org.infinispan.commons.marshall.Marshaller;
+import org.infinispan.commons.marshall.StreamingMarshaller;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.models.ClientSessionModel;
+import org.keycloak.models.UserSessionModel;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+public class SessionEntityExternalizersTest {
+
+    private DefaultCacheManager cacheManager;
+    private StreamingMarshaller marshaller;
+
+    @Before
+    public void before() {
+        cacheManager = createCacheManager(true);
+        marshaller = getMarshaller(cacheManager);
+    }
+
+    @After
+    public void after() {
+        cacheManager.stop();
+    }
+
+    @Test
+    public void testUserSession() throws Exception {
+        UserSessionEntity session = createUserSession();
+
+        UserSessionEntity copy = roundTrip(session);
+        Assert.assertEquals(session.getId(), copy.getId());
+        Assert.assertEquals(session.getRealm(), copy.getRealm());
+        Assert.assertEquals(session.getUser(), copy.getUser());
+        Assert.assertNull(copy.getBrokerSessionId());
+        Assert.assertEquals(session.getLoginUsername(), copy.getLoginUsername());
+        Assert.assertEquals(session.getIpAddress(), copy.getIpAddress());
+        Assert.assertTrue(copy.isRememberMe());
+        Assert.assertEquals(session.getStarted(), copy.getStarted());
+        Assert.assertEquals(session.getLastSessionRefresh(), copy.getLastSessionRefresh());
+        Assert.assertEquals(session.getClientSessions(), copy.getClientSessions());
+        Assert.assertEquals(UserSessionModel.State.LOGGED_IN, copy.getState());
+        Assert.assertEquals(session.getNotes(), copy.getNotes());
+    }
+
+    @Test
+    public void testClientSession() throws Exception {
+        ClientSessionEntity session = createClientSession();
+
+        ClientSessionEntity copy = roundTrip(session);
+        Assert.assertEquals(session.getId(), copy.getId());
+        Assert.assertEquals(session.getClient(), copy.getClient());
+        Assert.assertEquals(session.getUserSession(), copy.getUserSession());
+        Assert.assertEquals(session.getRedirectUri(), copy.getRedirectUri());
+        Assert.assertEquals(session.getTimestamp(), copy.getTimestamp());
+        Assert.assertEquals(session.getRoles(), copy.getRoles());
+        Assert.assertNull(copy.getProtocolMappers());
+        Assert.assertEquals(session.getNotes(), copy.getNotes());
+        Assert.assertNull(copy.getUserSessionNotes());
+        Assert.assertEquals(session.getAuthenticatorStatus(), copy.getAuthenticatorStatus());
+        Assert.assertEquals(session.getRequiredActions(), copy.getRequiredActions());
+    }
+
+    @Test
+    public void testLoginFailure() throws Exception {
+        LoginFailureEntity failure = new LoginFailureEntity();
+        failure.setRealm("realm");
+        failure.setUsername("user");
+        failure.setNumFailures(3);
+        failure.setLastFailure(123456789L);
+        failure.setLastIPFailure("127.0.0.1");
+
+        LoginFailureEntity copy = roundTrip(failure);
+        Assert.assertEquals("realm", copy.getRealm());
+        Assert.assertEquals("user", copy.getUsername());
+        Assert.assertEquals(3, copy.getNumFailures());
+        Assert.assertEquals(123456789L, copy.getLastFailure());
+        Assert.assertEquals("127.0.0.1", copy.getLastIPFailure());
+
+        Assert.assertEquals(new LoginFailureKey("realm", "user"), roundTrip(new LoginFailureKey("realm", "user")));
+    }
+
+    @Test
+    public void testSessionIndex() throws Exception {
+        SessionIndexEntity index = new SessionIndexEntity().withSession("s1").withSession("s2");
+        index.setId("index");
+        index.setRealm("realm");
+
+        Assert.assertEquals(index, roundTrip(index));
+    }
+
+    @Test
+    public void testLargeNote() throws Exception {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            value.append("énote");
+        }
+
+        UserSessionEntity session = createUserSession();
+        session.getNotes().put("large", value.toString());
+
+        Assert.assertEquals(value.toString(), roundTrip(session).getNotes().get("large"));
+    }
+
+    @Test
+    public void testSmallerThanSerialization() throws Exception {
+        Marshaller serializationMarshaller = new JavaSerializationMarshaller();
+
+        Object[] entities = { createUserSession(), createClientSession() };
+        for (Object entity : entities) {
+            int externalized = marshaller.objectToByteBuffer(entity).length;
+            int serialized = serializationMarshaller.objectToByteBuffer(entity).length;
+            Assert.assertTrue(entity.getClass().getSimpleName() + ": " + externalized + " >= " + serialized, externalized < serialized);
+        }
+    }
+
+    // Container managed cache container doesn't have the externalizers registered, entities are written through SerializeWith
+    @Test
+    public void testNotRegistered() throws Exception {
+        DefaultCacheManager containerManaged = createCacheManager(false);
+        try {
+            StreamingMarshaller containerMarshaller = getMarshaller(containerManaged);
+            Marshaller serializationMarshaller = new JavaSerializationMarshaller();
+
+            UserSessionEntity session = createUserSession();
+            byte[] bytes = containerMarshaller.objectToByteBuffer(session);
+            UserSessionEntity copy = (UserSessionEntity) containerMarshaller.objectFromByteBuffer(bytes);
+            Assert.assertEquals(session.getId(), copy.getId());
+            Assert.assertEquals(session.getClientSessions(), copy.getClientSessions());
+            Assert.assertEquals(session.getNotes(), copy.getNotes());
+
+            Assert.assertTrue(bytes.length < serializationMarshaller.objectToByteBuffer(session).length);
+            Assert.assertTrue(marshaller.objectToByteBuffer(session).length <= bytes.length);
+
+            LoginFailureKey key = new LoginFailureKey("realm", "user");
+            Assert.assertEquals(key, containerMarshaller.objectFromByteBuffer(containerMarshaller.objectToByteBuffer(key)));
+        } finally {
+            containerManaged.stop();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T roundTrip(T entity) throws Exception {
+        return (T) marshaller.objectFromByteBuffer(marshaller.objectToByteBuffer(entity));
+    }
+
+    static DefaultCacheManager createCacheManager(boolean externalizers) {
+        GlobalConfigurationBuilder gcb = new GlobalConfigurationBuilder();
+        gcb.globalJmxStatistics().allowDuplicateDomains(true);
+        if (externalizers) {
+            for (AdvancedExternalizer<?> externalizer : SessionEntityExternalizers.getExternalizers()) {
+                gcb.serialization().addAdvancedExternalizer(externalizer);
+            }
+        }
+
+        DefaultCacheManager cacheManager = new DefaultCacheManager(gcb.build());
+        cacheManager.defineConfiguration("sessions", new ConfigurationBuilder().build());
+        return cacheManager;
+    }
+
+    static StreamingMarshaller getMarshaller(DefaultCacheManager cacheManager) {
+        return cacheManager.getCache("sessions").getAdvancedCache().getComponentRegistry().getCacheMarshaller();
+    }
+
+    static UserSessionEntity createUserSession() {
+        UserSessionEntity session = new UserSessionEntity();
+        session.setId("a6d3d2f1-7b4c-4a4e-9a2b-0d6c5d4f3e21");
+        session.setRealm("test-realm");
+        session.setUser("0b5d4c3a-2f1e-4d6c-8b7a-9e8f7d6c5b4a");
+        session.setLoginUsername("john.doe@example.com");
+        session.setIpAddress("192.168.10.15");
+        session.setAuthMethod("openid-connect");
+        session.setRememberMe(true);
+        session.setStarted(1460000000);
+        session.setLastSessionRefresh(1460000300);
+        session.setClientSessions(new HashSet<>(Arrays.asList("c1d2e3f4-0000-1111-2222-333344445555", "f5e4d3c2-6666-7777-8888-999900001111")));
+        session.setState(UserSessionModel.State.LOGGED_IN);
+        session.setNotes(new HashMap<String, String>());
+        session.getNotes().put("AUTH_TIME", "1460000000");
+        return session;
+    }
+
+    static ClientSessionEntity createClientSession() {
+        ClientSessionEntity session = new ClientSessionEntity();
+        session.setId("c1d2e3f4-0000-1111-2222-333344445555");
+        session.setRealm("test-realm");
+        session.setClient("8e7d6c5b-4a3f-2e1d-0c9b-8a7f6e5d4c3b");
+        session.setUserSession("a6d3d2f1-7b4c-4a4e-9a2b-0d6c5d4f3e21");
+        session.setAuthMethod("openid-connect");
+        session.setRedirectUri("http://localhost:8080/app/*");
+        session.setTimestamp(1460000300);
+        session.setAction("CODE_TO_TOKEN");
+        session.setRoles(new HashSet<>(Arrays.asList("role-1", "role-2", "role-3")));
+        session.setNotes(new HashMap<String, String>());
+        session.getNotes().put("scope", "openid");
+        session.getNotes().put("response_type", "code");
+        session.getAuthenticatorStatus().put("auth-cookie", ClientSessionModel.ExecutionStatus.ATTEMPTED);
+        session.getAuthenticatorStatus().put("auth-username-password-form", ClientSessionModel.ExecutionStatus.SUCCESS);
+        session.getRequiredActions().add("UPDATE_PASSWORD");
+        return session;
+    }
+
+}
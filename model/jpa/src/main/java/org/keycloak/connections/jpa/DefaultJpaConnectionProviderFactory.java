@@ -32,11 +32,13 @@ import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
 import javax.sql.DataSource;
 
+import org.hibernate.Session;
 import org.hibernate.ejb.AvailableSettings;
 import org.jboss.logging.Logger;
 import org.keycloak.Config;
 import org.keycloak.connections.jpa.updater.JpaUpdaterProvider;
 import org.keycloak.connections.jpa.util.JpaUtils;
+import org.keycloak.metrics.MetricsProvider;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.provider.ServerInfoAwareProviderFactory;
@@ -59,6 +61,12 @@ public class DefaultJpaConnectionProviderFactory implements JpaConnectionProvide
         lazyInit(session);
 
         EntityManager em = emf.createEntityManager();
+
+        MetricsProvider metrics = session.getProvider(MetricsProvider.class);
+        if (metrics != null) {
+            em.unwrap(Session.class).addEventListeners(new JpaMetricsListener(metrics));
+        }
+
         em = PersistenceExceptionConverter.create(em);
         session.getTransaction().enlist(new JpaKeycloakTransaction(em));
         return new DefaultJpaConnectionProvider(em);
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.connections.jpa;
+
+import org.hibernate.BaseSessionEventListener;
+import org.keycloak.metrics.MetricsProvider;
+
+/**
+ * Records execution time of JDBC statements and batches of a single Hibernate session. Like the session itself, the
+ * listener is used by one thread at a time.
+ */
+class JpaMetricsListener extends BaseSessionEventListener {
+
+    private final MetricsProvider metrics;
+
+    private long statementStart;
+    private long batchStart;
+
+    JpaMetricsListener(MetricsProvider metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void jdbcExecuteStatementStart() {
+        statementStart = System.nanoTime();
+    }
+
+    @Override
+    public void jdbcExecuteStatementEnd() {
+        metrics.record("jpa.statement", System.nanoTime() - statementStart);
+    }
+
+    @Override
+    public void jdbcExecuteBatchStart() {
+        batchStart = System.nanoTime();
+    }
+
+    @Override
+    public void jdbcExecuteBatchEnd() {
+        metrics.record("jpa.batch", System.nanoTime() - batchStart);
+    }
+
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.events.jpa;
+
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+import org.jboss.logging.Logger;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.connections.jpa.util.JpaUtils;
+import org.keycloak.metrics.MetricsProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.KeycloakSessionTask;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+import javax.persistence.EntityManager;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind of events. Events are put to bounded queue and background thread inserts them with JDBC batch insert
+ * every <code>flushInterval</code> milliseconds or once <code>batchSize</code> events are queued, whatever happens first.
+ * Events are submitted once the transaction of the request, which produced them, is committed.
+ *
+ * <p>Failed batches are retried by the writer thread. Events spilled by the calling thread are written with single
+ * attempt, so the request never sleeps between retries.</p>
+ */
+public class AsyncEventWriter {
+
+    private static final Logger logger = Logger.getLogger(AsyncEventWriter.class);
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY = 100;
+
+    // Wakes up the writer waiting for events, when the writer is closed
+    private static final EventEntity CLOSE = new EventEntity();
+
+    private static final String INSERT_COLUMNS = " (ID, EVENT_TIME, TYPE, REALM_ID, CLIENT_ID, USER_ID, SESSION_ID, IP_ADDRESS, ERROR, DETAILS_JSON) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    public enum OverflowPolicy {
+        /** Caller waits until there is a space in the queue */
+        BLOCK,
+        /** Event is thrown away */
+        DROP,
+        /** Event is persisted synchronously by the caller */
+        SPILL
+    }
+
+    private final KeycloakSessionFactory sessionFactory;
+    private final BlockingQueue<EventEntity> queue;
+    private final int batchSize;
+    private final long flushInterval;
+    private final OverflowPolicy overflowPolicy;
+
+    // Null if metrics are not reported
+    private final MetricsProvider metrics;
+
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong spilledCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushTimeTotal = new AtomicLong();
+    private volatile long lastFlushTime;
+
+    public AsyncEventWriter(KeycloakSessionFactory sessionFactory, int queueSize, int batchSize, long flushInterval, OverflowPolicy overflowPolicy,
+                            MetricsProvider metrics) {
+        this.sessionFactory = sessionFactory;
+        this.queue = new ArrayBlockingQueue<EventEntity>(queueSize);
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.overflowPolicy = overflowPolicy;
+        this.metrics = metrics;
+
+        this.writerThread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                writeLoop();
+            }
+
+        }, "event-writer");
+        this.writerThread.setDaemon(true);
+    }
+
+    public void start() {
+        writerThread.start();
+    }
+
+    /**
+     * Queue events of committed transaction for writing. Events, which don't fit to the queue with the spill policy,
+     * are written right away by the calling thread.
+     */
+    public void submit(List<EventEntity> events) {
+        List<EventEntity> spilled = null;
+        for (EventEntity event : events) {
+            if (!offer(event)) {
+                if (spilled == null) {
+                    spilled = new ArrayList<EventEntity>();
+                }
+                spilled.add(event);
+            }
+        }
+
+        if (spilled != null) {
+            flush(spilled, 1);
+        }
+    }
+
+    /**
+     * Queue the event for writing
+     *
+     * @param event
+     * @return false if the event wasn't queued as queue is full and caller is supposed to write it itself
+     */
+    private boolean offer(EventEntity event) {
+        if (!running) {
+            spilledCount.incrementAndGet();
+            return false;
+        }
+
+        if (queue.offer(event)) {
+            return true;
+        }
+
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    queue.put(event);
+                    return true;
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    spilledCount.incrementAndGet();
+                    return false;
+                }
+            case DROP:
+                if (metrics != null) metrics.increment("events.dropped");
+                long dropped = droppedCount.incrementAndGet();
+                logger.debugf("Events queue is full. Dropped event '%s', total dropped: %d", event.getType(), dropped);
+                return true;
+            default:
+                if (metrics != null) metrics.increment("events.spilled");
+                spilledCount.incrementAndGet();
+                return false;
+        }
+    }
+
+    private void writeLoop() {
+        List<EventEntity> batch = new ArrayList<EventEntity>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                long deadline = System.currentTimeMillis() + flushInterval;
+                while (batch.size() < batchSize) {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        break;
+                    }
+
+                    EventEntity event = queue.poll(wait, TimeUnit.MILLISECONDS);
+                    if (event == null || event == CLOSE) {
+                        break;
+                    }
+                    batch.add(event);
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                queue.drainTo(batch);
+                running = false;
+            }
+            batch.remove(CLOSE);
+            if (metrics != null) metrics.gauge("events.queue", queue.size());
+
+            if (!batch.isEmpty()) {
+                flush(batch, MAX_ATTEMPTS);
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<EventEntity> batch, int maxAttempts) {
+        long start = System.nanoTime();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                write(batch);
+                writtenCount.addAndGet(batch.size());
+                break;
+            } catch (RuntimeException re) {
+                if (attempt >= maxAttempts) {
+                    if (metrics != null) metrics.increment("events.flush.failed");
+                    long failed = failedCount.addAndGet(batch.size());
+                    logger.warnf(re, "Failed to write %d events after %d attempts, events were dropped. Total dropped after failures: %d",
+                            batch.size(), attempt, failed);
+                    break;
+                }
+
+                logger.debugf(re, "Failed to write %d events, attempt %d", batch.size(), attempt);
+                try {
+                    Thread.sleep(RETRY_DELAY * attempt);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        long tookNanos = System.nanoTime() - start;
+        if (metrics != null) metrics.record("events.flush", tookNanos);
+
+        long took = TimeUnit.NANOSECONDS.toMillis(tookNanos);
+        lastFlushTime = took;
+        flushCount.incrementAndGet();
+        flushTimeTotal.addAndGet(took);
+        logger.tracef("Written %d events in %d ms, %d events queued", batch.size(), took, queue.size());
+    }
+
+    /**
+     * Inserts the events in a new transaction
+     */
+    protected void write(final List<EventEntity> batch) {
+        KeycloakModelUtils.runJobInTransaction(sessionFactory, new KeycloakSessionTask() {
+
+            @Override
+            public void run(KeycloakSession session) {
+                EntityManager em = session.getProvider(JpaConnectionProvider.class).getEntityManager();
+                final String sql = "insert into " + JpaUtils.getTableNameForNativeQuery("EVENT_ENTITY", em) + INSERT_COLUMNS;
+
+                em.unwrap(Session.class).doWork(new Work() {
+
+                    @Override
+                    public void execute(Connection connection) throws SQLException {
+                        PreparedStatement statement = connection.prepareStatement(sql);
+                        try {
+                            for (EventEntity event : batch) {
+                                statement.setString(1, event.getId());
+                                statement.setLong(2, event.getTime());
+                                setString(statement, 3, event.getType());
+                                setString(statement, 4, event.getRealmId());
+                                setString(statement, 5, event.getClientId());
+                                setString(statement, 6, event.getUserId());
+                                setString(statement, 7, event.getSessionId());
+                                setString(statement, 8, event.getIpAddress());
+                                setString(statement, 9, event.getError());
+                                setString(statement, 10, event.getDetailsJson());
+                                statement.addBatch();
+                            }
+                            statement.executeBatch();
+                        } finally {
+                            statement.close();
+                        }
+                    }
+
+                });
+            }
+
+        });
+    }
+
+    private static void setString(PreparedStatement statement, int index, String value) throws SQLException {
+        if (value == null) {
+            statement.setNull(index, Types.VARCHAR);
+        } else {
+            statement.setString(index, value);
+        }
+    }
+
+    /**
+     * Stop accepting events and write all queued events
+     */
+    public void close() {
+        // Writer writes the remaining events before it finishes
+        running = false;
+        queue.offer(CLOSE);
+        try {
+            writerThread.join(flushInterval + 30000);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+
+        queue.remove(CLOSE);
+        if (!queue.isEmpty()) {
+            logger.warnf("Event writer closed with %d events not written", queue.size());
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getSpilledCount() {
+        return spilledCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    public long getLastFlushTime() {
+        return lastFlushTime;
+    }
+
+    public double getAverageFlushTime() {
+        long count = flushCount.get();
+        return count == 0 ? 0 : (double) flushTimeTotal.get() / count;
+    }
+}
@@ -28,10 +28,16 @@ import org.keycloak.events.Event;
 import org.keycloak.events.EventQuery;
 import org.keycloak.events.EventStoreProvider;
 import org.keycloak.events.EventType;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakTransaction;
+import org.keycloak.models.KeycloakTransactionManager;
 
 import javax.persistence.EntityManager;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -45,10 +51,17 @@ public class JpaEventStoreProvider implements EventStoreProvider {
     };
     private static final Logger logger = Logger.getLogger(JpaEventStoreProvider.class);
 
+    private KeycloakSession session;
     private EntityManager em;
+    private AsyncEventWriter asyncWriter;
 
-    public JpaEventStoreProvider(EntityManager em) {
+    // Events of this session, which are handed to asyncWriter once the transaction commits
+    private List<EventEntity> pendingEvents;
+
+    public JpaEventStoreProvider(KeycloakSession session, EntityManager em, AsyncEventWriter asyncWriter) {
+        this.session = session;
         this.em = em;
+        this.asyncWriter = asyncWriter;
     }
 
     @Override
@@ -73,7 +86,23 @@ public class JpaEventStoreProvider implements EventStoreProvider {
 
     @Override
     public void onEvent(Event event) {
-        em.persist(convertEvent(event));
+        EventEntity eventEntity = convertEvent(event);
+        if (asyncWriter == null) {
+            em.persist(eventEntity);
+            return;
+        }
+
+        KeycloakTransactionManager transaction = session.getTransaction();
+        if (!transaction.isActive()) {
+            asyncWriter.submit(Collections.singletonList(eventEntity));
+            return;
+        }
+
+        if (pendingEvents == null) {
+            pendingEvents = new LinkedList<EventEntity>();
+            transaction.enlistAfterCompletion(new PendingEventsTransaction());
+        }
+        pendingEvents.add(eventEntity);
     }
 
     @Override
@@ -190,4 +219,44 @@ public class JpaEventStoreProvider implements EventStoreProvider {
         adminEvent.setAuthDetails(authDetails);
     }
 
+    private class PendingEventsTransaction implements KeycloakTransaction {
+
+        private boolean active;
+        private boolean rollbackOnly;
+
+        @Override
+        public void begin() {
+            active = true;
+        }
+
+        @Override
+        public void commit() {
+            active = false;
+            List<EventEntity> events = pendingEvents;
+            pendingEvents = null;
+            asyncWriter.submit(events);
+        }
+
+        @Override
+        public void rollback() {
+            active = false;
+            pendingEvents = null;
+        }
+
+        @Override
+        public void setRollbackOnly() {
+            rollbackOnly = true;
+        }
+
+        @Override
+        public boolean getRollbackOnly() {
+            return rollbackOnly;
+        }
+
+        @Override
+        public boolean isActive() {
+            return active;
+        }
+    }
+
 }
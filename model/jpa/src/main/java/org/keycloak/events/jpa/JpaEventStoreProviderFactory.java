@@ -17,10 +17,12 @@
 
 package org.keycloak.events.jpa;
 
+import org.jboss.logging.Logger;
 import org.keycloak.Config;
 import org.keycloak.connections.jpa.JpaConnectionProvider;
 import org.keycloak.events.EventStoreProvider;
 import org.keycloak.events.EventStoreProviderFactory;
+import org.keycloak.metrics.MetricsProvider;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
 
@@ -31,23 +33,52 @@ public class JpaEventStoreProviderFactory implements EventStoreProviderFactory {
 
     public static final String ID = "jpa";
 
+    private static final Logger logger = Logger.getLogger(JpaEventStoreProviderFactory.class);
+
+    private Config.Scope config;
+    private volatile AsyncEventWriter asyncWriter;
+
     @Override
     public EventStoreProvider create(KeycloakSession session) {
         JpaConnectionProvider connection = session.getProvider(JpaConnectionProvider.class);
-        return new JpaEventStoreProvider(connection.getEntityManager());
+        return new JpaEventStoreProvider(session, connection.getEntityManager(), asyncWriter);
     }
 
     @Override
     public void init(Config.Scope config) {
+        this.config = config;
     }
 
     @Override
     public void postInit(KeycloakSessionFactory factory) {
+        if (config.getBoolean("asyncWrite", false)) {
+            int queueSize = config.getInt("asyncQueueSize", 10000);
+            int batchSize = config.getInt("asyncBatchSize", 100);
+            long flushInterval = config.getLong("asyncFlushInterval", 1000L);
+            AsyncEventWriter.OverflowPolicy overflowPolicy = AsyncEventWriter.OverflowPolicy.valueOf(config.get("asyncOverflowPolicy", "spill").toUpperCase());
+
+            // Queue depth and flush latency are reported to the metrics shared by all sessions
+            MetricsProvider metrics;
+            KeycloakSession session = factory.create();
+            try {
+                metrics = session.getProvider(MetricsProvider.class);
+            } finally {
+                session.close();
+            }
 
+            asyncWriter = new AsyncEventWriter(factory, queueSize, batchSize, flushInterval, overflowPolicy, metrics);
+            asyncWriter.start();
+            logger.infof("Asynchronous writing of events enabled. Queue size: %d, batch size: %d, flush interval: %d ms, overflow policy: %s",
+                    queueSize, batchSize, flushInterval, overflowPolicy);
+        }
     }
 
     @Override
     public void close() {
+        if (asyncWriter != null) {
+            asyncWriter.close();
+            asyncWriter = null;
+        }
     }
 
     @Override
@@ -390,6 +390,56 @@ public class JpaUserProvider implements UserProvider {
         return users;
     }
 
+    @Override
+    public List<UserModel> getUsersAfter(RealmModel realm, String lastUsername, int maxResults, boolean includeServiceAccounts) {
+        StringBuilder builder = new StringBuilder("select u from UserEntity u where u.realmId = :realmId");
+        if (!includeServiceAccounts) {
+            builder.append(" and (u.serviceAccountClientLink is null)");
+        }
+        if (lastUsername != null) {
+            builder.append(" and u.username > :lastUsername");
+        }
+        builder.append(" order by u.username");
+
+        TypedQuery<UserEntity> query = em.createQuery(builder.toString(), UserEntity.class);
+        query.setParameter("realmId", realm.getId());
+        if (lastUsername != null) {
+            query.setParameter("lastUsername", lastUsername);
+        }
+        if (maxResults != -1) {
+            query.setMaxResults(maxResults);
+        }
+        List<UserEntity> results = query.getResultList();
+        List<UserModel> users = new ArrayList<UserModel>();
+        for (UserEntity entity : results) users.add(new UserAdapter(session, realm, em, entity));
+        return users;
+    }
+
+    @Override
+    public List<UserModel> getGroupMembersAfter(RealmModel realm, GroupModel group, String lastUsername, int maxResults) {
+        StringBuilder builder = new StringBuilder("select g.user from UserGroupMembershipEntity g where g.groupId = :groupId");
+        if (lastUsername != null) {
+            builder.append(" and g.user.username > :lastUsername");
+        }
+        builder.append(" order by g.user.username");
+
+        TypedQuery<UserEntity> query = em.createQuery(builder.toString(), UserEntity.class);
+        query.setParameter("groupId", group.getId());
+        if (lastUsername != null) {
+            query.setParameter("lastUsername", lastUsername);
+        }
+        if (maxResults != -1) {
+            query.setMaxResults(maxResults);
+        }
+        List<UserEntity> results = query.getResultList();
+
+        List<UserModel> users = new ArrayList<UserModel>();
+        for (UserEntity user : results) {
+            users.add(new UserAdapter(session, realm, em, user));
+        }
+        return users;
+    }
+
     @Override
     public List<UserModel> searchForUser(String search, RealmModel realm) {
         return searchForUser(search, realm, -1, -1);
@@ -397,9 +447,7 @@ public class JpaUserProvider implements UserProvider {
 
     @Override
     public List<UserModel> searchForUser(String search, RealmModel realm, int firstResult, int maxResults) {
-        TypedQuery<UserEntity> query = em.createNamedQuery("searchForUser", UserEntity.class);
-        query.setParameter("realmId", realm.getId());
-        query.setParameter("search", "%" + search.toLowerCase() + "%");
+        TypedQuery<UserEntity> query = createSearchQuery(search, realm, null);
         if (firstResult != -1) {
             query.setFirstResult(firstResult);
         }
@@ -412,6 +460,53 @@ public class JpaUserProvider implements UserProvider {
         return users;
     }
 
+    @Override
+    public List<UserModel> searchForUserAfter(String search, RealmModel realm, String lastUsername, int maxResults) {
+        TypedQuery<UserEntity> query = createSearchQuery(search, realm, lastUsername);
+        if (maxResults != -1) {
+            query.setMaxResults(maxResults);
+        }
+        List<UserEntity> results = query.getResultList();
+        List<UserModel> users = new ArrayList<UserModel>();
+        for (UserEntity entity : results) users.add(new UserAdapter(session, realm, em, entity));
+        return users;
+    }
+
+    // Search is prefix match on username, email, first name or last name, so that indexes on those columns can be used.
+    // Search like "john do" matches first name starting with "john" and last name starting with "do".
+    // Asterisk can be used as wildcard (eg. "*urke"), but such search needs to scan all users of the realm
+    private TypedQuery<UserEntity> createSearchQuery(String search, RealmModel realm, String lastUsername) {
+        String value = search.trim().toLowerCase();
+        int spaceIndex = value.lastIndexOf(' ');
+
+        StringBuilder builder = new StringBuilder("select u from UserEntity u where u.realmId = :realmId and (u.serviceAccountClientLink is null) and " +
+                "( u.username like :search or u.email like :search or u.firstNameLower like :search or u.lastNameLower like :search");
+        if (spaceIndex > -1) {
+            builder.append(" or (u.firstNameLower like :firstName and u.lastNameLower like :lastName)");
+        }
+        builder.append(" )");
+        if (lastUsername != null) {
+            builder.append(" and u.username > :lastUsername");
+        }
+        builder.append(" order by u.username");
+
+        TypedQuery<UserEntity> query = em.createQuery(builder.toString(), UserEntity.class);
+        query.setParameter("realmId", realm.getId());
+        query.setParameter("search", toPrefixPattern(value));
+        if (spaceIndex > -1) {
+            query.setParameter("firstName", toPrefixPattern(value.substring(0, spaceIndex).trim()));
+            query.setParameter("lastName", toPrefixPattern(value.substring(spaceIndex + 1).trim()));
+        }
+        if (lastUsername != null) {
+            query.setParameter("lastUsername", lastUsername);
+        }
+        return query;
+    }
+
+    private static String toPrefixPattern(String value) {
+        return value.replace('*', '%') + "%";
+    }
+
     @Override
     public List<UserModel> searchForUserByAttributes(Map<String, String> attributes, RealmModel realm) {
         return searchForUserByAttributes(attributes, realm, -1, -1);
@@ -70,6 +70,7 @@ public class RealmAdapter implements RealmModel {
     protected RealmEntity realm;
     protected EntityManager em;
     protected volatile transient PublicKey publicKey;
+    protected volatile transient String keyId;
     protected volatile transient PrivateKey privateKey;
     protected volatile transient X509Certificate certificate;
     protected volatile transient Key codeSecretKey;
@@ -466,6 +467,7 @@ public class RealmAdapter implements RealmModel {
     @Override
     public void setPublicKeyPem(String publicKeyPem) {
         realm.setPublicKeyPem(publicKeyPem);
+        this.keyId = null;
         em.flush();
     }
 
@@ -516,10 +518,18 @@ public class RealmAdapter implements RealmModel {
     @Override
     public void setPublicKey(PublicKey publicKey) {
         this.publicKey = publicKey;
+        this.keyId = null;
         String publicKeyPem = KeycloakModelUtils.getPemFromKey(publicKey);
         setPublicKeyPem(publicKeyPem);
     }
 
+    @Override
+    public String getKeyId() {
+        if (keyId != null) return keyId;
+        keyId = KeycloakModelUtils.getKeyId(getPublicKey());
+        return keyId;
+    }
+
     @Override
     public PrivateKey getPrivateKey() {
         if (privateKey != null) return privateKey;
@@ -41,8 +41,6 @@ import java.util.Collection;
 @NamedQueries({
         @NamedQuery(name="getAllUsersByRealm", query="select u from UserEntity u where u.realmId = :realmId order by u.username"),
         @NamedQuery(name="getAllUsersByRealmExcludeServiceAccount", query="select u from UserEntity u where u.realmId = :realmId and (u.serviceAccountClientLink is null) order by u.username"),
-        @NamedQuery(name="searchForUser", query="select u from UserEntity u where u.realmId = :realmId and (u.serviceAccountClientLink is null) and " +
-                "( lower(u.username) like :search or lower(concat(u.firstName, ' ', u.lastName)) like :search or u.email like :search ) order by u.username"),
         @NamedQuery(name="getRealmUserById", query="select u from UserEntity u where u.id = :id and u.realmId = :realmId"),
         @NamedQuery(name="getRealmUserByUsername", query="select u from UserEntity u where u.username = :username and u.realmId = :realmId"),
         @NamedQuery(name="getRealmUserByEmail", query="select u from UserEntity u where u.email = :email and u.realmId = :realmId"),
@@ -74,6 +72,12 @@ public class UserEntity {
     protected String lastName;
     @Column(name = "EMAIL")
     protected String email;
+
+    // Lower-cased copies of names, so that search can use index on them. Username and email are lower-cased already
+    @Column(name = "FIRST_NAME_LOWER")
+    protected String firstNameLower;
+    @Column(name = "LAST_NAME_LOWER")
+    protected String lastNameLower;
     @Column(name = "ENABLED")
     protected boolean enabled;
     @Column(name = "TOTP")
@@ -133,6 +137,7 @@ public class UserEntity {
 
     public void setFirstName(String firstName) {
         this.firstName = firstName;
+        this.firstNameLower = KeycloakModelUtils.toLowerCaseSafe(firstName);
     }
 
     public String getLastName() {
@@ -141,6 +146,15 @@ public class UserEntity {
 
     public void setLastName(String lastName) {
         this.lastName = lastName;
+        this.lastNameLower = KeycloakModelUtils.toLowerCaseSafe(lastName);
+    }
+
+    public String getFirstNameLower() {
+        return firstNameLower;
+    }
+
+    public String getLastNameLower() {
+        return lastNameLower;
     }
 
     public String getEmail() {
@@ -247,6 +247,39 @@ public class JpaUserSessionPersisterProvider implements UserSessionPersisterProv
         return result;
     }
 
+    @Override
+    public UserSessionModel loadUserSessionById(String userSessionId, boolean offline) {
+        PersistentUserSessionEntity entity = em.find(PersistentUserSessionEntity.class, new PersistentUserSessionEntity.Key(userSessionId, offlineToString(offline)));
+        if (entity == null) {
+            return null;
+        }
+
+        RealmModel realm = session.realms().getRealm(entity.getRealmId());
+        if (realm == null) {
+            return null;
+        }
+
+        UserModel user = session.users().getUserById(entity.getUserId(), realm);
+
+        // Case when user was deleted in the meantime
+        if (user == null) {
+            onUserRemoved(realm, entity.getUserId());
+            return null;
+        }
+
+        PersistentUserSessionAdapter userSession = toAdapter(realm, user, entity);
+        for (PersistentClientSessionEntity clientSession : getClientSessionsByUserSession(userSessionId, offline)) {
+            userSession.getClientSessions().add(toAdapter(realm, userSession, clientSession));
+        }
+        return userSession;
+    }
+
+    @Override
+    public UserSessionModel loadUserSessionByClientSessionId(String clientSessionId, boolean offline) {
+        PersistentClientSessionEntity entity = em.find(PersistentClientSessionEntity.class, new PersistentClientSessionEntity.Key(clientSessionId, offlineToString(offline)));
+        return entity != null ? loadUserSessionById(entity.getUserSessionId(), offline) : null;
+    }
+
     private PersistentUserSessionAdapter toAdapter(RealmModel realm, UserModel user, PersistentUserSessionEntity entity) {
         PersistentUserSessionModel model = new PersistentUserSessionModel();
         model.setUserSessionId(entity.getUserSessionId());
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.events.jpa;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncEventWriterTest {
+
+    @Test
+    public void writeFullBatches() throws Exception {
+        TestWriter writer = new TestWriter(100, 10, 60000, AsyncEventWriter.OverflowPolicy.SPILL);
+        writer.start();
+        try {
+            writer.submit(events(25));
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while (writer.batches.size() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            assertEquals(2, writer.batches.size());
+            assertEquals(10, writer.batches.get(0).size());
+            assertEquals(10, writer.batches.get(1).size());
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void writeRemainingEventsOnClose() {
+        TestWriter writer = new TestWriter(100, 10, 60000, AsyncEventWriter.OverflowPolicy.SPILL);
+        writer.start();
+        writer.submit(events(5));
+
+        long start = System.currentTimeMillis();
+        writer.close();
+
+        assertTrue("close waited for flush interval", System.currentTimeMillis() - start < 30000);
+        assertEquals(5, writer.getWrittenCount());
+        assertEquals(0, writer.getQueueDepth());
+    }
+
+    @Test
+    public void writeAfterCloseSpilled() {
+        TestWriter writer = new TestWriter(100, 10, 100, AsyncEventWriter.OverflowPolicy.DROP);
+        writer.start();
+        writer.close();
+
+        writer.submit(events(3));
+
+        assertEquals(1, writer.batches.size());
+        assertEquals(3, writer.getWrittenCount());
+        assertEquals(3, writer.getSpilledCount());
+    }
+
+    @Test
+    public void spillWhenQueueFull() {
+        // Writer not started, so the queue is never drained
+        TestWriter writer = new TestWriter(2, 10, 100, AsyncEventWriter.OverflowPolicy.SPILL);
+        writer.submit(events(5));
+
+        assertEquals(2, writer.getQueueDepth());
+        assertEquals(1, writer.batches.size());
+        assertEquals(3, writer.batches.get(0).size());
+        assertEquals(3, writer.getSpilledCount());
+    }
+
+    @Test
+    public void dropWhenQueueFull() {
+        TestWriter writer = new TestWriter(2, 10, 100, AsyncEventWriter.OverflowPolicy.DROP);
+        writer.submit(events(5));
+
+        assertEquals(2, writer.getQueueDepth());
+        assertEquals(0, writer.batches.size());
+        assertEquals(3, writer.getDroppedCount());
+    }
+
+    @Test
+    public void retryFailedBatch() throws Exception {
+        TestWriter writer = new TestWriter(100, 10, 100, AsyncEventWriter.OverflowPolicy.SPILL);
+        writer.failures.set(2);
+        writer.start();
+        try {
+            writer.submit(events(3));
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while (writer.getWrittenCount() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            assertEquals(1, writer.batches.size());
+            assertEquals(3, writer.getWrittenCount());
+            assertEquals(0, writer.getFailedCount());
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void spilledBatchNotRetried() {
+        TestWriter writer = new TestWriter(2, 10, 100, AsyncEventWriter.OverflowPolicy.SPILL);
+        writer.failures.set(1);
+
+        long start = System.currentTimeMillis();
+        writer.submit(events(3));
+
+        assertTrue("caller waited for retry", System.currentTimeMillis() - start < 100);
+        assertEquals(0, writer.batches.size());
+        assertEquals(0, writer.getWrittenCount());
+        assertEquals(1, writer.getFailedCount());
+    }
+
+    private static List<EventEntity> events(int count) {
+        List<EventEntity> events = new ArrayList<EventEntity>();
+        for (int i = 0; i < count; i++) {
+            EventEntity event = new EventEntity();
+            event.setId("event-" + i);
+            events.add(event);
+        }
+        return events;
+    }
+
+    private static class TestWriter extends AsyncEventWriter {
+
+        private final List<List<EventEntity>> batches = new CopyOnWriteArrayList<List<EventEntity>>();
+        private final AtomicInteger failures = new AtomicInteger();
+
+        private TestWriter(int queueSize, int batchSize, long flushInterval, OverflowPolicy overflowPolicy) {
+            super(null, queueSize, batchSize, flushInterval, overflowPolicy, null);
+        }
+
+        @Override
+        protected void write(List<EventEntity> batch) {
+            if (failures.getAndDecrement() > 0) {
+                throw new RuntimeException("Database not available");
+            }
+            batches.add(new ArrayList<EventEntity>(batch));
+        }
+    }
+
+}
@@ -119,6 +119,20 @@ public class MongoUserProvider implements UserProvider {
         return convertUserEntities(realm, users);
     }
 
+    @Override
+    public List<UserModel> getGroupMembersAfter(RealmModel realm, GroupModel group, String lastUsername, int maxResults) {
+        QueryBuilder queryBuilder = new QueryBuilder()
+                .and("realmId").is(realm.getId());
+        queryBuilder.and("groupIds").is(group.getId());
+        if (lastUsername != null) {
+            queryBuilder.and("username").greaterThan(lastUsername);
+        }
+        DBObject sort = new BasicDBObject("username", 1);
+
+        List<MongoUserEntity> users = getMongoStore().loadEntities(MongoUserEntity.class, queryBuilder.get(), sort, -1, maxResults, invocationContext);
+        return convertUserEntities(realm, users);
+    }
+
     protected MongoStore getMongoStore() {
         return invocationContext.getMongoStore();
     }
@@ -186,6 +200,24 @@ public class MongoUserProvider implements UserProvider {
         return convertUserEntities(realm, users);
     }
 
+    @Override
+    public List<UserModel> getUsersAfter(RealmModel realm, String lastUsername, int maxResults, boolean includeServiceAccounts) {
+        QueryBuilder queryBuilder = new QueryBuilder()
+                .and("realmId").is(realm.getId());
+
+        if (!includeServiceAccounts) {
+            queryBuilder = queryBuilder.and("serviceAccountClientLink").is(null);
+        }
+        if (lastUsername != null) {
+            queryBuilder = queryBuilder.and("username").greaterThan(lastUsername);
+        }
+
+        DBObject query = queryBuilder.get();
+        DBObject sort = new BasicDBObject("username", 1);
+        List<MongoUserEntity> users = getMongoStore().loadEntities(MongoUserEntity.class, query, sort, -1, maxResults, invocationContext);
+        return convertUserEntities(realm, users);
+    }
+
     @Override
     public List<UserModel> searchForUser(String search, RealmModel realm) {
         return searchForUser(search, realm, -1, -1);
@@ -193,8 +225,25 @@ public class MongoUserProvider implements UserProvider {
 
     @Override
     public List<UserModel> searchForUser(String search, RealmModel realm, int firstResult, int maxResults) {
+        DBObject query = createSearchQuery(search, realm, null);
+        DBObject sort = new BasicDBObject("username", 1);
+
+        List<MongoUserEntity> users = getMongoStore().loadEntities(MongoUserEntity.class, query, sort, firstResult, maxResults, invocationContext);
+        return convertUserEntities(realm, users);
+    }
+
+    @Override
+    public List<UserModel> searchForUserAfter(String search, RealmModel realm, String lastUsername, int maxResults) {
+        DBObject query = createSearchQuery(search, realm, lastUsername);
+        DBObject sort = new BasicDBObject("username", 1);
+
+        List<MongoUserEntity> users = getMongoStore().loadEntities(MongoUserEntity.class, query, sort, -1, maxResults, invocationContext);
+        return convertUserEntities(realm, users);
+    }
+
+    private DBObject createSearchQuery(String search, RealmModel realm, String lastUsername) {
         search = search.trim();
-        Pattern caseInsensitivePattern = Pattern.compile("(?i:" + search + ")");
+        Pattern caseInsensitivePattern = Pattern.compile("(?i:" + toRegex(search) + ")");
 
         QueryBuilder nameBuilder;
         int spaceInd = search.lastIndexOf(" ");
@@ -203,8 +252,8 @@ public class MongoUserProvider implements UserProvider {
         if (spaceInd != -1) {
             String firstName = search.substring(0, spaceInd);
             String lastName = search.substring(spaceInd + 1);
-            Pattern firstNamePattern = Pattern.compile("(?i:" + firstName + "$)");
-            Pattern lastNamePattern = Pattern.compile("(?i:^" + lastName + ")");
+            Pattern firstNamePattern = Pattern.compile("(?i:" + toRegex(firstName) + "$)");
+            Pattern lastNamePattern = Pattern.compile("(?i:^" + toRegex(lastName) + ")");
             nameBuilder = new QueryBuilder().and(
                     new QueryBuilder().put("firstName").regex(firstNamePattern).get(),
                     new QueryBuilder().put("lastName").regex(lastNamePattern).get()
@@ -228,10 +277,29 @@ public class MongoUserProvider implements UserProvider {
                 ).get()
         );
 
-        DBObject sort = new BasicDBObject("username", 1);
+        if (lastUsername != null) {
+            builder.and(new QueryBuilder().put("username").greaterThan(lastUsername).get());
+        }
 
-        List<MongoUserEntity> users = getMongoStore().loadEntities(MongoUserEntity.class, builder.get(), sort, firstResult, maxResults, invocationContext);
-        return convertUserEntities(realm, users);
+        return builder.get();
+    }
+
+    // Asterisk is wildcard in search string. Everything else is matched literally
+    private static String toRegex(String search) {
+        StringBuilder regex = new StringBuilder();
+        int start = 0;
+        int wildcard;
+        while ((wildcard = search.indexOf('*', start)) != -1) {
+            if (wildcard > start) {
+                regex.append(Pattern.quote(search.substring(start, wildcard)));
+            }
+            regex.append(".*");
+            start = wildcard + 1;
+        }
+        if (start < search.length()) {
+            regex.append(Pattern.quote(search.substring(start)));
+        }
+        return regex.toString();
     }
 
     @Override
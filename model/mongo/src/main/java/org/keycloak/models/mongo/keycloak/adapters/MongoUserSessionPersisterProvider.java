@@ -299,6 +299,39 @@ public class MongoUserSessionPersisterProvider implements UserSessionPersisterPr
         return results;
     }
 
+    @Override
+    public UserSessionModel loadUserSessionById(String userSessionId, boolean offline) {
+        MongoUserSessionEntity entity = loadUserSession(userSessionId, offline);
+        return entity != null ? toModel(entity) : null;
+    }
+
+    @Override
+    public UserSessionModel loadUserSessionByClientSessionId(String clientSessionId, boolean offline) {
+        DBObject query = new QueryBuilder()
+                .and("clientSessions.clientSessionId").is(clientSessionId)
+                .get();
+        Class<? extends MongoUserSessionEntity> clazz = offline ? MongoOfflineUserSessionEntity.class : MongoOnlineUserSessionEntity.class;
+        MongoUserSessionEntity entity = getMongoStore().loadSingleEntity(clazz, query, invocationContext);
+        return entity != null ? toModel(entity) : null;
+    }
+
+    private UserSessionModel toModel(MongoUserSessionEntity entity) {
+        RealmModel realm = session.realms().getRealm(entity.getRealmId());
+        if (realm == null) {
+            return null;
+        }
+
+        UserModel user = session.users().getUserById(entity.getUserId(), realm);
+
+        // Case when user was deleted in the meantime
+        if (user == null) {
+            onUserRemoved(realm, entity.getUserId());
+            return null;
+        }
+
+        return toAdapter(realm, user, entity);
+    }
+
     private PersistentUserSessionAdapter toAdapter(RealmModel realm, UserModel user, PersistentUserSessionEntity entity) {
         PersistentUserSessionModel model = new PersistentUserSessionModel();
         model.setUserSessionId(entity.getId());
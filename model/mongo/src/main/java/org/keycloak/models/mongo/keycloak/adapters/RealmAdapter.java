@@ -83,6 +83,7 @@ public class RealmAdapter extends AbstractMongoAdapter<MongoRealmEntity> impleme
     private final RealmProvider model;
 
     protected volatile transient PublicKey publicKey;
+    protected volatile transient String keyId;
     protected volatile transient PrivateKey privateKey;
     protected volatile transient X509Certificate certificate;
     protected volatile transient Key codeSecretKey;
@@ -461,6 +462,7 @@ public class RealmAdapter extends AbstractMongoAdapter<MongoRealmEntity> impleme
     public void setPublicKeyPem(String publicKeyPem) {
         realm.setPublicKeyPem(publicKeyPem);
         this.publicKey = null;
+        this.keyId = null;
         updateRealm();
     }
 
@@ -513,10 +515,18 @@ public class RealmAdapter extends AbstractMongoAdapter<MongoRealmEntity> impleme
     @Override
     public void setPublicKey(PublicKey publicKey) {
         this.publicKey = publicKey;
+        this.keyId = null;
         String publicKeyPem = KeycloakModelUtils.getPemFromKey(publicKey);
         setPublicKeyPem(publicKeyPem);
     }
 
+    @Override
+    public String getKeyId() {
+        if (keyId != null) return keyId;
+        keyId = KeycloakModelUtils.getKeyId(getPublicKey());
+        return keyId;
+    }
+
     @Override
     public PrivateKey getPrivateKey() {
         if (privateKey != null) return privateKey;
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.proxy;
+
+import io.undertow.security.api.SecurityContext;
+import io.undertow.security.idm.Account;
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.proxy.LoadBalancingProxyClient;
+import io.undertow.server.handlers.proxy.ProxyCallback;
+import io.undertow.server.handlers.proxy.ProxyClient;
+import io.undertow.server.handlers.proxy.ProxyConnection;
+import org.jboss.logging.Logger;
+import org.keycloak.KeycloakSecurityContext;
+import org.keycloak.adapters.OidcKeycloakAccount;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spreads requests among several backends. Each backend has its own pool of connections. Requests of the same Keycloak
+ * session can be routed to the same backend, and backends failing the health check get no requests until they recover.
+ * <p>
+ * Health checks run on the XNIO worker of the server, so they stop together with the server and no thread is left
+ * behind.
+ */
+public class BalancingProxyClient implements ProxyClient {
+    protected static Logger log = Logger.getLogger(BalancingProxyClient.class);
+
+    public enum Policy {
+        ROUND_ROBIN, LEAST_CONNECTIONS
+    }
+
+    protected static final int HEALTH_CHECK_TIMEOUT_MILLIS = 5000;
+
+    protected final List<Backend> backends = new ArrayList<Backend>();
+    protected final AtomicInteger nextBackend = new AtomicInteger();
+    protected Policy policy = Policy.ROUND_ROBIN;
+    protected boolean stickySessions;
+    protected volatile String healthCheckPath;
+    protected volatile long healthCheckIntervalMillis;
+    protected final AtomicLong nextHealthCheck = new AtomicLong();
+
+    /**
+     * @param connectionsPerThread size of connection pool of each backend per IO thread
+     * @param problemServerRetry seconds before a backend, which refused the connection, is tried again
+     */
+    public BalancingProxyClient(List<URI> uris, int connectionsPerThread, int problemServerRetry) {
+        for (URI uri : uris) {
+            LoadBalancingProxyClient client = new LoadBalancingProxyClient()
+                    .setConnectionsPerThread(connectionsPerThread)
+                    .setProblemServerRetry(problemServerRetry)
+                    .addHost(uri);
+            addBackend(uri, client);
+        }
+    }
+
+    protected BalancingProxyClient() {
+    }
+
+    protected void addBackend(URI uri, ProxyClient client) {
+        backends.add(new Backend(uri, client));
+    }
+
+    public BalancingProxyClient policy(Policy policy) {
+        this.policy = policy;
+        return this;
+    }
+
+    /**
+     * Route all requests of the Keycloak session to the same backend while it's healthy
+     */
+    public BalancingProxyClient stickySessions(boolean stickySessions) {
+        this.stickySessions = stickySessions;
+        return this;
+    }
+
+    /**
+     * Periodically sends GET request to the path resolved against URI of each backend. Backend responding with server
+     * error or not responding at all is ejected until it passes the check again. Checks are started by incoming
+     * requests, at most once per interval.
+     */
+    public BalancingProxyClient healthCheck(String path, int intervalSeconds) {
+        this.healthCheckIntervalMillis = TimeUnit.SECONDS.toMillis(intervalSeconds);
+        this.healthCheckPath = path;
+        return this;
+    }
+
+    @Override
+    public ProxyTarget findTarget(HttpServerExchange exchange) {
+        scheduleHealthCheck(exchange);
+
+        List<Backend> available = new ArrayList<Backend>(backends.size());
+        for (Backend backend : backends) {
+            if (backend.healthy) available.add(backend);
+        }
+        // Trying some backend is better than failing for sure
+        if (available.isEmpty()) available = backends;
+
+        List<Backend> candidates = null;
+        if (stickySessions) {
+            String session = getSessionKey(exchange);
+            if (session != null) candidates = orderBySession(session, available);
+        }
+        if (candidates == null) {
+            Backend first = policy == Policy.LEAST_CONNECTIONS ? selectLeastConnections(available) : selectRoundRobin(available);
+            candidates = new ArrayList<Backend>(available.size());
+            candidates.add(first);
+            for (Backend backend : available) {
+                if (backend != first) candidates.add(backend);
+            }
+        }
+
+        // Backend refusing connections is marked as problem server by its client, which then has no target for a while
+        for (Backend backend : candidates) {
+            ProxyTarget target = backend.client.findTarget(exchange);
+            if (target != null) return new BackendTarget(backend, target);
+            log.debugf("Backend %s not available, trying another one", backend.uri);
+        }
+        return null;
+    }
+
+    @Override
+    public void getConnection(ProxyTarget target, HttpServerExchange exchange, ProxyCallback<ProxyConnection> callback, long timeout, TimeUnit timeUnit) {
+        BackendTarget backendTarget = (BackendTarget) target;
+        final Backend backend = backendTarget.backend;
+        backend.activeRequests.incrementAndGet();
+        exchange.addExchangeCompleteListener(new ExchangeCompletionListener() {
+            @Override
+            public void exchangeEvent(HttpServerExchange exchange, NextListener nextListener) {
+                backend.activeRequests.decrementAndGet();
+                nextListener.proceed();
+            }
+        });
+        backend.client.getConnection(backendTarget.delegate, exchange, callback, timeout, timeUnit);
+    }
+
+    protected String getSessionKey(HttpServerExchange exchange) {
+        SecurityContext securityContext = exchange.getSecurityContext();
+        if (securityContext == null) return null;
+        Account account = securityContext.getAuthenticatedAccount();
+        if (!(account instanceof OidcKeycloakAccount)) return null;
+        KeycloakSecurityContext keycloakContext = ((OidcKeycloakAccount) account).getKeycloakSecurityContext();
+        if (keycloakContext == null || keycloakContext.getToken() == null) return null;
+        return keycloakContext.getToken().getSessionState();
+    }
+
+    // Rendezvous hashing, so ejecting a backend moves just the sessions of that backend
+    protected List<Backend> orderBySession(final String session, List<Backend> available) {
+        List<Backend> ordered = new ArrayList<Backend>(available);
+        Collections.sort(ordered, new Comparator<Backend>() {
+            @Override
+            public int compare(Backend b1, Backend b2) {
+                return Integer.compare(weight(session, b2), weight(session, b1));
+            }
+        });
+        return ordered;
+    }
+
+    private static int weight(String session, Backend backend) {
+        return mix((session + backend.uri).hashCode());
+    }
+
+    protected Backend selectRoundRobin(List<Backend> available) {
+        int i = nextBackend.getAndIncrement() & Integer.MAX_VALUE;
+        return available.get(i % available.size());
+    }
+
+    protected Backend selectLeastConnections(List<Backend> available) {
+        // Start from the next backend in turn, so that idle backends are used evenly
+        int start = nextBackend.getAndIncrement() & Integer.MAX_VALUE;
+        Backend selected = null;
+        for (int i = 0; i < available.size(); i++) {
+            Backend backend = available.get((start + i) % available.size());
+            if (selected == null || backend.activeRequests.get() < selected.activeRequests.get()) {
+                selected = backend;
+            }
+        }
+        return selected;
+    }
+
+    protected void scheduleHealthCheck(HttpServerExchange exchange) {
+        final String path = healthCheckPath;
+        if (path == null) return;
+
+        long now = System.currentTimeMillis();
+        long next = nextHealthCheck.get();
+        if (now < next || !nextHealthCheck.compareAndSet(next, now + healthCheckIntervalMillis)) return;
+
+        getHealthCheckExecutor(exchange).execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Backend backend : backends) {
+                    check(backend, path);
+                }
+            }
+        });
+    }
+
+    protected Executor getHealthCheckExecutor(HttpServerExchange exchange) {
+        return exchange.getConnection().getWorker();
+    }
+
+    protected void check(Backend backend, String path) {
+        boolean healthy;
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) backend.uri.resolve(path).toURL().openConnection();
+            connection.setConnectTimeout(HEALTH_CHECK_TIMEOUT_MILLIS);
+            connection.setReadTimeout(HEALTH_CHECK_TIMEOUT_MILLIS);
+            connection.setInstanceFollowRedirects(false);
+            healthy = connection.getResponseCode() < 500;
+        } catch (IOException e) {
+            healthy = false;
+        } finally {
+            if (connection != null) connection.disconnect();
+        }
+
+        if (healthy != backend.healthy) {
+            backend.healthy = healthy;
+            if (healthy) {
+                log.infof("Backend %s passed health check, adding it back", backend.uri);
+            } else {
+                log.warnf("Backend %s failed health check, ejecting it", backend.uri);
+            }
+        }
+    }
+
+    // Finalization step of MurmurHash3, String hash codes of similar keys differ just in a few bits
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    protected static class Backend {
+        protected final URI uri;
+        protected final ProxyClient client;
+        protected final AtomicInteger activeRequests = new AtomicInteger();
+        protected volatile boolean healthy = true;
+
+        protected Backend(URI uri, ProxyClient client) {
+            this.uri = uri;
+            this.client = client;
+        }
+    }
+
+    protected static class BackendTarget implements ProxyTarget {
+        protected final Backend backend;
+        protected final ProxyTarget delegate;
+
+        protected BackendTarget(Backend backend, ProxyTarget delegate) {
+            this.backend = backend;
+            this.delegate = delegate;
+        }
+    }
+
+}
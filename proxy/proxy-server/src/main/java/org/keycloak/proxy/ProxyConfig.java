@@ -51,6 +51,18 @@ public class ProxyConfig {
     protected Boolean directBuffers;
     @JsonProperty("target-url")
     protected String targetUrl;
+    @JsonProperty("target-urls")
+    protected List<String> targetUrls = new LinkedList<String>();
+    @JsonProperty("load-balancing")
+    protected String loadBalancing;
+    @JsonProperty("sticky-sessions")
+    protected boolean stickySessions;
+    @JsonProperty("connections-per-thread")
+    protected Integer connectionsPerThread;
+    @JsonProperty("health-check-path")
+    protected String healthCheckPath;
+    @JsonProperty("health-check-interval")
+    protected Integer healthCheckInterval;
     @JsonProperty("send-access-token")
     protected boolean sendAccessToken;
     @JsonProperty("applications")
@@ -154,6 +166,54 @@ public class ProxyConfig {
         this.targetUrl = targetUrl;
     }
 
+    public List<String> getTargetUrls() {
+        return targetUrls;
+    }
+
+    public void setTargetUrls(List<String> targetUrls) {
+        this.targetUrls = targetUrls;
+    }
+
+    public String getLoadBalancing() {
+        return loadBalancing;
+    }
+
+    public void setLoadBalancing(String loadBalancing) {
+        this.loadBalancing = loadBalancing;
+    }
+
+    public boolean isStickySessions() {
+        return stickySessions;
+    }
+
+    public void setStickySessions(boolean stickySessions) {
+        this.stickySessions = stickySessions;
+    }
+
+    public Integer getConnectionsPerThread() {
+        return connectionsPerThread;
+    }
+
+    public void setConnectionsPerThread(Integer connectionsPerThread) {
+        this.connectionsPerThread = connectionsPerThread;
+    }
+
+    public String getHealthCheckPath() {
+        return healthCheckPath;
+    }
+
+    public void setHealthCheckPath(String healthCheckPath) {
+        this.healthCheckPath = healthCheckPath;
+    }
+
+    public Integer getHealthCheckInterval() {
+        return healthCheckInterval;
+    }
+
+    public void setHealthCheckInterval(Integer healthCheckInterval) {
+        this.healthCheckInterval = healthCheckInterval;
+    }
+
     public List<Application> getApplications() {
         return applications;
     }
@@ -31,6 +31,7 @@ import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.handlers.PathHandler;
 import io.undertow.server.handlers.ResponseCodeHandler;
+import io.undertow.server.handlers.proxy.ProxyClient;
 import io.undertow.server.handlers.proxy.ProxyHandler;
 import io.undertow.server.handlers.proxy.SimpleProxyClientProvider;
 import io.undertow.server.session.InMemorySessionManager;
@@ -99,7 +100,11 @@ public class ProxyServerBuilder {
         } catch (URISyntaxException e) {
             throw new RuntimeException(e);
         }
-        final HttpHandler handler = new ProxyHandler(provider, 30000, ResponseCodeHandler.HANDLE_404);
+        return target(provider);
+    }
+
+    public ProxyServerBuilder target(ProxyClient client) {
+        final HttpHandler handler = new ProxyHandler(client, 30000, ResponseCodeHandler.HANDLE_404);
         proxyHandler = new HttpHandler() {
             @Override
             public void handleRequest(HttpServerExchange exchange) throws Exception {
@@ -368,11 +373,17 @@ public class ProxyServerBuilder {
 
     public static Undertow build(ProxyConfig config) {
         ProxyServerBuilder builder = new ProxyServerBuilder();
-        if (config.getTargetUrl() == null) {
+        if (config.getTargetUrl() == null && (config.getTargetUrls() == null || config.getTargetUrls().isEmpty())) {
             log.error("Must set Target URL");
             return null;
         }
-        builder.target(config.getTargetUrl());
+        if (isBalanced(config)) {
+            BalancingProxyClient client = initBalancing(config);
+            if (client == null) return null;
+            builder.target(client);
+        } else {
+            builder.target(config.getTargetUrl());
+        }
         if (config.getApplications() == null || config.getApplications().size() == 0) {
             log.error("No applications defined");
             return null;
@@ -409,6 +420,42 @@ public class ProxyServerBuilder {
         return builder.build();
     }
 
+    protected static boolean isBalanced(ProxyConfig config) {
+        return (config.getTargetUrls() != null && !config.getTargetUrls().isEmpty())
+                || config.getConnectionsPerThread() != null
+                || config.getHealthCheckPath() != null;
+    }
+
+    public static BalancingProxyClient initBalancing(ProxyConfig config) {
+        List<URI> uris = new LinkedList<URI>();
+        List<String> urls = config.getTargetUrls() != null && !config.getTargetUrls().isEmpty() ? config.getTargetUrls() : Collections.singletonList(config.getTargetUrl());
+        try {
+            for (String url : urls) uris.add(new URI(url));
+        } catch (URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+
+        BalancingProxyClient.Policy policy;
+        if (config.getLoadBalancing() == null || config.getLoadBalancing().equals("round-robin")) {
+            policy = BalancingProxyClient.Policy.ROUND_ROBIN;
+        } else if (config.getLoadBalancing().equals("least-connections")) {
+            policy = BalancingProxyClient.Policy.LEAST_CONNECTIONS;
+        } else {
+            log.error("Unknown load-balancing: " + config.getLoadBalancing());
+            return null;
+        }
+
+        int connectionsPerThread = config.getConnectionsPerThread() != null ? config.getConnectionsPerThread() : 10;
+        BalancingProxyClient client = new BalancingProxyClient(uris, connectionsPerThread, 30)
+                .policy(policy)
+                .stickySessions(config.isStickySessions());
+        if (config.getHealthCheckPath() != null) {
+            int interval = config.getHealthCheckInterval() != null ? config.getHealthCheckInterval() : 10;
+            client.healthCheck(config.getHealthCheckPath(), interval);
+        }
+        return client;
+    }
+
     public static void initOptions(ProxyConfig config, ProxyServerBuilder builder) {
         builder.sendAccessToken(config.isSendAccessToken());
         builder.headerNameConfig(config.getHeaderNames());
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.proxy;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.proxy.ProxyCallback;
+import io.undertow.server.handlers.proxy.ProxyClient;
+import io.undertow.server.handlers.proxy.ProxyConnection;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BalancingProxyClientTest {
+
+    private final TestBalancingProxyClient client = new TestBalancingProxyClient();
+    private HttpServer server;
+
+    @After
+    public void after() {
+        if (server != null) server.stop(0);
+    }
+
+    @Test
+    public void testRoundRobin() {
+        TestBackend b1 = addBackend("http://node1");
+        TestBackend b2 = addBackend("http://node2");
+        TestBackend b3 = addBackend("http://node3");
+
+        Map<URI, Integer> counts = route(6);
+        Assert.assertEquals(Integer.valueOf(2), counts.get(b1.uri));
+        Assert.assertEquals(Integer.valueOf(2), counts.get(b2.uri));
+        Assert.assertEquals(Integer.valueOf(2), counts.get(b3.uri));
+    }
+
+    @Test
+    public void testLeastConnections() {
+        addBackend("http://node1");
+        addBackend("http://node2");
+        addBackend("http://node3");
+        client.policy(BalancingProxyClient.Policy.LEAST_CONNECTIONS);
+
+        client.backends.get(0).activeRequests.set(5);
+        client.backends.get(1).activeRequests.set(1);
+        client.backends.get(2).activeRequests.set(3);
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(URI.create("http://node2"), route());
+        }
+    }
+
+    @Test
+    public void testEjectedBackendSkipped() {
+        addBackend("http://node1");
+        addBackend("http://node2");
+
+        client.backends.get(0).healthy = false;
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(URI.create("http://node2"), route());
+        }
+
+        // Trying some backend is better than failing for sure
+        client.backends.get(1).healthy = false;
+        Assert.assertEquals(2, route(4).size());
+    }
+
+    @Test
+    public void testFallbackWhenBackendHasNoTarget() {
+        TestBackend b1 = addBackend("http://node1");
+        TestBackend b2 = addBackend("http://node2");
+        TestBackend b3 = addBackend("http://node3");
+
+        // Connection to node1 was refused, so its client marked it as problem server
+        b1.available = false;
+        Map<URI, Integer> counts = route(6);
+        Assert.assertNull(counts.get(b1.uri));
+        Assert.assertEquals(6, counts.get(b2.uri) + counts.get(b3.uri));
+
+        b2.available = false;
+        b3.available = false;
+        Assert.assertNull(client.findTarget(new HttpServerExchange(null)));
+    }
+
+    @Test
+    public void testStickySessions() {
+        for (int i = 1; i <= 5; i++) {
+            addBackend("http://node" + i);
+        }
+        client.stickySessions(true);
+
+        client.session = "session1";
+        URI first = route();
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(first, route());
+        }
+
+        // Ejecting other backends doesn't move the session
+        for (BalancingProxyClient.Backend backend : client.backends) {
+            if (!backend.uri.equals(first)) {
+                backend.healthy = false;
+                Assert.assertEquals(first, route());
+                backend.healthy = true;
+            }
+        }
+
+        // Session moves to the same backend whether its backend is ejected or refuses connections
+        BalancingProxyClient.Backend selected = getBackend(first);
+        selected.healthy = false;
+        URI second = route();
+        Assert.assertNotEquals(first, second);
+        Assert.assertEquals(second, route());
+
+        selected.healthy = true;
+        ((TestBackend) selected.client).available = false;
+        Assert.assertEquals(second, route());
+
+        ((TestBackend) selected.client).available = true;
+        Assert.assertEquals(first, route());
+
+        // Sessions are spread among backends
+        Map<URI, Integer> counts = new HashMap<URI, Integer>();
+        for (int i = 0; i < 100; i++) {
+            client.session = "session-" + i;
+            increment(counts, route());
+        }
+        Assert.assertEquals(5, counts.size());
+    }
+
+    @Test
+    public void testHealthCheck() throws Exception {
+        final AtomicInteger status = new AtomicInteger(200);
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/health", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(status.get(), -1);
+                exchange.close();
+            }
+        });
+        server.start();
+
+        addBackend("http://localhost:" + server.getAddress().getPort() + "/");
+        addBackend("http://localhost:" + getClosedPort() + "/");
+        client.healthCheck("health", 60);
+
+        route();
+        Assert.assertEquals(2, client.checks.get());
+        Assert.assertTrue(client.backends.get(0).healthy);
+        Assert.assertFalse(client.backends.get(1).healthy);
+
+        // At most one check per interval
+        route(5);
+        Assert.assertEquals(2, client.checks.get());
+
+        status.set(503);
+        client.nextHealthCheck.set(0);
+        route();
+        Assert.assertFalse(client.backends.get(0).healthy);
+
+        status.set(200);
+        client.nextHealthCheck.set(0);
+        route();
+        Assert.assertTrue(client.backends.get(0).healthy);
+    }
+
+    private TestBackend addBackend(String uri) {
+        TestBackend backend = new TestBackend(URI.create(uri));
+        client.addBackend(backend.uri, backend);
+        return backend;
+    }
+
+    private BalancingProxyClient.Backend getBackend(URI uri) {
+        for (BalancingProxyClient.Backend backend : client.backends) {
+            if (backend.uri.equals(uri)) return backend;
+        }
+        throw new IllegalArgumentException(uri.toString());
+    }
+
+    private URI route() {
+        ProxyClient.ProxyTarget target = client.findTarget(new HttpServerExchange(null));
+        Assert.assertNotNull(target);
+        return ((BalancingProxyClient.BackendTarget) target).backend.uri;
+    }
+
+    private Map<URI, Integer> route(int requests) {
+        Map<URI, Integer> counts = new HashMap<URI, Integer>();
+        for (int i = 0; i < requests; i++) {
+            increment(counts, route());
+        }
+        return counts;
+    }
+
+    private static void increment(Map<URI, Integer> counts, URI uri) {
+        Integer count = counts.get(uri);
+        counts.put(uri, count == null ? 1 : count + 1);
+    }
+
+    private static int getClosedPort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static class TestBalancingProxyClient extends BalancingProxyClient {
+
+        private final AtomicInteger checks = new AtomicInteger();
+        private String session;
+
+        @Override
+        protected String getSessionKey(HttpServerExchange exchange) {
+            return session;
+        }
+
+        @Override
+        protected Executor getHealthCheckExecutor(HttpServerExchange exchange) {
+            return new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    command.run();
+                }
+            };
+        }
+
+        @Override
+        protected void check(Backend backend, String path) {
+            checks.incrementAndGet();
+            super.check(backend, path);
+        }
+
+    }
+
+    private static class TestBackend implements ProxyClient {
+
+        private final URI uri;
+        private volatile boolean available = true;
+
+        private TestBackend(URI uri) {
+            this.uri = uri;
+        }
+
+        @Override
+        public ProxyTarget findTarget(HttpServerExchange exchange) {
+            return available ? new ProxyTarget() {} : null;
+        }
+
+        @Override
+        public void getConnection(ProxyTarget target, HttpServerExchange exchange, ProxyCallback<ProxyConnection> callback, long timeout, TimeUnit timeUnit) {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+}
@@ -18,6 +18,7 @@
 package org.keycloak.cluster;
 
 
+import java.io.Serializable;
 import java.util.concurrent.Callable;
 
 import org.keycloak.provider.Provider;
@@ -47,6 +48,34 @@ public interface ClusterProvider extends Provider {
     <T> ExecutionResult<T> executeIfNotExecuted(String taskKey, int taskTimeoutInSeconds, Callable<T> task);
 
 
+    /**
+     * Get progress of the long running task saved by {@link #setTaskState(String, Serializable)} on this or any other cluster node.
+     *
+     * @param taskKey
+     * @param <T>
+     * @return saved state or null if there is no saved state
+     */
+    <T extends Serializable> T getTaskState(String taskKey);
+
+
+    /**
+     * Save progress of the long running task, so the task can be resumed on another cluster node if this node fails.
+     * Saved state class must be visible to all cluster nodes.
+     *
+     * @param taskKey
+     * @param state
+     */
+    void setTaskState(String taskKey, Serializable state);
+
+
+    /**
+     * Remove saved progress of the task. Should be called once the task is finished.
+     *
+     * @param taskKey
+     */
+    void removeTaskState(String taskKey);
+
+
     /**
      * Register task (listener) under given key. When this key will be put to the cache on any cluster node, the task will be executed
      *
@@ -39,6 +39,18 @@ public interface HttpClientProvider extends Provider {
      */
     public int postText(String uri, String text) throws IOException;
 
+    /**
+     * Same as {@link #postText(String, String)}, but fails when the connection isn't established or the response isn't
+     * received within the timeout
+     *
+     * @param uri
+     * @param text
+     * @param timeoutMillis
+     * @return http response status
+     * @throws IOException
+     */
+    public int postText(String uri, String text, int timeoutMillis) throws IOException;
+
     /**
      * Helper method
      *
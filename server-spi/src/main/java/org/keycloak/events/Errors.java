@@ -53,6 +53,7 @@ public interface Errors {
     String INVALID_REGISTRATION = "invalid_registration";
     String INVALID_FORM = "invalid_form";
     String EXPIRED_CODE = "expired_code";
+    String SERVICE_UNAVAILABLE = "service_unavailable";
 
     String REGISTRATION_DISABLED = "registration_disabled";
     String RESET_CREDENTIAL_DISABLED = "reset_credential_disabled";
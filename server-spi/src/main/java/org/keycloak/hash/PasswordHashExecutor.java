@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.hash;
+
+import org.jboss.logging.Logger;
+import org.keycloak.metrics.MetricsProvider;
+import org.keycloak.models.ModelException;
+import org.keycloak.models.ModelUnavailableException;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits how many password hashes are computed at once. Credential validation is synchronous, so the request thread
+ * computes the hash itself rather than handing it off to another thread and waiting for it. At most
+ * {@code maxConcurrentHashes} hashes run at once, at most {@code maxQueueSize} requests wait for their turn and none of
+ * them waits longer than {@code maxWaitMillis}. Other hashes are rejected with {@link ModelUnavailableException} instead
+ * of piling up more waiting requests.
+ */
+public class PasswordHashExecutor {
+
+    private static final Logger log = Logger.getLogger(PasswordHashExecutor.class);
+
+    private final Semaphore permits;
+    private final int maxQueueSize;
+    private final long maxWaitMillis;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    public PasswordHashExecutor(int maxConcurrentHashes, int maxQueueSize, long maxWaitMillis) {
+        this.permits = new Semaphore(maxConcurrentHashes);
+        this.maxQueueSize = maxQueueSize;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * @param metrics records time spent waiting for a turn as "passwordhash.wait" and counts of completed, failed and
+     *                rejected hashes. May be null
+     */
+    public <T> T execute(Callable<T> task, MetricsProvider metrics) {
+        long submitted = System.nanoTime();
+        if (!acquire()) {
+            if (metrics != null) metrics.increment("passwordhash.rejected");
+            log.debugf("Password hashing rejected. Waiting requests: %d", waiting.get());
+            throw new ModelUnavailableException("Password hashing capacity exceeded");
+        }
+
+        boolean completed = false;
+        try {
+            if (metrics != null) metrics.record("passwordhash.wait", System.nanoTime() - submitted);
+            T result = task.call();
+            completed = true;
+            return result;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ModelException("Failed to compute password hash", e);
+        } finally {
+            permits.release();
+            if (metrics != null) metrics.increment(completed ? "passwordhash.completed" : "passwordhash.failed");
+        }
+    }
+
+    int getWaiting() {
+        return waiting.get();
+    }
+
+    private boolean acquire() {
+        if (permits.tryAcquire()) {
+            return true;
+        }
+
+        if (waiting.incrementAndGet() > maxQueueSize) {
+            waiting.decrementAndGet();
+            return false;
+        }
+        try {
+            return permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ModelException("Interrupted while waiting for password hashing", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+}
@@ -19,6 +19,7 @@ package org.keycloak.hash;
 
 import org.keycloak.Config;
 import org.keycloak.common.util.Base64;
+import org.keycloak.metrics.MetricsProvider;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.UserCredentialModel;
@@ -30,6 +31,9 @@ import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * @author <a href="mailto:me@tsudot.com">Kunal Kerkar</a>
@@ -41,6 +45,26 @@ public class Pbkdf2PasswordHashProvider implements PasswordHashProviderFactory,
     private static final String PBKDF2_ALGORITHM = "PBKDF2WithHmacSHA1";
     private static final int DERIVED_KEY_SIZE = 512;
 
+    // SecretKeyFactory isn't thread-safe. Released factories are reused, so there are never more of them than hashes
+    // computed at once, and no request thread keeps one after the hash is computed
+    private static final Queue<SecretKeyFactory> SECRET_KEY_FACTORIES = new ConcurrentLinkedQueue<SecretKeyFactory>();
+
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+    // Null if the count of hashes computed at once isn't limited
+    private PasswordHashExecutor executor;
+
+    // Set just on instances created for a session
+    private MetricsProvider metrics;
+
+    public Pbkdf2PasswordHashProvider() {
+    }
+
+    private Pbkdf2PasswordHashProvider(PasswordHashExecutor executor, MetricsProvider metrics) {
+        this.executor = executor;
+        this.metrics = metrics;
+    }
+
     public UserCredentialValueModel encode(String rawPassword, int iterations) {
         byte[] salt = getSalt();
         String encodedPassword = encode(rawPassword, iterations, salt);
@@ -60,11 +84,21 @@ public class Pbkdf2PasswordHashProvider implements PasswordHashProviderFactory,
 
     @Override
     public PasswordHashProvider create(KeycloakSession session) {
-        return this;
+        return new Pbkdf2PasswordHashProvider(executor, session.getProvider(MetricsProvider.class));
     }
 
     @Override
     public void init(Config.Scope config) {
+        // Count of hashes computed at once. Use 0 for no limit
+        int maxConcurrentHashes = config.getInt("maxConcurrentHashes", Runtime.getRuntime().availableProcessors());
+
+        // Count of requests waiting for their turn and how long they wait. Further requests fail with 503
+        int maxQueueSize = config.getInt("maxQueueSize", 1000);
+        long maxWaitMillis = config.getLong("maxWaitMillis", 10000L);
+
+        if (maxConcurrentHashes > 0) {
+            executor = new PasswordHashExecutor(maxConcurrentHashes, maxQueueSize, maxWaitMillis);
+        }
     }
 
     @Override
@@ -79,30 +113,46 @@ public class Pbkdf2PasswordHashProvider implements PasswordHashProviderFactory,
         return ID;
     }
 
-    private String encode(String rawPassword, int iterations, byte[] salt) {
+    private String encode(final String rawPassword, final int iterations, final byte[] salt) {
+        if (executor == null) {
+            return computeHash(rawPassword, iterations, salt);
+        }
+
+        return executor.execute(new Callable<String>() {
+
+            @Override
+            public String call() {
+                return computeHash(rawPassword, iterations, salt);
+            }
+
+        }, metrics);
+    }
+
+    private String computeHash(String rawPassword, int iterations, byte[] salt) {
         KeySpec spec = new PBEKeySpec(rawPassword.toCharArray(), salt, iterations, DERIVED_KEY_SIZE);
 
+        SecretKeyFactory factory = SECRET_KEY_FACTORIES.poll();
         try {
-            byte[] key = getSecretKeyFactory().generateSecret(spec).getEncoded();
+            if (factory == null) {
+                factory = SecretKeyFactory.getInstance(PBKDF2_ALGORITHM);
+            }
+            byte[] key = factory.generateSecret(spec).getEncoded();
             return Base64.encodeBytes(key);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("PBKDF2 algorithm not found", e);
         } catch (InvalidKeySpecException e) {
             throw new RuntimeException("Credential could not be encoded", e);
+        } finally {
+            if (factory != null) {
+                SECRET_KEY_FACTORIES.offer(factory);
+            }
         }
     }
 
     private byte[] getSalt() {
         byte[] buffer = new byte[16];
-        SecureRandom secureRandom = new SecureRandom();
-        secureRandom.nextBytes(buffer);
+        SECURE_RANDOM.nextBytes(buffer);
         return buffer;
     }
 
-    private SecretKeyFactory getSecretKeyFactory() {
-        try {
-            return SecretKeyFactory.getInstance(PBKDF2_ALGORITHM);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("PBKDF2 algorithm not found", e);
-        }
-    }
-
 }
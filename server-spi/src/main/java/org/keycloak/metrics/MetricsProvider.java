@@ -0,0 +1,43 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.metrics;
+
+import org.keycloak.provider.Provider;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Counters and latency histograms of server operations. Methods are called on hot paths of every request, so implementations
+ * must be thread-safe and cheap. Components, which live longer than a session, may keep the provider instance.
+ */
+public interface MetricsProvider extends Provider {
+
+    // Increments counter of given name by one
+    void increment(String name);
+
+    // Records duration of single operation to the histogram of given name
+    void record(String name, long durationNanos);
+
+    // Sets current value of the gauge of given name, like size of a queue
+    void gauge(String name, long value);
+
+    // Writes all metrics in Prometheus text format
+    void export(Writer writer) throws IOException;
+
+}
@@ -56,6 +56,19 @@ public class LDAPConstants {
 
     public static final String SEARCH_SCOPE = "searchScope";
     public static final String CONNECTION_POOLING = "connectionPooling";
+
+    // Connection pool settings, used when connection pooling is enabled. Timeouts are in milliseconds
+    public static final String CONNECTION_POOL_MIN_SIZE = "connectionPoolMinSize";
+    public static final int DEFAULT_CONNECTION_POOL_MIN_SIZE = 1;
+    public static final String CONNECTION_POOL_MAX_SIZE = "connectionPoolMaxSize";
+    public static final int DEFAULT_CONNECTION_POOL_MAX_SIZE = 20;
+    public static final String CONNECTION_POOL_IDLE_TIMEOUT = "connectionPoolIdleTimeout";
+    public static final int DEFAULT_CONNECTION_POOL_IDLE_TIMEOUT = 300000;
+    public static final String CONNECTION_POOL_BORROW_TIMEOUT = "connectionPoolBorrowTimeout";
+    public static final int DEFAULT_CONNECTION_POOL_BORROW_TIMEOUT = 5000;
+    public static final String CONNECTION_POOL_VALIDATION_INTERVAL = "connectionPoolValidationInterval";
+    public static final int DEFAULT_CONNECTION_POOL_VALIDATION_INTERVAL = 30000;
+
     public static final String PAGINATION = "pagination";
 
     public static final String EDIT_MODE = "editMode";
@@ -64,6 +77,19 @@ public class LDAPConstants {
     public static final String BATCH_SIZE_FOR_SYNC = "batchSizeForSync";
     public static final int DEFAULT_BATCH_SIZE_FOR_SYNC = 1000;
 
+    // Count of threads importing pages of users in parallel during sync process
+    public static final String SYNC_WORKERS = "syncWorkers";
+    public static final int DEFAULT_SYNC_WORKERS = 1;
+
+    // Count of users imported within single DB transaction during sync process
+    public static final String SYNC_TRANSACTION_SIZE = "syncTransactionSize";
+    public static final int DEFAULT_SYNC_TRANSACTION_SIZE = 100;
+
+    // Time in milliseconds for which user successfully validated against LDAP isn't validated again. It's the max time for which
+    // cluster node may not notice changes done in LDAP directly or through other nodes. 0 means no caching
+    public static final String VALIDATION_CACHE_TTL = "validationCacheTTL";
+    public static final int DEFAULT_VALIDATION_CACHE_TTL = 0;
+
     // Config option to specify if registrations will be synced or not
     public static final String SYNC_REGISTRATIONS = "syncRegistrations";
 
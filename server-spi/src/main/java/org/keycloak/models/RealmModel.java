@@ -153,6 +153,11 @@ public interface RealmModel extends RoleContainerModel {
 
     void setPublicKey(PublicKey publicKey);
 
+    /**
+     * @return id of the realm public key, which is used as "kid" in headers of tokens signed by the realm
+     */
+    String getKeyId();
+
     String getCodeSecret();
 
     Key getCodeSecretKey();
@@ -18,6 +18,7 @@
 package org.keycloak.models;
 
 import org.jboss.logging.Logger;
+import org.keycloak.metrics.MetricsProvider;
 import org.keycloak.models.utils.KeycloakModelUtils;
 import org.keycloak.services.managers.UserManager;
 
@@ -30,6 +31,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * @author <a href="mailto:bill@burkecentral.com">Bill Burke</a>
@@ -39,6 +41,8 @@ public class UserFederationManager implements UserProvider {
 
     private static final Logger logger = Logger.getLogger(UserFederationManager.class);
 
+    private static final int FEDERATION_MEMBERS_PAGE_SIZE = 100;
+
     protected KeycloakSession session;
 
     // Set of already validated/proxied federation users during this session. Key is user ID
@@ -159,6 +163,66 @@ public class UserFederationManager implements UserProvider {
         return user;
     }
 
+    /**
+     * Validates users in bulk, so every federation provider is asked just once for all the users linked with it.
+     *
+     * @return validated users in the same order as passed. Users which are no longer valid are omitted
+     */
+    protected List<UserModel> validateAndProxyUsers(RealmModel realm, List<UserModel> users) {
+        UserModel[] validated = new UserModel[users.size()];
+        Map<String, List<Integer>> indexesByLink = new HashMap<>();
+
+        for (int i = 0; i < users.size(); i++) {
+            UserModel user = users.get(i);
+            UserModel managed = managedUsers.get(user.getId());
+            if (managed != null) {
+                validated[i] = managed;
+            } else if (user.getFederationLink() == null) {
+                validated[i] = user;
+            } else {
+                List<Integer> indexes = indexesByLink.get(user.getFederationLink());
+                if (indexes == null) {
+                    indexes = new ArrayList<>();
+                    indexesByLink.put(user.getFederationLink(), indexes);
+                }
+                indexes.add(i);
+            }
+        }
+
+        for (List<Integer> indexes : indexesByLink.values()) {
+            UserFederationProvider link = getFederationLink(realm, users.get(indexes.get(0)));
+            if (link == null) {
+                for (Integer index : indexes) {
+                    validated[index] = users.get(index);
+                }
+                continue;
+            }
+
+            List<UserModel> locals = new ArrayList<>(indexes.size());
+            for (Integer index : indexes) {
+                locals.add(users.get(index));
+            }
+
+            List<UserModel> proxies = link.validateAndProxy(realm, locals);
+            for (int i = 0; i < indexes.size(); i++) {
+                UserModel local = locals.get(i);
+                UserModel proxy = proxies.get(i);
+                if (proxy != null) {
+                    managedUsers.put(local.getId(), proxy);
+                    validated[indexes.get(i)] = proxy;
+                } else {
+                    deleteInvalidUser(realm, local);
+                }
+            }
+        }
+
+        List<UserModel> result = new ArrayList<>(users.size());
+        for (UserModel user : validated) {
+            if (user != null) result.add(user);
+        }
+        return result;
+    }
+
     @Override
     public void addFederatedIdentity(RealmModel realm, UserModel user, FederatedIdentityModel socialLink) {
         validateUser(realm, user);
@@ -187,16 +251,22 @@ public class UserFederationManager implements UserProvider {
 
     @Override
     public List<UserModel> getGroupMembers(RealmModel realm, final GroupModel group, int firstResult, int maxResults) {
-        // Not very effective. For the page X, it is loading also all previous pages 0..X-1 . Improve if needed...
-        int maxTotal = firstResult + maxResults;
-        List<UserModel> localMembers = query(new PaginatedQuery() {
+        PaginatedQuery localQuery = new PaginatedQuery() {
 
             @Override
             public List<UserModel> query(RealmModel realm, int first, int max) {
                 return session.userStorage().getGroupMembers(realm, group, first, max);
             }
 
-        }, realm, 0, maxTotal);
+        };
+
+        if (realm.getUserFederationProviders().isEmpty()) {
+            return query(localQuery, realm, firstResult, maxResults);
+        }
+
+        // Not very effective. For the page X, it is loading also all previous pages 0..X-1 . Use getGroupMembersAfter for paging deep into big groups
+        int maxTotal = firstResult + maxResults;
+        List<UserModel> localMembers = query(localQuery, realm, 0, maxTotal);
 
         Set<UserModel> result = new LinkedHashSet<>(localMembers);
 
@@ -222,6 +292,59 @@ public class UserFederationManager implements UserProvider {
         return new ArrayList<>(result).subList(firstResult, max);
     }
 
+    // Members from local storage and from federation providers merged by username. Local storage is paged by username, so the cost of the page
+    // doesn't depend on how deep it is. Federation providers support just offset paging, so their members are scanned and those following lastUsername are kept.
+    // Local storage keeps usernames lower-cased, so all usernames are merged and compared lower-cased to match the ordering of the local query
+    @Override
+    public List<UserModel> getGroupMembersAfter(RealmModel realm, final GroupModel group, String lastUsername, int maxResults) {
+        final String after = lastUsername != null ? lastUsername.toLowerCase() : null;
+        List<UserModel> localMembers = queryAfter(new KeysetQuery() {
+
+            @Override
+            public List<UserModel> query(RealmModel realm, String after, int max) {
+                return session.userStorage().getGroupMembersAfter(realm, group, after, max);
+            }
+
+        }, realm, after, maxResults);
+
+        if (realm.getUserFederationProviders().isEmpty()) {
+            return localMembers;
+        }
+
+        TreeMap<String, UserModel> result = new TreeMap<>();
+        for (UserModel user : localMembers) {
+            String username = user.getUsername().toLowerCase();
+            // Database collation may consider some usernames equal to lastUsername, which were returned on the previous page already
+            if (after == null || username.compareTo(after) > 0) {
+                result.put(username, user);
+            }
+        }
+
+        for (UserFederationProviderModel federation : realm.getUserFederationProviders()) {
+            UserFederationProvider fed = getFederationProvider(federation);
+            int first = 0;
+            do {
+                List<UserModel> current = fed.getGroupMembers(realm, group, first, FEDERATION_MEMBERS_PAGE_SIZE);
+                if (current == null || current.isEmpty()) break;
+
+                for (UserModel user : current) {
+                    String username = user.getUsername().toLowerCase();
+                    if ((after == null || username.compareTo(after) > 0) && !result.containsKey(username)) {
+                        result.put(username, user);
+                        if (maxResults != -1 && result.size() > maxResults) {
+                            result.pollLastEntry();
+                        }
+                    }
+                }
+
+                if (current.size() < FEDERATION_MEMBERS_PAGE_SIZE) break;
+                first += current.size();
+            } while (true);
+        }
+
+        return new ArrayList<>(result.values());
+    }
+
     @Override
     public List<UserModel> getGroupMembers(RealmModel realm, GroupModel group) {
         return getGroupMembers(realm, group, -1, -1);
@@ -298,13 +421,9 @@ public class UserFederationManager implements UserProvider {
         do {
             List<UserModel> query = pagedQuery.query(realm, first, max);
             if (query == null || query.size() == 0) return results;
-            int added = 0;
-            for (UserModel user : query) {
-                user = validateAndProxyUser(realm, user);
-                if (user == null) continue;
-                results.add(user);
-                added++;
-            }
+            List<UserModel> validated = validateAndProxyUsers(realm, query);
+            int added = validated.size();
+            results.addAll(validated);
             if (results.size() == maxResults) return results;
             if (query.size() < max) return results;
             first = query.size();
@@ -313,6 +432,26 @@ public class UserFederationManager implements UserProvider {
         } while (true);
     }
 
+    interface KeysetQuery {
+        List<UserModel> query(RealmModel realm, String after, int max);
+    }
+
+    protected List<UserModel> queryAfter(KeysetQuery keysetQuery, RealmModel realm, String lastUsername, int maxResults) {
+        List<UserModel> results = new LinkedList<UserModel>();
+        if (maxResults == 0) return results;
+        String after = lastUsername;
+        do {
+            int max = maxResults == -1 ? -1 : maxResults - results.size();
+            List<UserModel> query = keysetQuery.query(realm, after, max);
+            if (query == null || query.size() == 0) return results;
+            results.addAll(validateAndProxyUsers(realm, query));
+            if (max == -1 || query.size() < max || results.size() >= maxResults) return results;
+
+            // Some users were removed during validation. Continue after the last one we've seen
+            after = query.get(query.size() - 1).getUsername();
+        } while (true);
+    }
+
     @Override
     public List<UserModel> getUsers(RealmModel realm, int firstResult, int maxResults, final boolean includeServiceAccounts) {
         return query(new PaginatedQuery() {
@@ -323,6 +462,16 @@ public class UserFederationManager implements UserProvider {
         }, realm, firstResult, maxResults);
     }
 
+    @Override
+    public List<UserModel> getUsersAfter(RealmModel realm, String lastUsername, int maxResults, final boolean includeServiceAccounts) {
+        return queryAfter(new KeysetQuery() {
+            @Override
+            public List<UserModel> query(RealmModel realm, String after, int max) {
+                return session.userStorage().getUsersAfter(realm, after, max, includeServiceAccounts);
+            }
+        }, realm, lastUsername, maxResults);
+    }
+
     @Override
     public List<UserModel> searchForUser(String search, RealmModel realm) {
         return searchForUser(search, realm, 0, Integer.MAX_VALUE - 1);
@@ -337,6 +486,27 @@ public class UserFederationManager implements UserProvider {
 
     @Override
     public List<UserModel> searchForUser(final String search, RealmModel realm, int firstResult, int maxResults) {
+        federationLoad(realm, getSearchAttributes(search));
+        return query(new PaginatedQuery() {
+            @Override
+            public List<UserModel> query(RealmModel realm, int first, int max) {
+                return session.userStorage().searchForUser(search, realm, first, max);
+            }
+        }, realm, firstResult, maxResults);
+    }
+
+    @Override
+    public List<UserModel> searchForUserAfter(final String search, RealmModel realm, String lastUsername, int maxResults) {
+        federationLoad(realm, getSearchAttributes(search));
+        return queryAfter(new KeysetQuery() {
+            @Override
+            public List<UserModel> query(RealmModel realm, String after, int max) {
+                return session.userStorage().searchForUserAfter(search, realm, after, max);
+            }
+        }, realm, lastUsername, maxResults);
+    }
+
+    protected Map<String, String> getSearchAttributes(String search) {
         Map<String, String> attributes = new HashMap<String, String>();
         int spaceIndex = search.lastIndexOf(' ');
         if (spaceIndex > -1) {
@@ -351,13 +521,7 @@ public class UserFederationManager implements UserProvider {
             attributes.put(UserModel.LAST_NAME, search.trim());
             attributes.put(UserModel.USERNAME, search.trim().toLowerCase());
         }
-        federationLoad(realm, attributes);
-        return query(new PaginatedQuery() {
-            @Override
-            public List<UserModel> query(RealmModel realm, int first, int max) {
-                return session.userStorage().searchForUser(search, realm, first, max);
-            }
-        }, realm, firstResult, maxResults);
+        return attributes;
     }
 
     @Override
@@ -456,6 +620,20 @@ public class UserFederationManager implements UserProvider {
 
     @Override
     public boolean validCredentials(KeycloakSession session, RealmModel realm, UserModel user, List<UserCredentialModel> input) {
+        MetricsProvider metrics = session.getProvider(MetricsProvider.class);
+        if (metrics == null) {
+            return validCredentialsOfUser(session, realm, user, input);
+        }
+
+        long start = System.nanoTime();
+        try {
+            return validCredentialsOfUser(session, realm, user, input);
+        } finally {
+            metrics.record("credentials.validation", System.nanoTime() - start);
+        }
+    }
+
+    protected boolean validCredentialsOfUser(KeycloakSession session, RealmModel realm, UserModel user, List<UserCredentialModel> input) {
         UserFederationProvider link = getFederationLink(realm, user);
         if (link != null) {
             validateUser(realm, user);
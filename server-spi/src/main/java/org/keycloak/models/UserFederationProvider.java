@@ -72,6 +72,17 @@ public interface UserFederationProvider extends Provider {
      */
     UserModel validateAndProxy(RealmModel realm, UserModel local);
 
+    /**
+     * Bulk variant of {@link #validateAndProxy(RealmModel, UserModel)}. Called when multiple users linked with this provider are pulled from
+     * Keycloak local storage at once (for example by search or paginated listing), so the provider has a chance to validate
+     * them with a single roundtrip to the federation backend.
+     *
+     * @param realm
+     * @param locals
+     * @return list of same size and order as locals. Contains proxy object for each valid user or null on the position of user, which is no longer valid
+     */
+    List<UserModel> validateAndProxy(RealmModel realm, List<UserModel> locals);
+
     /**
      * Should user registrations be synchronized with this provider?
      * FYI, only one provider will be chosen (by priority) to have this synchronization
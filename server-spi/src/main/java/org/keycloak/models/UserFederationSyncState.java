@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.models;
+
+import java.io.Serializable;
+
+/**
+ * Progress of the sync of users from federation provider, which is saved after each imported page of users. Allows
+ * to resume interrupted sync on another cluster node.
+ */
+public class UserFederationSyncState implements Serializable {
+
+    private final String syncType;
+    private final long lastSync;
+    private final long startTime;
+    private long lastUpdate;
+
+    private int pagesDone;
+    private String checkpoint;
+    private int added;
+    private int updated;
+    private int removed;
+    private int failed;
+
+    /**
+     * @param syncType type of the sync like "full" or "changed"
+     * @param lastSync time of the previous sync for sync of changed users, otherwise 0
+     */
+    public UserFederationSyncState(String syncType, long lastSync) {
+        this.syncType = syncType;
+        this.lastSync = lastSync;
+        this.startTime = System.currentTimeMillis();
+        this.lastUpdate = startTime;
+    }
+
+    /**
+     * @param maxAge max time in milliseconds since last progress of the interrupted sync. Older progress is not reliable
+     *               as the order of users in federation provider might have changed in the meantime
+     * @return true if this state belongs to the interrupted sync of the same type, which can be resumed
+     */
+    public boolean canResume(String syncType, long lastSync, long maxAge) {
+        return this.syncType.equals(syncType) && this.lastSync == lastSync && System.currentTimeMillis() - lastUpdate < maxAge;
+    }
+
+    public String getSyncType() {
+        return syncType;
+    }
+
+    public long getLastSync() {
+        return lastSync;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getLastUpdate() {
+        return lastUpdate;
+    }
+
+    public int getPagesDone() {
+        return pagesDone;
+    }
+
+    /**
+     * @return id of the last user of the last imported page or null if no page was imported yet. Interrupted sync
+     * continues after this user
+     */
+    public String getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * @param checkpoint id of the last user of the imported page. It's null if the page was empty
+     */
+    public void pageDone(UserFederationSyncResult pageResult, String checkpoint) {
+        pagesDone++;
+        if (checkpoint != null) {
+            this.checkpoint = checkpoint;
+        }
+        added += pageResult.getAdded();
+        updated += pageResult.getUpdated();
+        removed += pageResult.getRemoved();
+        failed += pageResult.getFailed();
+        lastUpdate = System.currentTimeMillis();
+    }
+
+    public UserFederationSyncResult toSyncResult() {
+        UserFederationSyncResult result = new UserFederationSyncResult();
+        result.setAdded(added);
+        result.setUpdated(updated);
+        result.setRemoved(removed);
+        result.setFailed(failed);
+        return result;
+    }
+
+    public int getProcessedCount() {
+        return added + updated + removed + failed;
+    }
+}
@@ -44,6 +44,9 @@ public interface UserProvider extends Provider {
 
     List<UserModel> getGroupMembers(RealmModel realm, GroupModel group, int firstResult, int maxResults);
 
+    // Keyset pagination. Returns group members ordered by username, which follow lastUsername (or first members if lastUsername is null)
+    List<UserModel> getGroupMembersAfter(RealmModel realm, GroupModel group, String lastUsername, int maxResults);
+
     UserModel getUserByFederatedIdentity(FederatedIdentityModel socialLink, RealmModel realm);
     UserModel getUserByServiceAccountClient(ClientModel client);
     List<UserModel> getUsers(RealmModel realm, boolean includeServiceAccounts);
@@ -52,8 +55,14 @@ public interface UserProvider extends Provider {
     int getUsersCount(RealmModel realm);
     List<UserModel> getGroupMembers(RealmModel realm, GroupModel group);
     List<UserModel> getUsers(RealmModel realm, int firstResult, int maxResults, boolean includeServiceAccounts);
+
+    // Keyset pagination. Returns users ordered by username, which follow lastUsername (or first users if lastUsername is null)
+    List<UserModel> getUsersAfter(RealmModel realm, String lastUsername, int maxResults, boolean includeServiceAccounts);
     List<UserModel> searchForUser(String search, RealmModel realm);
     List<UserModel> searchForUser(String search, RealmModel realm, int firstResult, int maxResults);
+
+    // Keyset pagination. Returns users ordered by username, which follow lastUsername (or first users if lastUsername is null)
+    List<UserModel> searchForUserAfter(String search, RealmModel realm, String lastUsername, int maxResults);
     List<UserModel> searchForUserByAttributes(Map<String, String> attributes, RealmModel realm);
     List<UserModel> searchForUserByAttributes(Map<String, String> attributes, RealmModel realm, int firstResult, int maxResults);
 
@@ -119,6 +119,16 @@ public class DisabledUserSessionPersisterProvider implements UserSessionPersiste
         return Collections.emptyList();
     }
 
+    @Override
+    public UserSessionModel loadUserSessionById(String userSessionId, boolean offline) {
+        return null;
+    }
+
+    @Override
+    public UserSessionModel loadUserSessionByClientSessionId(String clientSessionId, boolean offline) {
+        return null;
+    }
+
     @Override
     public int getUserSessionsCount(boolean offline) {
         return 0;
@@ -58,6 +58,12 @@ public interface UserSessionPersisterProvider extends Provider {
     // Called during startup. For each userSession, it loads also clientSessions
     List<UserSessionModel> loadUserSessions(int firstResult, int maxResults, boolean offline);
 
+    // Load single userSession with its clientSessions. Used when the userSession is needed before loading at startup is finished
+    UserSessionModel loadUserSessionById(String userSessionId, boolean offline);
+
+    // Load userSession, which the clientSession is attached to, with all its clientSessions
+    UserSessionModel loadUserSessionByClientSessionId(String clientSessionId, boolean offline);
+
     int getUserSessionsCount(boolean offline);
 
 }
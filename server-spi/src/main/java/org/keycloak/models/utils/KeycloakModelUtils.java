@@ -40,6 +40,7 @@ import org.keycloak.models.UserModel;
 import org.keycloak.representations.idm.CertificateRepresentation;
 import org.keycloak.common.util.CertificateUtils;
 import org.keycloak.common.util.PemUtils;
+import org.keycloak.jose.jwk.JWKBuilder;
 
 import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
@@ -96,6 +97,13 @@ public final class KeycloakModelUtils {
         }
     }
 
+    /**
+     * @return id of the key used as "kid" of tokens signed by the realm, or null if there is no key
+     */
+    public static String getKeyId(PublicKey publicKey) {
+        return publicKey != null ? JWKBuilder.createKeyId(publicKey) : null;
+    }
+
     public static X509Certificate getCertificate(String cert) {
         if (cert != null) {
             try {
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.hash;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.metrics.MetricsProvider;
+import org.keycloak.models.ModelException;
+import org.keycloak.models.ModelUnavailableException;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PasswordHashExecutorTest {
+
+    private final CountingMetrics metrics = new CountingMetrics();
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void after() {
+        release.countDown();
+        callers.shutdownNow();
+    }
+
+    @Test
+    public void testRunsOnCallingThread() {
+        PasswordHashExecutor executor = new PasswordHashExecutor(2, 10, 1000);
+
+        String thread = executor.execute(new Callable<String>() {
+            @Override
+            public String call() {
+                return Thread.currentThread().getName();
+            }
+        }, metrics);
+
+        Assert.assertEquals(Thread.currentThread().getName(), thread);
+        Assert.assertEquals(1, metrics.get("passwordhash.completed"));
+    }
+
+    @Test
+    public void testConcurrencyLimited() throws Exception {
+        final PasswordHashExecutor executor = new PasswordHashExecutor(2, 10, 10000);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(callers.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return executor.execute(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() throws Exception {
+                            int current = running.incrementAndGet();
+                            synchronized (maxRunning) {
+                                maxRunning.set(Math.max(maxRunning.get(), current));
+                            }
+                            Thread.sleep(50);
+                            running.decrementAndGet();
+                            return true;
+                        }
+                    }, metrics);
+                }
+            }));
+        }
+
+        for (Future<Boolean> result : results) {
+            Assert.assertTrue(result.get(10, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(2, maxRunning.get());
+        Assert.assertEquals(8, metrics.get("passwordhash.completed"));
+    }
+
+    @Test
+    public void testRejectedWhenQueueFull() throws Exception {
+        PasswordHashExecutor executor = new PasswordHashExecutor(1, 1, 10000);
+        CountDownLatch started = new CountDownLatch(1);
+
+        // One hash is running, one waits for its turn, the queue is full
+        Future<Boolean> running = submitBlocking(executor, started);
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+        Future<Boolean> waiting = submitBlocking(executor, new CountDownLatch(1));
+        waitForWaiting(executor, 1);
+
+        try {
+            executor.execute(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return true;
+                }
+            }, metrics);
+            Assert.fail("Expected hash to be rejected");
+        } catch (ModelUnavailableException expected) {
+        }
+        Assert.assertEquals(1, metrics.get("passwordhash.rejected"));
+
+        release.countDown();
+        Assert.assertTrue(running.get(10, TimeUnit.SECONDS));
+        Assert.assertTrue(waiting.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(2, metrics.get("passwordhash.completed"));
+    }
+
+    @Test
+    public void testRejectedAfterMaxWait() throws Exception {
+        PasswordHashExecutor executor = new PasswordHashExecutor(1, 10, 100);
+        CountDownLatch started = new CountDownLatch(1);
+        submitBlocking(executor, started);
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        long start = System.currentTimeMillis();
+        try {
+            executor.execute(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return true;
+                }
+            }, metrics);
+            Assert.fail("Expected hash to be rejected");
+        } catch (ModelUnavailableException expected) {
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start >= 100);
+        Assert.assertEquals(1, metrics.get("passwordhash.rejected"));
+    }
+
+    @Test
+    public void testFailedHashReleasesPermit() {
+        PasswordHashExecutor executor = new PasswordHashExecutor(1, 0, 0);
+
+        try {
+            executor.execute(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    throw new IOException("failed");
+                }
+            }, metrics);
+            Assert.fail("Expected hash to fail");
+        } catch (ModelException expected) {
+            Assert.assertTrue(expected.getCause() instanceof IOException);
+        }
+        Assert.assertEquals(1, metrics.get("passwordhash.failed"));
+
+        // No queue, so this would be rejected if the permit wasn't released
+        Assert.assertTrue(executor.execute(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return true;
+            }
+        }, null));
+    }
+
+    private Future<Boolean> submitBlocking(final PasswordHashExecutor executor, final CountDownLatch started) {
+        return callers.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return executor.execute(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        started.countDown();
+                        return release.await(10, TimeUnit.SECONDS);
+                    }
+                }, metrics);
+            }
+        });
+    }
+
+    private void waitForWaiting(PasswordHashExecutor executor, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (executor.getWaiting() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(count, executor.getWaiting());
+    }
+
+    private static class CountingMetrics implements MetricsProvider {
+
+        private final Map<String, AtomicInteger> counters = new ConcurrentHashMap<>();
+
+        @Override
+        public void increment(String name) {
+            AtomicInteger counter = counters.get(name);
+            if (counter == null) {
+                counters.putIfAbsent(name, new AtomicInteger());
+                counter = counters.get(name);
+            }
+            counter.incrementAndGet();
+        }
+
+        @Override
+        public void record(String name, long durationNanos) {
+        }
+
+        @Override
+        public void gauge(String name, long value) {
+        }
+
+        @Override
+        public void export(Writer writer) {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private int get(String name) {
+            AtomicInteger counter = counters.get(name);
+            return counter != null ? counter.get() : 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.models;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Proxies of model and provider interfaces for unit tests, which need just few methods of them
+ */
+public class ModelProxies {
+
+    /**
+     * Methods listed in the values return the value by method name, regardless of arguments. Other methods return false,
+     * zero, empty collection or null according to the return type
+     */
+    public static <T> T proxy(Class<T> type, final Map<String, ?> values) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class[] { type }, new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (values.containsKey(method.getName())) {
+                    return values.get(method.getName());
+                }
+                return defaultValue(method.getReturnType());
+            }
+
+        }));
+    }
+
+    private static Object defaultValue(Class<?> returnType) {
+        if (returnType == boolean.class) return false;
+        if (returnType == int.class) return 0;
+        if (returnType == long.class) return 0L;
+        if (returnType == Set.class) return Collections.emptySet();
+        if (returnType == List.class) return Collections.emptyList();
+        if (returnType == Map.class) return Collections.emptyMap();
+        return null;
+    }
+
+}
@@ -33,6 +33,7 @@ import org.keycloak.models.AuthenticatorConfigModel;
 import org.keycloak.models.ClientModel;
 import org.keycloak.models.ClientSessionModel;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.ModelUnavailableException;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
 import org.keycloak.models.UserSessionModel;
@@ -607,6 +608,14 @@ public class AuthenticationProcessor {
                 return ErrorPage.error(session, Messages.INVALID_USER);
             }
 
+        } else if (failure instanceof ModelUnavailableException) {
+            // Overloaded server, the user didn't do anything wrong
+            logger.authenticationUnavailable(failure.getMessage());
+            event.error(Errors.SERVICE_UNAVAILABLE);
+            return session.getProvider(LoginFormsProvider.class)
+                    .setStatus(Response.Status.SERVICE_UNAVAILABLE)
+                    .setError(Messages.UNEXPECTED_ERROR_HANDLING_REQUEST)
+                    .createErrorPage();
         } else {
             logger.failedAuthentication(failure);
             event.error(Errors.INVALID_USER_CREDENTIALS);
@@ -20,8 +20,10 @@ package org.keycloak.connections.httpclient;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.entity.EntityBuilder;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.Configurable;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.CloseableHttpClient;
@@ -65,7 +67,21 @@ public class DefaultHttpClientFactory implements HttpClientFactory {
 
             @Override
             public int postText(String uri, String text) throws IOException {
+                return postText(new HttpPost(uri), text);
+            }
+
+            @Override
+            public int postText(String uri, String text, int timeoutMillis) throws IOException {
+                RequestConfig.Builder config = httpClient instanceof Configurable && ((Configurable) httpClient).getConfig() != null
+                        ? RequestConfig.copy(((Configurable) httpClient).getConfig()) : RequestConfig.custom();
+                config.setConnectionRequestTimeout(timeoutMillis).setConnectTimeout(timeoutMillis).setSocketTimeout(timeoutMillis);
+
                 HttpPost request = new HttpPost(uri);
+                request.setConfig(config.build());
+                return postText(request, text);
+            }
+
+            private int postText(HttpPost request, String text) throws IOException {
                 request.setEntity(EntityBuilder.create().setText(text).setContentType(ContentType.TEXT_PLAIN).build());
                 HttpResponse response = httpClient.execute(request);
                 try {
@@ -49,6 +49,14 @@ public class ExportImportConfig {
     public static final String USERS_PER_FILE = PREFIX + "usersPerFile";
     public static final Integer DEFAULT_USERS_PER_FILE = 5000;
 
+    // Number of users read, written or imported within single transaction
+    public static final String USERS_BATCH_SIZE = PREFIX + "usersBatchSize";
+    public static final Integer DEFAULT_USERS_BATCH_SIZE = 100;
+
+    // Number of threads importing batches of users in parallel
+    public static final String USERS_IMPORT_WORKERS = PREFIX + "usersImportWorkers";
+    public static final Integer DEFAULT_USERS_IMPORT_WORKERS = 1;
+
     // Strategy used during import data
     public static final String STRATEGY = PREFIX + "strategy";
     public static final Strategy DEFAULT_STRATEGY = Strategy.OVERWRITE_EXISTING;
@@ -131,6 +139,24 @@ public class ExportImportConfig {
         System.setProperty(USERS_PER_FILE, String.valueOf(usersPerFile));
     }
 
+    public static Integer getUsersBatchSize() {
+        String usersBatchSize = System.getProperty(USERS_BATCH_SIZE, String.valueOf(DEFAULT_USERS_BATCH_SIZE));
+        return Integer.parseInt(usersBatchSize.trim());
+    }
+
+    public static void setUsersBatchSize(Integer usersBatchSize) {
+        System.setProperty(USERS_BATCH_SIZE, String.valueOf(usersBatchSize));
+    }
+
+    public static Integer getUsersImportWorkers() {
+        String usersImportWorkers = System.getProperty(USERS_IMPORT_WORKERS, String.valueOf(DEFAULT_USERS_IMPORT_WORKERS));
+        return Integer.parseInt(usersImportWorkers.trim());
+    }
+
+    public static void setUsersImportWorkers(Integer usersImportWorkers) {
+        System.setProperty(USERS_IMPORT_WORKERS, String.valueOf(usersImportWorkers));
+    }
+
     public static Strategy getStrategy() {
         String strategy = System.getProperty(STRATEGY, DEFAULT_STRATEGY.toString());
         return Enum.valueOf(Strategy.class, strategy);
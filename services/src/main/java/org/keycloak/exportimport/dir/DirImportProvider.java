@@ -23,6 +23,7 @@ import org.keycloak.exportimport.ImportProvider;
 import org.keycloak.exportimport.Strategy;
 import org.keycloak.exportimport.util.ExportImportSessionTask;
 import org.keycloak.exportimport.util.ImportUtils;
+import org.keycloak.exportimport.util.UsersBatchImporter;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.utils.KeycloakModelUtils;
@@ -34,6 +35,7 @@ import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -115,30 +117,39 @@ public class DirImportProvider implements ImportProvider {
             }
         });
 
-        // Import realm first
+        // Import realm first. Users possibly contained in realm file are streamed later
         FileInputStream is = new FileInputStream(realmFile);
-        final RealmRepresentation realmRep = JsonSerialization.readValue(is, RealmRepresentation.class);
+        final RealmRepresentation realmRep = ImportUtils.getRealmsWithoutUsersFromStream(JsonSerialization.mapper, is).values().iterator().next();
+        final boolean[] imported = new boolean[1];
 
         KeycloakModelUtils.runJobInTransaction(factory, new ExportImportSessionTask() {
 
             @Override
             public void runExportImportTask(KeycloakSession session) throws IOException {
-                ImportUtils.importRealm(session, realmRep, strategy);
+                imported[0] = ImportUtils.importRealm(session, realmRep, strategy);
             }
 
         });
 
-        // Import users
-        for (File userFile : userFiles) {
-            final FileInputStream fis = new FileInputStream(userFile);
-            KeycloakModelUtils.runJobInTransaction(factory, new ExportImportSessionTask() {
+        if (!imported[0]) {
+            return;
+        }
+
+        // Import users from realm file
+        ImportUtils.importUsersFromRealmsStream(JsonSerialization.mapper, new FileInputStream(realmFile),
+                Collections.singletonList(new UsersBatchImporter(factory, realmName)));
 
-                @Override
-                protected void runExportImportTask(KeycloakSession session) throws IOException {
-                    ImportUtils.importUsersFromStream(session, realmName, JsonSerialization.mapper, fis);
-                }
-            });
+        // Import users from users files
+        UsersBatchImporter importer = new UsersBatchImporter(factory, realmName);
+        try {
+            for (File userFile : userFiles) {
+                ImportUtils.importUsersFromStream(importer, realmName, JsonSerialization.mapper, new FileInputStream(userFile));
+            }
+        } catch (IOException | RuntimeException e) {
+            importer.abort();
+            throw e;
         }
+        importer.finish();
     }
 
     @Override
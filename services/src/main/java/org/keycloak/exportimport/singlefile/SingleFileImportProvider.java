@@ -23,6 +23,7 @@ import org.keycloak.exportimport.ImportProvider;
 import org.keycloak.exportimport.Strategy;
 import org.keycloak.exportimport.util.ExportImportSessionTask;
 import org.keycloak.exportimport.util.ImportUtils;
+import org.keycloak.exportimport.util.UsersBatchImporter;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.utils.KeycloakModelUtils;
@@ -32,7 +33,11 @@ import org.keycloak.util.JsonSerialization;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * @author <a href="mailto:mposolda@redhat.com">Marek Posolda</a>
@@ -43,7 +48,7 @@ public class SingleFileImportProvider implements ImportProvider {
 
     private File file;
 
-    // Allows to cache representation per provider to avoid parsing them twice
+    // Allows to cache representation per provider to avoid parsing them twice. Users are not included
     protected Map<String, RealmRepresentation> realmReps;
 
     public SingleFileImportProvider(File file) {
@@ -55,14 +60,24 @@ public class SingleFileImportProvider implements ImportProvider {
         logger.infof("Full importing from file %s", this.file.getAbsolutePath());
         checkRealmReps();
 
+        final Set<String> importedRealms = new HashSet<String>();
         KeycloakModelUtils.runJobInTransaction(factory, new ExportImportSessionTask() {
 
             @Override
             protected void runExportImportTask(KeycloakSession session) throws IOException {
-                ImportUtils.importRealms(session, realmReps.values(), strategy);
+                importedRealms.addAll(ImportUtils.importRealms(session, realmReps.values(), strategy));
             }
 
         });
+
+        // Users are streamed from the file in second pass, so they are never all in memory
+        List<UsersBatchImporter> importers = new ArrayList<UsersBatchImporter>();
+        for (String realmName : realmReps.keySet()) {
+            importers.add(importedRealms.contains(realmName) ? new UsersBatchImporter(factory, realmName) : null);
+        }
+
+        FileInputStream is = new FileInputStream(file);
+        ImportUtils.importUsersFromRealmsStream(JsonSerialization.mapper, is, importers);
     }
 
     @Override
@@ -74,7 +89,7 @@ public class SingleFileImportProvider implements ImportProvider {
     protected void checkRealmReps() throws IOException {
         if (realmReps == null) {
             FileInputStream is = new FileInputStream(file);
-            realmReps = ImportUtils.getRealmsFromStream(JsonSerialization.mapper, is);
+            realmReps = ImportUtils.getRealmsWithoutUsersFromStream(JsonSerialization.mapper, is);
         }
     }
 
@@ -20,8 +20,10 @@ package org.keycloak.exportimport.util;
 import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.keycloak.common.util.Base64;
 import org.keycloak.models.*;
 import org.keycloak.models.utils.ModelToRepresentation;
@@ -331,22 +333,15 @@ public class ExportUtils {
     // Streaming API
 
     public static void exportUsersToStream(KeycloakSession session, RealmModel realm, List<UserModel> usersToExport, ObjectMapper mapper, OutputStream os) throws IOException {
-        JsonFactory factory = mapper.getFactory();
-        JsonGenerator generator = factory.createGenerator(os, JsonEncoding.UTF8);
+        JsonGenerator generator = createGenerator(mapper, os);
         try {
-            if (mapper.isEnabled(SerializationFeature.INDENT_OUTPUT)) {
-                generator.useDefaultPrettyPrinter();
-            }
             generator.writeStartObject();
             generator.writeStringField("realm", realm.getName());
             // generator.writeStringField("strategy", strategy.toString());
             generator.writeFieldName("users");
             generator.writeStartArray();
 
-            for (UserModel user : usersToExport) {
-                UserRepresentation userRep = ExportUtils.exportUser(session, realm, user);
-                generator.writeObject(userRep);
-            }
+            writeUsers(session, realm, usersToExport, generator);
 
             generator.writeEndArray();
             generator.writeEndObject();
@@ -354,4 +349,51 @@ public class ExportUtils {
             generator.close();
         }
     }
+
+    public static JsonGenerator createGenerator(ObjectMapper mapper, OutputStream os) throws IOException {
+        JsonFactory factory = mapper.getFactory();
+        JsonGenerator generator = factory.createGenerator(os, JsonEncoding.UTF8);
+        if (mapper.isEnabled(SerializationFeature.INDENT_OUTPUT)) {
+            generator.useDefaultPrettyPrinter();
+        }
+        return generator;
+    }
+
+    /**
+     * Write all fields of the realm representation except "users" into the current object of the generator. Users
+     * are supposed to be written afterwards in smaller chunks, so the caller is responsible for starting and ending the object.
+     *
+     * @param generator
+     * @param rep
+     * @throws IOException
+     */
+    public static void writeRealmFields(JsonGenerator generator, RealmRepresentation rep) throws IOException {
+        ObjectMapper mapper = (ObjectMapper) generator.getCodec();
+        ObjectNode realmNode = mapper.valueToTree(rep);
+        realmNode.remove("users");
+
+        Iterator<Map.Entry<String, JsonNode>> fields = realmNode.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            generator.writeFieldName(field.getKey());
+            generator.writeTree(field.getValue());
+        }
+    }
+
+    /**
+     * Write users as elements of the currently opened array and flush them, so that the representations don't stay referenced
+     *
+     * @param session
+     * @param realm
+     * @param users
+     * @param generator
+     * @throws IOException
+     */
+    public static void writeUsers(KeycloakSession session, RealmModel realm, List<UserModel> users, JsonGenerator generator) throws IOException {
+        for (UserModel user : users) {
+            UserRepresentation userRep = ExportUtils.exportUser(session, realm, user);
+            generator.writeObject(userRep);
+        }
+        generator.flush();
+    }
 }
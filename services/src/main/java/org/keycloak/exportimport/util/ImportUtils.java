@@ -20,7 +20,9 @@ package org.keycloak.exportimport.util;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.jboss.logging.Logger;
 import org.keycloak.Config;
 import org.keycloak.exportimport.ExportImportConfig;
@@ -30,7 +32,6 @@ import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.RealmProvider;
 import org.keycloak.models.utils.RealmImporter;
-import org.keycloak.models.utils.RepresentationToModel;
 import org.keycloak.representations.idm.RealmRepresentation;
 import org.keycloak.representations.idm.UserRepresentation;
 
@@ -45,19 +46,35 @@ public class ImportUtils {
 
     private static final Logger logger = Logger.getLogger(ImportUtils.class);
 
-    public static void importRealms(KeycloakSession session, Collection<RealmRepresentation> realms, Strategy strategy) {
+    /**
+     * Import realms, admin realm first
+     *
+     * @param session
+     * @param realms
+     * @param strategy
+     * @return names of the realms, which were really imported (not skipped due to {@link Strategy#IGNORE_EXISTING})
+     */
+    public static Set<String> importRealms(KeycloakSession session, Collection<RealmRepresentation> realms, Strategy strategy) {
+        Set<String> imported = new HashSet<String>();
+
         // Import admin realm first
         for (RealmRepresentation realm : realms) {
             if (Config.getAdminRealm().equals(realm.getRealm())) {
-                importRealm(session, realm, strategy);
+                if (importRealm(session, realm, strategy)) {
+                    imported.add(realm.getRealm());
+                }
             }
         }
 
         for (RealmRepresentation realm : realms) {
             if (!Config.getAdminRealm().equals(realm.getRealm())) {
-                importRealm(session, realm, strategy);
+                if (importRealm(session, realm, strategy)) {
+                    imported.add(realm.getRealm());
+                }
             }
         }
+
+        return imported;
     }
 
     /**
@@ -66,9 +83,9 @@ public class ImportUtils {
      * @param session
      * @param rep
      * @param strategy specifies whether to overwrite or ignore existing realm or user entries
-     * @return newly imported realm (or existing realm if ignoreExisting is true and realm of this name already exists)
+     * @return true if realm was imported, false if realm of this name already exists and strategy is {@link Strategy#IGNORE_EXISTING}
      */
-    public static void importRealm(KeycloakSession session, RealmRepresentation rep, Strategy strategy) {
+    public static boolean importRealm(KeycloakSession session, RealmRepresentation rep, Strategy strategy) {
         String realmName = rep.getRealm();
         RealmProvider model = session.realms();
         RealmModel realm = model.getRealmByName(realmName);
@@ -76,7 +93,7 @@ public class ImportUtils {
         if (realm != null) {
             if (strategy == Strategy.IGNORE_EXISTING) {
                 logger.infof("Realm '%s' already exists. Import skipped", realmName);
-                return;
+                return false;
             } else {
                 logger.infof("Realm '%s' already exists. Removing it before import", realmName);
                 if (Config.getAdminRealm().equals(realm.getId())) {
@@ -96,8 +113,8 @@ public class ImportUtils {
         if (System.getProperty(ExportImportConfig.ACTION) != null) {
             logger.infof("Realm '%s' imported", realmName);
         }
-        
-        return;
+
+        return true;
     }
 
     /**
@@ -154,42 +171,143 @@ public class ImportUtils {
         return result;
     }
 
+    /**
+     * Read realms from stream without their users. Users array is skipped by the parser, so memory needed doesn't depend
+     * on number of users. Users are supposed to be imported later by {@link #importUsersFromRealmsStream}
+     *
+     * @param mapper
+     * @param is
+     * @return realms in the order as they are in the stream
+     * @throws IOException
+     */
+    public static Map<String, RealmRepresentation> getRealmsWithoutUsersFromStream(ObjectMapper mapper, InputStream is) throws IOException {
+        Map<String, RealmRepresentation> result = new LinkedHashMap<String, RealmRepresentation>();
 
-    // Assuming that it's invoked inside transaction
-    public static void importUsersFromStream(KeycloakSession session, String realmName, ObjectMapper mapper, InputStream is) throws IOException {
-        RealmProvider model = session.realms();
-        JsonFactory factory = mapper.getJsonFactory();
-        JsonParser parser = factory.createJsonParser(is);
+        JsonParser parser = mapper.getFactory().createParser(is);
         try {
             parser.nextToken();
 
-            while (parser.nextToken() == JsonToken.FIELD_NAME) {
-                if ("realm".equals(parser.getText())) {
+            if (parser.getCurrentToken() == JsonToken.START_ARRAY) {
+                // Case with more realms in stream
+                parser.nextToken();
+
+                while (parser.getCurrentToken() == JsonToken.START_OBJECT) {
+                    RealmRepresentation realmRep = readRealmWithoutUsers(mapper, parser);
+                    result.put(realmRep.getRealm(), realmRep);
                     parser.nextToken();
-                    String currRealmName = parser.getText();
-                    if (!currRealmName.equals(realmName)) {
-                        throw new IllegalStateException("Trying to import users into invalid realm. Realm name: " + realmName + ", Expected realm name: " + currRealmName);
-                    }
-                } else if ("users".equals(parser.getText())) {
+                }
+            } else if (parser.getCurrentToken() == JsonToken.START_OBJECT) {
+                // Case with single realm in stream
+                RealmRepresentation realmRep = readRealmWithoutUsers(mapper, parser);
+                result.put(realmRep.getRealm(), realmRep);
+            }
+        } finally {
+            parser.close();
+        }
+
+        return result;
+    }
+
+    private static RealmRepresentation readRealmWithoutUsers(ObjectMapper mapper, JsonParser parser) throws IOException {
+        ObjectNode realmNode = mapper.createObjectNode();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            parser.nextToken();
+
+            if ("users".equals(fieldName)) {
+                parser.skipChildren();
+            } else {
+                JsonNode value = parser.readValueAsTree();
+                realmNode.set(fieldName, value);
+            }
+        }
+        return mapper.treeToValue(realmNode, RealmRepresentation.class);
+    }
+
+    /**
+     * Stream users of realms from the stream with the same layout as accepted by {@link #getRealmsWithoutUsersFromStream}
+     * into the importers. Every importer is finished once the users of its realm are read.
+     *
+     * @param mapper
+     * @param is
+     * @param importers importer for every realm object in the stream in the same order. Users of realms with null importer are skipped
+     * @throws IOException
+     */
+    public static void importUsersFromRealmsStream(ObjectMapper mapper, InputStream is, List<UsersBatchImporter> importers) throws IOException {
+        JsonParser parser = mapper.getFactory().createParser(is);
+        try {
+            parser.nextToken();
+
+            if (parser.getCurrentToken() == JsonToken.START_ARRAY) {
+                parser.nextToken();
+
+                int index = 0;
+                while (parser.getCurrentToken() == JsonToken.START_OBJECT) {
+                    UsersBatchImporter importer = index < importers.size() ? importers.get(index) : null;
+                    importUsersOfRealm(parser, importer);
                     parser.nextToken();
+                    index++;
+                }
+            } else if (parser.getCurrentToken() == JsonToken.START_OBJECT) {
+                importUsersOfRealm(parser, importers.isEmpty() ? null : importers.get(0));
+            }
+        } finally {
+            parser.close();
+        }
+    }
 
-                    if (parser.getCurrentToken() == JsonToken.START_ARRAY) {
-                        parser.nextToken();
-                    }
+    private static void importUsersOfRealm(JsonParser parser, UsersBatchImporter importer) throws IOException {
+        try {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                parser.nextToken();
 
-                    // TODO: support for more transactions per single users file (if needed)
-                    List<UserRepresentation> userReps = new ArrayList<UserRepresentation>();
-                    while (parser.getCurrentToken() == JsonToken.START_OBJECT) {
-                        UserRepresentation user = parser.readValueAs(UserRepresentation.class);
-                        userReps.add(user);
-                        parser.nextToken();
-                    }
+                if ("users".equals(fieldName) && importer != null) {
+                    readUsers(parser, importer);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (importer != null) {
+                importer.abort();
+            }
+            throw e;
+        }
+
+        if (importer != null) {
+            importer.finish();
+        }
+    }
+
+    /**
+     * Stream users from the users file (as written by {@link ExportUtils#exportUsersToStream}) into the importer. Users
+     * are imported in batches, so the file may be of any size.
+     *
+     * @param importer
+     * @param realmName
+     * @param mapper
+     * @param is
+     * @throws IOException
+     */
+    public static void importUsersFromStream(UsersBatchImporter importer, String realmName, ObjectMapper mapper, InputStream is) throws IOException {
+        JsonParser parser = mapper.getFactory().createParser(is);
+        try {
+            parser.nextToken();
 
-                    importUsers(session, model, realmName, userReps);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                parser.nextToken();
 
-                    if (parser.getCurrentToken() == JsonToken.END_ARRAY) {
-                        parser.nextToken();
+                if ("realm".equals(fieldName)) {
+                    String currRealmName = parser.getText();
+                    if (!currRealmName.equals(realmName)) {
+                        throw new IllegalStateException("Trying to import users into invalid realm. Realm name: " + realmName + ", Expected realm name: " + currRealmName);
                     }
+                } else if ("users".equals(fieldName)) {
+                    readUsers(parser, importer);
+                } else {
+                    parser.skipChildren();
                 }
             }
         } finally {
@@ -197,10 +315,15 @@ public class ImportUtils {
         }
     }
 
-    private static void importUsers(KeycloakSession session, RealmProvider model, String realmName, List<UserRepresentation> userReps) {
-        RealmModel realm = model.getRealmByName(realmName);
-        for (UserRepresentation user : userReps) {
-            RepresentationToModel.createUser(session, realm, user);
+    private static void readUsers(JsonParser parser, UsersBatchImporter importer) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
+        }
+
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            UserRepresentation user = parser.readValueAs(UserRepresentation.class);
+            importer.addUser(user);
         }
     }
 
@@ -17,6 +17,7 @@
 
 package org.keycloak.exportimport.util;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.jboss.logging.Logger;
 import org.keycloak.representations.VersionRepresentation;
 import org.keycloak.exportimport.ExportImportConfig;
@@ -26,11 +27,12 @@ import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.KeycloakSessionTask;
 import org.keycloak.models.RealmModel;
-import org.keycloak.models.UserModel;
 import org.keycloak.models.utils.KeycloakModelUtils;
 import org.keycloak.representations.idm.RealmRepresentation;
+import org.keycloak.util.JsonSerialization;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 
 /**
@@ -73,30 +75,42 @@ public abstract class MultipleStepsExportProvider implements ExportProvider {
         final UsersHolder usersHolder = new UsersHolder();
         final boolean exportUsersIntoRealmFile = usersExportStrategy == UsersExportStrategy.REALM_FILE;
 
+        if (exportUsersIntoRealmFile) {
+            // Users are streamed into the realm file in batches, so the whole realm is never held in memory
+            JsonGenerator generator = ExportUtils.createGenerator(JsonSerialization.prettyMapper, openStream(realmName + "-realm.json"));
+            try {
+                StreamingExportUtils.exportRealm(factory, realmName, generator);
+            } finally {
+                generator.close();
+            }
+            return;
+        }
+
         KeycloakModelUtils.runJobInTransaction(factory, new ExportImportSessionTask() {
 
             @Override
             protected void runExportImportTask(KeycloakSession session) throws IOException {
                 RealmModel realm = session.realms().getRealmByName(realmName);
-                RealmRepresentation rep = ExportUtils.exportRealm(session, realm, exportUsersIntoRealmFile);
+                RealmRepresentation rep = ExportUtils.exportRealm(session, realm, false);
                 writeRealm(realmName + "-realm.json", rep);
                 logger.info("Realm '" + realmName + "' - data exported");
 
                 // Count total number of users
-                if (!exportUsersIntoRealmFile) {
-                    usersHolder.totalCount = session.users().getUsersCount(realm);
-                }
+                usersHolder.totalCount = session.users().getUsersCount(realm);
             }
 
         });
 
-        if (usersExportStrategy != UsersExportStrategy.SKIP && !exportUsersIntoRealmFile) {
+        if (usersExportStrategy != UsersExportStrategy.SKIP) {
             // We need to export users now
             usersHolder.currentPageStart = 0;
 
             // usersExportStrategy==SAME_FILE  means exporting all users into single file (but separate to realm)
             final int countPerPage = (usersExportStrategy == UsersExportStrategy.SAME_FILE) ? usersHolder.totalCount : usersPerFile;
 
+            // Each file continues after the last user of the previous file
+            String lastUsername = null;
+
             while (usersHolder.currentPageStart < usersHolder.totalCount) {
                 if (usersHolder.currentPageStart + countPerPage < usersHolder.totalCount) {
                     usersHolder.currentPageEnd = usersHolder.currentPageStart + countPerPage;
@@ -104,28 +118,41 @@ public abstract class MultipleStepsExportProvider implements ExportProvider {
                     usersHolder.currentPageEnd = usersHolder.totalCount;
                 }
 
-                KeycloakModelUtils.runJobInTransaction(factory, new ExportImportSessionTask() {
-
-                    @Override
-                    protected void runExportImportTask(KeycloakSession session) throws IOException {
-                        RealmModel realm = session.realms().getRealmByName(realmName);
-                        usersHolder.users = session.users().getUsers(realm, usersHolder.currentPageStart, usersHolder.currentPageEnd - usersHolder.currentPageStart, true);
-
-                        writeUsers(realmName + "-users-" + (usersHolder.currentPageStart / countPerPage) + ".json", session, realm, usersHolder.users);
-
-                        logger.info("Users " + usersHolder.currentPageStart + "-" + (usersHolder.currentPageEnd -1) + " exported");
-                    }
-
-                });
+                String fileName = realmName + "-users-" + (usersHolder.currentPageStart / countPerPage) + ".json";
+                lastUsername = writeUsers(factory, fileName, realmName, lastUsername, usersHolder.currentPageEnd - usersHolder.currentPageStart);
 
                 usersHolder.currentPageStart = usersHolder.currentPageEnd;
             }
         }
     }
 
+    /**
+     * Stream users following the given username into single users file. Users are read in batches, each in separate
+     * transaction, so the file may contain any number of users without keeping them all in memory.
+     *
+     * @return username of the last user written to the file
+     */
+    protected String writeUsers(KeycloakSessionFactory factory, String fileName, String realmName, String afterUsername, int count) throws IOException {
+        JsonGenerator generator = ExportUtils.createGenerator(JsonSerialization.prettyMapper, openStream(fileName));
+        try {
+            generator.writeStartObject();
+            generator.writeStringField("realm", realmName);
+            generator.writeFieldName("users");
+            generator.writeStartArray();
+
+            String lastUsername = StreamingExportUtils.exportUsers(factory, realmName, afterUsername, count, generator);
+
+            generator.writeEndArray();
+            generator.writeEndObject();
+            return lastUsername;
+        } finally {
+            generator.close();
+        }
+    }
+
     protected abstract void writeRealm(String fileName, RealmRepresentation rep) throws IOException;
 
-    protected abstract void writeUsers(String fileName, KeycloakSession session, RealmModel realm, List<UserModel> users) throws IOException;
+    protected abstract OutputStream openStream(String fileName) throws IOException;
 
     protected abstract void writeVersion(String fileName, VersionRepresentation version) throws IOException;
 
@@ -135,7 +162,6 @@ public abstract class MultipleStepsExportProvider implements ExportProvider {
     }
 
     public static class UsersHolder {
-        List<UserModel> users;
         int totalCount;
         int currentPageStart;
         int currentPageEnd;
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.exportimport.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.jboss.logging.Logger;
+import org.keycloak.exportimport.ExportImportConfig;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.representations.idm.RealmRepresentation;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes realms and users to a {@link JsonGenerator} with bounded memory. Users are read and written in batches of
+ * {@link ExportImportConfig#getUsersBatchSize()}, each batch in a separate transaction, so neither the representations
+ * nor the models loaded by persistence layer accumulate during export of big realms.
+ */
+public class StreamingExportUtils {
+
+    private static final Logger logger = Logger.getLogger(StreamingExportUtils.class);
+
+    /**
+     * Write whole realm including its users as single JSON object
+     *
+     * @param factory
+     * @param realmName
+     * @param generator
+     * @throws IOException
+     */
+    public static void exportRealm(KeycloakSessionFactory factory, final String realmName, final JsonGenerator generator) throws IOException {
+        final int[] usersCount = new int[1];
+
+        generator.writeStartObject();
+
+        KeycloakModelUtils.runJobInTransaction(factory, new ExportImportSessionTask() {
+
+            @Override
+            protected void runExportImportTask(KeycloakSession session) throws IOException {
+                RealmModel realm = session.realms().getRealmByName(realmName);
+                RealmRepresentation rep = ExportUtils.exportRealm(session, realm, false);
+                ExportUtils.writeRealmFields(generator, rep);
+                usersCount[0] = session.users().getUsersCount(realm);
+            }
+
+        });
+
+        if (usersCount[0] > 0) {
+            generator.writeFieldName("users");
+            generator.writeStartArray();
+            exportUsers(factory, realmName, null, usersCount[0], generator);
+            generator.writeEndArray();
+        }
+
+        generator.writeEndObject();
+        generator.flush();
+
+        logger.info("Realm '" + realmName + "' - data exported");
+    }
+
+    /**
+     * Write users ordered by username as elements of the currently opened array. Each batch continues after the last
+     * username of the previous batch, so reading of a batch doesn't get slower with its position and users added or
+     * removed during export don't shift other users out of the exported range.
+     *
+     * @param factory
+     * @param realmName
+     * @param afterUsername username after which export starts or null to start with first user
+     * @param count max number of users to export
+     * @param generator
+     * @return username of the last exported user or afterUsername if no user was exported
+     * @throws IOException
+     */
+    public static String exportUsers(KeycloakSessionFactory factory, final String realmName, String afterUsername, int count, final JsonGenerator generator) throws IOException {
+        int batchSize = ExportImportConfig.getUsersBatchSize();
+        final String[] lastUsername = { afterUsername };
+        final int[] batchCount = new int[1];
+        int exported = 0;
+        long start = System.currentTimeMillis();
+
+        while (exported < count) {
+            final int batchMax = Math.min(batchSize, count - exported);
+
+            KeycloakModelUtils.runJobInTransaction(factory, new ExportImportSessionTask() {
+
+                @Override
+                protected void runExportImportTask(KeycloakSession session) throws IOException {
+                    RealmModel realm = session.realms().getRealmByName(realmName);
+                    List<UserModel> users = session.users().getUsersAfter(realm, lastUsername[0], batchMax, true);
+                    ExportUtils.writeUsers(session, realm, users, generator);
+
+                    batchCount[0] = users.size();
+                    if (!users.isEmpty()) {
+                        lastUsername[0] = users.get(users.size() - 1).getUsername();
+                    }
+                }
+
+            });
+
+            if (batchCount[0] == 0) {
+                break;
+            }
+            exported += batchCount[0];
+
+            logger.debugf("Realm '%s' - exported %d users up to '%s'", realmName, exported, lastUsername[0]);
+        }
+
+        long took = System.currentTimeMillis() - start;
+        logger.infof("Realm '%s' - %d users exported in %d ms", realmName, exported, took);
+        return lastUsername[0];
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.exportimport.util;
+
+import org.jboss.logging.Logger;
+import org.keycloak.exportimport.ExportImportConfig;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.KeycloakSessionTask;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.models.utils.RepresentationToModel;
+import org.keycloak.representations.idm.UserRepresentation;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Imports users of single realm in batches. Every batch is imported in separate transaction. With more than one worker,
+ * batches are imported in parallel while at most one pending batch per worker is kept in memory, so the reader of the
+ * stream is throttled to the speed of the import.
+ */
+public class UsersBatchImporter {
+
+    private static final Logger logger = Logger.getLogger(UsersBatchImporter.class);
+
+    private final KeycloakSessionFactory factory;
+    private final String realmName;
+    private final int batchSize;
+    private final int workers;
+    private ExecutorService executor;
+
+    private final LinkedList<Future<?>> pendingBatches = new LinkedList<Future<?>>();
+    private List<UserRepresentation> currentBatch;
+
+    private final AtomicInteger importedCount = new AtomicInteger();
+    private final long startTime = System.currentTimeMillis();
+
+    public UsersBatchImporter(KeycloakSessionFactory factory, String realmName) {
+        this(factory, realmName, ExportImportConfig.getUsersBatchSize(), ExportImportConfig.getUsersImportWorkers());
+    }
+
+    public UsersBatchImporter(KeycloakSessionFactory factory, String realmName, int batchSize, int workers) {
+        this.factory = factory;
+        this.realmName = realmName;
+        this.batchSize = Math.max(batchSize, 1);
+        this.workers = Math.max(workers, 1);
+        this.currentBatch = new ArrayList<UserRepresentation>(this.batchSize);
+    }
+
+    public void addUser(UserRepresentation user) {
+        currentBatch.add(user);
+        if (currentBatch.size() >= batchSize) {
+            submitBatch();
+        }
+    }
+
+    /**
+     * Import remaining users and wait until all batches are finished. Importer can't be used after this call
+     *
+     * @return total number of imported users
+     */
+    public int finish() {
+        try {
+            if (!currentBatch.isEmpty()) {
+                submitBatch();
+            }
+
+            while (!pendingBatches.isEmpty()) {
+                waitForBatch(pendingBatches.removeFirst());
+            }
+        } finally {
+            shutdown();
+        }
+
+        int count = importedCount.get();
+        if (count > 0) {
+            long took = System.currentTimeMillis() - startTime;
+            logger.infof("Realm '%s' - %d users imported in %d ms", realmName, count, took);
+        }
+        return count;
+    }
+
+    /**
+     * Stop importing after failure. Batches not yet started are dropped, already committed batches stay imported
+     */
+    public void abort() {
+        currentBatch.clear();
+        pendingBatches.clear();
+        shutdown();
+    }
+
+    private void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private void submitBatch() {
+        final List<UserRepresentation> batch = currentBatch;
+        currentBatch = new ArrayList<UserRepresentation>(batchSize);
+
+        if (workers == 1) {
+            importBatch(batch);
+            return;
+        }
+
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(workers, new ImportThreadFactory(realmName));
+        }
+
+        // Wait for the oldest batch, so that at most "workers" batches are queued or running
+        if (pendingBatches.size() >= workers) {
+            waitForBatch(pendingBatches.removeFirst());
+        }
+
+        pendingBatches.add(executor.submit(new Runnable() {
+
+            @Override
+            public void run() {
+                importBatch(batch);
+            }
+
+        }));
+    }
+
+    private void importBatch(final List<UserRepresentation> batch) {
+        KeycloakModelUtils.runJobInTransaction(factory, new KeycloakSessionTask() {
+
+            @Override
+            public void run(KeycloakSession session) {
+                RealmModel realm = session.realms().getRealmByName(realmName);
+                for (UserRepresentation user : batch) {
+                    if (user.getApplicationRoles() != null && user.getClientRoles() == null) {
+                        user.setClientRoles(user.getApplicationRoles());
+                    }
+                    RepresentationToModel.createUser(session, realm, user);
+                }
+            }
+
+        });
+
+        int count = importedCount.addAndGet(batch.size());
+        logger.debugf("Realm '%s' - imported %d users", realmName, count);
+    }
+
+    private void waitForBatch(Future<?> future) {
+        try {
+            future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while importing users of realm '" + realmName + "'", ie);
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException("Error during import of users of realm '" + realmName + "'", cause);
+        }
+    }
+
+    private static class ImportThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+        private final String realmName;
+
+        private ImportThreadFactory(String realmName) {
+            this.realmName = realmName;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "users-import-" + realmName + "-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
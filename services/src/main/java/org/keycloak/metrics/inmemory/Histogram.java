@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.metrics.inmemory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with fixed buckets. Buckets aren't cumulative, they are summed on export
+ */
+class Histogram {
+
+    static final long[] BUCKETS_MILLIS = { 1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+
+    private static final long[] BUCKETS_NANOS = new long[BUCKETS_MILLIS.length];
+
+    static {
+        for (int i = 0; i < BUCKETS_MILLIS.length; i++) {
+            BUCKETS_NANOS[i] = TimeUnit.MILLISECONDS.toNanos(BUCKETS_MILLIS[i]);
+        }
+    }
+
+    // Last one is for durations over the highest bucket
+    private final LongAdder[] counts = new LongAdder[BUCKETS_NANOS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    Histogram() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    void record(long durationNanos) {
+        int i = 0;
+        while (i < BUCKETS_NANOS.length && durationNanos > BUCKETS_NANOS[i]) {
+            i++;
+        }
+        counts[i].increment();
+        sumNanos.add(durationNanos);
+    }
+
+    // Cumulative counts of buckets in the order of BUCKETS_MILLIS. The last one is count of all recorded durations
+    long[] getCumulativeCounts() {
+        long[] result = new long[counts.length];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            total += counts[i].sum();
+            result[i] = total;
+        }
+        return result;
+    }
+
+    long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+}
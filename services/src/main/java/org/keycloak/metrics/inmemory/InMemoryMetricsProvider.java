@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.metrics.inmemory;
+
+import org.keycloak.metrics.MetricsProvider;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps metrics of this node in memory since the server start. Single instance is shared by all sessions.
+ */
+public class InMemoryMetricsProvider implements MetricsProvider {
+
+    private static final String PREFIX = "keycloak_";
+
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> gauges = new ConcurrentHashMap<>();
+
+    @Override
+    public void increment(String name) {
+        LongAdder counter = counters.get(name);
+        if (counter == null) {
+            counter = new LongAdder();
+            LongAdder existing = counters.putIfAbsent(name, counter);
+            if (existing != null) counter = existing;
+        }
+        counter.increment();
+    }
+
+    @Override
+    public void record(String name, long durationNanos) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = new Histogram();
+            Histogram existing = histograms.putIfAbsent(name, histogram);
+            if (existing != null) histogram = existing;
+        }
+        histogram.record(durationNanos);
+    }
+
+    @Override
+    public void gauge(String name, long value) {
+        AtomicLong gauge = gauges.get(name);
+        if (gauge == null) {
+            gauge = new AtomicLong();
+            AtomicLong existing = gauges.putIfAbsent(name, gauge);
+            if (existing != null) gauge = existing;
+        }
+        gauge.set(value);
+    }
+
+    @Override
+    public void export(Writer writer) throws IOException {
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+            String name = toMetricName(entry.getKey()) + "_total";
+            writer.write("# TYPE " + name + " counter\n");
+            writer.write(name + " " + entry.getValue().sum() + "\n");
+        }
+
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(histograms).entrySet()) {
+            String name = toMetricName(entry.getKey()) + "_seconds";
+            Histogram histogram = entry.getValue();
+            long[] counts = histogram.getCumulativeCounts();
+
+            writer.write("# TYPE " + name + " histogram\n");
+            for (int i = 0; i < Histogram.BUCKETS_MILLIS.length; i++) {
+                writer.write(name + "_bucket{le=\"" + Histogram.BUCKETS_MILLIS[i] / 1000.0 + "\"} " + counts[i] + "\n");
+            }
+            long count = counts[counts.length - 1];
+            writer.write(name + "_bucket{le=\"+Inf\"} " + count + "\n");
+            writer.write(name + "_sum " + histogram.getSumNanos() / 1000000000.0 + "\n");
+            writer.write(name + "_count " + count + "\n");
+        }
+
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<>(gauges).entrySet()) {
+            String name = toMetricName(entry.getKey());
+            writer.write("# TYPE " + name + " gauge\n");
+            writer.write(name + " " + entry.getValue().get() + "\n");
+        }
+    }
+
+    // Metric names may contain just letters, digits and underscores
+    static String toMetricName(String name) {
+        StringBuilder builder = new StringBuilder(PREFIX.length() + name.length());
+        builder.append(PREFIX);
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+            builder.append(valid ? c : '_');
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public void close() {
+    }
+
+}
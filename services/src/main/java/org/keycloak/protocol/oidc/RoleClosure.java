@@ -0,0 +1,150 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.protocol.oidc;
+
+import org.keycloak.models.RoleModel;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Effective roles of composite roles, expanded once and kept as bitsets over an index local to this instance. Every
+ * role's composites are loaded just once, so checks like {@link RoleModel#hasRole(RoleModel)} become bit lookups instead
+ * of walks of the composite graph.
+ * <p>
+ * Instance is meant to be used for a single computation and isn't thread-safe. It doesn't see changes of composites made
+ * after the role was expanded.
+ */
+class RoleClosure {
+
+    private final Map<String, Integer> index = new HashMap<>();
+    private final List<RoleModel> roles = new ArrayList<>();
+
+    // Per role index. Null until the role is expanded
+    private final List<int[]> composites = new ArrayList<>();
+    private final List<BitSet> closures = new ArrayList<>();
+
+    // Roles containing the role directly. Known for all roles of already computed closures
+    private final List<BitSet> parents = new ArrayList<>();
+
+    int indexOf(RoleModel role) {
+        Integer i = index.get(role.getId());
+        if (i != null) return i;
+
+        int added = roles.size();
+        index.put(role.getId(), added);
+        roles.add(role);
+        composites.add(null);
+        closures.add(null);
+        parents.add(new BitSet());
+        return added;
+    }
+
+    RoleModel getRole(int i) {
+        return roles.get(i);
+    }
+
+    BitSet indexOf(Collection<RoleModel> roles) {
+        BitSet result = new BitSet();
+        for (RoleModel role : roles) {
+            result.set(indexOf(role));
+        }
+        return result;
+    }
+
+    /**
+     * @return the role and all roles it contains, also transitively. Caller must not modify the result
+     */
+    BitSet closureOf(int role) {
+        BitSet closure = closures.get(role);
+        if (closure != null) return closure;
+
+        closure = new BitSet();
+        expand(role, closure);
+        closures.set(role, closure);
+        return closure;
+    }
+
+    BitSet closureOf(RoleModel role) {
+        return closureOf(indexOf(role));
+    }
+
+    /**
+     * @return union of closures of all the given roles
+     */
+    BitSet closureOf(BitSet roles) {
+        BitSet result = new BitSet();
+        for (int i = roles.nextSetBit(0); i >= 0; i = roles.nextSetBit(i + 1)) {
+            result.or(closureOf(i));
+        }
+        return result;
+    }
+
+    /**
+     * Same as {@link RoleModel#hasRole(RoleModel)}
+     */
+    boolean hasRole(RoleModel role, RoleModel contained) {
+        return closureOf(role).get(indexOf(contained));
+    }
+
+    BitSet getParents(int role) {
+        return parents.get(role);
+    }
+
+    // Composite roles may form cycles, so closures of roles still being expanded are never reused
+    private void expand(int role, BitSet closure) {
+        if (closure.get(role)) return;
+
+        BitSet expanded = closures.get(role);
+        if (expanded != null) {
+            closure.or(expanded);
+            return;
+        }
+
+        closure.set(role);
+        for (int contained : compositesOf(role)) {
+            expand(contained, closure);
+        }
+    }
+
+    private int[] compositesOf(int role) {
+        int[] result = composites.get(role);
+        if (result != null) return result;
+
+        RoleModel model = roles.get(role);
+        if (model.isComposite()) {
+            Collection<RoleModel> contained = model.getComposites();
+            result = new int[contained.size()];
+            int i = 0;
+            for (RoleModel c : contained) {
+                result[i] = indexOf(c);
+                parents.get(result[i]).set(role);
+                i++;
+            }
+        } else {
+            result = new int[0];
+        }
+        composites.set(role, result);
+        return result;
+    }
+
+}
@@ -62,6 +62,7 @@ import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -334,8 +335,34 @@ public class TokenManager {
         addGroupRoles(group.getParent(), roleMappings);
     }
 
+    /**
+     * Same result as {@link #applyScope(RoleModel, RoleModel, Set, Set)} called for the role and every scope, but with
+     * composites expanded just once.
+     */
+    private static void applyScope(RoleClosure closure, int role, BitSet scopes, BitSet reachable, Set<RoleModel> requested) {
+        BitSet roleClosure = closure.closureOf(role);
+        BitSet granted = (BitSet) roleClosure.clone();
+        granted.and(reachable);
+
+        // Scope walk stops at the first role, which the user role contains. So just roles being scopes themselves or
+        // reachable through some role not contained in the user role are requested
+        for (int i = granted.nextSetBit(0); i >= 0; i = granted.nextSetBit(i + 1)) {
+            if (scopes.get(i) || hasParentOutside(closure.getParents(i), reachable, roleClosure)) {
+                requested.add(closure.getRole(i));
+            }
+        }
+    }
+
+    private static boolean hasParentOutside(BitSet parents, BitSet reachable, BitSet roleClosure) {
+        for (int p = parents.nextSetBit(0); p >= 0; p = parents.nextSetBit(p + 1)) {
+            if (reachable.get(p) && !roleClosure.get(p)) return true;
+        }
+        return false;
+    }
+
     public static Set<RoleModel> getAccess(String scopeParam, boolean applyScopeParam, ClientModel client, UserModel user) {
         Set<RoleModel> requestedRoles = new HashSet<RoleModel>();
+        RoleClosure closure = new RoleClosure();
 
         Set<RoleModel> mappings = user.getRoleMappings();
         Set<RoleModel> roleMappings = new HashSet<>();
@@ -361,11 +388,10 @@ public class TokenManager {
             scopeMappings.addAll(client.getRoles());
             Set<RoleModel> clientScopeMappings = client.getScopeMappings();
             scopeMappings.addAll(clientScopeMappings);
+            BitSet scopes = closure.indexOf(scopeMappings);
+            BitSet reachable = closure.closureOf(scopes);
             for (RoleModel role : roleMappings) {
-                for (RoleModel desiredRole : scopeMappings) {
-                    Set<RoleModel> visited = new HashSet<RoleModel>();
-                    applyScope(role, desiredRole, visited, requestedRoles);
-                }
+                applyScope(closure, closure.indexOf(role), scopes, reachable, requestedRoles);
             }
         }
         if (applyScopeParam) {
@@ -395,7 +421,7 @@ public class TokenManager {
                 RoleModel scopeParamRole = getRoleFromScopeParam(client.getRealm(), scopeParamPart);
                 if (scopeParamRole != null) {
                     for (RoleModel role : roles) {
-                        if (role.hasRole(scopeParamRole)) {
+                        if (closure.hasRole(role, scopeParamRole)) {
                             scopeRoles.add(scopeParamRole);
                         }
                     }
@@ -547,6 +573,7 @@ public class TokenManager {
 
     public String encodeToken(RealmModel realm, Object token) {
         String encodedToken = new JWSBuilder()
+                .kid(realm.getKeyId())
                 .jsonContent(token)
                 .rsa256(realm.getPrivateKey());
         return encodedToken;
@@ -657,11 +684,11 @@ public class TokenManager {
 
             AccessTokenResponse res = new AccessTokenResponse();
             if (idToken != null) {
-                String encodedToken = new JWSBuilder().jsonContent(idToken).rsa256(realm.getPrivateKey());
+                String encodedToken = encodeToken(realm, idToken);
                 res.setIdToken(encodedToken);
             }
             if (accessToken != null) {
-                String encodedToken = new JWSBuilder().jsonContent(accessToken).rsa256(realm.getPrivateKey());
+                String encodedToken = encodeToken(realm, accessToken);
                 res.setToken(encodedToken);
                 res.setTokenType("bearer");
                 res.setSessionState(accessToken.getSessionState());
@@ -670,7 +697,7 @@ public class TokenManager {
                 }
             }
             if (refreshToken != null) {
-                String encodedToken = new JWSBuilder().jsonContent(refreshToken).rsa256(realm.getPrivateKey());
+                String encodedToken = encodeToken(realm, refreshToken);
                 res.setRefreshToken(encodedToken);
                 if (refreshToken.getExpiration() != 0) {
                     res.setRefreshExpiresIn(refreshToken.getExpiration() - Time.currentTime());
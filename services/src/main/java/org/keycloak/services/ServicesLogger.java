@@ -401,4 +401,12 @@ public interface ServicesLogger extends BasicLogger {
     @LogMessage(level = ERROR)
     @Message(id=90, value="Failed to close ProviderSession")
     void failedToCloseProviderSession(@Cause Throwable t);
+
+    @LogMessage(level = WARN)
+    @Message(id=91, value="Failed to send admin request to '%s'")
+    void failedToSendAdminRequest(@Cause Throwable t, String managementUrl);
+
+    @LogMessage(level = WARN)
+    @Message(id=92, value="Authentication could not be processed: %s")
+    void authenticationUnavailable(String reason);
 }
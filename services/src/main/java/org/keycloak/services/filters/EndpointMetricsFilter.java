@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.services.filters;
+
+import org.jboss.resteasy.spi.ResteasyProviderFactory;
+import org.keycloak.metrics.MetricsProvider;
+import org.keycloak.models.KeycloakSession;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import java.io.IOException;
+import java.lang.reflect.Method;
+
+/**
+ * Records latency of JAX-RS resource methods as "endpoint.[resource class].[method]" histograms. The time of writing response
+ * body isn't included.
+ */
+public class EndpointMetricsFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    private static final String START_TIME = EndpointMetricsFilter.class.getName() + ".startTime";
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) throws IOException {
+        requestContext.setProperty(START_TIME, System.nanoTime());
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) throws IOException {
+        Long start = (Long) requestContext.getProperty(START_TIME);
+        if (start == null) return;
+
+        KeycloakSession session = ResteasyProviderFactory.getContextData(KeycloakSession.class);
+        MetricsProvider metrics = session != null ? session.getProvider(MetricsProvider.class) : null;
+        Method method = resourceInfo.getResourceMethod();
+        if (metrics == null || method == null) return;
+
+        metrics.record("endpoint." + resourceInfo.getResourceClass().getSimpleName() + "." + method.getName(), System.nanoTime() - start);
+    }
+
+}
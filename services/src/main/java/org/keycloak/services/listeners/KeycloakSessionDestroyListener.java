@@ -18,6 +18,7 @@
 package org.keycloak.services.listeners;
 
 import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.services.scheduled.ClearExpiredUserSessions;
 
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
@@ -33,6 +34,11 @@ public class KeycloakSessionDestroyListener implements ServletContextListener {
 
     @Override
     public void contextDestroyed(ServletContextEvent sce) {
+        ClearExpiredUserSessions clearExpiredUserSessions = (ClearExpiredUserSessions) sce.getServletContext().getAttribute(ClearExpiredUserSessions.class.getName());
+        if (clearExpiredUserSessions != null) {
+            clearExpiredUserSessions.close();
+        }
+
         KeycloakSessionFactory sessionFactory = (KeycloakSessionFactory) sce.getServletContext().getAttribute(KeycloakSessionFactory.class.getName());
         if (sessionFactory != null) {
             sessionFactory.close();
@@ -18,6 +18,7 @@ package org.keycloak.services.managers;
 
 
 import org.keycloak.common.ClientConnection;
+import org.keycloak.metrics.MetricsProvider;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.RealmModel;
@@ -27,36 +28,54 @@ import org.keycloak.services.ServicesLogger;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
 
 /**
  * A single thread will log failures.  This is so that we can avoid concurrent writes as we want an accurate failure count
+ * <p>
+ * Failures are split among several such workers by realm and username, so failures of the same user are always
+ * written by the same worker. When the queue of the worker is full, the failure is merged with other overflowing failures
+ * of the same user, which the worker logs together with its queue. Only when even the overflow reaches the size of the
+ * queue, failures of users not overflowing yet are dropped.
  *
  * @author <a href="mailto:bill@burkecentral.com">Bill Burke</a>
  * @version $Revision: 1 $
  */
-public class DefaultBruteForceProtector implements Runnable, BruteForceProtector {
+public class DefaultBruteForceProtector implements BruteForceProtector {
     protected static ServicesLogger logger = ServicesLogger.ROOT_LOGGER;
 
+    public static final int DEFAULT_WORKERS = 4;
+    public static final int DEFAULT_QUEUE_SIZE = 10000;
+
     protected volatile boolean run = true;
     protected int maxDeltaTimeSeconds = 60 * 60 * 12; // 12 hours
     protected KeycloakSessionFactory factory;
-    protected CountDownLatch shutdownLatch = new CountDownLatch(1);
+    protected CountDownLatch shutdownLatch;
 
-    protected volatile long failures;
-    protected volatile long lastFailure;
-    protected volatile long totalTime;
+    protected final AtomicLong failures = new AtomicLong();
+    protected final AtomicLong mergedFailures = new AtomicLong();
+    protected final AtomicLong droppedFailures = new AtomicLong();
 
-    protected LinkedBlockingQueue<LoginEvent> queue = new LinkedBlockingQueue<LoginEvent>();
+    protected final Worker[] workers;
     public static final int TRANSACTION_SIZE = 20;
 
+    // Time the failed login waits until its failure is logged, including waiting for free space in the queue
+    protected static final long FAILURE_WAIT_MILLIS = 5000;
+    protected long failureWaitMillis = FAILURE_WAIT_MILLIS;
+
 
     protected abstract class LoginEvent implements Comparable<LoginEvent> {
         protected final String realmId;
         protected final String username;
         protected final String ip;
+        protected final long created = System.nanoTime();
 
         protected LoginEvent(String realmId, String username, String ip) {
             this.realmId = realmId;
@@ -79,19 +98,42 @@ public class DefaultBruteForceProtector implements Runnable, BruteForceProtector
     protected class FailedLogin extends LoginEvent {
         protected final CountDownLatch latch = new CountDownLatch(1);
 
+        // Number of failures merged into this one while the queue was full
+        protected final AtomicInteger count = new AtomicInteger(1);
+
         public FailedLogin(String realmId, String username, String ip) {
             super(realmId, username, ip);
         }
     }
 
+    private static final BiFunction<FailedLogin, FailedLogin, FailedLogin> MERGE_FAILURES = new BiFunction<FailedLogin, FailedLogin, FailedLogin>() {
+        @Override
+        public FailedLogin apply(FailedLogin existing, FailedLogin added) {
+            existing.count.incrementAndGet();
+            return existing;
+        }
+    };
+
     public DefaultBruteForceProtector(KeycloakSessionFactory factory) {
+        this(factory, DEFAULT_WORKERS, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * @param workerCount number of threads logging failures
+     * @param queueSize maximum number of failures waiting to be logged. Split evenly among workers
+     */
+    public DefaultBruteForceProtector(KeycloakSessionFactory factory, int workerCount, int queueSize) {
         this.factory = factory;
+        this.workers = new Worker[Math.max(1, workerCount)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(Math.max(1, queueSize / workers.length));
+        }
     }
 
     public void failure(KeycloakSession session, LoginEvent event) {
         logger.debug("failure");
         RealmModel realm = getRealmModel(session, event);
-        logFailure(event);
+        getWorker(event).logFailure(event);
         UserModel user = session.users().getUserByUsername(event.username.toString(), realm);
         UsernameLoginFailureModel userLoginFailure = getUserModel(session, event);
         if (user != null) {
@@ -150,79 +192,158 @@ public class DefaultBruteForceProtector implements Runnable, BruteForceProtector
     }
 
     public void start() {
-        new Thread(this, "Brute Force Protector").start();
+        shutdownLatch = new CountDownLatch(workers.length);
+        for (int i = 0; i < workers.length; i++) {
+            String name = workers.length == 1 ? "Brute Force Protector" : "Brute Force Protector " + (i + 1);
+            new Thread(workers[i], name).start();
+        }
     }
 
     public void shutdown() {
         run = false;
         try {
-            queue.offer(new ShutdownEvent());
-            shutdownLatch.await(10, TimeUnit.SECONDS);
+            for (Worker worker : workers) {
+                // Worker stops within the poll timeout even if its queue is full
+                worker.queue.offer(new ShutdownEvent());
+            }
+            if (shutdownLatch != null) {
+                shutdownLatch.await(10, TimeUnit.SECONDS);
+            }
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
     }
 
-    public void run() {
-        final ArrayList<LoginEvent> events = new ArrayList<LoginEvent>(TRANSACTION_SIZE + 1);
-        try {
-            while (run) {
-                try {
-                    LoginEvent take = queue.poll(2, TimeUnit.SECONDS);
-                    if (take == null) {
-                        continue;
-                    }
+    // All failures of the same user in the realm are processed by the same worker
+    protected Worker getWorker(LoginEvent event) {
+        int hash = getUserKey(event).hashCode();
+        return workers[(hash & Integer.MAX_VALUE) % workers.length];
+    }
+
+    protected static String getUserKey(LoginEvent event) {
+        return event.realmId + "/" + event.username.toLowerCase();
+    }
+
+    protected class Worker implements Runnable {
+
+        protected final BlockingQueue<LoginEvent> queue;
+
+        // Failures which didn't fit into the queue, merged by user. Bounded by the size of the queue
+        protected final ConcurrentHashMap<String, FailedLogin> overflow = new ConcurrentHashMap<String, FailedLogin>();
+        protected final int maxOverflow;
+
+        protected long lastFailure;
+        protected long totalTime;
+
+        protected Worker(int queueSize) {
+            this.queue = new ArrayBlockingQueue<LoginEvent>(queueSize);
+            this.maxOverflow = queueSize;
+        }
+
+        public void run() {
+            final ArrayList<LoginEvent> events = new ArrayList<LoginEvent>(TRANSACTION_SIZE + 1);
+            try {
+                while (run) {
                     try {
-                        events.add(take);
-                        queue.drainTo(events, TRANSACTION_SIZE);
-                        Collections.sort(events); // we sort to avoid deadlock due to ordered updates.  Maybe I'm overthinking this.
-                        KeycloakSession session = factory.create();
-                        session.getTransaction().begin();
+                        LoginEvent take = queue.poll(2, TimeUnit.SECONDS);
+                        if (take != null) {
+                            events.add(take);
+                            queue.drainTo(events, TRANSACTION_SIZE);
+                        }
+                        drainOverflow(events);
+                        if (events.isEmpty()) {
+                            continue;
+                        }
                         try {
-                            for (LoginEvent event : events) {
-                                if (event instanceof FailedLogin) {
-                                    failure(session, event);
-                                } else if (event instanceof ShutdownEvent) {
-                                    run = false;
-                                }
-                            }
-                            session.getTransaction().commit();
+                            Collections.sort(events); // we sort to avoid deadlock due to ordered updates.  Maybe I'm overthinking this.
+                            processEvents(events);
                         } catch (Exception e) {
-                            session.getTransaction().rollback();
-                            throw e;
-                        } finally {
-                            for (LoginEvent event : events) {
-                                if (event instanceof FailedLogin) {
-                                    ((FailedLogin) event).latch.countDown();
-                                }
-                            }
-                            events.clear();
-                            session.close();
+                            logger.failedProcessingType(e);
                         }
-                    } catch (Exception e) {
-                        logger.failedProcessingType(e);
+                    } catch (InterruptedException e) {
+                        break;
                     }
-                } catch (InterruptedException e) {
-                    break;
                 }
+            } finally {
+                shutdownLatch.countDown();
             }
-        } finally {
-            shutdownLatch.countDown();
         }
+
+        protected void drainOverflow(ArrayList<LoginEvent> events) {
+            for (String key : overflow.keySet()) {
+                if (events.size() > TRANSACTION_SIZE) {
+                    return;
+                }
+                FailedLogin event = overflow.remove(key);
+                if (event != null) {
+                    events.add(event);
+                }
+            }
+        }
+
+        /**
+         * Called from the calling thread when the queue is full. Doesn't block, the failure is logged later by the worker
+         *
+         * @return false if the failure was dropped
+         */
+        protected boolean addOverflow(FailedLogin event) {
+            String key = getUserKey(event);
+            if (overflow.size() >= maxOverflow && !overflow.containsKey(key)) {
+                return false;
+            }
+            if (overflow.merge(key, event, MERGE_FAILURES) != event) {
+                mergedFailures.incrementAndGet();
+            }
+            return true;
+        }
+
+        // Only statistics of this worker, so workers don't contend on a single lock
+        protected synchronized void logFailure(LoginEvent event) {
+            logger.loginFailure(event.username, event.ip);
+            failures.incrementAndGet();
+            long delta = 0;
+            if (lastFailure > 0) {
+                delta = System.currentTimeMillis() - lastFailure;
+                if (delta > (long) maxDeltaTimeSeconds * 1000L) {
+                    totalTime = 0;
+
+                } else {
+                    totalTime += delta;
+                }
+            }
+        }
+
     }
 
-    protected void logFailure(LoginEvent event) {
-        logger.loginFailure(event.username, event.ip);
-        failures++;
-        long delta = 0;
-        if (lastFailure > 0) {
-            delta = System.currentTimeMillis() - lastFailure;
-            if (delta > (long)maxDeltaTimeSeconds * 1000L) {
-                totalTime = 0;
-
-            } else {
-                totalTime += delta;
+    protected void processEvents(ArrayList<LoginEvent> events) throws Exception {
+        KeycloakSession session = factory.create();
+        session.getTransaction().begin();
+        MetricsProvider metrics = session.getProvider(MetricsProvider.class);
+        long start = System.nanoTime();
+        try {
+            for (LoginEvent event : events) {
+                if (event instanceof FailedLogin) {
+                    if (metrics != null) metrics.record("bruteforce.queue", start - event.created);
+                    for (int i = ((FailedLogin) event).count.get(); i > 0; i--) {
+                        failure(session, event);
+                    }
+                } else if (event instanceof ShutdownEvent) {
+                    run = false;
+                }
             }
+            session.getTransaction().commit();
+            if (metrics != null) metrics.record("bruteforce.batch", System.nanoTime() - start);
+        } catch (Exception e) {
+            session.getTransaction().rollback();
+            throw e;
+        } finally {
+            for (LoginEvent event : events) {
+                if (event instanceof FailedLogin) {
+                    ((FailedLogin) event).latch.countDown();
+                }
+            }
+            events.clear();
+            session.close();
         }
     }
 
@@ -230,11 +351,24 @@ public class DefaultBruteForceProtector implements Runnable, BruteForceProtector
     public void failedLogin(RealmModel realm, String username, ClientConnection clientConnection) {
         try {
             FailedLogin event = new FailedLogin(realm.getId(), username, clientConnection.getRemoteAddr());
-            queue.offer(event);
+            long deadline = System.currentTimeMillis() + failureWaitMillis;
+
+            // Full queue slows down the failed logins rather than growing without limit
+            Worker worker = getWorker(event);
+            if (!worker.queue.offer(event, failureWaitMillis, TimeUnit.MILLISECONDS)) {
+                // Failures of the flooding users are merged, so the lockout of those users still applies
+                if (worker.addOverflow(event)) {
+                    logger.debugf("Brute force queue is full. Failure of user '%s' merged with other failures, total merged: %d", username, mergedFailures.get());
+                } else {
+                    logger.warnf("Brute force queue is full. Failure of user '%s' dropped, total dropped: %d", username, droppedFailures.incrementAndGet());
+                }
+                return;
+            }
+
             // wait a minimum of seconds for type to process so that a hacker
             // cannot flood with failed logins and overwhelm the queue and not have notBefore updated to block next requests
             // todo failure HTTP responses should be queued via async HTTP
-            event.latch.await(5, TimeUnit.SECONDS);
+            event.latch.await(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
 
         } catch (InterruptedException e) {
         }
@@ -27,6 +27,8 @@ import org.keycloak.models.KeycloakSessionFactory;
  */
 public class DefaultBruteForceProtectorFactory implements BruteForceProtectorFactory {
     DefaultBruteForceProtector protector;
+    int workers;
+    int queueSize;
 
     @Override
     public BruteForceProtector create(KeycloakSession session) {
@@ -35,12 +37,13 @@ public class DefaultBruteForceProtectorFactory implements BruteForceProtectorFac
 
     @Override
     public void init(Config.Scope config) {
-
+        workers = config.getInt("workers", DefaultBruteForceProtector.DEFAULT_WORKERS);
+        queueSize = config.getInt("queueSize", DefaultBruteForceProtector.DEFAULT_QUEUE_SIZE);
     }
 
     @Override
     public void postInit(KeycloakSessionFactory factory) {
-        protector = new DefaultBruteForceProtector(factory);
+        protector = new DefaultBruteForceProtector(factory, workers, queueSize);
         protector.start();
 
     }
@@ -19,13 +19,14 @@ package org.keycloak.services.managers;
 import org.keycloak.TokenIdGenerator;
 import org.keycloak.connections.httpclient.HttpClientProvider;
 import org.keycloak.constants.AdapterConstants;
+import org.keycloak.jose.jws.JWSBuilder;
 import org.keycloak.models.ClientModel;
 import org.keycloak.models.ClientSessionModel;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
 import org.keycloak.models.UserSessionModel;
-import org.keycloak.protocol.oidc.TokenManager;
+import org.keycloak.representations.adapters.action.AdminAction;
 import org.keycloak.representations.adapters.action.GlobalRequestResult;
 import org.keycloak.representations.adapters.action.LogoutAction;
 import org.keycloak.representations.adapters.action.PushNotBeforeAction;
@@ -39,14 +40,25 @@ import org.keycloak.common.util.Time;
 
 import javax.ws.rs.core.UriBuilder;
 import java.io.IOException;
+import java.net.SocketTimeoutException;
 import java.net.URI;
+import java.security.PrivateKey;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author <a href="mailto:bill@burkecentral.com">Bill Burke</a>
@@ -56,12 +68,35 @@ public class ResourceAdminManager {
     protected static ServicesLogger logger = ServicesLogger.ROOT_LOGGER;
     private static final String CLIENT_SESSION_HOST_PROPERTY = "${application.session.host}";
 
+    // Requests to the nodes of all clients are sent in parallel by threads shared by all operations of the server
+    private static final int MAX_PARALLEL_REQUESTS = 16;
+
+    // When this many requests are waiting for a thread, the caller sends the request itself, which slows down new operations
+    private static final int MAX_QUEUED_REQUESTS = 1000;
+
+    // Timeout of single attempt. Same as expiration of the admin action, which is created for each attempt
+    private static final int REQUEST_TIMEOUT_MILLIS = 30000;
+    private static final int ACTION_EXPIRATION_SECONDS = REQUEST_TIMEOUT_MILLIS / 1000;
+
+    // Nodes, which can't be connected, are tried again after a delay doubled with each attempt
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long INITIAL_BACKOFF_MILLIS = 500;
+
+    private static final ThreadPoolExecutor EXECUTOR = createExecutor();
+
     private KeycloakSession session;
 
     public ResourceAdminManager(KeycloakSession session) {
         this.session = session;
     }
 
+    private static ThreadPoolExecutor createExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_PARALLEL_REQUESTS, MAX_PARALLEL_REQUESTS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(MAX_QUEUED_REQUESTS), new AdminRequestThreadFactory(), new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     public static String resolveUri(URI requestUri, String rootUrl, String uri) {
         String absoluteURI = ResolveRelative.resolveRelativeUri(requestUri, rootUrl, uri);
         return StringPropertyReplacer.replaceProperties(absoluteURI);
@@ -120,9 +155,11 @@ public class ResourceAdminManager {
         logger.debugv("logging out {0} resources ", clientSessions.size());
         //logger.infov("logging out resources: {0}", clientSessions);
 
+        List<AdminRequest> requests = new LinkedList<>();
         for (Map.Entry<ClientModel, List<ClientSessionModel>> entry : clientSessions.entrySet()) {
-            logoutClientSessions(requestUri, realm, entry.getKey(), entry.getValue());
+            addLogoutRequests(requestUri, entry.getKey(), entry.getValue(), requests);
         }
+        sendAsync(realm, requests);
     }
 
     private void putClientSessions(MultivaluedHashMap<ClientModel, ClientSessionModel> clientSessions, UserSessionModel userSession) {
@@ -146,11 +183,23 @@ public class ResourceAdminManager {
         logoutClientSessions(requestUri, realm, resource, ourAppClientSessions);
     }
 
-    public boolean logoutClientSession(URI requestUri, RealmModel realm, ClientModel resource, ClientSessionModel clientSession) {
+    /**
+     * @return handle of the logout requests sent in background, or null if there is nothing to send
+     */
+    public AdminRequestJob logoutClientSession(URI requestUri, RealmModel realm, ClientModel resource, ClientSessionModel clientSession) {
         return logoutClientSessions(requestUri, realm, resource, Arrays.asList(clientSession));
     }
 
-    protected boolean logoutClientSessions(URI requestUri, RealmModel realm, ClientModel resource, List<ClientSessionModel> clientSessions) {
+    protected AdminRequestJob logoutClientSessions(URI requestUri, RealmModel realm, ClientModel resource, List<ClientSessionModel> clientSessions) {
+        List<AdminRequest> requests = new LinkedList<>();
+        if (!addLogoutRequests(requestUri, resource, clientSessions, requests)) {
+            return null;
+        }
+
+        return sendAsync(realm, requests);
+    }
+
+    private boolean addLogoutRequests(URI requestUri, ClientModel resource, List<ClientSessionModel> clientSessions, List<AdminRequest> requests) {
         String managementUrl = getManagementUrl(requestUri, resource);
         if (managementUrl != null) {
 
@@ -175,16 +224,13 @@ public class ResourceAdminManager {
             }
 
             if (managementUrl.contains(CLIENT_SESSION_HOST_PROPERTY)) {
-                boolean allPassed = true;
                 // Send logout separately to each host (needed for single-sign-out in cluster for non-distributable apps - KEYCLOAK-748)
                 for (Map.Entry<String, List<String>> entry : adapterSessionIds.entrySet()) {
                     String host = entry.getKey();
                     List<String> sessionIds = entry.getValue();
                     String currentHostMgmtUrl = managementUrl.replace(CLIENT_SESSION_HOST_PROPERTY, host);
-                    allPassed = sendLogoutRequest(realm, resource, sessionIds, userSessions, 0, currentHostMgmtUrl) && allPassed;
+                    requests.add(logoutRequest(resource, sessionIds, userSessions, 0, currentHostMgmtUrl));
                 }
-
-                return allPassed;
             } else {
                 // Send single logout request
                 List<String> allSessionIds = new ArrayList<String>();
@@ -192,8 +238,9 @@ public class ResourceAdminManager {
                     allSessionIds.addAll(currentIds);
                 }
 
-                return sendLogoutRequest(realm, resource, allSessionIds, userSessions, 0, managementUrl);
+                requests.add(logoutRequest(resource, allSessionIds, userSessions, 0, managementUrl));
             }
+            return true;
         } else {
             logger.debugv("Can't logout {0}: no management url", resource.getClientId());
             return false;
@@ -207,12 +254,11 @@ public class ResourceAdminManager {
         List<ClientModel> resources = realm.getClients();
         logger.debugv("logging out {0} resources ", resources.size());
 
-        GlobalRequestResult finalResult = new GlobalRequestResult();
+        List<AdminRequest> requests = new LinkedList<>();
         for (ClientModel resource : resources) {
-            GlobalRequestResult currentResult = logoutClient(requestUri, realm, resource, realm.getNotBefore());
-            finalResult.addAll(currentResult);
+            addLogoutClientRequests(requestUri, resource, realm.getNotBefore(), requests);
         }
-        return finalResult;
+        return send(realm, requests);
     }
 
     public GlobalRequestResult logoutClient(URI requestUri, RealmModel realm, ClientModel resource) {
@@ -222,49 +268,49 @@ public class ResourceAdminManager {
 
 
     protected GlobalRequestResult logoutClient(URI requestUri, RealmModel realm, ClientModel resource, int notBefore) {
+        List<AdminRequest> requests = new LinkedList<>();
+        addLogoutClientRequests(requestUri, resource, notBefore, requests);
+        return send(realm, requests);
+    }
+
+    private void addLogoutClientRequests(URI requestUri, ClientModel resource, int notBefore, List<AdminRequest> requests) {
         List<String> mgmtUrls = getAllManagementUrls(requestUri, resource);
         if (mgmtUrls.isEmpty()) {
             logger.debug("No management URL or no registered cluster nodes for the client " + resource.getClientId());
-            return new GlobalRequestResult();
+            return;
         }
 
         if (logger.isDebugEnabled()) logger.debug("Send logoutClient for URLs: " + mgmtUrls);
 
         // Propagate this to all hosts
-        GlobalRequestResult result = new GlobalRequestResult();
         for (String mgmtUrl : mgmtUrls) {
-            if (sendLogoutRequest(realm, resource, null, null, notBefore, mgmtUrl)) {
-                result.addSuccessRequest(mgmtUrl);
-            } else {
-                result.addFailedRequest(mgmtUrl);
-            }
+            requests.add(logoutRequest(resource, null, null, notBefore, mgmtUrl));
         }
-        return result;
     }
 
-    protected boolean sendLogoutRequest(RealmModel realm, ClientModel resource, List<String> adapterSessionIds, List<String> userSessions, int notBefore, String managementUrl) {
-        LogoutAction adminAction = new LogoutAction(TokenIdGenerator.generateId(), Time.currentTime() + 30, resource.getClientId(), adapterSessionIds, notBefore, userSessions);
-        String token = new TokenManager().encodeToken(realm, adminAction);
+    protected AdminRequest logoutRequest(ClientModel resource, final List<String> adapterSessionIds, final List<String> userSessions, final int notBefore, String managementUrl) {
         if (logger.isDebugEnabled()) logger.debugv("logout resource {0} url: {1} sessionIds: " + adapterSessionIds, resource.getClientId(), managementUrl);
-        URI target = UriBuilder.fromUri(managementUrl).path(AdapterConstants.K_LOGOUT).build();
-        try {
-            int status = session.getProvider(HttpClientProvider.class).postText(target.toString(), token);
-            boolean success = status == 204 || status == 200;
-            logger.debugf("logout success for %s: %s", managementUrl, success);
-            return success;
-        } catch (IOException e) {
-            logger.logoutFailed(e, resource.getClientId());
-            return false;
-        }
+        return new AdminRequest(resource.getClientId(), managementUrl, AdapterConstants.K_LOGOUT, true) {
+
+            @Override
+            protected AdminAction createAction(int expiration) {
+                return new LogoutAction(TokenIdGenerator.generateId(), expiration, clientId, adapterSessionIds, notBefore, userSessions);
+            }
+
+            @Override
+            protected void failed(IOException e) {
+                logger.logoutFailed(e, clientId);
+            }
+
+        };
     }
 
     public GlobalRequestResult pushRealmRevocationPolicy(URI requestUri, RealmModel realm) {
-        GlobalRequestResult finalResult = new GlobalRequestResult();
+        List<AdminRequest> requests = new LinkedList<>();
         for (ClientModel client : realm.getClients()) {
-            GlobalRequestResult currentResult = pushRevocationPolicy(requestUri, realm, client, realm.getNotBefore());
-            finalResult.addAll(currentResult);
+            addPushRevocationPolicyRequests(requestUri, client, realm.getNotBefore(), requests);
         }
-        return finalResult;
+        return send(realm, requests);
     }
 
     public GlobalRequestResult pushClientRevocationPolicy(URI requestUri, RealmModel realm, ClientModel client) {
@@ -273,40 +319,41 @@ public class ResourceAdminManager {
 
 
     protected GlobalRequestResult pushRevocationPolicy(URI requestUri, RealmModel realm, ClientModel resource, int notBefore) {
+        List<AdminRequest> requests = new LinkedList<>();
+        addPushRevocationPolicyRequests(requestUri, resource, notBefore, requests);
+        return send(realm, requests);
+    }
+
+    private void addPushRevocationPolicyRequests(URI requestUri, ClientModel resource, int notBefore, List<AdminRequest> requests) {
         List<String> mgmtUrls = getAllManagementUrls(requestUri, resource);
         if (mgmtUrls.isEmpty()) {
             logger.debugf("No management URL or no registered cluster nodes for the client %s", resource.getClientId());
-            return new GlobalRequestResult();
+            return;
         }
 
         if (logger.isDebugEnabled()) logger.debug("Sending push revocation to URLS: " + mgmtUrls);
 
         // Propagate this to all hosts
-        GlobalRequestResult result = new GlobalRequestResult();
         for (String mgmtUrl : mgmtUrls) {
-            if (sendPushRevocationPolicyRequest(realm, resource, notBefore, mgmtUrl)) {
-                result.addSuccessRequest(mgmtUrl);
-            } else {
-                result.addFailedRequest(mgmtUrl);
-            }
+            requests.add(pushRevocationPolicyRequest(resource, notBefore, mgmtUrl));
         }
-        return result;
     }
 
-    protected boolean sendPushRevocationPolicyRequest(RealmModel realm, ClientModel resource, int notBefore, String managementUrl) {
-        PushNotBeforeAction adminAction = new PushNotBeforeAction(TokenIdGenerator.generateId(), Time.currentTime() + 30, resource.getClientId(), notBefore);
-        String token = new TokenManager().encodeToken(realm, adminAction);
+    protected AdminRequest pushRevocationPolicyRequest(ClientModel resource, final int notBefore, String managementUrl) {
         logger.debugv("pushRevocation resource: {0} url: {1}", resource.getClientId(), managementUrl);
-        URI target = UriBuilder.fromUri(managementUrl).path(AdapterConstants.K_PUSH_NOT_BEFORE).build();
-        try {
-            int status = session.getProvider(HttpClientProvider.class).postText(target.toString(), token);
-            boolean success = status == 204 || status == 200;
-            logger.debugf("pushRevocation success for %s: %s", managementUrl, success);
-            return success;
-        } catch (IOException e) {
-            logger.failedToSendRevocation(e);
-            return false;
-        }
+        return new AdminRequest(resource.getClientId(), managementUrl, AdapterConstants.K_PUSH_NOT_BEFORE, true) {
+
+            @Override
+            protected AdminAction createAction(int expiration) {
+                return new PushNotBeforeAction(TokenIdGenerator.generateId(), expiration, clientId, notBefore);
+            }
+
+            @Override
+            protected void failed(IOException e) {
+                logger.failedToSendRevocation(e);
+            }
+
+        };
     }
 
     public GlobalRequestResult testNodesAvailability(URI requestUri, RealmModel realm, ClientModel client) {
@@ -320,31 +367,184 @@ public class ResourceAdminManager {
         if (logger.isDebugEnabled()) logger.debug("Sending test nodes availability: " + mgmtUrls);
 
         // Propagate this to all hosts
-        GlobalRequestResult result = new GlobalRequestResult();
+        List<AdminRequest> requests = new LinkedList<>();
         for (String mgmtUrl : mgmtUrls) {
-            if (sendTestNodeAvailabilityRequest(realm, client, mgmtUrl)) {
-                result.addSuccessRequest(mgmtUrl);
-            } else {
-                result.addFailedRequest(mgmtUrl);
-            }
+            requests.add(testNodeAvailabilityRequest(client, mgmtUrl));
         }
-        return result;
+        return send(realm, requests);
     }
 
-    protected boolean sendTestNodeAvailabilityRequest(RealmModel realm, ClientModel client, String managementUrl) {
-        TestAvailabilityAction adminAction = new TestAvailabilityAction(TokenIdGenerator.generateId(), Time.currentTime() + 30, client.getClientId());
-        String token = new TokenManager().encodeToken(realm, adminAction);
+    protected AdminRequest testNodeAvailabilityRequest(ClientModel client, String managementUrl) {
         logger.debugv("testNodes availability resource: {0} url: {1}", client.getClientId(), managementUrl);
-        URI target = UriBuilder.fromUri(managementUrl).path(AdapterConstants.K_TEST_AVAILABLE).build();
-        try {
-            int status = session.getProvider(HttpClientProvider.class).postText(target.toString(), token);
-            boolean success = status == 204 || status == 200;
-            logger.debugf("testAvailability success for %s: %s", managementUrl, success);
-            return success;
-        } catch (IOException e) {
-            logger.availabilityTestFailed(managementUrl);
-            return false;
-        }
+
+        // Not retried, unavailable node should be reported without delay
+        return new AdminRequest(client.getClientId(), managementUrl, AdapterConstants.K_TEST_AVAILABLE, false) {
+
+            @Override
+            protected AdminAction createAction(int expiration) {
+                return new TestAvailabilityAction(TokenIdGenerator.generateId(), expiration, clientId);
+            }
+
+            @Override
+            protected void failed(IOException e) {
+                logger.availabilityTestFailed(managementUrl);
+            }
+
+        };
    }
 
+    /**
+     * Sends the requests in parallel and waits until all of them are finished. Each request is bounded by
+     * {@link #REQUEST_TIMEOUT_MILLIS} per attempt, so a slow node can't block the others.
+     */
+    protected GlobalRequestResult send(RealmModel realm, List<AdminRequest> requests) {
+        return sendAsync(realm, requests).getResult();
+    }
+
+    /**
+     * Sends the requests in parallel by the shared threads and returns right away.
+     *
+     * @return handle to check or wait for the results of the requests
+     */
+    protected AdminRequestJob sendAsync(RealmModel realm, List<AdminRequest> requests) {
+        // Models and session aren't thread-safe, so workers get just what they need to sign and send the request
+        final HttpClientProvider httpClient = session.getProvider(HttpClientProvider.class);
+        final String kid = realm.getKeyId();
+        final PrivateKey privateKey = realm.getPrivateKey();
+
+        List<Future<Boolean>> futures = new ArrayList<>(requests.size());
+        for (final AdminRequest request : requests) {
+            futures.add(EXECUTOR.submit(new Callable<Boolean>() {
+
+                @Override
+                public Boolean call() {
+                    return request.send(httpClient, kid, privateKey);
+                }
+
+            }));
+        }
+        return new AdminRequestJob(requests, futures);
+    }
+
+    /**
+     * Admin requests sent in background by {@link #sendAsync(RealmModel, List)}
+     */
+    public static class AdminRequestJob {
+
+        private final List<AdminRequest> requests;
+        private final List<Future<Boolean>> futures;
+
+        private AdminRequestJob(List<AdminRequest> requests, List<Future<Boolean>> futures) {
+            this.requests = requests;
+            this.futures = futures;
+        }
+
+        public boolean isDone() {
+            for (Future<Boolean> future : futures) {
+                if (!future.isDone()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Waits until all requests are finished
+         */
+        public GlobalRequestResult getResult() {
+            GlobalRequestResult result = new GlobalRequestResult();
+            Iterator<Future<Boolean>> futuresIterator = futures.iterator();
+            for (AdminRequest request : requests) {
+                boolean success = false;
+                try {
+                    success = futuresIterator.next().get();
+                } catch (ExecutionException e) {
+                    logger.failedToSendAdminRequest(e.getCause(), request.managementUrl);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                if (success) {
+                    result.addSuccessRequest(request.managementUrl);
+                } else {
+                    result.addFailedRequest(request.managementUrl);
+                }
+            }
+            return result;
+        }
+
+    }
+
+    /**
+     * Admin action sent to the management URL of a client. Doesn't use any models, so it can be sent from any thread.
+     * The action is created and signed for each attempt, so it doesn't expire while the request waits for a thread or
+     * for the next attempt.
+     */
+    protected abstract static class AdminRequest {
+
+        protected final String clientId;
+        protected final String managementUrl;
+        protected final String path;
+        protected final boolean retry;
+
+        protected AdminRequest(String clientId, String managementUrl, String path, boolean retry) {
+            this.clientId = clientId;
+            this.managementUrl = managementUrl;
+            this.path = path;
+            this.retry = retry;
+        }
+
+        protected boolean send(HttpClientProvider httpClient, String kid, PrivateKey privateKey) {
+            String target = UriBuilder.fromUri(managementUrl).path(path).build().toString();
+
+            long backoff = INITIAL_BACKOFF_MILLIS;
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    String token = new JWSBuilder()
+                            .kid(kid)
+                            .jsonContent(createAction(Time.currentTime() + ACTION_EXPIRATION_SECONDS))
+                            .rsa256(privateKey);
+                    int status = httpClient.postText(target, token, REQUEST_TIMEOUT_MILLIS);
+                    boolean success = status == 204 || status == 200;
+                    logger.debugf("%s success for %s: %s", path, managementUrl, success);
+                    return success;
+                } catch (IOException e) {
+                    // Actions are idempotent, so they can be sent again when the node wasn't reachable. Timed out request may
+                    // still be processed by the busy node, so it's not sent again
+                    if (!retry || attempt >= MAX_ATTEMPTS || e instanceof SocketTimeoutException) {
+                        failed(e);
+                        return false;
+                    }
+                    logger.debugf("%s attempt %d for %s failed, retrying in %d ms", path, attempt, managementUrl, backoff);
+                }
+
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                backoff *= 2;
+            }
+        }
+
+        protected abstract AdminAction createAction(int expiration);
+
+        protected abstract void failed(IOException e);
+
+    }
+
+    private static class AdminRequestThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "admin-request-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
 }
@@ -31,6 +31,7 @@ import org.keycloak.representations.idm.RealmRepresentation;
 import org.keycloak.representations.idm.UserRepresentation;
 import org.keycloak.services.DefaultKeycloakSessionFactory;
 import org.keycloak.services.ServicesLogger;
+import org.keycloak.services.filters.EndpointMetricsFilter;
 import org.keycloak.services.filters.KeycloakTransactionCommitter;
 import org.keycloak.services.managers.ApplianceBootstrap;
 import org.keycloak.services.managers.RealmManager;
@@ -88,6 +89,7 @@ public class KeycloakApplication extends Application {
         classes.add(JsResource.class);
 
         classes.add(KeycloakTransactionCommitter.class);
+        classes.add(EndpointMetricsFilter.class);
 
         singletons.add(new ObjectMapperResolver(Boolean.parseBoolean(System.getProperty("keycloak.jsonPrettyPrint", "false"))));
 
@@ -142,7 +144,8 @@ public class KeycloakApplication extends Application {
 
         singletons.add(new WelcomeResource(bootstrapAdminUser));
 
-        setupScheduledTasks(sessionFactory);
+        // Thread pool of the task is shut down by KeycloakSessionDestroyListener
+        context.setAttribute(ClearExpiredUserSessions.class.getName(), setupScheduledTasks(sessionFactory));
     }
 
     protected void migrateModel() {
@@ -212,18 +215,22 @@ public class KeycloakApplication extends Application {
         return factory;
     }
 
-    public static void setupScheduledTasks(final KeycloakSessionFactory sessionFactory) {
+    public static ClearExpiredUserSessions setupScheduledTasks(final KeycloakSessionFactory sessionFactory) {
         long interval = Config.scope("scheduled").getLong("interval", 60L) * 1000;
+        int userSessionsThreads = Config.scope("scheduled").getInt("userSessionsThreads", 4);
+
+        ClearExpiredUserSessions clearExpiredUserSessions = new ClearExpiredUserSessions(userSessionsThreads);
 
         KeycloakSession session = sessionFactory.create();
         try {
             TimerProvider timer = session.getProvider(TimerProvider.class);
             timer.schedule(new ClusterAwareScheduledTaskRunner(sessionFactory, new ClearExpiredEvents(), interval), interval, "ClearExpiredEvents");
-            timer.schedule(new ClusterAwareScheduledTaskRunner(sessionFactory, new ClearExpiredUserSessions(), interval), interval, "ClearExpiredUserSessions");
+            timer.schedule(new ClusterAwareScheduledTaskRunner(sessionFactory, clearExpiredUserSessions, interval), interval, "ClearExpiredUserSessions");
             new UsersSyncManager().bootstrapPeriodic(sessionFactory, timer);
         } finally {
             session.close();
         }
+        return clearExpiredUserSessions;
     }
 
     public KeycloakSessionFactory getSessionFactory() {
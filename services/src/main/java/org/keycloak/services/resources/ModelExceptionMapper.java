@@ -24,6 +24,7 @@ import javax.ws.rs.ext.Provider;
 import org.keycloak.messages.MessagesProvider;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.ModelException;
+import org.keycloak.models.ModelUnavailableException;
 import org.keycloak.services.ErrorResponse;
 import org.keycloak.services.ServicesLogger;
 
@@ -43,6 +44,11 @@ public class ModelExceptionMapper implements ExceptionMapper<ModelException> {
         String message = session.getProvider(MessagesProvider.class, "admin")
                 .getMessage(ex.getMessage(), ex.getParameters());
 
+        if (ex instanceof ModelUnavailableException) {
+            logger.warn(message);
+            return ErrorResponse.error(message, Response.Status.SERVICE_UNAVAILABLE);
+        }
+
         logger.error(message, ex);
         return ErrorResponse.error(message, Response.Status.BAD_REQUEST);
     }
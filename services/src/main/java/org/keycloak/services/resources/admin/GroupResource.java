@@ -172,6 +172,7 @@ public class GroupResource {
      * Returns a list of users, filtered according to query parameters
      *
      * @param firstResult Pagination offset
+     * @param lastUsername Username of the last member of previous page. Used for paging instead of offset
      * @param maxResults Pagination size
      * @return
      */
@@ -180,13 +181,19 @@ public class GroupResource {
     @Path("members")
     @Produces(MediaType.APPLICATION_JSON)
     public List<UserRepresentation> getMembers(@QueryParam("first") Integer firstResult,
+                                               @QueryParam("after") String lastUsername,
                                                @QueryParam("max") Integer maxResults) {
         auth.requireView();
         firstResult = firstResult != null ? firstResult : -1;
         maxResults = maxResults != null ? maxResults : -1;
 
         List<UserRepresentation> results = new ArrayList<UserRepresentation>();
-        List<UserModel> userModels = session.users().getGroupMembers(realm, group, firstResult, maxResults);
+        List<UserModel> userModels;
+        if (lastUsername != null) {
+            userModels = session.users().getGroupMembersAfter(realm, group, lastUsername, maxResults);
+        } else {
+            userModels = session.users().getGroupMembers(realm, group, firstResult, maxResults);
+        }
 
         for (UserModel user : userModels) {
             results.add(ModelToRepresentation.toRepresentation(user));
@@ -619,12 +619,13 @@ public class UsersResource {
      *
      * Returns a list of users, filtered according to query parameters
      *
-     * @param search A String contained in username, first or last name, or email
+     * @param search Prefix of username, first or last name, or email. Asterisk can be used as wildcard
      * @param last
      * @param first
      * @param email
      * @param username
      * @param first Pagination offset
+     * @param lastUsername Username of the last user of previous page. Used for paging of search results and of all users instead of offset
      * @param maxResults Pagination size
      * @return
      */
@@ -637,6 +638,7 @@ public class UsersResource {
                                              @QueryParam("email") String email,
                                              @QueryParam("username") String username,
                                              @QueryParam("first") Integer firstResult,
+                                             @QueryParam("after") String lastUsername,
                                              @QueryParam("max") Integer maxResults) {
         auth.requireView();
 
@@ -645,7 +647,9 @@ public class UsersResource {
 
         List<UserRepresentation> results = new ArrayList<UserRepresentation>();
         List<UserModel> userModels;
-        if (search != null) {
+        if (search != null && lastUsername != null) {
+            userModels = session.users().searchForUserAfter(search.trim(), realm, lastUsername, maxResults);
+        } else if (search != null) {
             userModels = session.users().searchForUser(search.trim(), realm, firstResult, maxResults);
         } else if (last != null || first != null || email != null || username != null) {
             Map<String, String> attributes = new HashMap<String, String>();
@@ -662,6 +666,8 @@ public class UsersResource {
                 attributes.put(UserModel.USERNAME, username);
             }
             userModels = session.users().searchForUserByAttributes(attributes, realm, firstResult, maxResults);
+        } else if (lastUsername != null) {
+            userModels = session.users().getUsersAfter(realm, lastUsername, maxResults, false);
         } else {
             userModels = session.users().getUsers(realm, firstResult, maxResults, false);
         }
@@ -18,6 +18,9 @@
 package org.keycloak.services.resources.admin.info;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -28,13 +31,21 @@ import java.util.Map;
 import java.util.ServiceLoader;
 
 import javax.ws.rs.GET;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import org.jboss.resteasy.annotations.cache.NoCache;
 
 import org.keycloak.broker.provider.IdentityProvider;
 import org.keycloak.broker.provider.IdentityProviderFactory;
 import org.keycloak.events.EventType;
 import org.keycloak.events.admin.OperationType;
+import org.keycloak.metrics.MetricsProvider;
 import org.keycloak.theme.Theme;
 import org.keycloak.theme.ThemeProvider;
 import org.keycloak.models.KeycloakSession;
@@ -86,6 +97,58 @@ public class ServerInfoAdminResource {
         return info;
     }
 
+    /**
+     * Get operational info of single provider, for example progress of loading offline sessions of "userSessions" provider
+     *
+     * @param spiName name of the SPI
+     * @param providerId id of the provider
+     * @return
+     */
+    @GET
+    @Path("providers/{spi}/{provider}")
+    @NoCache
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, String> getProviderOperationalInfo(@PathParam("spi") String spiName, @PathParam("provider") String providerId) {
+        for (Spi spi : ServiceLoader.load(Spi.class)) {
+            if (spi.getName().equals(spiName)) {
+                ProviderFactory<?> factory = session.getKeycloakSessionFactory().getProviderFactory(spi.getProviderClass(), providerId);
+                if (factory instanceof ServerInfoAwareProviderFactory) {
+                    return ((ServerInfoAwareProviderFactory) factory).getOperationalInfo();
+                }
+                break;
+            }
+        }
+
+        throw new NotFoundException("Operational info not available for provider " + providerId + " of " + spiName);
+    }
+
+    /**
+     * Get counters and latency histograms of this server node in Prometheus text format
+     *
+     * @return
+     */
+    @GET
+    @Path("metrics")
+    @NoCache
+    @Produces(MediaType.TEXT_PLAIN)
+    public StreamingOutput getMetrics() {
+        final MetricsProvider metrics = session.getProvider(MetricsProvider.class);
+        if (metrics == null) {
+            throw new NotFoundException("Metrics provider not available");
+        }
+
+        return new StreamingOutput() {
+
+            @Override
+            public void write(OutputStream output) throws IOException {
+                Writer writer = new OutputStreamWriter(output, "UTF-8");
+                metrics.export(writer);
+                writer.flush();
+            }
+
+        };
+    }
+
     private void setProviders(ServerInfoRepresentation info) {
         LinkedHashMap<String, SpiInfoRepresentation> spiReps = new LinkedHashMap<>();
 
@@ -17,20 +17,121 @@
 
 package org.keycloak.services.scheduled;
 
+import org.jboss.logging.Logger;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.KeycloakSessionTask;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserSessionProvider;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author <a href="mailto:sthorger@redhat.com">Stian Thorgersen</a>
  */
 public class ClearExpiredUserSessions implements ScheduledTask {
 
+    private static final Logger logger = Logger.getLogger(ClearExpiredUserSessions.class);
+
+    private final int threads;
+
+    // Shared by all runs, shut down by close()
+    private final ExecutorService executor;
+
+    public ClearExpiredUserSessions() {
+        this(1);
+    }
+
+    /**
+     * @param threads number of realms processed in parallel. With more than one thread each realm is processed in its own transaction
+     */
+    public ClearExpiredUserSessions(int threads) {
+        this.threads = threads;
+        this.executor = threads > 1 ? Executors.newFixedThreadPool(threads, new ExpirationThreadFactory()) : null;
+    }
+
     @Override
     public void run(KeycloakSession session) {
-        UserSessionProvider sessions = session.sessions();
-        for (RealmModel realm : session.realms().getRealms()) {
-            sessions.removeExpired(realm);
+        long start = System.currentTimeMillis();
+        List<RealmModel> realms = session.realms().getRealms();
+
+        int failed;
+        if (executor == null || realms.size() <= 1) {
+            UserSessionProvider sessions = session.sessions();
+            for (RealmModel realm : realms) {
+                sessions.removeExpired(realm);
+            }
+            failed = 0;
+        } else {
+            failed = runParallel(session.getKeycloakSessionFactory(), realms);
+        }
+
+        logger.debugf("Removed expired user sessions of %d realms in %d ms using %d threads, failed realms: %d", realms.size(),
+                System.currentTimeMillis() - start, executor != null ? Math.min(threads, realms.size()) : 1, failed);
+    }
+
+    private int runParallel(final KeycloakSessionFactory sessionFactory, List<RealmModel> realms) {
+        List<Future<?>> futures = new ArrayList<>();
+        for (RealmModel realm : realms) {
+            final String realmId = realm.getId();
+            futures.add(executor.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    KeycloakModelUtils.runJobInTransaction(sessionFactory, new KeycloakSessionTask() {
+
+                        @Override
+                        public void run(KeycloakSession session) {
+                            RealmModel realm = session.realms().getRealm(realmId);
+                            if (realm != null) {
+                                session.sessions().removeExpired(realm);
+                            }
+                        }
+
+                    });
+                }
+
+            }));
+        }
+
+        int failed = 0;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                failed++;
+                logger.warn("Failed to remove expired user sessions", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return failed;
+    }
+
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private static class ExpirationThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "expired-user-sessions-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
         }
     }
 
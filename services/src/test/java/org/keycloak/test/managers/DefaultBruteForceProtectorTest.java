@@ -0,0 +1,243 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.test.managers;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.common.ClientConnection;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.KeycloakTransactionManager;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RealmProvider;
+import org.keycloak.models.UserProvider;
+import org.keycloak.models.UserSessionProvider;
+import org.keycloak.services.managers.DefaultBruteForceProtector;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.keycloak.models.ModelProxies.proxy;
+
+public class DefaultBruteForceProtectorTest {
+
+    private final RecordingUsers users = new RecordingUsers();
+    private TestBruteForceProtector protector;
+    private RealmModel realm;
+    private ClientConnection connection;
+
+    @After
+    public void after() {
+        users.openGate();
+        if (protector != null) {
+            protector.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailuresOfUserLoggedBySameWorker() {
+        start(4, 100);
+
+        for (int i = 0; i < 5; i++) {
+            for (int j = 0; j < 20; j++) {
+                protector.failedLogin(realm, "User" + j, connection);
+            }
+        }
+
+        Map<String, Set<String>> threadsByUser = users.getThreadsByUser();
+        Assert.assertEquals(20, threadsByUser.size());
+        Assert.assertEquals(100, users.getLogged());
+
+        Set<String> threads = new HashSet<>();
+        for (Map.Entry<String, Set<String>> e : threadsByUser.entrySet()) {
+            Assert.assertEquals("Failures of " + e.getKey() + " logged by several workers", 1, e.getValue().size());
+            threads.addAll(e.getValue());
+        }
+        Assert.assertTrue("Failures not split among workers", threads.size() > 1);
+    }
+
+    @Test
+    public void testUsernameCaseIgnoredForWorker() {
+        start(4, 100);
+
+        protector.failedLogin(realm, "user", connection);
+        protector.failedLogin(realm, "USER", connection);
+
+        Map<String, Set<String>> threadsByUser = users.getThreadsByUser();
+        Assert.assertEquals(1, threadsByUser.size());
+        Assert.assertEquals(1, threadsByUser.get("user").size());
+    }
+
+    @Test
+    public void testFullQueueMergedWithoutBlocking() throws Exception {
+        start(1, 1);
+        users.closeGate();
+
+        // First failure blocks the worker, second one fills the queue
+        Thread first = failedLoginThread("first");
+        Assert.assertTrue(users.workerBlocked.await(10, TimeUnit.SECONDS));
+        Thread second = failedLoginThread("second");
+        second.join(10000);
+
+        // Queue is full, so the failures are merged into the overflow without waiting for the blocked worker
+        Thread third = failedLoginThread("third");
+        Thread thirdAgain = failedLoginThread("THIRD");
+        third.join(2000);
+        thirdAgain.join(2000);
+        Assert.assertFalse("Overflowing failure blocked by the worker", third.isAlive());
+        Assert.assertFalse("Overflowing failure blocked by the worker", thirdAgain.isAlive());
+
+        // Overflow is full as well, so failure of other user is dropped
+        Thread fourth = failedLoginThread("fourth");
+        fourth.join(2000);
+        Assert.assertFalse(fourth.isAlive());
+        Assert.assertFalse(users.getThreadsByUser().containsKey("third"));
+
+        users.openGate();
+        first.join(10000);
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (users.getLogged() < 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        Map<String, Set<String>> threadsByUser = users.getThreadsByUser();
+        Assert.assertEquals(4, users.getLogged());
+        Assert.assertEquals(2, users.getLogged("third"));
+        Assert.assertEquals(Collections.singleton("Brute Force Protector"), threadsByUser.get("third"));
+        Assert.assertEquals(Collections.singleton("Brute Force Protector"), threadsByUser.get("first"));
+        Assert.assertEquals(Collections.singleton("Brute Force Protector"), threadsByUser.get("second"));
+        Assert.assertFalse(threadsByUser.containsKey("fourth"));
+    }
+
+    @Test
+    public void testShutdownWithoutStart() {
+        protector = new TestBruteForceProtector(null, 2, 10);
+        protector.shutdown();
+    }
+
+    private void start(int workers, int queueSize) {
+        realm = proxy(RealmModel.class, Collections.<String, Object>singletonMap("getId", "test"));
+        connection = proxy(ClientConnection.class, Collections.<String, Object>singletonMap("getRemoteAddr", "127.0.0.1"));
+
+        Map<String, Object> sessionValues = new HashMap<>();
+        sessionValues.put("getTransaction", proxy(KeycloakTransactionManager.class, Collections.<String, Object>emptyMap()));
+        sessionValues.put("realms", proxy(RealmProvider.class, Collections.<String, Object>singletonMap("getRealm", realm)));
+        sessionValues.put("sessions", proxy(UserSessionProvider.class, Collections.<String, Object>emptyMap()));
+        sessionValues.put("users", Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { UserProvider.class }, users));
+        KeycloakSession session = proxy(KeycloakSession.class, sessionValues);
+
+        KeycloakSessionFactory factory = proxy(KeycloakSessionFactory.class, Collections.<String, Object>singletonMap("create", session));
+
+        protector = new TestBruteForceProtector(factory, workers, queueSize);
+        protector.start();
+    }
+
+    private Thread failedLoginThread(final String username) {
+        Thread thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                protector.failedLogin(realm, username, connection);
+            }
+
+        }, "caller-" + username);
+        thread.start();
+        return thread;
+    }
+
+    private static class TestBruteForceProtector extends DefaultBruteForceProtector {
+
+        private TestBruteForceProtector(KeycloakSessionFactory factory, int workerCount, int queueSize) {
+            super(factory, workerCount, queueSize);
+            failureWaitMillis = 100;
+        }
+
+    }
+
+    // Records which thread looked up the user of each failure. Blocks the workers while the gate is closed
+    private static class RecordingUsers implements InvocationHandler {
+
+        private final Map<String, Set<String>> threadsByUser = new HashMap<>();
+        private final List<String> logged = new ArrayList<>();
+        private final CountDownLatch workerBlocked = new CountDownLatch(1);
+        private volatile CountDownLatch gate = new CountDownLatch(0);
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (!method.getName().equals("getUserByUsername")) {
+                return null;
+            }
+
+            String thread = Thread.currentThread().getName();
+            synchronized (this) {
+                String username = ((String) args[0]).toLowerCase();
+                if (!threadsByUser.containsKey(username)) {
+                    threadsByUser.put(username, new HashSet<String>());
+                }
+                threadsByUser.get(username).add(thread);
+                logged.add(username);
+            }
+
+            if (thread.startsWith("Brute Force Protector")) {
+                workerBlocked.countDown();
+                gate.await(10, TimeUnit.SECONDS);
+            }
+
+            // Unknown user, so nothing else is written
+            return null;
+        }
+
+        private void closeGate() {
+            gate = new CountDownLatch(1);
+        }
+
+        private void openGate() {
+            gate.countDown();
+        }
+
+        private synchronized Map<String, Set<String>> getThreadsByUser() {
+            Map<String, Set<String>> copy = new HashMap<>();
+            for (Map.Entry<String, Set<String>> e : threadsByUser.entrySet()) {
+                copy.put(e.getKey(), new HashSet<>(e.getValue()));
+            }
+            return copy;
+        }
+
+        private synchronized int getLogged() {
+            return logged.size();
+        }
+
+        private synchronized int getLogged(String username) {
+            return Collections.frequency(logged, username);
+        }
+
+    }
+
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.test.managers;
+
+import org.apache.http.client.HttpClient;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.keycloak.common.util.Time;
+import org.keycloak.connections.httpclient.HttpClientProvider;
+import org.keycloak.jose.jws.JWSInput;
+import org.keycloak.jose.jws.crypto.RSAProvider;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.representations.adapters.action.GlobalRequestResult;
+import org.keycloak.representations.adapters.action.LogoutAction;
+import org.keycloak.representations.adapters.action.TestAvailabilityAction;
+import org.keycloak.services.managers.ResourceAdminManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.keycloak.models.ModelProxies.proxy;
+
+public class ResourceAdminManagerTest {
+
+    private static KeyPair keyPair;
+
+    private TestHttpClient httpClient;
+    private TestResourceAdminManager manager;
+    private RealmModel realm;
+    private ClientModel client;
+
+    @BeforeClass
+    public static void generateKeys() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        keyPair = generator.generateKeyPair();
+    }
+
+    @Before
+    public void before() {
+        httpClient = new TestHttpClient();
+
+        Map<String, Object> sessionValues = new HashMap<>();
+        sessionValues.put("getProvider", httpClient);
+        manager = new TestResourceAdminManager(proxy(KeycloakSession.class, sessionValues));
+
+        Map<String, Object> realmValues = new HashMap<>();
+        realmValues.put("getName", "test");
+        realmValues.put("getKeyId", "test-kid");
+        realmValues.put("getPrivateKey", keyPair.getPrivate());
+        realm = proxy(RealmModel.class, realmValues);
+
+        client = proxy(ClientModel.class, Collections.<String, Object>singletonMap("getClientId", "test-app"));
+    }
+
+    @After
+    public void after() {
+        Time.setOffset(0);
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        httpClient.delayMillis = 200;
+
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            urls.add("http://node" + i + "/app");
+        }
+
+        GlobalRequestResult result = manager.logout(realm, client, urls);
+
+        Assert.assertEquals(8, result.getSuccessRequests().size());
+        Assert.assertNull(result.getFailedRequests());
+        Assert.assertTrue("Requests not sent in parallel: " + httpClient.maxConcurrent.get(), httpClient.maxConcurrent.get() > 1);
+
+        for (String url : urls) {
+            List<String> tokens = httpClient.getTokens(url + "/k_logout");
+            Assert.assertEquals(1, tokens.size());
+
+            JWSInput input = new JWSInput(tokens.get(0));
+            Assert.assertTrue(RSAProvider.verify(input, keyPair.getPublic()));
+            Assert.assertEquals("test-kid", input.getHeader().getKeyId());
+
+            LogoutAction action = input.readJsonContent(LogoutAction.class);
+            Assert.assertEquals("test-app", action.getResource());
+            Assert.assertEquals(Arrays.asList("adapter-session"), action.getAdapterSessionIds());
+        }
+    }
+
+    @Test
+    public void testSentInBackground() throws Exception {
+        httpClient.delayMillis = 200;
+
+        ResourceAdminManager.AdminRequestJob job = manager.logoutAsync(realm, client, Arrays.asList("http://node1/app", "http://node2/app"));
+        Assert.assertFalse(job.isDone());
+
+        GlobalRequestResult result = job.getResult();
+        Assert.assertTrue(job.isDone());
+        Assert.assertEquals(2, result.getSuccessRequests().size());
+        Assert.assertNull(result.getFailedRequests());
+    }
+
+    @Test
+    public void testUnreachableRetriedWithNewAction() throws Exception {
+        // Every attempt takes a minute, so an action created before the first attempt would be expired by the last one
+        httpClient.secondsPerAttempt = 60;
+        httpClient.failures.put("http://node1/app/k_logout", 2);
+
+        GlobalRequestResult result = manager.logout(realm, client, Arrays.asList("http://node1/app"));
+
+        Assert.assertEquals(Arrays.asList("http://node1/app"), result.getSuccessRequests());
+        Assert.assertNull(result.getFailedRequests());
+
+        List<String> tokens = httpClient.getTokens("http://node1/app/k_logout");
+        List<Integer> receivedAt = httpClient.getReceivedAt("http://node1/app/k_logout");
+        Assert.assertEquals(3, tokens.size());
+
+        List<String> actionIds = new ArrayList<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            LogoutAction action = new JWSInput(tokens.get(i)).readJsonContent(LogoutAction.class);
+            Assert.assertTrue("Action expired when received", action.getExpiration() > receivedAt.get(i));
+            actionIds.add(action.getId());
+        }
+        Assert.assertEquals(3, actionIds.size());
+        Assert.assertNotEquals(actionIds.get(0), actionIds.get(2));
+    }
+
+    @Test
+    public void testFailedAfterMaxAttempts() throws Exception {
+        httpClient.failures.put("http://node1/app/k_logout", Integer.MAX_VALUE);
+
+        GlobalRequestResult result = manager.logout(realm, client, Arrays.asList("http://node1/app", "http://node2/app"));
+
+        Assert.assertEquals(Arrays.asList("http://node2/app"), result.getSuccessRequests());
+        Assert.assertEquals(Arrays.asList("http://node1/app"), result.getFailedRequests());
+        Assert.assertEquals(3, httpClient.getTokens("http://node1/app/k_logout").size());
+        Assert.assertEquals(1, httpClient.getTokens("http://node2/app/k_logout").size());
+    }
+
+    @Test
+    public void testTimeoutNotRetried() throws Exception {
+        httpClient.timeouts.put("http://node1/app/k_logout", 1);
+
+        GlobalRequestResult result = manager.logout(realm, client, Arrays.asList("http://node1/app"));
+
+        Assert.assertEquals(Arrays.asList("http://node1/app"), result.getFailedRequests());
+        Assert.assertEquals(1, httpClient.getTokens("http://node1/app/k_logout").size());
+    }
+
+    @Test
+    public void testAvailabilityNotRetried() throws Exception {
+        httpClient.failures.put("http://node1/app/k_test_available", Integer.MAX_VALUE);
+
+        GlobalRequestResult result = manager.testAvailability(realm, client, Arrays.asList("http://node1/app"));
+
+        Assert.assertEquals(Arrays.asList("http://node1/app"), result.getFailedRequests());
+        Assert.assertEquals(1, httpClient.getTokens("http://node1/app/k_test_available").size());
+
+        TestAvailabilityAction action = new JWSInput(httpClient.getTokens("http://node1/app/k_test_available").get(0)).readJsonContent(TestAvailabilityAction.class);
+        Assert.assertEquals("test-app", action.getResource());
+    }
+
+    @Test
+    public void testErrorStatusNotRetried() throws Exception {
+        httpClient.status = 500;
+
+        GlobalRequestResult result = manager.logout(realm, client, Arrays.asList("http://node1/app"));
+
+        Assert.assertEquals(Arrays.asList("http://node1/app"), result.getFailedRequests());
+        Assert.assertEquals(1, httpClient.getTokens("http://node1/app/k_logout").size());
+    }
+
+    private static class TestResourceAdminManager extends ResourceAdminManager {
+
+        private TestResourceAdminManager(KeycloakSession session) {
+            super(session);
+        }
+
+        private GlobalRequestResult logout(RealmModel realm, ClientModel client, List<String> managementUrls) {
+            return send(realm, logoutRequests(client, managementUrls));
+        }
+
+        private AdminRequestJob logoutAsync(RealmModel realm, ClientModel client, List<String> managementUrls) {
+            return sendAsync(realm, logoutRequests(client, managementUrls));
+        }
+
+        private List<AdminRequest> logoutRequests(ClientModel client, List<String> managementUrls) {
+            List<AdminRequest> requests = new LinkedList<>();
+            for (String managementUrl : managementUrls) {
+                requests.add(logoutRequest(client, Arrays.asList("adapter-session"), Arrays.asList("user-session"), 0, managementUrl));
+            }
+            return requests;
+        }
+
+        private GlobalRequestResult testAvailability(RealmModel realm, ClientModel client, List<String> managementUrls) {
+            List<AdminRequest> requests = new LinkedList<>();
+            for (String managementUrl : managementUrls) {
+                requests.add(testNodeAvailabilityRequest(client, managementUrl));
+            }
+            return send(realm, requests);
+        }
+
+    }
+
+    private static class TestHttpClient implements HttpClientProvider {
+
+        private volatile long delayMillis;
+        private volatile int secondsPerAttempt;
+        private volatile int status = 204;
+
+        // Number of attempts failing as unreachable node for each URL
+        private final Map<String, Integer> failures = new ConcurrentHashMap<>();
+
+        // Number of attempts failing with read timeout for each URL
+        private final Map<String, Integer> timeouts = new ConcurrentHashMap<>();
+
+        private final Map<String, List<String>> tokens = new HashMap<>();
+        private final Map<String, List<Integer>> receivedAt = new HashMap<>();
+        private final AtomicInteger concurrent = new AtomicInteger();
+        private final AtomicInteger maxConcurrent = new AtomicInteger();
+        private int offset;
+
+        @Override
+        public int postText(String uri, String text, int timeoutMillis) throws IOException {
+            synchronized (this) {
+                add(tokens, uri, text);
+                add(receivedAt, uri, Time.currentTime());
+                offset += secondsPerAttempt;
+                Time.setOffset(offset);
+            }
+
+            int current = concurrent.incrementAndGet();
+            try {
+                int max;
+                while (current > (max = maxConcurrent.get()) && !maxConcurrent.compareAndSet(max, current)) {
+                }
+
+                if (delayMillis > 0) {
+                    Thread.sleep(delayMillis);
+                }
+
+                if (consume(failures, uri)) {
+                    throw new ConnectException("Connection refused");
+                }
+                if (consume(timeouts, uri)) {
+                    throw new SocketTimeoutException("Read timed out");
+                }
+                return status;
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                concurrent.decrementAndGet();
+            }
+        }
+
+        private boolean consume(Map<String, Integer> remaining, String uri) {
+            Integer count = remaining.get(uri);
+            if (count != null && count > 0) {
+                remaining.put(uri, count - 1);
+                return true;
+            }
+            return false;
+        }
+
+        private <V> void add(Map<String, List<V>> map, String uri, V value) {
+            List<V> values = map.get(uri);
+            if (values == null) {
+                values = new ArrayList<>();
+                map.put(uri, values);
+            }
+            values.add(value);
+        }
+
+        private synchronized List<String> getTokens(String uri) {
+            List<String> values = tokens.get(uri);
+            return values != null ? values : Collections.<String>emptyList();
+        }
+
+        private synchronized List<Integer> getReceivedAt(String uri) {
+            return receivedAt.get(uri);
+        }
+
+        @Override
+        public int postText(String uri, String text) throws IOException {
+            return postText(uri, text, 0);
+        }
+
+        @Override
+        public HttpClient getHttpClient() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public InputStream get(String uri) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.test.metrics;
+
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.metrics.inmemory.InMemoryMetricsProvider;
+
+public class InMemoryMetricsProviderTest {
+
+    @Test
+    public void testExportCounters() throws Exception {
+        InMemoryMetricsProvider metrics = new InMemoryMetricsProvider();
+        metrics.increment("cache.user.hit");
+        metrics.increment("cache.user.hit");
+        metrics.increment("cache.user.miss");
+
+        String exported = export(metrics);
+        Assert.assertTrue(exported.contains("# TYPE keycloak_cache_user_hit_total counter\n"));
+        Assert.assertTrue(exported.contains("keycloak_cache_user_hit_total 2\n"));
+        Assert.assertTrue(exported.contains("keycloak_cache_user_miss_total 1\n"));
+    }
+
+    @Test
+    public void testExportHistogram() throws Exception {
+        InMemoryMetricsProvider metrics = new InMemoryMetricsProvider();
+        metrics.record("endpoint.TokenEndpoint.build", TimeUnit.MILLISECONDS.toNanos(3));
+        metrics.record("endpoint.TokenEndpoint.build", TimeUnit.SECONDS.toNanos(20));
+
+        String exported = export(metrics);
+        Assert.assertTrue(exported.contains("# TYPE keycloak_endpoint_TokenEndpoint_build_seconds histogram\n"));
+        Assert.assertTrue(exported.contains("keycloak_endpoint_TokenEndpoint_build_seconds_bucket{le=\"0.002\"} 0\n"));
+        Assert.assertTrue(exported.contains("keycloak_endpoint_TokenEndpoint_build_seconds_bucket{le=\"0.005\"} 1\n"));
+        Assert.assertTrue(exported.contains("keycloak_endpoint_TokenEndpoint_build_seconds_bucket{le=\"10.0\"} 1\n"));
+        Assert.assertTrue(exported.contains("keycloak_endpoint_TokenEndpoint_build_seconds_bucket{le=\"+Inf\"} 2\n"));
+        Assert.assertTrue(exported.contains("keycloak_endpoint_TokenEndpoint_build_seconds_sum 20.003\n"));
+        Assert.assertTrue(exported.contains("keycloak_endpoint_TokenEndpoint_build_seconds_count 2\n"));
+    }
+
+    @Test
+    public void testExportGauge() throws Exception {
+        InMemoryMetricsProvider metrics = new InMemoryMetricsProvider();
+        metrics.gauge("events.queue", 10);
+        metrics.gauge("events.queue", 3);
+
+        String exported = export(metrics);
+        Assert.assertTrue(exported.contains("# TYPE keycloak_events_queue gauge\n"));
+        Assert.assertTrue(exported.contains("keycloak_events_queue 3\n"));
+    }
+
+    private String export(InMemoryMetricsProvider metrics) throws Exception {
+        StringWriter writer = new StringWriter();
+        metrics.export(writer);
+        return writer.toString();
+    }
+
+}
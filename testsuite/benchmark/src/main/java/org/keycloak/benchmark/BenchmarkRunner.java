@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Runs the benchmarks and writes results in JSON format to target/benchmark-results/${benchmark.commit}.json, so results of
+ * different commits can be compared.
+ *
+ * Run with: mvn -f testsuite/benchmark/pom.xml exec:exec -Dbenchmark.commit=`git rev-parse --short HEAD`
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : "org.keycloak.benchmark.*";
+        String commit = System.getProperty("benchmark.commit", "local");
+
+        File resultsDir = new File(System.getProperty("benchmark.results.dir", "target/benchmark-results"));
+        resultsDir.mkdirs();
+        File resultFile = new File(resultsDir, commit + ".json");
+
+        Options options = new OptionsBuilder()
+                .include(include)
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultFile.getAbsolutePath())
+                .build();
+        new Runner(options).run();
+
+        System.out.println("Results written to " + resultFile.getAbsolutePath());
+    }
+
+}
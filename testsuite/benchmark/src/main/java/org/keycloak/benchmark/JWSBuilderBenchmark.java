@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.benchmark;
+
+import org.keycloak.common.util.Base64Url;
+import org.keycloak.jose.jws.JWSBuilder;
+import org.keycloak.jose.jws.JWSInput;
+import org.keycloak.jose.jws.crypto.RSAProvider;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.util.JsonSerialization;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+
+/**
+ * Throughput of token encoding and verification. The "legacy" benchmarks replay the previous code path, which looked up
+ * new Signature instance and serialized the header for every token, so both variants can be compared in single run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(4)
+public class JWSBuilderBenchmark {
+
+    private KeyPair keyPair;
+    private AccessToken token;
+    private String encodedToken;
+
+    @Setup
+    public void setup() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+
+        token = new AccessToken();
+        token.id("111");
+        token.subject("2222");
+        token.issuer("http://localhost:8080/auth/realms/demo");
+        token.addAccess("service").addRole("admin");
+        token.expiration(Integer.MAX_VALUE);
+
+        encodedToken = new JWSBuilder().jsonContent(token).rsa256(keyPair.getPrivate());
+    }
+
+    @Benchmark
+    public String encodeToken() {
+        return new JWSBuilder().jsonContent(token).rsa256(keyPair.getPrivate());
+    }
+
+    @Benchmark
+    public String encodeTokenLegacy() throws Exception {
+        byte[] content = JsonSerialization.writeValueAsBytes(token);
+        String header = Base64Url.encode("{\"alg\":\"RS256\"}".getBytes("UTF-8"));
+
+        StringBuffer buffer = new StringBuffer();
+        buffer.append(header).append('.').append(Base64Url.encode(content));
+
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(keyPair.getPrivate());
+        signature.update(buffer.toString().getBytes("UTF-8"));
+        byte[] signed = signature.sign();
+
+        return buffer.append('.').append(Base64Url.encode(signed)).toString();
+    }
+
+    @Benchmark
+    public boolean verifyToken() throws Exception {
+        return RSAProvider.verify(new JWSInput(encodedToken), keyPair.getPublic());
+    }
+
+    @Benchmark
+    public boolean verifyTokenLegacy() throws Exception {
+        JWSInput input = new JWSInput(encodedToken);
+        Signature verifier = Signature.getInstance("SHA256withRSA");
+        verifier.initVerify(keyPair.getPublic());
+        verifier.update(input.getEncodedSignatureInput().getBytes("UTF-8"));
+        return verifier.verify(input.getSignature());
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.benchmark;
+
+import org.keycloak.representations.idm.ClientRepresentation;
+import org.keycloak.representations.idm.RealmRepresentation;
+import org.keycloak.testsuite.KeycloakServer;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Embedded Keycloak server with in-memory H2 database and local Infinispan caches, shared by all threads of the benchmark.
+ * The "test" realm of the integration testsuite is imported, with direct access grants enabled for "test-app" client.
+ */
+@State(Scope.Benchmark)
+public class KeycloakServerState {
+
+    public static final String REALM = "test";
+    public static final String CLIENT_ID = "test-app";
+    public static final String CLIENT_SECRET = "password";
+    public static final String USERNAME = "test-user@localhost";
+    public static final String PASSWORD = "password";
+
+    private KeycloakServer server;
+
+    @Setup
+    public void start() throws Throwable {
+        KeycloakServer.KeycloakServerConfig config = new KeycloakServer.KeycloakServerConfig();
+        config.setPort(Integer.parseInt(System.getProperty("benchmark.server.port", "8181")));
+
+        server = new KeycloakServer(config);
+        server.start();
+
+        RealmRepresentation realm = KeycloakServer.loadJson(getClass().getResourceAsStream("/testrealm.json"), RealmRepresentation.class);
+        for (ClientRepresentation client : realm.getClients()) {
+            if (CLIENT_ID.equals(client.getClientId())) {
+                client.setDirectAccessGrantsEnabled(true);
+            }
+        }
+        server.importRealm(realm);
+    }
+
+    @TearDown
+    public void stop() {
+        server.stop();
+    }
+
+    public KeycloakServer getServer() {
+        return server;
+    }
+
+    public String getRealmUrl() {
+        KeycloakServer.KeycloakServerConfig config = server.getConfig();
+        return "http://" + config.getHost() + ":" + config.getPort() + "/auth/realms/" + REALM;
+    }
+
+    public String getTokenEndpoint() {
+        return getRealmUrl() + "/protocol/openid-connect/token";
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.benchmark;
+
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.ModelToRepresentation;
+import org.keycloak.representations.idm.ClientRepresentation;
+import org.keycloak.representations.idm.RealmRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Conversion of models to representations as done by admin REST endpoints. Models are looked up in a session opened for each
+ * measurement iteration, so the benchmark measures conversion of cached models rather than database access.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(4)
+public class ModelToRepresentationBenchmark {
+
+    private KeycloakSession session;
+    private RealmModel realm;
+    private ClientModel client;
+    private UserModel user;
+
+    @Setup(Level.Iteration)
+    public void openSession(KeycloakServerState server) {
+        session = server.getServer().getSessionFactory().create();
+        session.getTransaction().begin();
+
+        realm = session.realms().getRealmByName(KeycloakServerState.REALM);
+        client = realm.getClientByClientId(KeycloakServerState.CLIENT_ID);
+        user = session.users().getUserByUsername(KeycloakServerState.USERNAME, realm);
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeSession() {
+        session.getTransaction().rollback();
+        session.close();
+    }
+
+    @Benchmark
+    public UserRepresentation user() {
+        return ModelToRepresentation.toRepresentation(user);
+    }
+
+    @Benchmark
+    public ClientRepresentation client() {
+        return ModelToRepresentation.toRepresentation(client);
+    }
+
+    @Benchmark
+    public RealmRepresentation realm() {
+        return ModelToRepresentation.toRepresentation(realm, false);
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.benchmark;
+
+import org.keycloak.hash.Pbkdf2PasswordHashProvider;
+import org.keycloak.models.UserCredentialValueModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Hashing of passwords with PBKDF2. The provider is not initialized, so hashes are computed directly on the benchmark threads
+ * instead of the worker pool used by the server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(4)
+public class PasswordHashBenchmark {
+
+    @Param({"1", "20000"})
+    private int hashIterations;
+
+    private Pbkdf2PasswordHashProvider provider;
+    private UserCredentialValueModel credential;
+
+    @Setup
+    public void setup() {
+        provider = new Pbkdf2PasswordHashProvider();
+        credential = provider.encode("password", hashIterations);
+    }
+
+    @Benchmark
+    public UserCredentialValueModel encode() {
+        return provider.encode("password", hashIterations);
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return provider.verify("password", credential);
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.benchmark;
+
+import org.keycloak.saml.common.util.DocumentUtil;
+import org.keycloak.saml.processing.api.saml.v2.sig.SAML2Signature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+import javax.xml.crypto.dsig.CanonicalizationMethod;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+
+/**
+ * Parsing, signing and validation of SAML documents with the same calls, which are used by SAML protocol and SAML adapters.
+ * Signing modifies the document, so sign benchmark includes parsing of fresh document. DOM is not thread-safe, hence state per thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@Threads(4)
+public class SamlBenchmark {
+
+    private static final String AUTHN_REQUEST = "<samlp:AuthnRequest xmlns:samlp=\"urn:oasis:names:tc:SAML:2.0:protocol\" " +
+            "xmlns:saml=\"urn:oasis:names:tc:SAML:2.0:assertion\" ID=\"ID_4f1c8d2e-6a3b-4c55-9e0f-1b2a3c4d5e6f\" Version=\"2.0\" " +
+            "IssueInstant=\"2016-03-01T10:00:00.000Z\" Destination=\"http://localhost:8081/auth/realms/test/protocol/saml\" " +
+            "AssertionConsumerServiceURL=\"http://localhost:8081/sales-post/saml\" " +
+            "ProtocolBinding=\"urn:oasis:names:tc:SAML:2.0:bindings:HTTP-POST\">" +
+            "<saml:Issuer>http://localhost:8081/sales-post/</saml:Issuer>" +
+            "<samlp:NameIDPolicy Format=\"urn:oasis:names:tc:SAML:1.1:nameid-format:unspecified\" AllowCreate=\"true\"/>" +
+            "</samlp:AuthnRequest>";
+
+    private KeyPair keyPair;
+    private Document signedDocument;
+
+    @Setup
+    public void setup() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+
+        signedDocument = sign();
+    }
+
+    @Benchmark
+    public Document parse() throws Exception {
+        return DocumentUtil.getDocument(AUTHN_REQUEST);
+    }
+
+    @Benchmark
+    public Document sign() throws Exception {
+        Document document = DocumentUtil.getDocument(AUTHN_REQUEST);
+
+        SAML2Signature signature = new SAML2Signature();
+        signature.setNextSibling(signature.getNextSiblingOfIssuer(document));
+        signature.signSAMLDocument(document, keyPair, CanonicalizationMethod.EXCLUSIVE);
+        return document;
+    }
+
+    @Benchmark
+    public boolean validate() throws Exception {
+        return new SAML2Signature().validate(signedDocument, keyPair.getPublic());
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.benchmark;
+
+import org.infinispan.commons.marshall.AdvancedExternalizer;
+import org.infinispan.commons.marshall.JavaSerializationMarshaller;
+import org.infinispan.commons.marshall.Marshaller;
+import org.infinispan.commons.marshall.StreamingMarshaller;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.keycloak.models.ClientSessionModel;
+import org.keycloak.models.UserSessionModel;
+import org.keycloak.models.sessions.infinispan.entities.ClientSessionEntity;
+import org.keycloak.models.sessions.infinispan.entities.SessionEntityExternalizers;
+import org.keycloak.models.sessions.infinispan.entities.UserSessionEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Throughput of marshalling session entities with the registered externalizers compared to plain Java serialization, which
+ * was used before the externalizers were added.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(4)
+public class SessionEntityMarshallingBenchmark {
+
+    private DefaultCacheManager externalizersCacheManager;
+    private StreamingMarshaller externalizers;
+    private Marshaller serialization;
+
+    private UserSessionEntity userSession;
+    private ClientSessionEntity clientSession;
+    private byte[] userSessionExternalized;
+    private byte[] userSessionSerialized;
+
+    @Setup
+    public void setup() throws Exception {
+        GlobalConfigurationBuilder gcb = new GlobalConfigurationBuilder();
+        gcb.globalJmxStatistics().allowDuplicateDomains(true);
+        for (AdvancedExternalizer<?> externalizer : SessionEntityExternalizers.getExternalizers()) {
+            gcb.serialization().addAdvancedExternalizer(externalizer);
+        }
+        externalizersCacheManager = new DefaultCacheManager(gcb.build());
+        externalizersCacheManager.defineConfiguration("sessions", new ConfigurationBuilder().build());
+        externalizers = externalizersCacheManager.getCache("sessions").getAdvancedCache().getComponentRegistry().getCacheMarshaller();
+        serialization = new JavaSerializationMarshaller();
+
+        userSession = createUserSession();
+        clientSession = createClientSession();
+        userSessionExternalized = externalizers.objectToByteBuffer(userSession);
+        userSessionSerialized = serialization.objectToByteBuffer(userSession);
+    }
+
+    @TearDown
+    public void tearDown() {
+        externalizersCacheManager.stop();
+    }
+
+    @Benchmark
+    public byte[] writeUserSession() throws Exception {
+        return externalizers.objectToByteBuffer(userSession);
+    }
+
+    @Benchmark
+    public byte[] writeUserSessionSerialization() throws Exception {
+        return serialization.objectToByteBuffer(userSession);
+    }
+
+    @Benchmark
+    public Object readUserSession() throws Exception {
+        return externalizers.objectFromByteBuffer(userSessionExternalized);
+    }
+
+    @Benchmark
+    public Object readUserSessionSerialization() throws Exception {
+        return serialization.objectFromByteBuffer(userSessionSerialized);
+    }
+
+    @Benchmark
+    public byte[] writeClientSession() throws Exception {
+        return externalizers.objectToByteBuffer(clientSession);
+    }
+
+    @Benchmark
+    public byte[] writeClientSessionSerialization() throws Exception {
+        return serialization.objectToByteBuffer(clientSession);
+    }
+
+    private static UserSessionEntity createUserSession() {
+        UserSessionEntity session = new UserSessionEntity();
+        session.setId("a6d3d2f1-7b4c-4a4e-9a2b-0d6c5d4f3e21");
+        session.setRealm("test-realm");
+        session.setUser("0b5d4c3a-2f1e-4d6c-8b7a-9e8f7d6c5b4a");
+        session.setLoginUsername("john.doe@example.com");
+        session.setIpAddress("192.168.10.15");
+        session.setAuthMethod("openid-connect");
+        session.setRememberMe(true);
+        session.setStarted(1460000000);
+        session.setLastSessionRefresh(1460000300);
+        session.setClientSessions(new HashSet<>(Arrays.asList("c1d2e3f4-0000-1111-2222-333344445555", "f5e4d3c2-6666-7777-8888-999900001111")));
+        session.setState(UserSessionModel.State.LOGGED_IN);
+        session.setNotes(new HashMap<String, String>());
+        session.getNotes().put("AUTH_TIME", "1460000000");
+        return session;
+    }
+
+    private static ClientSessionEntity createClientSession() {
+        ClientSessionEntity session = new ClientSessionEntity();
+        session.setId("c1d2e3f4-0000-1111-2222-333344445555");
+        session.setRealm("test-realm");
+        session.setClient("8e7d6c5b-4a3f-2e1d-0c9b-8a7f6e5d4c3b");
+        session.setUserSession("a6d3d2f1-7b4c-4a4e-9a2b-0d6c5d4f3e21");
+        session.setAuthMethod("openid-connect");
+        session.setRedirectUri("http://localhost:8080/app/*");
+        session.setTimestamp(1460000300);
+        session.setAction("CODE_TO_TOKEN");
+        session.setRoles(new HashSet<>(Arrays.asList("role-1", "role-2", "role-3")));
+        session.setNotes(new HashMap<String, String>());
+        session.getNotes().put("scope", "openid");
+        session.getNotes().put("response_type", "code");
+        session.getAuthenticatorStatus().put("auth-cookie", ClientSessionModel.ExecutionStatus.ATTEMPTED);
+        session.getAuthenticatorStatus().put("auth-username-password-form", ClientSessionModel.ExecutionStatus.SUCCESS);
+        session.getRequiredActions().add("UPDATE_PASSWORD");
+        return session;
+    }
+
+}
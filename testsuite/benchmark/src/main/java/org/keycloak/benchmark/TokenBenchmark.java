@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.benchmark;
+
+import org.keycloak.RSATokenVerifier;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.ClientSessionModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RoleModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserSessionModel;
+import org.keycloak.protocol.oidc.OIDCLoginProtocol;
+import org.keycloak.protocol.oidc.TokenManager;
+import org.keycloak.representations.AccessToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Set;
+
+/**
+ * Creation of access token by TokenManager as done by the token endpoint, split into the steps of computing the roles of
+ * the user, building the token with protocol mappers applied and signing it with the realm key (the key id is cached by
+ * the realm). Verification of the token is done by RSATokenVerifier as in adapters.
+ *
+ * User and client sessions are created in a session opened for each measurement iteration and never committed, so
+ * the benchmark measures token creation from cached models rather than database access.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(4)
+public class TokenBenchmark {
+
+    private final TokenManager tokenManager = new TokenManager();
+
+    private KeycloakSession session;
+    private RealmModel realm;
+    private ClientModel client;
+    private UserModel user;
+    private UserSessionModel userSession;
+    private ClientSessionModel clientSession;
+    private String issuer;
+
+    private AccessToken token;
+    private String encodedToken;
+
+    @Setup(Level.Iteration)
+    public void openSession(KeycloakServerState server) {
+        session = server.getServer().getSessionFactory().create();
+        session.getTransaction().begin();
+
+        realm = session.realms().getRealmByName(KeycloakServerState.REALM);
+        client = realm.getClientByClientId(KeycloakServerState.CLIENT_ID);
+        user = session.users().getUserByUsername(KeycloakServerState.USERNAME, realm);
+        issuer = server.getRealmUrl();
+
+        userSession = session.sessions().createUserSession(realm, user, KeycloakServerState.USERNAME, "127.0.0.1", OIDCLoginProtocol.LOGIN_PROTOCOL, false, null, null);
+        clientSession = session.sessions().createClientSession(realm, client);
+        clientSession.setAuthMethod(OIDCLoginProtocol.LOGIN_PROTOCOL);
+        clientSession.setNote(OIDCLoginProtocol.ISSUER, issuer);
+        TokenManager.attachClientSession(userSession, clientSession);
+
+        token = createAccessToken();
+        encodedToken = encode();
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeSession() {
+        session.getTransaction().rollback();
+        session.close();
+    }
+
+    @Benchmark
+    public Set<RoleModel> getAccess() {
+        return TokenManager.getAccess(null, true, client, user);
+    }
+
+    @Benchmark
+    public AccessToken createAccessToken() {
+        Set<RoleModel> requestedRoles = TokenManager.getAccess(null, true, client, user);
+        return tokenManager.createClientAccessToken(session, requestedRoles, realm, client, user, userSession, clientSession);
+    }
+
+    @Benchmark
+    public String encode() {
+        return tokenManager.encodeToken(realm, token);
+    }
+
+    @Benchmark
+    public AccessToken verify() throws Exception {
+        return RSATokenVerifier.verifyToken(encodedToken, realm.getPublicKey(), issuer);
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.benchmark;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.message.BasicNameValuePair;
+import org.keycloak.OAuth2Constants;
+import org.keycloak.representations.AccessTokenResponse;
+import org.keycloak.util.BasicAuthHelper;
+import org.keycloak.util.JsonSerialization;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Password and refresh token grants sent over HTTP to the token endpoint of embedded server. Measures whole request processing
+ * including authentication of client and user, creation of user session and encoding of tokens.
+ *
+ * Every password grant creates new user session, which stays in the sessions cache until it expires.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(8)
+public class TokenEndpointBenchmark {
+
+    private CloseableHttpClient client;
+    private String tokenEndpoint;
+    private String refreshToken;
+
+    @Setup
+    public void setup(KeycloakServerState server) throws IOException {
+        client = HttpClients.createDefault();
+        tokenEndpoint = server.getTokenEndpoint();
+        refreshToken = passwordGrant().getRefreshToken();
+    }
+
+    @TearDown
+    public void close() throws IOException {
+        client.close();
+    }
+
+    @Benchmark
+    public AccessTokenResponse passwordGrant() throws IOException {
+        List<NameValuePair> parameters = new ArrayList<>();
+        parameters.add(new BasicNameValuePair(OAuth2Constants.GRANT_TYPE, OAuth2Constants.PASSWORD));
+        parameters.add(new BasicNameValuePair("username", KeycloakServerState.USERNAME));
+        parameters.add(new BasicNameValuePair("password", KeycloakServerState.PASSWORD));
+        return post(parameters);
+    }
+
+    @Benchmark
+    public AccessTokenResponse refreshGrant() throws IOException {
+        List<NameValuePair> parameters = new ArrayList<>();
+        parameters.add(new BasicNameValuePair(OAuth2Constants.GRANT_TYPE, OAuth2Constants.REFRESH_TOKEN));
+        parameters.add(new BasicNameValuePair(OAuth2Constants.REFRESH_TOKEN, refreshToken));
+        return post(parameters);
+    }
+
+    private AccessTokenResponse post(List<NameValuePair> parameters) throws IOException {
+        HttpPost post = new HttpPost(tokenEndpoint);
+        post.setHeader("Authorization", BasicAuthHelper.createHeader(KeycloakServerState.CLIENT_ID, KeycloakServerState.CLIENT_SECRET));
+        post.setEntity(new UrlEncodedFormEntity(parameters, "UTF-8"));
+
+        CloseableHttpResponse response = client.execute(post);
+        try {
+            if (response.getStatusLine().getStatusCode() != 200) {
+                throw new IllegalStateException("Token request failed with status " + response.getStatusLine());
+            }
+            return JsonSerialization.readValue(response.getEntity().getContent(), AccessTokenResponse.class);
+        } finally {
+            response.close();
+        }
+    }
+
+}
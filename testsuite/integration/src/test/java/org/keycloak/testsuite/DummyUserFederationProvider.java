@@ -25,6 +25,7 @@ import org.keycloak.models.UserCredentialModel;
 import org.keycloak.models.UserFederationProvider;
 import org.keycloak.models.UserModel;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -44,6 +45,15 @@ public class DummyUserFederationProvider implements UserFederationProvider {
         return local;
     }
 
+    @Override
+    public List<UserModel> validateAndProxy(RealmModel realm, List<UserModel> locals) {
+        List<UserModel> result = new ArrayList<UserModel>(locals.size());
+        for (UserModel local : locals) {
+            result.add(validateAndProxy(realm, local));
+        }
+        return result;
+    }
+
     @Override
     public boolean synchronizeRegistrations() {
         return true;
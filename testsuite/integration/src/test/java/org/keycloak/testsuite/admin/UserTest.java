@@ -251,6 +251,64 @@ public class UserTest extends AbstractClientTest {
         assertEquals(9, users.size());
     }
 
+    @Test
+    public void searchPaginatedAfterUsername() {
+        createUsers();
+
+        List<UserRepresentation> users = realm.users().searchAfter("username", null, 2);
+        assertEquals(2, users.size());
+        assertEquals("username1", users.get(0).getUsername());
+        assertEquals("username2", users.get(1).getUsername());
+
+        users = realm.users().searchAfter("username", "username2", 2);
+        assertEquals(2, users.size());
+        assertEquals("username3", users.get(0).getUsername());
+        assertEquals("username4", users.get(1).getUsername());
+
+        users = realm.users().searchAfter("username", "username7", 20);
+        assertEquals(2, users.size());
+        assertEquals("username8", users.get(0).getUsername());
+        assertEquals("username9", users.get(1).getUsername());
+    }
+
+    @Test
+    public void listPaginatedAfterUsername() {
+        createUsers();
+
+        List<UserRepresentation> users = realm.users().listAfter("username3", 2);
+        assertEquals(2, users.size());
+        assertEquals("username4", users.get(0).getUsername());
+        assertEquals("username5", users.get(1).getUsername());
+
+        users = realm.users().listAfter("username8", 20);
+        assertEquals(1, users.size());
+        assertEquals("username9", users.get(0).getUsername());
+    }
+
+    @Test
+    public void groupMembersPaginatedAfterUsername() {
+        createUsers();
+
+        GroupRepresentation group = new GroupRepresentation();
+        group.setName("members");
+        Response response = realm.groups().add(group);
+        String groupId = ApiUtil.getCreatedId(response);
+        response.close();
+
+        for (UserRepresentation user : realm.users().search("username", 0, 20)) {
+            realm.users().get(user.getId()).joinGroup(groupId);
+        }
+
+        List<UserRepresentation> members = realm.groups().group(groupId).membersAfter("username2", 3);
+        assertEquals(3, members.size());
+        assertEquals("username3", members.get(0).getUsername());
+        assertEquals("username4", members.get(1).getUsername());
+        assertEquals("username5", members.get(2).getUsername());
+
+        members = realm.groups().group(groupId).membersAfter("username9", 3);
+        assertEquals(0, members.size());
+    }
+
     @Test
     public void getFederatedIdentities() {
         // Add sample identity provider
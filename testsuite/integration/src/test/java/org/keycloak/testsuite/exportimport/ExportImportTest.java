@@ -180,6 +180,23 @@ public class ExportImportTest {
 
         testRealmExportImport();
 
+        // There should be 5 files in target directory (1 realm, 3 user, 1 version)
+        File[] files = new File(targetDirPath).listFiles();
+        Assert.assertEquals(5, files.length);
+    }
+
+    @Test
+    public void testDirRealmExportImportParallelBatches() throws Throwable {
+        ExportImportConfig.setProvider(DirExportProviderFactory.PROVIDER_ID);
+        String targetDirPath = getExportImportTestDirectory() + File.separator + "dirRealmExportParallel";
+        DirExportProvider.recursiveDeleteDir(new File(targetDirPath));
+        ExportImportConfig.setDir(targetDirPath);
+        ExportImportConfig.setUsersPerFile(3);
+        ExportImportConfig.setUsersBatchSize(2);
+        ExportImportConfig.setUsersImportWorkers(3);
+
+        testRealmExportImport();
+
         // There should be 3 files in target directory (1 realm, 3 user, 1 version)
         File[] files = new File(targetDirPath).listFiles();
         Assert.assertEquals(5, files.length);
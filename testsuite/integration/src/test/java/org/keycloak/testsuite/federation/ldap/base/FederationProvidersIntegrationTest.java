@@ -63,6 +63,7 @@ import org.keycloak.testsuite.rule.WebResource;
 import org.keycloak.testsuite.rule.WebRule;
 import org.openqa.selenium.WebDriver;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -729,6 +730,55 @@ public class FederationProvidersIntegrationTest {
         }
     }
 
+    @Test
+    public void testValidateAndProxyBulk() {
+        KeycloakSession session = keycloakRule.startSession();
+        try {
+            RealmModel appRealm = session.realms().getRealmByName("test");
+            LDAPFederationProvider ldapProvider = FederationTestUtils.getLdapProvider(session, ldapModel);
+
+            FederationTestUtils.addLDAPUser(ldapProvider, appRealm, "bulkuser1", "Bulk1", "Doe1", "bulk1@email.org", null, "131");
+            FederationTestUtils.addLDAPUser(ldapProvider, appRealm, "bulkuser2", "Bulk2", "Doe2", "bulk2@email.org", null, "132");
+            FederationTestUtils.addLDAPUser(ldapProvider, appRealm, "bulkuser3", "Bulk3", "Doe3", "bulk3@email.org", null, "133");
+
+            // Import users
+            Assert.assertNotNull(session.users().getUserByUsername("bulkuser1", appRealm));
+            Assert.assertNotNull(session.users().getUserByUsername("bulkuser2", appRealm));
+            Assert.assertNotNull(session.users().getUserByUsername("bulkuser3", appRealm));
+        } finally {
+            keycloakRule.stopSession(session, true);
+        }
+
+        session = keycloakRule.startSession();
+        try {
+            RealmModel appRealm = session.realms().getRealmByName("test");
+            LDAPFederationProvider ldapProvider = FederationTestUtils.getLdapProvider(session, ldapModel);
+
+            // Remove bulkuser2 just from LDAP
+            LDAPObject ldapUser2 = ldapProvider.loadLDAPUserByUsername(appRealm, "bulkuser2");
+            ldapProvider.getLdapIdentityStore().remove(ldapUser2);
+
+            List<UserModel> locals = new ArrayList<>();
+            locals.add(session.userStorage().getUserByUsername("bulkuser1", appRealm));
+            locals.add(session.userStorage().getUserByUsername("bulkuser2", appRealm));
+            locals.add(session.userStorage().getUserByUsername("bulkuser3", appRealm));
+
+            // Proxies are returned in the order of local users. User missing in LDAP is null
+            List<UserModel> proxies = ldapProvider.validateAndProxy(appRealm, locals);
+            Assert.assertEquals(3, proxies.size());
+            Assert.assertEquals("bulkuser1", proxies.get(0).getUsername());
+            Assert.assertNotSame(locals.get(0), proxies.get(0));
+            Assert.assertEquals("131", proxies.get(0).getFirstAttribute("postal_code"));
+            Assert.assertNull(proxies.get(1));
+            Assert.assertEquals("bulkuser3", proxies.get(2).getUsername());
+            Assert.assertEquals("133", proxies.get(2).getFirstAttribute("postal_code"));
+
+            session.userStorage().removeUser(appRealm, locals.get(1));
+        } finally {
+            keycloakRule.stopSession(session, true);
+        }
+    }
+
     @Test
     public void testSearchWithCustomLDAPFilter() {
         // Add custom filter for searching users
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.testsuite.federation.ldap.base;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.naming.AuthenticationException;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.keycloak.federation.ldap.LDAPIdentityStoreRegistry;
+import org.keycloak.federation.ldap.idm.store.ldap.LDAPConnectionPool;
+import org.keycloak.federation.ldap.idm.store.ldap.LDAPIdentityStore;
+import org.keycloak.federation.ldap.idm.store.ldap.LDAPOperationManager;
+import org.keycloak.models.LDAPConstants;
+import org.keycloak.testsuite.rule.LDAPRule;
+
+public class LDAPConnectionPoolTest {
+
+    @ClassRule
+    public static LDAPRule ldapRule = new LDAPRule();
+
+    private LDAPIdentityStore store;
+    private LDAPOperationManager operationManager;
+    private String baseDn;
+
+    @Before
+    public void before() {
+        Map<String, String> config = new HashMap<String, String>(ldapRule.getConfig());
+        config.put(LDAPConstants.CONNECTION_POOLING, "true");
+        config.put(LDAPConstants.CONNECTION_POOL_MAX_SIZE, "2");
+
+        // Pool isn't filled in background, so the counts of connections are exact
+        config.put(LDAPConstants.CONNECTION_POOL_MIN_SIZE, "0");
+        baseDn = config.get(LDAPConstants.BASE_DN);
+
+        store = LDAPIdentityStoreRegistry.createLdapIdentityStore(config);
+        operationManager = store.getOperationManager();
+    }
+
+    @After
+    public void after() {
+        store.close();
+    }
+
+    @Test
+    public void concurrentSearchesReuseConnections() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<SearchResult>>> futures = new ArrayList<Future<List<SearchResult>>>();
+            for (int i = 0; i < 40; i++) {
+                futures.add(executor.submit(new Callable<List<SearchResult>>() {
+
+                    @Override
+                    public List<SearchResult> call() throws Exception {
+                        return operationManager.search(baseDn, "(objectClass=*)", Collections.<String>emptyList(), SearchControls.OBJECT_SCOPE);
+                    }
+
+                }));
+            }
+            for (Future<List<SearchResult>> future : futures) {
+                Assert.assertEquals(1, future.get().size());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        LDAPConnectionPool pool = operationManager.getConnectionPool();
+        Assert.assertEquals(40, pool.getBorrowedCount());
+        Assert.assertTrue(pool.getCreatedCount() <= 2);
+        Assert.assertEquals(0, pool.getActiveCount());
+        Assert.assertEquals(0, pool.getBorrowTimeoutCount());
+    }
+
+    @Test
+    public void authenticationReusesBindConnections() throws Exception {
+        String bindDn = ldapRule.getConfig().get(LDAPConstants.BIND_DN);
+        String bindCredential = ldapRule.getConfig().get(LDAPConstants.BIND_CREDENTIAL);
+
+        operationManager.authenticate(bindDn, bindCredential);
+        operationManager.authenticate(bindDn, bindCredential);
+
+        LDAPConnectionPool bindPool = operationManager.getBindConnectionPool();
+        Assert.assertEquals(1, bindPool.getCreatedCount());
+        Assert.assertEquals(1, bindPool.getIdleCount());
+
+        try {
+            operationManager.authenticate(bindDn, "invalid");
+            Assert.fail("Authentication with invalid password should fail");
+        } catch (AuthenticationException expected) {
+        }
+
+        // Connection after failed bind is reused
+        Assert.assertEquals(0, bindPool.getDestroyedCount());
+        Assert.assertEquals(1, bindPool.getIdleCount());
+
+        operationManager.authenticate(bindDn, bindCredential);
+        Assert.assertEquals(1, bindPool.getCreatedCount());
+    }
+
+    @Test
+    public void poolFilledToMinSize() throws Exception {
+        Map<String, String> config = new HashMap<String, String>(ldapRule.getConfig());
+        config.put(LDAPConstants.CONNECTION_POOLING, "true");
+        config.put(LDAPConstants.CONNECTION_POOL_MIN_SIZE, "2");
+
+        LDAPIdentityStore filledStore = LDAPIdentityStoreRegistry.createLdapIdentityStore(config);
+        try {
+            LDAPConnectionPool pool = filledStore.getOperationManager().getConnectionPool();
+            waitForIdleCount(pool, 2);
+            Assert.assertEquals(2, pool.getCreatedCount());
+        } finally {
+            filledStore.close();
+        }
+    }
+
+    @Test
+    public void idleConnectionEvictedWithoutRelease() throws Exception {
+        Map<String, String> config = new HashMap<String, String>(ldapRule.getConfig());
+        config.put(LDAPConstants.CONNECTION_POOLING, "true");
+        config.put(LDAPConstants.CONNECTION_POOL_MIN_SIZE, "0");
+        config.put(LDAPConstants.CONNECTION_POOL_IDLE_TIMEOUT, "100");
+
+        LDAPIdentityStore evictingStore = LDAPIdentityStoreRegistry.createLdapIdentityStore(config);
+        try {
+            LDAPOperationManager evictingOperationManager = evictingStore.getOperationManager();
+            evictingOperationManager.search(baseDn, "(objectClass=*)", Collections.<String>emptyList(), SearchControls.OBJECT_SCOPE);
+            LDAPConnectionPool pool = evictingOperationManager.getConnectionPool();
+
+            waitForIdleCount(pool, 0);
+            Assert.assertEquals(1, pool.getDestroyedCount());
+        } finally {
+            evictingStore.close();
+        }
+    }
+
+    @Test
+    public void closeReleasesIdleConnections() throws Exception {
+        operationManager.search(baseDn, "(objectClass=*)", Collections.<String>emptyList(), SearchControls.OBJECT_SCOPE);
+        LDAPConnectionPool pool = operationManager.getConnectionPool();
+        Assert.assertEquals(1, pool.getIdleCount());
+
+        store.close();
+        Assert.assertEquals(0, pool.getIdleCount());
+        Assert.assertEquals(1, pool.getDestroyedCount());
+    }
+
+    private static void waitForIdleCount(LDAPConnectionPool pool, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (pool.getIdleCount() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(expected, pool.getIdleCount());
+    }
+}
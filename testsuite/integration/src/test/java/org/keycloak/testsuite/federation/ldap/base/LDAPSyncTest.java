@@ -24,8 +24,10 @@ import org.junit.Test;
 import org.junit.rules.RuleChain;
 import org.junit.rules.TestRule;
 import org.junit.runners.MethodSorters;
+import org.keycloak.cluster.ClusterProvider;
 import org.keycloak.federation.ldap.LDAPFederationProvider;
 import org.keycloak.federation.ldap.LDAPFederationProviderFactory;
+import org.keycloak.federation.ldap.LDAPUtils;
 import org.keycloak.federation.ldap.idm.model.LDAPObject;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
@@ -35,6 +37,7 @@ import org.keycloak.models.UserFederationMapperModel;
 import org.keycloak.models.UserFederationProvider;
 import org.keycloak.models.UserFederationProviderModel;
 import org.keycloak.models.UserFederationSyncResult;
+import org.keycloak.models.UserFederationSyncState;
 import org.keycloak.models.UserModel;
 import org.keycloak.models.UserProvider;
 import org.keycloak.models.utils.KeycloakModelUtils;
@@ -45,6 +48,7 @@ import org.keycloak.testsuite.rule.KeycloakRule;
 import org.keycloak.testsuite.rule.LDAPRule;
 import org.keycloak.common.util.Time;
 
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -358,6 +362,90 @@ public class LDAPSyncTest {
         }
     }
 
+    @Test
+    public void test05ParallelAndResumedSync() {
+        KeycloakSession session = keycloakRule.startSession();
+        try {
+            RealmModel testRealm = session.realms().getRealm("test");
+
+            // Remove all users from model
+            for (UserModel user : session.userStorage().getUsers(testRealm, true)) {
+                session.userStorage().removeUser(testRealm, user);
+            }
+
+            // Small pages imported by 3 workers, 2 users per transaction
+            UserFederationProviderModel providerModel = KeycloakModelUtils.findUserFederationProviderByDisplayName(ldapModel.getDisplayName(), testRealm);
+            providerModel.getConfig().put(LDAPConstants.PAGINATION, "false");
+            providerModel.getConfig().put(LDAPConstants.BATCH_SIZE_FOR_SYNC, "3");
+            providerModel.getConfig().put(LDAPConstants.SYNC_WORKERS, "3");
+            providerModel.getConfig().put(LDAPConstants.SYNC_TRANSACTION_SIZE, "2");
+            testRealm.updateUserFederationProvider(providerModel);
+        } finally {
+            keycloakRule.stopSession(session, true);
+        }
+
+        // Simulate interrupted sync, which already processed the last LDAP user
+        session = keycloakRule.startSession();
+        try {
+            RealmModel testRealm = session.realms().getRealm("test");
+            UserFederationProviderModel providerModel = KeycloakModelUtils.findUserFederationProviderByDisplayName(ldapModel.getDisplayName(), testRealm);
+            LDAPFederationProvider ldapFedProvider = FederationTestUtils.getLdapProvider(session, providerModel);
+            List<LDAPObject> ldapUsers = LDAPUtils.createQueryForUserSearch(ldapFedProvider, testRealm).getResultList();
+
+            UserFederationSyncState state = new UserFederationSyncState("full", 0);
+            UserFederationSyncResult pageResult = new UserFederationSyncResult();
+            pageResult.setAdded(3);
+            state.pageDone(pageResult, ldapUsers.get(ldapUsers.size() - 1).getUuid());
+            session.getProvider(ClusterProvider.class).setTaskState(providerModel.getId() + "::sync-state", state);
+        } finally {
+            keycloakRule.stopSession(session, true);
+        }
+
+        // Resumed sync just reports the saved progress
+        session = keycloakRule.startSession();
+        try {
+            RealmModel testRealm = session.realms().getRealm("test");
+            UserFederationProviderModel providerModel = KeycloakModelUtils.findUserFederationProviderByDisplayName(ldapModel.getDisplayName(), testRealm);
+
+            UserFederationSyncResult syncResult = new UsersSyncManager().syncAllUsers(session.getKeycloakSessionFactory(), "test", providerModel);
+            FederationTestUtils.assertSyncEquals(syncResult, 3, 0, 0, 0);
+        } finally {
+            keycloakRule.stopSession(session, false);
+        }
+
+        session = keycloakRule.startSession();
+        try {
+            RealmModel testRealm = session.realms().getRealm("test");
+            Assert.assertNull(session.userStorage().getUserByUsername("user1", testRealm));
+
+            // Saved progress was removed, so this sync imports everything
+            UserFederationProviderModel providerModel = KeycloakModelUtils.findUserFederationProviderByDisplayName(ldapModel.getDisplayName(), testRealm);
+            UserFederationSyncResult syncResult = new UsersSyncManager().syncAllUsers(session.getKeycloakSessionFactory(), "test", providerModel);
+            Assert.assertTrue(syncResult.getAdded() >= 5);
+        } finally {
+            keycloakRule.stopSession(session, false);
+        }
+
+        session = keycloakRule.startSession();
+        try {
+            RealmModel testRealm = session.realms().getRealm("test");
+            FederationTestUtils.assertUserImported(session.users(), testRealm, "user1", "User1FN", "User1LN", "user1@email.org", "121");
+            FederationTestUtils.assertUserImported(session.users(), testRealm, "user2", "User2FN", "User2LN", "user2@email.org", "122");
+            FederationTestUtils.assertUserImported(session.users(), testRealm, "user3", "User3FN", "User3LN", "user3@email.org", "123");
+            FederationTestUtils.assertUserImported(session.users(), testRealm, "user4", "User4FN", "User4LN", "user4@email.org", "124");
+
+            // Revert config changes
+            UserFederationProviderModel providerModel = KeycloakModelUtils.findUserFederationProviderByDisplayName(ldapModel.getDisplayName(), testRealm);
+            providerModel.getConfig().put(LDAPConstants.PAGINATION, ldapRule.getConfig().get(LDAPConstants.PAGINATION));
+            providerModel.getConfig().put(LDAPConstants.BATCH_SIZE_FOR_SYNC, ldapRule.getConfig().get(LDAPConstants.BATCH_SIZE_FOR_SYNC));
+            providerModel.getConfig().remove(LDAPConstants.SYNC_WORKERS);
+            providerModel.getConfig().remove(LDAPConstants.SYNC_TRANSACTION_SIZE);
+            testRealm.updateUserFederationProvider(providerModel);
+        } finally {
+            keycloakRule.stopSession(session, true);
+        }
+    }
+
     private void sleep(int time) {
         try {
             Thread.sleep(time);
@@ -452,7 +452,8 @@ public class AdapterTest extends AbstractModelTest {
         realmManager.getSession().users().addUser(otherRealm, "bburke");
 
         Assert.assertEquals(1, realmManager.getSession().users().getUsers(otherRealm, false).size());
-        Assert.assertEquals(1, realmManager.getSession().users().searchForUser("bu", otherRealm).size());
+        Assert.assertEquals(1, realmManager.getSession().users().searchForUser("bb", otherRealm).size());
+        Assert.assertEquals(1, realmManager.getSession().users().searchForUser("*bu", otherRealm).size());
     }
 
 
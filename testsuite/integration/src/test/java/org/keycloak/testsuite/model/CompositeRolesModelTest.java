@@ -26,6 +26,7 @@ import org.keycloak.models.ClientModel;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.RoleModel;
 import org.keycloak.models.UserModel;
+import org.keycloak.protocol.oidc.TokenManager;
 import org.keycloak.representations.idm.RealmRepresentation;
 import org.keycloak.services.managers.RealmManager;
 
@@ -87,6 +88,31 @@ public class CompositeRolesModelTest extends AbstractModelTest {
         assertContains("realm", "REALM_ROLE_1", requestedRoles);
     }
 
+    @Test
+    public void testAccessSameAsScopeWalk() {
+        RealmModel realm = realmManager.getRealm("TestComposites");
+        for (UserModel user : realmManager.getSession().users().getUsers(realm, false)) {
+            for (ClientModel client : realm.getClients()) {
+                Set<RoleModel> expected = new HashSet<RoleModel>();
+
+                Set<RoleModel> roleMappings = user.getRoleMappings();
+                if (client.isFullScopeAllowed()) {
+                    expected.addAll(roleMappings);
+                } else {
+                    Set<RoleModel> scopeMappings = new HashSet<RoleModel>(client.getScopeMappings());
+                    scopeMappings.addAll(client.getRoles());
+                    for (RoleModel role : roleMappings) {
+                        for (RoleModel desiredRole : scopeMappings) {
+                            TokenManager.applyScope(role, desiredRole, new HashSet<RoleModel>(), expected);
+                        }
+                    }
+                }
+
+                Assert.assertEquals(user.getUsername() + " in " + client.getClientId(), expected, TokenManager.getAccess(null, false, client, user));
+            }
+        }
+    }
+
     // Same algorithm as in TokenManager.createAccessCode
     private Set<RoleModel> getRequestedRoles(String applicationName, String username) {
         Set<RoleModel> requestedRoles = new HashSet<RoleModel>();
@@ -356,6 +356,30 @@ public class UserSessionPersisterProviderTest {
         Assert.assertEquals(0, sessions.size());
     }
 
+    @Test
+    public void testLoadById() {
+        int started = Time.currentTime();
+        UserSessionModel[] origSessions = createSessions();
+
+        resetSession();
+
+        UserSessionModel userSession = session.sessions().getUserSession(realm, origSessions[0].getId());
+        persistUserSession(userSession, true);
+        String clientSessionId = userSession.getClientSessions().get(0).getId();
+
+        resetSession();
+
+        UserSessionModel loaded = persister.loadUserSessionById(origSessions[0].getId(), true);
+        UserSessionProviderTest.assertSession(loaded, session.users().getUserByUsername("user1", realm), "127.0.0.1", started, started, "test-app", "third-party");
+
+        loaded = persister.loadUserSessionByClientSessionId(clientSessionId, true);
+        Assert.assertEquals(origSessions[0].getId(), loaded.getId());
+
+        Assert.assertNull(persister.loadUserSessionById(origSessions[0].getId(), false));
+        Assert.assertNull(persister.loadUserSessionById(origSessions[1].getId(), true));
+        Assert.assertNull(persister.loadUserSessionByClientSessionId("unknown", true));
+    }
+
 
     private ClientSessionModel createClientSession(ClientModel client, UserSessionModel userSession, String redirect, String state, Set<String> roles, Set<String> protocolMappers) {
         ClientSessionModel clientSession = session.sessions().createClientSession(realm, client);
@@ -334,9 +334,13 @@ module.controller('GroupMembersCtrl', function($scope, realm, group, GroupMember
         first : 0
     }
 
+    // Members are paged by username of the last member on the page, previous pages are remembered here
+    $scope.memberCursors = [];
 
     $scope.firstPage = function() {
         $scope.query.first = 0;
+        $scope.memberCursors = [];
+        delete $scope.query.after;
         $scope.searchQuery();
     }
 
@@ -345,11 +349,19 @@ module.controller('GroupMembersCtrl', function($scope, realm, group, GroupMember
         if ($scope.query.first < 0) {
             $scope.query.first = 0;
         }
+        $scope.query.after = $scope.memberCursors.pop();
+        if (!$scope.query.after) {
+            delete $scope.query.after;
+        }
         $scope.searchQuery();
     }
 
     $scope.nextPage = function() {
         $scope.query.first += parseInt($scope.query.max);
+        if ($scope.users.length > 0) {
+            $scope.memberCursors.push($scope.query.after);
+            $scope.query.after = $scope.users[$scope.users.length - 1].username;
+        }
         $scope.searchQuery();
     }
 
@@ -255,8 +255,13 @@ module.controller('UserListCtrl', function($scope, realm, User, UserImpersonatio
     }
 
 
+    // Users are paged by username of the last user on the page, previous pages are remembered here
+    $scope.searchCursors = [];
+
     $scope.firstPage = function() {
         $scope.query.first = 0;
+        $scope.searchCursors = [];
+        delete $scope.query.after;
         $scope.searchQuery();
     }
 
@@ -265,11 +270,19 @@ module.controller('UserListCtrl', function($scope, realm, User, UserImpersonatio
         if ($scope.query.first < 0) {
             $scope.query.first = 0;
         }
+        $scope.query.after = $scope.searchCursors.pop();
+        if (!$scope.query.after) {
+            delete $scope.query.after;
+        }
         $scope.searchQuery();
     }
 
     $scope.nextPage = function() {
         $scope.query.first += parseInt($scope.query.max);
+        if ($scope.users.length > 0) {
+            $scope.searchCursors.push($scope.query.after);
+            $scope.query.after = $scope.users[$scope.users.length - 1].username;
+        }
         $scope.searchQuery();
     }
 